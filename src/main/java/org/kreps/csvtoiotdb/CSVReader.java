@@ -19,11 +19,13 @@ import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import org.apache.iotdb.rpc.IoTDBConnectionException;
 import org.kreps.csvtoiotdb.DAO.CsvSettingsDAO;
 import org.kreps.csvtoiotdb.DAO.RowProcessingDAO;
 import org.kreps.csvtoiotdb.DAO.RowProcessingStatus;
 import org.kreps.csvtoiotdb.configs.csv.CsvColumn;
 import org.kreps.csvtoiotdb.configs.csv.CsvSettings;
+import org.kreps.csvtoiotdb.resume.WatermarkIndex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -31,13 +33,13 @@ import com.univocity.parsers.csv.CsvParser;
 import com.univocity.parsers.csv.CsvParserSettings;
 
 /**
- * Reads CSV files and processes them in batches.
+ * Reads a CSV file and processes it in batches.
  */
 public class CSVReader implements AutoCloseable {
     private static final Logger logger = LoggerFactory.getLogger(CSVReader.class);
 
     private final CsvSettings csvSettings;
-    private final int batchSize;
+    private int batchSize;
     private final Iterator<String> filePathIterator;
     private final CsvParser parser;
     private final Map<String, Integer> headerMap;
@@ -55,12 +57,25 @@ public class CSVReader implements AutoCloseable {
 
     private Set<Integer> failedRowNumbers;
     private boolean processOnlyFailedRows;
+    private final WatermarkIndex watermarks;
+    private int skippedRows;
 
-    public CSVReader(CsvSettings csvSettings, int batchSize, H2DatabaseManager dbManager)
+    public CSVReader(CsvSettings csvSettings, String filePath, int batchSize, H2DatabaseManager dbManager)
             throws IOException, SQLException {
+        this(csvSettings, filePath, batchSize, dbManager, null);
+    }
+
+    /**
+     * Constructs a CSVReader that drops rows already present in IoTDB.
+     *
+     * @param watermarks The watermarks of the target devices, or null to read
+     *                   every row.
+     */
+    public CSVReader(CsvSettings csvSettings, String filePath, int batchSize, H2DatabaseManager dbManager,
+            WatermarkIndex watermarks) throws IOException, SQLException {
         this.csvSettings = csvSettings;
         this.batchSize = batchSize;
-        this.filePathIterator = csvSettings.getFilePaths().iterator();
+        this.filePathIterator = List.of(filePath).iterator();
         this.parser = new CsvParser(createCsvParserSettings());
         this.headerMap = new HashMap<>();
         this.isParsing = false;
@@ -71,10 +86,11 @@ public class CSVReader implements AutoCloseable {
         this.totalRows = 0;
         this.failedRowNumbers = new HashSet<>();
         this.processOnlyFailedRows = false;
+        this.watermarks = watermarks;
     }
 
     /**
-     * Reads a batch of rows from the CSV files.
+     * Reads a batch of rows from the CSV file.
      *
      * @return A list of parsed rows or null if no more rows are available.
      * @throws IOException  If an I/O error occurs.
@@ -114,6 +130,15 @@ public class CSVReader implements AutoCloseable {
         return batch.isEmpty() ? null : batch;
     }
 
+    /**
+     * Changes the number of rows returned by the following batches.
+     *
+     * @param batchSize The maximum number of rows per batch.
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+    }
+
     private synchronized void openNextFile(Connection conn) throws IOException, SQLException {
         if (isClosed.get()) {
             throw new IllegalStateException("CSVReader is closed and cannot open new files.");
@@ -129,7 +154,11 @@ public class CSVReader implements AutoCloseable {
 
         currentFilePath = filePathIterator.next();
         currentRowNumber = 0;
+        skippedRows = 0;
         try {
+            if (watermarks != null) {
+                watermarks.onFileOpened(currentFilePath);
+            }
             currentReader = new FileReader(currentFilePath);
             parser.beginParsing(currentReader);
             String[] headers = parser.getContext().headers();
@@ -164,6 +193,11 @@ public class CSVReader implements AutoCloseable {
             logger.error("Failed to open CSV file: {}. Error: {}", currentFilePath, e.getMessage(), e);
             closeCurrentReader();
             throw e;
+        } catch (IoTDBConnectionException e) {
+            logger.error("Failed to refresh watermarks for CSV file: {}. Error: {}", currentFilePath, e.getMessage(),
+                    e);
+            closeCurrentReader();
+            throw new IOException("Failed to refresh watermarks", e);
         }
     }
 
@@ -186,8 +220,13 @@ public class CSVReader implements AutoCloseable {
             }
 
             try {
-                String rowId = generateRowId(currentCsvSettingId, currentFilePath, currentRowNumber);
                 Map<String, Object> parsedRow = parseRow(row);
+                // Failed rows are retried even if later rows of their device were written
+                if (watermarks != null && !processOnlyFailedRows && watermarks.isCovered(parsedRow)) {
+                    skippedRows++;
+                    continue;
+                }
+                String rowId = generateRowId(currentCsvSettingId, currentFilePath, currentRowNumber);
                 parsedRow.put("row_id", rowId);
                 parsedRow.put("row_number", currentRowNumber);
                 batch.add(parsedRow);
@@ -205,6 +244,9 @@ public class CSVReader implements AutoCloseable {
         }
 
         if (row == null) {
+            if (skippedRows > 0) {
+                logger.info("Skipped {} rows already present in IoTDB. File: {}", skippedRows, currentFilePath);
+            }
             updateTotalRowsForCurrentFile(conn);
             stopParsingAndClose();
         }
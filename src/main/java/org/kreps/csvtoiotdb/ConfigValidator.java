@@ -3,15 +3,22 @@ package org.kreps.csvtoiotdb;
 import java.io.File;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Set;
 import java.util.stream.Collectors;
 
 import org.apache.iotdb.tsfile.file.metadata.enums.TSDataType;
 import org.kreps.csvtoiotdb.configs.MigrationConfig;
+import org.kreps.csvtoiotdb.configs.MigrationSettings;
+import org.kreps.csvtoiotdb.configs.ResumeStrategy;
 import org.kreps.csvtoiotdb.configs.csv.CsvColumn;
 import org.kreps.csvtoiotdb.configs.csv.CsvSettings;
+import org.kreps.csvtoiotdb.configs.iotdb.AggregationFunction;
+import org.kreps.csvtoiotdb.configs.iotdb.DownsamplingSettings;
+import org.kreps.csvtoiotdb.configs.iotdb.FakeIoTDBSettings;
 import org.kreps.csvtoiotdb.configs.iotdb.IoTDBDevice;
 import org.kreps.csvtoiotdb.configs.iotdb.IoTDBMeasurement;
+import org.kreps.csvtoiotdb.configs.iotdb.SinkType;
 
 /**
  * A utility class for validating the configuration of CSV to IoTDB migration.
@@ -29,6 +36,24 @@ public class ConfigValidator {
     public static void validateConfig(MigrationConfig config) {
         validateCsvSettings(config.getCsvSettings());
         validateIoTDBSettings(config);
+        validateMigrationSettings(config.getMigrationSettings());
+    }
+
+    /**
+     * Validates the migration settings.
+     *
+     * @param migrationSettings the migration settings to validate
+     * @throws IllegalArgumentException if the batch size bounds are invalid
+     */
+    private static void validateMigrationSettings(MigrationSettings migrationSettings) {
+        if (migrationSettings.getBatchSize() <= 0) {
+            throw new IllegalArgumentException("batchSize must be positive: " + migrationSettings.getBatchSize());
+        }
+        if (migrationSettings.getMinBatchSize() > 0 && migrationSettings.getMaxBatchSize() > 0
+                && migrationSettings.getMinBatchSize() > migrationSettings.getMaxBatchSize()) {
+            throw new IllegalArgumentException("minBatchSize " + migrationSettings.getMinBatchSize()
+                    + " is larger than maxBatchSize " + migrationSettings.getMaxBatchSize());
+        }
     }
 
     /**
@@ -109,11 +134,67 @@ public class ConfigValidator {
         }
 
         for (IoTDBDevice device : config.getIotdbSettings().getDevices()) {
+            if (Boolean.TRUE.equals(device.getIsPivotMode())
+                    && (device.getPathColumn() == null || device.getPathColumn().isEmpty())) {
+                throw new IllegalArgumentException(
+                        "Pivot mode requires a pathColumn for device: " + device.getDeviceId());
+            }
+            if (Boolean.TRUE.equals(device.getIsSchemaTemplate())) {
+                if (device.getPathColumn() == null || device.getPathColumn().isEmpty()) {
+                    throw new IllegalArgumentException(
+                            "Schema templates require a pathColumn for device: " + device.getDeviceId());
+                }
+                if (Boolean.TRUE.equals(device.getIsPivotMode())) {
+                    throw new IllegalArgumentException(
+                            "Schema templates cannot be combined with pivot mode for device: "
+                                    + device.getDeviceId());
+                }
+            }
             for (IoTDBMeasurement measurement : device.getMeasurements()) {
                 if (!csvJoinKeys.contains(measurement.getJoinKey())) {
                     throw new IllegalArgumentException(
                             "Measurement joinKey does not match any CSV joinKey: " + measurement.getJoinKey());
                 }
+                if (measurement.getDownsampling() != null) {
+                    validateDownsampling(device, measurement);
+                }
+            }
+        }
+        if (config.getIotdbSettings().getDownsamplingOpenBuckets() < 0) {
+            throw new IllegalArgumentException("downsamplingOpenBuckets must not be negative");
+        }
+
+        SinkType sinkType = config.getIotdbSettings().getSinkType();
+        if (sinkType == SinkType.TSFILE && (config.getIotdbSettings().getTsFileDirectory() == null
+                || config.getIotdbSettings().getTsFileDirectory().isEmpty())) {
+            throw new IllegalArgumentException("The TSFILE sink requires a tsFileDirectory");
+        }
+        if (sinkType == SinkType.TABLET_FILE && (config.getIotdbSettings().getTabletFilePath() == null
+                || config.getIotdbSettings().getTabletFilePath().isEmpty())) {
+            throw new IllegalArgumentException("The TABLET_FILE sink requires a tabletFilePath");
+        }
+        ResumeStrategy resumeStrategy = config.getMigrationSettings().getResumeStrategy();
+        if ((resumeStrategy == ResumeStrategy.WATERMARK || resumeStrategy == ResumeStrategy.WATERMARK_PER_FILE)
+                && sinkType != null && sinkType != SinkType.IOTDB) {
+            throw new IllegalArgumentException("The " + resumeStrategy + " resume strategy requires the IOTDB sink");
+        }
+        double hedgePercentile = config.getIotdbSettings().getHedgePercentile();
+        if (hedgePercentile < 0 || hedgePercentile >= 100) {
+            throw new IllegalArgumentException("hedgePercentile must be at least 0 and below 100: " + hedgePercentile);
+        }
+        if (config.getIotdbSettings().getTimePartitionInterval() < 0) {
+            throw new IllegalArgumentException("timePartitionInterval must not be negative");
+        }
+        FakeIoTDBSettings fakeServer = config.getIotdbSettings().getFakeServer();
+        if (fakeServer != null) {
+            for (double rate : new double[] { fakeServer.getConnectionDropRate(), fakeServer.getRejectionRate(),
+                    fakeServer.getDataRejectionRate() }) {
+                if (rate < 0 || rate > 1) {
+                    throw new IllegalArgumentException("Fake server error rates must be between 0 and 1: " + rate);
+                }
+            }
+            if (fakeServer.getMeanLatencyMillis() < 0 || fakeServer.getPerRowLatencyMicros() < 0) {
+                throw new IllegalArgumentException("Fake server latencies cannot be negative");
             }
         }
 
@@ -127,6 +208,37 @@ public class ConfigValidator {
         validateDataTypeConversions(config);
     }
 
+    private static void validateDownsampling(IoTDBDevice device, IoTDBMeasurement measurement) {
+        DownsamplingSettings downsampling = measurement.getDownsampling();
+        if (Boolean.TRUE.equals(device.getIsPivotMode())) {
+            throw new IllegalArgumentException(
+                    "Downsampling cannot be combined with pivot mode for device: " + device.getDeviceId());
+        }
+        if (downsampling.getBucketSize() <= 0) {
+            throw new IllegalArgumentException(
+                    "Downsampling bucketSize must be positive for measurement: " + measurement.getName());
+        }
+        if (downsampling.getFunctions() == null || downsampling.getFunctions().isEmpty()) {
+            throw new IllegalArgumentException(
+                    "Downsampling requires at least one function for measurement: " + measurement.getName());
+        }
+        boolean numeric = measurement.getDataType() == TSDataType.INT32 || measurement.getDataType() == TSDataType.INT64
+                || measurement.getDataType() == TSDataType.FLOAT || measurement.getDataType() == TSDataType.DOUBLE;
+        for (AggregationFunction function : downsampling.getFunctions()) {
+            if (!numeric && function != AggregationFunction.LAST && function != AggregationFunction.COUNT) {
+                throw new IllegalArgumentException(String.format(
+                        "Downsampling function %s requires a numeric data type for measurement: %s", function,
+                        measurement.getName()));
+            }
+            String outputName = measurement.getName() + "_" + function.name().toLowerCase(Locale.ROOT);
+            if (device.getMeasurements().stream().anyMatch(other -> other.getName().equals(outputName))) {
+                throw new IllegalArgumentException(String.format(
+                        "Downsampled measurement %s clashes with a configured measurement of device: %s", outputName,
+                        device.getDeviceId()));
+            }
+        }
+    }
+
     private static void validateDataTypeConversions(MigrationConfig config) {
         for (IoTDBDevice device : config.getIotdbSettings().getDevices()) {
             for (IoTDBMeasurement measurement : device.getMeasurements()) {
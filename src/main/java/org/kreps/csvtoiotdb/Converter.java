@@ -3,7 +3,6 @@ package org.kreps.csvtoiotdb;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.time.Instant;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -14,9 +13,11 @@ import org.kreps.csvtoiotdb.DAO.RowProcessingStatus;
 import org.kreps.csvtoiotdb.configs.csv.CsvColumn;
 import org.kreps.csvtoiotdb.configs.csv.CsvDataType;
 import org.kreps.csvtoiotdb.configs.csv.CsvSettings;
+import org.kreps.csvtoiotdb.configs.iotdb.DuplicatePolicy;
 import org.kreps.csvtoiotdb.configs.iotdb.IoTDBDevice;
 import org.kreps.csvtoiotdb.configs.iotdb.IoTDBMeasurement;
 import org.kreps.csvtoiotdb.configs.iotdb.IoTDBSettings;
+import org.kreps.csvtoiotdb.converter.DuplicateCollapser;
 import org.kreps.csvtoiotdb.converter.RowData;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -66,7 +67,33 @@ public class Converter {
     }
 
     public Map<String, List<RowData>> convert(List<Map<String, Object>> rows, long csvSettingId) throws SQLException {
-        Map<String, List<RowData>> deviceDataMap = new HashMap<>();
+        return convert(rows, csvSettingId, createCollapser(rows.size()));
+    }
+
+    /**
+     * Creates the collapser that groups the rows of a batch by device and
+     * resolves duplicate timestamps with the configured policy.
+     *
+     * @param rows The number of rows of the batch.
+     * @return The collapser.
+     */
+    public DuplicateCollapser createCollapser(int rows) {
+        return new DuplicateCollapser(ioTDBSettings.getDuplicatePolicy(), rows);
+    }
+
+    /**
+     * Converts the parsed rows of a batch into rows per device.
+     *
+     * @param rows         The parsed rows.
+     * @param csvSettingId The CSV setting the rows were read from.
+     * @param collapser    The collapser grouping the rows, which holds the
+     *                     duplicate statistics of the batch afterwards.
+     * @return The rows per full device path.
+     * @throws SQLException If the row states cannot be updated.
+     */
+    public Map<String, List<RowData>> convert(List<Map<String, Object>> rows, long csvSettingId,
+            DuplicateCollapser collapser) throws SQLException {
+        Map<String, List<RowData>> deviceDataMap = collapser.getDeviceDataMap();
         int skippedRows = 0;
 
         try (Connection conn = dbManager.getConnection()) {
@@ -86,12 +113,15 @@ public class Converter {
 
                     for (IoTDBDevice device : ioTDBSettings.getDevices()) {
                         try {
-                            String fullPath = constructDevicePath(row, device);
-                            Map<String, Object> measurements = extractMeasurements(row, device);
+                            boolean pivot = Boolean.TRUE.equals(device.getIsPivotMode());
+                            String fullPath = pivot ? device.getDeviceId() : constructDevicePath(row, device);
+                            Map<String, Object> measurements = pivot ? extractPivotMeasurements(row, device)
+                                    : extractMeasurements(row, device);
 
                             if (!measurements.isEmpty()) {
-                                RowData rowData = new RowData(rowId, rowNumber, timestamp, measurements);
-                                deviceDataMap.computeIfAbsent(fullPath, k -> new ArrayList<>()).add(rowData);
+                                // Rows sharing a timestamp become one wide row of a pivoted device
+                                collapser.add(fullPath, new RowData(rowId, rowNumber, timestamp, measurements),
+                                        pivot);
                                 rowProcessingDAO.updateRowStatus(csvSettingId, rowId, rowNumber, RowProcessingStatus.PROCESSING,
                                         null, conn);
                             } else {
@@ -114,8 +144,9 @@ public class Converter {
             }
         }
 
-        logger.info("Conversion completed. Processed {} rows, skipped {} rows, resulting in {} device data entries",
-                rows.size(), skippedRows, deviceDataMap.size());
+        logger.info("Conversion completed. Processed {} rows, skipped {} rows, collapsed {} duplicate rows, "
+                + "resulting in {} device data entries", rows.size(), skippedRows, collapser.getCollapsedRows(),
+                deviceDataMap.size());
         return deviceDataMap;
     }
 
@@ -154,6 +185,39 @@ public class Converter {
         return measurements;
     }
 
+    /**
+     * Extracts measurements for a device in pivot mode. The value of the device's
+     * path column selects the measurement name instead of a child device.
+     *
+     * @param row    The parsed CSV row.
+     * @param device The pivoted device.
+     * @return A map of pivoted measurement names to converted values.
+     */
+    private Map<String, Object> extractPivotMeasurements(Map<String, Object> row, IoTDBDevice device) {
+        String pathColumn = device.getPathColumn();
+        Object pathValue = row.get(pathColumn);
+        if (pathValue == null) {
+            logger.error("Path column '{}' is null for pivoted device: {}", pathColumn, device.getDeviceId());
+            throw new IllegalStateException(
+                    "Path column '" + pathColumn + "' is null for pivoted device: " + device.getDeviceId());
+        }
+
+        Map<String, Object> measurements = new HashMap<>();
+        for (IoTDBMeasurement measurement : device.getMeasurements()) {
+            String joinKey = measurement.getJoinKey();
+            if (joinKey.equals(pathColumn) || !row.containsKey(joinKey)) {
+                continue;
+            }
+            CsvColumn csvColumn = csvColumnMap.get(joinKey);
+            Object value = convertValue(row.get(joinKey), csvColumn.getType(), measurement.getDataType());
+            if (value != null) {
+                measurements.put(device.pivotMeasurementName(pathValue.toString(), measurement), value);
+            }
+        }
+
+        return measurements;
+    }
+
     private Object convertValue(Object value, CsvDataType originalType, TSDataType targetType) {
         if (value == null) {
             return null;
@@ -0,0 +1,142 @@
+package org.kreps.csvtoiotdb.DAO;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.kreps.csvtoiotdb.H2DatabaseManager;
+
+public class OutboxDAO {
+    private final H2DatabaseManager dbManager;
+
+    /**
+     * A tablet spilled to the outbox, located by its segment file and offset.
+     */
+    public static class OutboxEntry {
+        private final long id;
+        private final String segmentPath;
+        private final long recordOffset;
+        private final int recordLength;
+        private final String deviceId;
+        private final long csvSettingId;
+        private final int attempts;
+
+        public OutboxEntry(long id, String segmentPath, long recordOffset, int recordLength, String deviceId,
+                long csvSettingId, int attempts) {
+            this.id = id;
+            this.segmentPath = segmentPath;
+            this.recordOffset = recordOffset;
+            this.recordLength = recordLength;
+            this.deviceId = deviceId;
+            this.csvSettingId = csvSettingId;
+            this.attempts = attempts;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public String getSegmentPath() {
+            return segmentPath;
+        }
+
+        public long getRecordOffset() {
+            return recordOffset;
+        }
+
+        public int getRecordLength() {
+            return recordLength;
+        }
+
+        public String getDeviceId() {
+            return deviceId;
+        }
+
+        public long getCsvSettingId() {
+            return csvSettingId;
+        }
+
+        public int getAttempts() {
+            return attempts;
+        }
+    }
+
+    public OutboxDAO() {
+        this.dbManager = H2DatabaseManager.getInstance();
+    }
+
+    public long insertEntry(String segmentPath, long recordOffset, int recordLength, String deviceId,
+            long csvSettingId, int rowsCount, Connection conn) throws SQLException {
+        String sql = "INSERT INTO outbox (segment_path, record_offset, record_length, device_id, csv_setting_id, "
+                + "rows_count, status, created_at) VALUES (?, ?, ?, ?, ?, ?, ?, CURRENT_TIMESTAMP)";
+        try (PreparedStatement pstmt = conn.prepareStatement(sql, PreparedStatement.RETURN_GENERATED_KEYS)) {
+            pstmt.setString(1, segmentPath);
+            pstmt.setLong(2, recordOffset);
+            pstmt.setInt(3, recordLength);
+            pstmt.setString(4, deviceId);
+            pstmt.setLong(5, csvSettingId);
+            pstmt.setInt(6, rowsCount);
+            pstmt.setString(7, OutboxStatus.PENDING.getValue());
+            pstmt.executeUpdate();
+            ResultSet rs = pstmt.getGeneratedKeys();
+            if (rs.next()) {
+                return rs.getLong(1);
+            }
+            throw new SQLException("Failed to retrieve outbox entry ID.");
+        }
+    }
+
+    public void updateStatus(long id, OutboxStatus status, String errorMessage, Connection conn)
+            throws SQLException {
+        String sql = "UPDATE outbox SET status = ?, error_message = ?, attempts = attempts + 1, "
+                + "delivered_at = CASE WHEN ? THEN CURRENT_TIMESTAMP ELSE delivered_at END WHERE id = ?";
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setString(1, status.getValue());
+            pstmt.setString(2, errorMessage);
+            pstmt.setBoolean(3, status == OutboxStatus.DELIVERED);
+            pstmt.setLong(4, id);
+            pstmt.executeUpdate();
+        }
+    }
+
+    public List<OutboxEntry> getPendingEntries(int limit) throws SQLException {
+        String sql = "SELECT id, segment_path, record_offset, record_length, device_id, csv_setting_id, attempts "
+                + "FROM outbox WHERE status = ? ORDER BY id LIMIT ?";
+        List<OutboxEntry> entries = new ArrayList<>();
+        try (Connection conn = dbManager.getConnection();
+                PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setString(1, OutboxStatus.PENDING.getValue());
+            pstmt.setInt(2, limit);
+            ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                entries.add(new OutboxEntry(rs.getLong("id"), rs.getString("segment_path"),
+                        rs.getLong("record_offset"), rs.getInt("record_length"), rs.getString("device_id"),
+                        rs.getLong("csv_setting_id"), rs.getInt("attempts")));
+            }
+        }
+        return entries;
+    }
+
+    public long getPendingBytes() throws SQLException {
+        String sql = "SELECT COALESCE(SUM(record_length), 0) FROM outbox WHERE status = ?";
+        try (Connection conn = dbManager.getConnection();
+                PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setString(1, OutboxStatus.PENDING.getValue());
+            ResultSet rs = pstmt.executeQuery();
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    public boolean hasPendingEntries(String segmentPath) throws SQLException {
+        String sql = "SELECT 1 FROM outbox WHERE segment_path = ? AND status = ? LIMIT 1";
+        try (Connection conn = dbManager.getConnection();
+                PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setString(1, segmentPath);
+            pstmt.setString(2, OutboxStatus.PENDING.getValue());
+            return pstmt.executeQuery().next();
+        }
+    }
+}
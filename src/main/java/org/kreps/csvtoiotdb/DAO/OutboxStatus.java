@@ -0,0 +1,31 @@
+package org.kreps.csvtoiotdb.DAO;
+
+import java.util.Arrays;
+
+public enum OutboxStatus {
+    PENDING("PENDING"),
+    DELIVERED("DELIVERED"),
+    FAILED("FAILED");
+
+    private final String value;
+
+    OutboxStatus(String value) {
+        this.value = value;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    public static OutboxStatus fromString(String text) {
+        return Arrays.stream(OutboxStatus.values())
+                .filter(status -> status.value.equalsIgnoreCase(text))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("No constant with text " + text + " found"));
+    }
+
+    @Override
+    public String toString() {
+        return this.value;
+    }
+}
@@ -7,7 +7,8 @@ public enum RowProcessingStatus {
     PROCESSING("PROCESSING"),
     COMPLETED("COMPLETED"),
     FAILED("FAILED"),
-    RETRY("RETRY");
+    RETRY("RETRY"),
+    SPILLED("SPILLED");
 
     private final String value;
 
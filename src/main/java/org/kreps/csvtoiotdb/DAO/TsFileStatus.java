@@ -0,0 +1,31 @@
+package org.kreps.csvtoiotdb.DAO;
+
+import java.util.Arrays;
+
+public enum TsFileStatus {
+    GENERATED("GENERATED"),
+    LOADED("LOADED"),
+    LOAD_FAILED("LOAD_FAILED");
+
+    private final String value;
+
+    TsFileStatus(String value) {
+        this.value = value;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    public static TsFileStatus fromString(String text) {
+        return Arrays.stream(TsFileStatus.values())
+                .filter(status -> status.value.equalsIgnoreCase(text))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("No constant with text " + text + " found"));
+    }
+
+    @Override
+    public String toString() {
+        return this.value;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,60 @@
+package org.kreps.csvtoiotdb.DAO;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.kreps.csvtoiotdb.H2DatabaseManager;
+
+public class TsFilesDAO {
+    private final H2DatabaseManager dbManager;
+
+    public TsFilesDAO() {
+        this.dbManager = H2DatabaseManager.getInstance();
+    }
+
+    public long insertTsFile(String filePath, int devices, long rows, Connection conn) throws SQLException {
+        String sql = "INSERT INTO tsfiles (file_path, status, devices, rows_count, created_at) "
+                + "VALUES (?, ?, ?, ?, CURRENT_TIMESTAMP)";
+        try (PreparedStatement pstmt = conn.prepareStatement(sql, PreparedStatement.RETURN_GENERATED_KEYS)) {
+            pstmt.setString(1, filePath);
+            pstmt.setString(2, TsFileStatus.GENERATED.getValue());
+            pstmt.setInt(3, devices);
+            pstmt.setLong(4, rows);
+            pstmt.executeUpdate();
+            ResultSet rs = pstmt.getGeneratedKeys();
+            if (rs.next()) {
+                return rs.getLong(1);
+            }
+            throw new SQLException("Failed to retrieve TsFile ID.");
+        }
+    }
+
+    public void updateStatus(long id, TsFileStatus status, String errorMessage, Connection conn) throws SQLException {
+        String sql = "UPDATE tsfiles SET status = ?, error_message = ?, "
+                + "loaded_at = CASE WHEN ? THEN CURRENT_TIMESTAMP ELSE loaded_at END WHERE id = ?";
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setString(1, status.getValue());
+            pstmt.setString(2, errorMessage);
+            pstmt.setBoolean(3, status == TsFileStatus.LOADED);
+            pstmt.setLong(4, id);
+            pstmt.executeUpdate();
+        }
+    }
+
+    public List<String> getFilePathsByStatus(TsFileStatus status, Connection conn) throws SQLException {
+        String sql = "SELECT file_path FROM tsfiles WHERE status = ? ORDER BY id";
+        List<String> filePaths = new ArrayList<>();
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setString(1, status.getValue());
+            ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                filePaths.add(rs.getString("file_path"));
+            }
+        }
+        return filePaths;
+    }
+}
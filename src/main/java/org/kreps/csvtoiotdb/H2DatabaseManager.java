@@ -82,7 +82,33 @@ public class H2DatabaseManager {
                         "failed_rows INT DEFAULT 0, " +
                         "error_message VARCHAR(1024), " +
                         "FOREIGN KEY (csv_setting_id) REFERENCES csv_settings(id)" +
-                        ")"
+                        ")",
+                "CREATE TABLE IF NOT EXISTS tsfiles (" +
+                        "id IDENTITY PRIMARY KEY, " +
+                        "file_path VARCHAR(1024) UNIQUE NOT NULL, " +
+                        "status ENUM('GENERATED', 'LOADED', 'LOAD_FAILED') NOT NULL, " +
+                        "devices INT DEFAULT 0, " +
+                        "rows_count BIGINT DEFAULT 0, " +
+                        "created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP, " +
+                        "loaded_at TIMESTAMP, " +
+                        "error_message VARCHAR(1024)" +
+                        ")",
+                "CREATE TABLE IF NOT EXISTS outbox (" +
+                        "id IDENTITY PRIMARY KEY, " +
+                        "segment_path VARCHAR(1024) NOT NULL, " +
+                        "record_offset BIGINT NOT NULL, " +
+                        "record_length INT NOT NULL, " +
+                        "device_id VARCHAR(1024) NOT NULL, " +
+                        "csv_setting_id BIGINT NOT NULL, " +
+                        "rows_count INT DEFAULT 0, " +
+                        "status ENUM('PENDING', 'DELIVERED', 'FAILED') NOT NULL, " +
+                        "attempts INT DEFAULT 0, " +
+                        "created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP, " +
+                        "delivered_at TIMESTAMP, " +
+                        "error_message VARCHAR(1024), " +
+                        "FOREIGN KEY (csv_setting_id) REFERENCES csv_settings(id)" +
+                        ")",
+                "CREATE INDEX IF NOT EXISTS outbox_status ON outbox (status, id)"
         };
 
         try (Connection conn = getConnection();
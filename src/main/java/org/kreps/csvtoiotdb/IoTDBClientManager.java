@@ -1,18 +1,60 @@
 package org.kreps.csvtoiotdb;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.apache.iotdb.rpc.IoTDBConnectionException;
+import org.apache.iotdb.rpc.StatementExecutionException;
 import org.apache.iotdb.session.pool.SessionPool;
+import org.kreps.csvtoiotdb.client.ConcurrencyLimiter;
+import org.kreps.csvtoiotdb.client.FakeIoTDB;
+import org.kreps.csvtoiotdb.client.IoTDBNode;
+import org.kreps.csvtoiotdb.client.IoTDBSession;
+import org.kreps.csvtoiotdb.client.LatencyTracker;
+import org.kreps.csvtoiotdb.client.SessionCall;
+import org.kreps.csvtoiotdb.client.SessionPoolSession;
+import org.kreps.csvtoiotdb.configs.iotdb.FakeIoTDBSettings;
 import org.kreps.csvtoiotdb.configs.iotdb.IoTDBConnection;
 import org.kreps.csvtoiotdb.configs.iotdb.IoTDBSettings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Manages a pool of IoTDB session connections using the native IoTDB session
- * pool.
+ * pool. Requests are routed to the node with the lowest expected latency, based
+ * on the requests it has in flight and its average latency. Nodes failing
+ * repeatedly are taken out of rotation by a circuit breaker and brought back
+ * once a background health probe succeeds. Idempotent requests can optionally
+ * be hedged: a request slower than a percentile of recent latencies is sent to
+ * a second node as well and the first acknowledgement wins. If a fake server
+ * is configured, the connections are served by an in-process
+ * {@link FakeIoTDB} instead.
  */
 public class IoTDBClientManager {
-    private final List<SessionPool> sessionPools;
+    private static final Logger logger = LoggerFactory.getLogger(IoTDBClientManager.class);
+    private static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    private static final long DEFAULT_OPEN_MILLIS = 30_000;
+    private static final long DEFAULT_HEALTH_CHECK_INTERVAL_MILLIS = 5_000;
+
+    private final List<IoTDBNode> nodes;
+    private final FakeIoTDB fakeServer;
+    private final long openMillis;
+    private final ScheduledExecutorService healthProbe;
+    private final LatencyTracker hedgeLatencies;
+    private final ExecutorService hedgeExecutor;
+    private final AtomicLong hedgedRequests;
+    private final AtomicLong hedgeWins;
 
     /**
      * Constructs an IoTDBClientManager instance.
@@ -25,40 +67,358 @@ public class IoTDBClientManager {
             throw new IllegalArgumentException("Connections list cannot be null or empty");
         }
 
-        this.sessionPools = new ArrayList<>();
+        int failureThreshold = iotdbSettings.getCircuitBreakerFailureThreshold() > 0
+                ? iotdbSettings.getCircuitBreakerFailureThreshold()
+                : DEFAULT_FAILURE_THRESHOLD;
+        this.openMillis = iotdbSettings.getCircuitBreakerOpenMillis() > 0
+                ? iotdbSettings.getCircuitBreakerOpenMillis()
+                : DEFAULT_OPEN_MILLIS;
+        long healthCheckIntervalMillis = iotdbSettings.getHealthCheckIntervalMillis() > 0
+                ? iotdbSettings.getHealthCheckIntervalMillis()
+                : DEFAULT_HEALTH_CHECK_INTERVAL_MILLIS;
+
+        FakeIoTDBSettings fakeSettings = iotdbSettings.getFakeServer();
+        this.fakeServer = fakeSettings != null ? new FakeIoTDB(fakeSettings) : null;
 
+        List<IoTDBNode> nodeList = new ArrayList<>();
         for (IoTDBConnection conn : iotdbSettings.getConnections()) {
-            SessionPool sessionPool = new SessionPool.Builder()
-                    .host(conn.getHost())
-                    .port(conn.getPort())
-                    .user(conn.getUsername())
-                    .password(conn.getPassword())
-                    .maxSize(iotdbSettings.getConnectionPoolSize())
-                    .build();
-            sessionPools.add(sessionPool);
+            String address = conn.getHost() + ":" + conn.getPort();
+            IoTDBSession session;
+            if (fakeServer != null) {
+                List<Double> latencyFactors = fakeSettings.getNodeLatencyFactors();
+                int index = nodeList.size();
+                session = fakeServer.openSession(address,
+                        latencyFactors != null && index < latencyFactors.size() ? latencyFactors.get(index) : 1.0);
+            } else {
+                session = new SessionPoolSession(new SessionPool.Builder()
+                        .host(conn.getHost())
+                        .port(conn.getPort())
+                        .user(conn.getUsername())
+                        .password(conn.getPassword())
+                        .maxSize(iotdbSettings.getConnectionPoolSize())
+                        .build());
+            }
+            nodeList.add(new IoTDBNode(address, session, failureThreshold));
+        }
+        this.nodes = Collections.unmodifiableList(nodeList);
+
+        this.healthProbe = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "iotdb-health-probe");
+            thread.setDaemon(true);
+            return thread;
+        });
+        healthProbe.scheduleWithFixedDelay(this::probeOpenNodes, healthCheckIntervalMillis,
+                healthCheckIntervalMillis, TimeUnit.MILLISECONDS);
+
+        this.hedgedRequests = new AtomicLong();
+        this.hedgeWins = new AtomicLong();
+        if (iotdbSettings.getHedgePercentile() > 0 && nodes.size() > 1) {
+            this.hedgeLatencies = new LatencyTracker(iotdbSettings.getHedgePercentile());
+            AtomicInteger threadIndex = new AtomicInteger();
+            this.hedgeExecutor = Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "iotdb-hedge-" + threadIndex.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            });
+            logger.info("Hedged writes enabled at the p{} latency of recent writes",
+                    iotdbSettings.getHedgePercentile());
+        } else {
+            this.hedgeLatencies = null;
+            this.hedgeExecutor = null;
         }
     }
 
     /**
-     * Acquires a session from the pool.
+     * Acquires the session of the node with the lowest expected latency.
+     * Requests made through the returned session are not tracked, prefer
+     * {@link #execute(SessionCall)}.
      *
      * @return An available IoTDB session.
      */
-    private int currentPoolIndex = 0;
+    public IoTDBSession acquireSession() {
+        return selectNode(null).getSession();
+    }
+
+    /**
+     * Executes a request on the node with the lowest expected latency and records
+     * its outcome for routing and the circuit breaker of the node.
+     *
+     * @param call The request to execute.
+     * @param <T>  The type of the request result.
+     * @return The request result.
+     * @throws IoTDBConnectionException    If the node could not be reached.
+     * @throws StatementExecutionException If IoTDB rejected the request.
+     */
+    public <T> T execute(SessionCall<T> call) throws IoTDBConnectionException, StatementExecutionException {
+        return executeOn(selectNode(null), call);
+    }
+
+    /**
+     * Reads the time partition interval the cluster was configured with.
+     *
+     * @return The interval in the timestamp precision of the cluster, or 0 if
+     *         the cluster does not report it.
+     * @throws IoTDBConnectionException    If no node could be reached.
+     * @throws StatementExecutionException If IoTDB rejected the query.
+     */
+    public long queryTimePartitionInterval() throws IoTDBConnectionException, StatementExecutionException {
+        List<List<String>> variables = execute(session -> session.executeQuery("SHOW VARIABLES"));
+        for (List<String> variable : variables) {
+            if (variable.size() >= 2 && "TimePartitionInterval".equalsIgnoreCase(variable.get(0))
+                    && variable.get(1) != null) {
+                try {
+                    return Long.parseLong(variable.get(1).trim());
+                } catch (NumberFormatException e) {
+                    logger.warn("Cannot parse the time partition interval: {}", variable.get(1));
+                }
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Executes an idempotent request, hedging it if hedging is enabled. Once the
+     * request has been running for longer than the configured percentile of
+     * recent latencies, it is also sent to the best other node; the first
+     * successful response is returned and the slower request is left to finish
+     * in the background. Without hedging this is {@link #execute(SessionCall)}.
+     *
+     * @param call The idempotent request to execute, e.g. a tablet insert.
+     * @param <T>  The type of the request result.
+     * @return The result of the first successful attempt.
+     * @throws IoTDBConnectionException    If no attempt reached its node.
+     * @throws StatementExecutionException If IoTDB rejected the request.
+     */
+    public <T> T executeHedged(SessionCall<T> call) throws IoTDBConnectionException, StatementExecutionException {
+        return executeHedged(call, null);
+    }
+
+    /**
+     * Executes an idempotent request like {@link #executeHedged(SessionCall)},
+     * counting every attempt against a concurrency limiter. The caller holds a
+     * permit for the first attempt and hands it over: it is released once that
+     * attempt has finished, which may be after a hedge won and this call
+     * returned. The hedge is only sent if the limiter has a permit free right
+     * away, and holds it until the hedge has finished. A slow attempt cannot
+     * be cancelled once its RPC is on the wire, so it keeps counting until it
+     * ends.
+     *
+     * @param call    The idempotent request to execute, e.g. a tablet insert.
+     * @param limiter The limiter bounding concurrent requests, or null if the
+     *                caller holds no permit.
+     * @param <T>     The type of the request result.
+     * @return The result of the first successful attempt.
+     * @throws IoTDBConnectionException    If no attempt reached its node.
+     * @throws StatementExecutionException If IoTDB rejected the request.
+     */
+    public <T> T executeHedged(SessionCall<T> call, ConcurrencyLimiter limiter)
+            throws IoTDBConnectionException, StatementExecutionException {
+        if (hedgeLatencies == null) {
+            try {
+                return execute(call);
+            } finally {
+                if (limiter != null) {
+                    limiter.release();
+                }
+            }
+        }
+        IoTDBNode primary = selectNode(null);
+        CompletableFuture<T> winner = new CompletableFuture<>();
+        AtomicInteger pendingAttempts = new AtomicInteger(1);
+        // Only the first attempt feeds the threshold; hedged results would pull the percentile down
+        submitAttempt(primary, call, winner, pendingAttempts, limiter, true);
 
-    public synchronized SessionPool acquireSession() {
-        // Round-robin strategy to acquire a session from one of the pools
-        SessionPool sessionPool = sessionPools.get(currentPoolIndex);
-        currentPoolIndex = (currentPoolIndex + 1) % sessionPools.size();
-        return sessionPool;
+        try {
+            long thresholdNanos = hedgeLatencies.getPercentileNanos();
+            if (thresholdNanos > 0) {
+                try {
+                    return winner.get(thresholdNanos, TimeUnit.NANOSECONDS);
+                } catch (TimeoutException e) {
+                    IoTDBNode secondary = selectNode(primary);
+                    if (secondary != primary && secondary.isAvailable()
+                            && (limiter == null || limiter.tryAcquire())) {
+                        hedgedRequests.incrementAndGet();
+                        logger.debug("Hedging request from IoTDB node {} to {} after {} ms", primary.getAddress(),
+                                secondary.getAddress(), TimeUnit.NANOSECONDS.toMillis(thresholdNanos));
+                        pendingAttempts.incrementAndGet();
+                        submitAttempt(secondary, call, winner, pendingAttempts, limiter, false)
+                                .thenRun(() -> hedgeWins.incrementAndGet());
+                    }
+                }
+            }
+            return winner.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof StatementExecutionException) {
+                throw (StatementExecutionException) cause;
+            }
+            if (cause instanceof IoTDBConnectionException) {
+                throw (IoTDBConnectionException) cause;
+            }
+            throw new IoTDBConnectionException("Hedged request failed", cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IoTDBConnectionException("Interrupted while waiting for hedged request", e);
+        }
+    }
+
+    /**
+     * Runs one attempt of a hedged request. A successful attempt completes the
+     * shared result; a failed one only does so if it was the last attempt left.
+     *
+     * @param permits       The limiter to release a permit of once the attempt
+     *                      has finished, even after another attempt won, or
+     *                      null.
+     * @param recordLatency Whether the latency of the attempt is recorded for
+     *                      the hedging threshold.
+     * @return A future completing if this attempt won.
+     */
+    private <T> CompletableFuture<Void> submitAttempt(IoTDBNode node, SessionCall<T> call,
+            CompletableFuture<T> winner, AtomicInteger pendingAttempts, ConcurrencyLimiter permits,
+            boolean recordLatency) {
+        CompletableFuture<Void> won = new CompletableFuture<>();
+        Runnable attempt = () -> {
+            long start = System.nanoTime();
+            try {
+                T result = executeOn(node, call);
+                if (recordLatency) {
+                    hedgeLatencies.record(System.nanoTime() - start);
+                }
+                if (winner.complete(result)) {
+                    won.complete(null);
+                }
+            } catch (IoTDBConnectionException | StatementExecutionException | RuntimeException e) {
+                if (pendingAttempts.decrementAndGet() == 0) {
+                    winner.completeExceptionally(e);
+                }
+            } finally {
+                if (permits != null) {
+                    permits.release();
+                }
+            }
+        };
+        try {
+            hedgeExecutor.execute(attempt);
+        } catch (RejectedExecutionException e) {
+            if (permits != null) {
+                permits.release();
+            }
+            if (pendingAttempts.decrementAndGet() == 0) {
+                winner.completeExceptionally(new IoTDBConnectionException("Client manager is closed"));
+            }
+        }
+        return won;
+    }
+
+    private <T> T executeOn(IoTDBNode node, SessionCall<T> call)
+            throws IoTDBConnectionException, StatementExecutionException {
+        node.begin();
+        long start = System.nanoTime();
+        try {
+            T result = call.call(node.getSession());
+            node.recordSuccess(System.nanoTime() - start);
+            return result;
+        } catch (StatementExecutionException e) {
+            // The node answered, the request itself was rejected
+            node.recordSuccess(System.nanoTime() - start);
+            throw e;
+        } catch (IoTDBConnectionException | RuntimeException e) {
+            if (node.recordFailure()) {
+                logger.warn("Circuit breaker opened for IoTDB node {} after repeated failures: {}",
+                        node.getAddress(), e.getMessage());
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Selects the available node with the lowest routing cost. If every node is
+     * open, the one opened longest ago is used so that requests keep being
+     * attempted and retried instead of failing outright.
+     *
+     * @param excluded A node to skip, or null.
+     */
+    private IoTDBNode selectNode(IoTDBNode excluded) {
+        IoTDBNode best = null;
+        double bestCost = Double.MAX_VALUE;
+        IoTDBNode oldestOpen = null;
+        for (IoTDBNode node : nodes) {
+            if (node == excluded) {
+                continue;
+            }
+            if (node.isAvailable()) {
+                double cost = node.routingCost();
+                if (cost < bestCost) {
+                    best = node;
+                    bestCost = cost;
+                }
+            } else if (oldestOpen == null || node.getOpenedAt() < oldestOpen.getOpenedAt()) {
+                oldestOpen = node;
+            }
+        }
+        if (best != null) {
+            return best;
+        }
+        return oldestOpen != null ? oldestOpen : excluded;
+    }
+
+    private void probeOpenNodes() {
+        long now = System.currentTimeMillis();
+        for (IoTDBNode node : nodes) {
+            if (node.isAvailable() || now - node.getOpenedAt() < openMillis) {
+                continue;
+            }
+            try {
+                node.getSession().executeQuery("SHOW VERSION");
+                if (node.close()) {
+                    logger.info("IoTDB node {} passed the health probe, circuit breaker closed", node.getAddress());
+                }
+            } catch (IoTDBConnectionException | StatementExecutionException | RuntimeException e) {
+                node.reopen();
+                logger.warn("IoTDB node {} failed the health probe: {}", node.getAddress(), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Gets the nodes with their in-flight counts, latencies and breaker states.
+     *
+     * @return The IoTDB nodes.
+     */
+    public List<IoTDBNode> getNodes() {
+        return nodes;
+    }
+
+    /**
+     * Gets the in-process fake IoTDB serving the connections.
+     *
+     * @return The fake, or null if the connections reach real IoTDB nodes.
+     */
+    public FakeIoTDB getFakeServer() {
+        return fakeServer;
+    }
+
+    public long getHedgedRequests() {
+        return hedgedRequests.get();
+    }
+
+    public long getHedgeWins() {
+        return hedgeWins.get();
     }
 
     /**
      * Closes all sessions and cleans up resources.
      */
     public void close() {
-        for (SessionPool pool : sessionPools) {
-            pool.close();
+        healthProbe.shutdownNow();
+        if (hedgeExecutor != null) {
+            hedgeExecutor.shutdown();
+        }
+        for (IoTDBNode node : nodes) {
+            node.getSession().close();
+        }
+        if (fakeServer != null) {
+            fakeServer.logStats();
         }
     }
 }
@@ -1,25 +1,63 @@
 package org.kreps.csvtoiotdb;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
-import org.apache.iotdb.isession.pool.SessionDataSetWrapper;
 import org.apache.iotdb.rpc.IoTDBConnectionException;
 import org.apache.iotdb.rpc.StatementExecutionException;
-import org.apache.iotdb.session.pool.SessionPool;
 import org.apache.iotdb.tsfile.file.metadata.enums.CompressionType;
 import org.apache.iotdb.tsfile.file.metadata.enums.TSDataType;
 import org.apache.iotdb.tsfile.file.metadata.enums.TSEncoding;
-import org.apache.iotdb.tsfile.read.common.Field;
+import org.apache.iotdb.tsfile.write.schema.MeasurementSchema;
 import org.kreps.csvtoiotdb.configs.iotdb.IoTDBDevice;
 import org.kreps.csvtoiotdb.configs.iotdb.IoTDBMeasurement;
+import org.kreps.csvtoiotdb.schema.PendingSeries;
+import org.kreps.csvtoiotdb.schema.SchemaCache;
+import org.kreps.csvtoiotdb.schema.SchemaCreationWorker;
+import org.kreps.csvtoiotdb.schema.TimeseriesSchema;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-public class IoTDBSchemaValidator {
+public class IoTDBSchemaValidator implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(IoTDBSchemaValidator.class);
 
     private final IoTDBClientManager iotdbClientManager;
+    private final SchemaCache schemaCache;
+    private final SchemaCreationWorker schemaWorker;
 
     public IoTDBSchemaValidator(IoTDBClientManager iotdbClientManager) {
+        this(iotdbClientManager, 0, 0);
+    }
+
+    /**
+     * Constructs an IoTDBSchemaValidator with a schema cache of the given size.
+     *
+     * @param iotdbClientManager The client manager used for schema queries.
+     * @param schemaCacheSize    The maximum number of cached timeseries, or 0 for
+     *                           the default.
+     * @param schemaBatchSize    The maximum number of timeseries created in one
+     *                           background batch, or 0 for the default.
+     */
+    public IoTDBSchemaValidator(IoTDBClientManager iotdbClientManager, int schemaCacheSize, int schemaBatchSize) {
         this.iotdbClientManager = iotdbClientManager;
+        this.schemaCache = new SchemaCache(schemaCacheSize);
+        this.schemaWorker = new SchemaCreationWorker(schemaBatchSize, this::createSchemaBatch);
     }
 
     /**
@@ -30,29 +68,180 @@ public class IoTDBSchemaValidator {
      * @throws Exception if validation or creation of timeseries fails.
      */
     public void validateAndCreateTimeseriesForDevices(List<IoTDBDevice> devices) throws Exception {
-        for (IoTDBDevice device : devices) {
-            String deviceId = device.getDeviceId();
-            String pathColumn = device.getPathColumn();
+        validateAndCreateTimeseriesForDevices(devices, 1);
+    }
 
-            if (pathColumn == null || pathColumn.isEmpty()) {
-                if (Boolean.TRUE.equals(device.getIsAlignedTimeseries())) {
-                    createAlignedTimeseries(deviceId, device.getMeasurements());
-                } else {
-                    for (IoTDBMeasurement measurement : device.getMeasurements()) {
-                        TSDataType dataType = measurement.getDataType();
-                        TSEncoding encoding = measurement.getEncoding();
-                        CompressionType compression = measurement.getCompression();
+    /**
+     * Validate all devices and their measurements in bulk. The existing schema is
+     * fetched with a few wildcard queries and compared locally with the
+     * configuration; missing timeseries are then created with batched requests
+     * issued in parallel.
+     *
+     * @param devices     List of IoTDBDevice objects.
+     * @param parallelism The number of schema requests issued concurrently.
+     * @throws Exception if validation or creation of timeseries fails.
+     */
+    public void validateAndCreateTimeseriesForDevices(List<IoTDBDevice> devices, int parallelism)
+            throws Exception {
+        AtomicInteger threadIndex = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, parallelism),
+                runnable -> new Thread(runnable, "schema-bootstrap-" + threadIndex.getAndIncrement()));
+        try {
+            prefetchSchemas(devices, executor);
+
+            List<Callable<Void>> tasks = new ArrayList<>();
+            List<PendingSeries> allSeries = new ArrayList<>();
+            List<PendingSeries> plainSeries = new ArrayList<>();
+            for (IoTDBDevice device : devices) {
+                String deviceId = device.getDeviceId();
+                String pathColumn = device.getPathColumn();
 
-                        // Ensure the timeseries exists or create it
-                        ensureTimeseries(deviceId, measurement.getName(), dataType, encoding, compression);
+                if (pathColumn == null || pathColumn.isEmpty()) {
+                    List<PendingSeries> missing = diffDevice(device);
+                    allSeries.addAll(missing);
+                    if (missing.isEmpty()) {
+                        continue;
                     }
+                    if (Boolean.TRUE.equals(device.getIsAlignedTimeseries())) {
+                        tasks.add(() -> {
+                            createAlignedSeries(deviceId, missing);
+                            return null;
+                        });
+                    } else {
+                        plainSeries.addAll(missing);
+                    }
+                } else if (Boolean.TRUE.equals(device.getIsSchemaTemplate())) {
+                    // Child devices are not known yet, they activate the template on first write
+                    tasks.add(() -> {
+                        ensureSchemaTemplate(device);
+                        return null;
+                    });
+                } else {
+                    // For devices with pathColumn, we can't create timeseries here
+                    // as we don't know the specific path values
+                    System.out.println("Skipping schema validation for device with pathColumn: " + deviceId);
+                }
+            }
+            int batchSize = schemaWorker.getMaxBatchSize();
+            for (int from = 0; from < plainSeries.size(); from += batchSize) {
+                List<PendingSeries> chunk = plainSeries.subList(from, Math.min(from + batchSize, plainSeries.size()));
+                tasks.add(() -> {
+                    createPlainSeries(chunk);
+                    return null;
+                });
+            }
+
+            logger.info("Schema bootstrap: {} timeseries missing, {} schema requests on {} threads",
+                    allSeries.size(), tasks.size(), Math.max(1, parallelism));
+            for (Future<Void> task : executor.invokeAll(tasks)) {
+                try {
+                    task.get();
+                } catch (ExecutionException e) {
+                    throw new Exception("Error during schema bootstrap", e.getCause());
+                }
+            }
+            for (PendingSeries series : allSeries) {
+                try {
+                    series.getCreated().join();
+                } catch (CompletionException e) {
+                    throw new Exception("Error creating timeseries: " + series.getTimeseriesPath(), e.getCause());
                 }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Compare the configured measurements of a fixed device with the cached schema.
+     *
+     * @param device The device without a pathColumn.
+     * @return The timeseries missing from IoTDB.
+     * @throws Exception If an existing timeseries has a different schema.
+     */
+    private List<PendingSeries> diffDevice(IoTDBDevice device) throws Exception {
+        List<PendingSeries> missing = new ArrayList<>();
+        for (IoTDBMeasurement measurement : device.getMeasurements()) {
+            String timeseriesPath = String.format("%s.%s", device.getDeviceId(), measurement.getName());
+            if (schemaCache.get(timeseriesPath) == null) {
+                missing.add(new PendingSeries(device.getDeviceId(), device, measurement));
             } else {
-                // For devices with pathColumn, we can't create timeseries here
-                // as we don't know the specific path values
-                System.out.println("Skipping schema validation for device with pathColumn: " + deviceId);
+                validateExistingTimeseriesSchema(timeseriesPath, measurement.getDataType(),
+                        measurement.getEncoding(), measurement.getCompression());
             }
         }
+        return missing;
+    }
+
+    /**
+     * Warm the schema cache with every timeseries below the configured devices.
+     * Sibling devices are fetched together with one
+     * {@code SHOW TIMESERIES <parent>.**}, all other devices with one
+     * {@code SHOW TIMESERIES <device>.**}, which also covers the devices resolved
+     * from a pathColumn later on. The queries run in parallel.
+     *
+     * @param devices  List of IoTDBDevice objects.
+     * @param executor The executor running the queries.
+     * @throws Exception If a schema query fails.
+     */
+    private void prefetchSchemas(List<IoTDBDevice> devices, ExecutorService executor) throws Exception {
+        List<Callable<Void>> queries = new ArrayList<>();
+        for (String prefix : prefetchPrefixes(devices)) {
+            queries.add(() -> {
+                int loaded = loadSchemas(prefix + ".**");
+                logger.info("Prefetched {} timeseries schemas for device prefix: {}", loaded, prefix);
+                return null;
+            });
+        }
+        for (Future<Void> query : executor.invokeAll(queries)) {
+            try {
+                query.get();
+            } catch (ExecutionException e) {
+                throw new Exception("Error prefetching timeseries schemas", e.getCause());
+            }
+        }
+    }
+
+    private static List<String> prefetchPrefixes(List<IoTDBDevice> devices) {
+        Map<String, Integer> siblings = new HashMap<>();
+        for (IoTDBDevice device : devices) {
+            String parent = parentPath(device);
+            if (parent != null) {
+                siblings.merge(parent, 1, Integer::sum);
+            }
+        }
+        Set<String> candidates = new HashSet<>();
+        for (IoTDBDevice device : devices) {
+            String parent = parentPath(device);
+            candidates.add(parent != null && siblings.get(parent) > 1 ? parent : device.getDeviceId());
+        }
+
+        // Drop prefixes already covered by a shorter one
+        List<String> sorted = new ArrayList<>(candidates);
+        sorted.sort(Comparator.comparingInt(String::length));
+        List<String> prefixes = new ArrayList<>();
+        for (String candidate : sorted) {
+            if (prefixes.stream().noneMatch(prefix -> candidate.startsWith(prefix + "."))) {
+                prefixes.add(candidate);
+            }
+        }
+        return prefixes;
+    }
+
+    /**
+     * Gets the parent path of a fixed device, or null if the device has a
+     * pathColumn or sits directly below a database-level node.
+     */
+    private static String parentPath(IoTDBDevice device) {
+        if (device.getPathColumn() != null && !device.getPathColumn().isEmpty()) {
+            return null;
+        }
+        String deviceId = device.getDeviceId();
+        int lastDot = deviceId.lastIndexOf('.');
+        if (lastDot <= 0 || deviceId.indexOf('.') == lastDot) {
+            return null;
+        }
+        return deviceId.substring(0, lastDot);
     }
 
     /**
@@ -69,33 +258,354 @@ public class IoTDBSchemaValidator {
 
         String timeseriesPath = String.format("%s.%s", deviceId, measurement);
 
-        if (checkTimeseriesExists(timeseriesPath)) {
+        if (lookupSchema(timeseriesPath) != null) {
             validateExistingTimeseriesSchema(timeseriesPath, dataType, encoding, compression);
         } else {
             createTimeseries(timeseriesPath, dataType, encoding, compression);
+            schemaCache.put(timeseriesPath, new TimeseriesSchema(dataType, encoding, compression));
         }
     }
 
     /**
-     * Check if a timeseries exists in the IoTDB instance.
+     * Ensure that the given measurements exist as aligned timeseries of a device.
+     * Existing timeseries are validated, missing ones are created together as
+     * aligned timeseries.
      *
-     * @param timeseriesPath The full path of the timeseries (e.g.,
-     *                       "root.device1.sensorTag").
-     * @return True if the timeseries exists, false otherwise.
-     * @throws IoTDBConnectionException
+     * @param deviceId     The IoTDB device ID.
+     * @param measurements The measurements the device must contain.
      */
-    private boolean checkTimeseriesExists(String timeseriesPath)
-            throws IoTDBConnectionException, StatementExecutionException {
-        String sql = String.format("SHOW TIMESERIES %s", timeseriesPath);
+    public void ensureAlignedTimeseries(String deviceId, List<IoTDBMeasurement> measurements) throws Exception {
+        List<IoTDBMeasurement> missing = new ArrayList<>();
+        for (IoTDBMeasurement measurement : measurements) {
+            String timeseriesPath = String.format("%s.%s", deviceId, measurement.getName());
+            if (lookupSchema(timeseriesPath) != null) {
+                validateExistingTimeseriesSchema(timeseriesPath, measurement.getDataType(),
+                        measurement.getEncoding(), measurement.getCompression());
+            } else {
+                missing.add(measurement);
+            }
+        }
+        if (!missing.isEmpty()) {
+            createAlignedTimeseries(deviceId, missing);
+            cacheSchemas(deviceId, missing);
+        }
+    }
 
-        SessionPool session = this.iotdbClientManager.acquireSession();
+    /**
+     * Ensure that the schema template of a device exists and is mounted at the
+     * device prefix. The template is built from the device measurements and is
+     * aligned if the device uses aligned timeseries.
+     *
+     * @param device The device with a pathColumn whose children use the template.
+     * @throws Exception If the template cannot be created or mounted.
+     */
+    public void ensureSchemaTemplate(IoTDBDevice device) throws Exception {
+        String templateName = device.schemaTemplateName();
+        String prefix = device.getDeviceId();
+        try {
+            if (!queryFirstColumn("SHOW SCHEMA TEMPLATES").contains(templateName)) {
+                List<MeasurementSchema> templateMeasurements = new ArrayList<>();
+                for (IoTDBMeasurement measurement : device.getMeasurements()) {
+                    templateMeasurements.add(new MeasurementSchema(measurement.getName(), measurement.getDataType(),
+                            measurement.getEncoding(), measurement.getCompression()));
+                }
+                boolean aligned = Boolean.TRUE.equals(device.getIsAlignedTimeseries());
+                this.iotdbClientManager.execute(session -> {
+                    session.createSchemaTemplate(templateName, aligned, templateMeasurements);
+                    return null;
+                });
+                logger.info("Created schema template {} for device: {}", templateName, prefix);
+            }
+            if (!queryFirstColumn("SHOW PATHS SET SCHEMA TEMPLATE " + templateName).contains(prefix)) {
+                this.iotdbClientManager.execute(session -> {
+                    session.setSchemaTemplate(templateName, prefix);
+                    return null;
+                });
+                logger.info("Mounted schema template {} at: {}", templateName, prefix);
+            }
+        } catch (IoTDBConnectionException | StatementExecutionException e) {
+            throw new Exception("Error setting up schema template for device: " + prefix, e);
+        }
+    }
 
-        try (SessionDataSetWrapper dataSet = session.executeQueryStatement(sql)) {
-            return dataSet.hasNext();
-        } catch (IoTDBConnectionException |
+    /**
+     * Activate the schema template of a device for the given child devices in a
+     * single request. Child devices whose timeseries are already known are
+     * skipped. If the bulk activation is rejected, the devices are activated one
+     * at a time so that already activated devices do not fail the others.
+     *
+     * @param device      The device the template is mounted for.
+     * @param devicePaths The full paths of the child devices.
+     * @throws Exception If a child device cannot be activated.
+     */
+    public void activateSchemaTemplate(IoTDBDevice device, Collection<String> devicePaths) throws Exception {
+        String firstMeasurement = device.getMeasurements().get(0).getName();
+        List<String> inactive = new ArrayList<>();
+        for (String devicePath : devicePaths) {
+            if (schemaCache.get(devicePath + "." + firstMeasurement) == null) {
+                inactive.add(devicePath);
+            }
+        }
+        if (inactive.isEmpty()) {
+            return;
+        }
 
-                StatementExecutionException e) {
-            throw new IoTDBConnectionException("Error checking if timeseries exists: " + timeseriesPath, e);
+        try {
+            this.iotdbClientManager.execute(session -> {
+                session.createTimeseriesUsingSchemaTemplate(inactive);
+                return null;
+            });
+            logger.info("Activated schema template {} for {} devices", device.schemaTemplateName(),
+                    inactive.size());
+        } catch (StatementExecutionException e) {
+            logger.warn("Bulk activation of schema template {} failed, activating devices one by one: {}",
+                    device.schemaTemplateName(), e.getMessage());
+            for (String devicePath : inactive) {
+                activateSingleDevice(device, devicePath, firstMeasurement);
+            }
+        } catch (IoTDBConnectionException e) {
+            throw new Exception("Error activating schema template for device: " + device.getDeviceId(), e);
+        }
+        for (String devicePath : inactive) {
+            cacheSchemas(devicePath, device.getMeasurements());
+        }
+    }
+
+    private void activateSingleDevice(IoTDBDevice device, String devicePath, String firstMeasurement)
+            throws Exception {
+        try {
+            this.iotdbClientManager.execute(session -> {
+                session.createTimeseriesUsingSchemaTemplate(List.of(devicePath));
+                return null;
+            });
+        } catch (StatementExecutionException e) {
+            // Already activated devices are rejected as well, tell them apart by their timeseries
+            schemaCache.invalidate(devicePath + "." + firstMeasurement);
+            if (lookupSchema(devicePath + "." + firstMeasurement) == null) {
+                throw new Exception("Error activating schema template for device: " + devicePath, e);
+            }
+        }
+    }
+
+    /**
+     * Make sure the timeseries of a device exist without blocking the caller.
+     * Timeseries known from the schema cache need no work; the others are handed
+     * to the background schema worker, which creates them in batches together
+     * with those of other newly discovered devices.
+     *
+     * @param devicePath   The full path of the device.
+     * @param device       The configured device the path was resolved from.
+     * @param measurements The measurements the device must contain.
+     * @return A future completing once all timeseries exist.
+     */
+    public CompletableFuture<Void> ensureSchemaAsync(String devicePath, IoTDBDevice device,
+            List<IoTDBMeasurement> measurements) {
+        List<IoTDBMeasurement> missing = measurements.stream()
+                .filter(measurement -> schemaCache.get(devicePath + "." + measurement.getName()) == null)
+                .collect(Collectors.toList());
+        if (missing.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return schemaWorker.request(devicePath, device, missing);
+    }
+
+    /**
+     * Create a batch of pending timeseries. Template devices are activated with
+     * one request per template, aligned devices with one request per device and
+     * all other timeseries with a single request. Rejected requests fall back to
+     * validating and creating the timeseries one device at a time, which also
+     * covers timeseries that turned out to exist already.
+     *
+     * @param batch The pending timeseries.
+     */
+    private void createSchemaBatch(List<PendingSeries> batch) {
+        Map<IoTDBDevice, Map<String, List<PendingSeries>>> byDevice = new LinkedHashMap<>();
+        for (PendingSeries series : batch) {
+            byDevice.computeIfAbsent(series.getDevice(), key -> new LinkedHashMap<>())
+                    .computeIfAbsent(series.getDevicePath(), key -> new ArrayList<>())
+                    .add(series);
+        }
+
+        List<PendingSeries> plainSeries = new ArrayList<>();
+        byDevice.forEach((device, devicePaths) -> {
+            if (Boolean.TRUE.equals(device.getIsSchemaTemplate())) {
+                try {
+                    activateSchemaTemplate(device, devicePaths.keySet());
+                    devicePaths.values().forEach(this::completeSeries);
+                } catch (Exception e) {
+                    devicePaths.values().forEach(series -> failSeries(series, e));
+                }
+            } else if (Boolean.TRUE.equals(device.getIsAlignedTimeseries())) {
+                devicePaths.forEach(this::createAlignedSeries);
+            } else {
+                devicePaths.values().forEach(plainSeries::addAll);
+            }
+        });
+        if (!plainSeries.isEmpty()) {
+            createPlainSeries(plainSeries);
+        }
+        logger.info("Created schema for {} timeseries of {} device configurations in the background", batch.size(),
+                byDevice.size());
+    }
+
+    private void createAlignedSeries(String devicePath, List<PendingSeries> seriesList) {
+        List<IoTDBMeasurement> measurements = seriesList.stream()
+                .map(PendingSeries::getMeasurement)
+                .collect(Collectors.toList());
+        try {
+            createAlignedTimeseries(devicePath, measurements);
+            cacheSchemas(devicePath, measurements);
+            completeSeries(seriesList);
+        } catch (Exception e) {
+            logger.debug("Bulk creation of aligned timeseries for {} rejected, validating one by one: {}", devicePath,
+                    e.getMessage());
+            try {
+                ensureAlignedTimeseries(devicePath, measurements);
+                completeSeries(seriesList);
+            } catch (Exception fallbackEx) {
+                failSeries(seriesList, fallbackEx);
+            }
+        }
+    }
+
+    private void createPlainSeries(List<PendingSeries> seriesList) {
+        List<String> paths = new ArrayList<>(seriesList.size());
+        List<TSDataType> dataTypes = new ArrayList<>(seriesList.size());
+        List<TSEncoding> encodings = new ArrayList<>(seriesList.size());
+        List<CompressionType> compressionTypes = new ArrayList<>(seriesList.size());
+        for (PendingSeries series : seriesList) {
+            paths.add(series.getTimeseriesPath());
+            dataTypes.add(series.getMeasurement().getDataType());
+            encodings.add(series.getMeasurement().getEncoding());
+            compressionTypes.add(series.getMeasurement().getCompression());
+        }
+
+        try {
+            this.iotdbClientManager.execute(session -> {
+                session.createMultiTimeseries(paths, dataTypes, encodings, compressionTypes);
+                return null;
+            });
+            for (PendingSeries series : seriesList) {
+                IoTDBMeasurement measurement = series.getMeasurement();
+                schemaCache.put(series.getTimeseriesPath(), new TimeseriesSchema(measurement.getDataType(),
+                        measurement.getEncoding(), measurement.getCompression()));
+            }
+            completeSeries(seriesList);
+        } catch (IoTDBConnectionException | StatementExecutionException e) {
+            logger.debug("Bulk creation of {} timeseries rejected, validating one by one: {}", paths.size(),
+                    e.getMessage());
+            for (PendingSeries series : seriesList) {
+                IoTDBMeasurement measurement = series.getMeasurement();
+                try {
+                    ensureTimeseries(series.getDevicePath(), measurement.getName(), measurement.getDataType(),
+                            measurement.getEncoding(), measurement.getCompression());
+                    series.getCreated().complete(null);
+                } catch (Exception fallbackEx) {
+                    series.getCreated().completeExceptionally(fallbackEx);
+                }
+            }
+        }
+    }
+
+    private void completeSeries(List<PendingSeries> seriesList) {
+        seriesList.forEach(series -> series.getCreated().complete(null));
+    }
+
+    private void failSeries(List<PendingSeries> seriesList, Exception e) {
+        logger.error("Failed to create schema for {} timeseries of device: {}. Error: {}", seriesList.size(),
+                seriesList.get(0).getDevicePath(), e.getMessage());
+        seriesList.forEach(series -> series.getCreated().completeExceptionally(e));
+    }
+
+    /**
+     * Gets the background worker creating the schema of new devices.
+     *
+     * @return The schema worker.
+     */
+    public SchemaCreationWorker getSchemaWorker() {
+        return schemaWorker;
+    }
+
+    /**
+     * Creates the still queued timeseries and stops the background schema worker.
+     */
+    @Override
+    public void close() {
+        schemaWorker.close();
+    }
+
+    /**
+     * Gets the schema cache, for its hit and miss statistics.
+     *
+     * @return The schema cache.
+     */
+    public SchemaCache getSchemaCache() {
+        return schemaCache;
+    }
+
+    /**
+     * Look up the schema of a timeseries, querying IoTDB only on a cache miss.
+     * A timeseries IoTDB does not know is cached as absent until it is created.
+     *
+     * @param timeseriesPath The full path of the timeseries.
+     * @return The schema, or null if the timeseries does not exist.
+     * @throws IoTDBConnectionException If the schema query fails.
+     */
+    private TimeseriesSchema lookupSchema(String timeseriesPath) throws IoTDBConnectionException {
+        TimeseriesSchema schema = schemaCache.get(timeseriesPath);
+        if (schema == null && !schemaCache.isAbsent(timeseriesPath)) {
+            loadSchemas(timeseriesPath);
+            schema = schemaCache.get(timeseriesPath);
+            if (schema == null) {
+                schemaCache.putAbsent(timeseriesPath);
+            }
+        }
+        return schema;
+    }
+
+    /**
+     * Run {@code SHOW TIMESERIES} for a path pattern and cache every returned
+     * timeseries.
+     *
+     * @param pathPattern The path or path pattern to query.
+     * @return The number of timeseries returned.
+     * @throws IoTDBConnectionException If the schema query fails.
+     */
+    private int loadSchemas(String pathPattern) throws IoTDBConnectionException {
+        String sql = String.format("SHOW TIMESERIES %s", pathPattern);
+
+        try {
+            return this.iotdbClientManager.execute(session -> {
+                int loaded = 0;
+                for (List<String> schemaInfo : session.executeQuery(sql)) {
+                    schemaCache.put(schemaInfo.get(0), new TimeseriesSchema(
+                            TSDataType.valueOf(schemaInfo.get(3)),
+                            TSEncoding.valueOf(schemaInfo.get(4)),
+                            CompressionType.valueOf(schemaInfo.get(5))));
+                    loaded++;
+                }
+                return loaded;
+            });
+        } catch (IoTDBConnectionException | StatementExecutionException e) {
+            throw new IoTDBConnectionException("Error loading timeseries schemas: " + pathPattern, e);
+        }
+    }
+
+    private Set<String> queryFirstColumn(String sql) throws IoTDBConnectionException, StatementExecutionException {
+        return this.iotdbClientManager.execute(session -> {
+            Set<String> values = new HashSet<>();
+            for (List<String> row : session.executeQuery(sql)) {
+                values.add(row.get(0));
+            }
+            return values;
+        });
+    }
+
+    private void cacheSchemas(String deviceId, List<IoTDBMeasurement> measurements) {
+        for (IoTDBMeasurement measurement : measurements) {
+            schemaCache.put(String.format("%s.%s", deviceId, measurement.getName()),
+                    new TimeseriesSchema(measurement.getDataType(), measurement.getEncoding(),
+                            measurement.getCompression()));
         }
     }
 
@@ -111,31 +621,14 @@ public class IoTDBSchemaValidator {
     private void validateExistingTimeseriesSchema(String timeseriesPath, TSDataType expectedDataType,
             TSEncoding expectedEncoding, CompressionType expectedCompression) throws Exception {
 
-        String sql = String.format("SHOW TIMESERIES %s", timeseriesPath);
-
-        SessionPool sessionPool = this.iotdbClientManager.acquireSession();
-        try (SessionDataSetWrapper dataSet = sessionPool.executeQueryStatement(sql)) {
-            if (dataSet.hasNext()) {
-                List<Field> schemaInfo = dataSet.next().getFields();
-
-                TSDataType actualDataType = TSDataType.valueOf(schemaInfo.get(3).getStringValue());
-                TSEncoding actualEncoding = TSEncoding.valueOf(schemaInfo.get(4).getStringValue());
-                CompressionType actualCompression = CompressionType.valueOf(schemaInfo.get(5).getStringValue());
-
-                if (!expectedDataType.equals(actualDataType) ||
-                        !expectedEncoding.equals(actualEncoding) ||
-                        !expectedCompression.equals(actualCompression)) {
-                    throw new Exception(String.format("Timeseries %s exists, but the schema does not match: " +
-                            "Expected [dataType=%s, encoding=%s, compression=%s], " +
-                            "but found [dataType=%s, encoding=%s, compression=%s].",
-                            timeseriesPath, expectedDataType, expectedEncoding, expectedCompression,
-                            actualDataType, actualEncoding, actualCompression));
-                }
-            } else {
-                throw new Exception("Timeseries not found: " + timeseriesPath);
-            }
-        } catch (Exception e) {
-            throw new Exception("Error validating timeseries schema: " + timeseriesPath, e);
+        TimeseriesSchema actual = lookupSchema(timeseriesPath);
+        if (actual == null) {
+            throw new Exception("Timeseries not found: " + timeseriesPath);
+        }
+        if (!actual.matches(expectedDataType, expectedEncoding, expectedCompression)) {
+            throw new Exception(String.format("Timeseries %s exists, but the schema does not match: " +
+                    "Expected [dataType=%s, encoding=%s, compression=%s], but found %s.",
+                    timeseriesPath, expectedDataType, expectedEncoding, expectedCompression, actual));
         }
     }
 
@@ -150,11 +643,15 @@ public class IoTDBSchemaValidator {
      */
     private void createTimeseries(String timeseriesPath, TSDataType dataType, TSEncoding encoding,
             CompressionType compression) throws IoTDBConnectionException {
-        SessionPool sessionPool = this.iotdbClientManager.acquireSession();
         try {
-            sessionPool.createTimeseries(timeseriesPath, dataType, encoding, compression);
+            this.iotdbClientManager.execute(session -> {
+                session.createTimeseries(timeseriesPath, dataType, encoding, compression);
+                return null;
+            });
             System.out.println("Created new timeseries: " + timeseriesPath);
         } catch (IoTDBConnectionException | StatementExecutionException e) {
+            // The timeseries may have been created by someone else, look it up again next time
+            schemaCache.invalidate(timeseriesPath);
             throw new IoTDBConnectionException("Error creating timeseries: " + timeseriesPath, e);
         }
     }
@@ -172,12 +669,15 @@ public class IoTDBSchemaValidator {
             compressionTypes.add(measurement.getCompression());
         }
 
-        SessionPool sessionPool = this.iotdbClientManager.acquireSession();
         try {
-            sessionPool.createAlignedTimeseries(deviceId, measurementNames, dataTypes, encodings, compressionTypes,
-                    null);
+            this.iotdbClientManager.execute(session -> {
+                session.createAlignedTimeseries(deviceId, measurementNames, dataTypes, encodings,
+                        compressionTypes);
+                return null;
+            });
             System.out.println("Created aligned timeseries for device: " + deviceId);
         } catch (IoTDBConnectionException | StatementExecutionException e) {
+            measurementNames.forEach(name -> schemaCache.invalidate(deviceId + "." + name));
             throw new Exception("Error creating aligned timeseries for device: " + deviceId, e);
         }
     }
@@ -4,26 +4,62 @@ import java.io.IOException;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.apache.iotdb.rpc.IoTDBConnectionException;
 import org.apache.iotdb.rpc.StatementExecutionException;
-import org.apache.iotdb.session.pool.SessionPool;
+import org.apache.iotdb.rpc.TSStatusCode;
 import org.apache.iotdb.tsfile.write.record.Tablet;
-import org.apache.iotdb.tsfile.write.schema.MeasurementSchema;
 import org.kreps.csvtoiotdb.DAO.CsvSettingsDAO;
 import org.kreps.csvtoiotdb.DAO.RowProcessingDAO;
 import org.kreps.csvtoiotdb.DAO.RowProcessingStatus;
+import org.kreps.csvtoiotdb.client.ConcurrencyLimiter;
+import org.kreps.csvtoiotdb.client.IoTDBNode;
+import org.kreps.csvtoiotdb.client.LatencyTracker;
+import org.kreps.csvtoiotdb.client.RowRateLimiter;
 import org.kreps.csvtoiotdb.configs.iotdb.IoTDBDevice;
 import org.kreps.csvtoiotdb.configs.iotdb.IoTDBMeasurement;
 import org.kreps.csvtoiotdb.converter.RowData;
+import org.kreps.csvtoiotdb.outbox.Outbox;
+import org.kreps.csvtoiotdb.schema.SchemaCache;
+import org.kreps.csvtoiotdb.schema.SchemaCreationWorker;
+import org.kreps.csvtoiotdb.sink.Sink;
+import org.kreps.csvtoiotdb.sink.TabletBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class IoTDBWriter {
+public class IoTDBWriter implements Sink {
     private static final Logger logger = LoggerFactory.getLogger(IoTDBWriter.class);
+    // Splits of a rejected tablet before the rows of a slice are failed together
+    private static final int MAX_ISOLATION_DEPTH = 10;
+    // Statuses of requests IoTDB rejected while overloaded, read-only or unavailable
+    private static final Set<Integer> TRANSIENT_STATUS_CODES = Set.of(
+            TSStatusCode.WRITE_PROCESS_REJECT.getStatusCode(),
+            TSStatusCode.SYSTEM_READ_ONLY.getStatusCode(),
+            TSStatusCode.MPP_MEMORY_NOT_ENOUGH.getStatusCode(),
+            TSStatusCode.STORAGE_ENGINE_NOT_READY.getStatusCode(),
+            TSStatusCode.INTERNAL_REQUEST_TIME_OUT.getStatusCode(),
+            TSStatusCode.INTERNAL_REQUEST_RETRY_ERROR.getStatusCode(),
+            TSStatusCode.DISPATCH_ERROR.getStatusCode(),
+            TSStatusCode.REGION_LEADER_CHANGE_ERROR.getStatusCode(),
+            TSStatusCode.CONSENSUS_NOT_INITIALIZED.getStatusCode(),
+            TSStatusCode.NO_AVAILABLE_REGION_GROUP.getStatusCode());
 
     private final IoTDBClientManager clientManager;
     private final IoTDBSchemaValidator schemaValidator;
@@ -34,10 +70,37 @@ public class IoTDBWriter {
     private final RowProcessingDAO rowProcessingDAO;
     private final CsvSettingsDAO csvSettingsDAO;
     private final H2DatabaseManager dbManager;
+    private final ExecutorService ioExecutor;
+    private final ConcurrencyLimiter tabletSlots;
+    private final ConcurrencyLimiter concurrencyLimiter;
+    private final RowRateLimiter rowRateLimiter;
+    private final LatencyTracker writeLatencies;
+    private final ConcurrentHashMap<String, CompletableFuture<List<String>>> lastDeviceWrites;
+    private final RetryScheduler retryScheduler;
+    private final TabletBuilder tabletBuilder;
+    private final Outbox outbox;
+    private final long timePartitionInterval;
+    private final LongAdder partitionTablets;
+
+    /**
+     * The write of the rows of one device, or of one time partition of a device.
+     */
+    private static class DeviceWrite {
+        private final String fullPath;
+        private final List<RowData> rows;
+        private final CompletableFuture<List<String>> future;
+
+        private DeviceWrite(String fullPath, List<RowData> rows, CompletableFuture<List<String>> future) {
+            this.fullPath = fullPath;
+            this.rows = rows;
+            this.future = future;
+        }
+    }
 
     public IoTDBWriter(IoTDBClientManager clientManager, IoTDBSchemaValidator schemaValidator,
             List<IoTDBDevice> iotdbSettingsList, int maxRetries, long retryInterval, long maxBackoffTime,
-            H2DatabaseManager dbManager) throws SQLException {
+            int ioThreads, int maxInFlightTablets, boolean adaptiveConcurrency, long maxRowsPerSecond,
+            long timePartitionInterval, Outbox outbox, H2DatabaseManager dbManager) throws SQLException {
         this.clientManager = clientManager;
         this.schemaValidator = schemaValidator;
         this.iotdbSettingsList = iotdbSettingsList;
@@ -47,26 +110,299 @@ public class IoTDBWriter {
         this.rowProcessingDAO = new RowProcessingDAO();
         this.csvSettingsDAO = new CsvSettingsDAO();
         this.dbManager = dbManager;
-        logger.info("IoTDBWriter initialized with maxRetries: {}, retryInterval: {}ms, maxBackoffTime: {}ms",
-                maxRetries, retryInterval, maxBackoffTime);
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.ioExecutor = Executors.newFixedThreadPool(Math.max(1, ioThreads),
+                runnable -> new Thread(runnable, "iotdb-io-" + threadIndex.getAndIncrement()));
+        // Tablets take a slot while they are queued or being written, the limiter bounds the RPCs themselves
+        this.tabletSlots = new ConcurrencyLimiter(maxInFlightTablets, false);
+        this.concurrencyLimiter = new ConcurrencyLimiter(maxInFlightTablets, adaptiveConcurrency);
+        this.rowRateLimiter = maxRowsPerSecond > 0 ? new RowRateLimiter(maxRowsPerSecond) : null;
+        this.writeLatencies = new LatencyTracker(90);
+        this.lastDeviceWrites = new ConcurrentHashMap<>();
+        this.retryScheduler = new RetryScheduler(ioExecutor);
+        this.tabletBuilder = new TabletBuilder(iotdbSettingsList);
+        this.outbox = outbox;
+        this.timePartitionInterval = timePartitionInterval;
+        this.partitionTablets = new LongAdder();
+        logger.info("IoTDBWriter initialized with maxRetries: {}, retryInterval: {}ms, maxBackoffTime: {}ms, "
+                + "ioThreads: {}, maxInFlightTablets: {}, adaptiveConcurrency: {}, maxRowsPerSecond: {}, "
+                + "timePartitionInterval: {}", maxRetries, retryInterval, maxBackoffTime, ioThreads,
+                concurrencyLimiter.getMaxLimit(), adaptiveConcurrency, maxRowsPerSecond, timePartitionInterval);
     }
 
-    public List<String> writeData(Map<String, List<RowData>> deviceDataMap, long csvSettingId) throws IOException {
-        List<String> failedRowIds = new ArrayList<>();
+    /**
+     * Writes the converted data of a batch and waits until every device tablet
+     * has been acknowledged.
+     *
+     * @return The IDs of the rows that could not be written.
+     */
+    public List<String> writeData(Map<String, List<RowData>> deviceDataMap, long csvSettingId)
+            throws InterruptedException {
+        return writeDataAsync(deviceDataMap, csvSettingId).join();
+    }
+
+    /**
+     * Starts writing the converted data of a batch without waiting for IoTDB to
+     * acknowledge it. Every device tablet is written on the I/O executor; the
+     * call blocks only while the maximum number of tablets is already in flight.
+     * Tablets of the same device are written in submission order. With a time
+     * partition interval, the rows of every device are split at partition
+     * boundaries and the tablets are submitted partition by partition, so the
+     * writes in flight stay within as few partitions as possible.
+     *
+     * @return A future completing with the IDs of the rows that could not be
+     *         written, once all device tablets of the batch are done.
+     * @throws InterruptedException If interrupted while waiting for an in-flight
+     *                              slot.
+     */
+    @Override
+    public CompletableFuture<List<String>> writeDataAsync(Map<String, List<RowData>> deviceDataMap,
+            long csvSettingId) throws InterruptedException {
         String filePath;
         try {
             filePath = getFilePathForCsvSettingId(csvSettingId);
         } catch (IOException e) {
             logger.error("Failed to retrieve file path for csvSettingId: {}. Cannot proceed with writing data.",
                     csvSettingId, e);
-            return failedRowIds;
+            return CompletableFuture.completedFuture(new ArrayList<>());
         }
 
         logger.info("Starting to write data for {} devices from file: {}", deviceDataMap.size(), filePath);
-        deviceDataMap.forEach(
-                (fullPath, rows) -> processBatchForDevice(fullPath, rows, csvSettingId, filePath, failedRowIds));
-        logger.info("Finished writing data for all devices from file: {}", filePath);
-        return failedRowIds;
+        List<DeviceWrite> deviceWrites = new ArrayList<>();
+        if (timePartitionInterval > 0) {
+            for (Map<String, List<RowData>> partition : splitByTimePartition(deviceDataMap).values()) {
+                for (Map.Entry<String, List<RowData>> entry : partition.entrySet()) {
+                    deviceWrites.add(new DeviceWrite(entry.getKey(), entry.getValue(),
+                            submitDeviceWrite(entry.getKey(), entry.getValue(), csvSettingId, filePath)));
+                }
+            }
+        } else {
+            for (Map.Entry<String, List<RowData>> entry : deviceDataMap.entrySet()) {
+                deviceWrites.add(new DeviceWrite(entry.getKey(), entry.getValue(),
+                        submitDeviceWrite(entry.getKey(), entry.getValue(), csvSettingId, filePath)));
+            }
+        }
+
+        return CompletableFuture.allOf(deviceWrites.stream().map(write -> write.future)
+                .toArray(CompletableFuture<?>[]::new))
+                .handle((ignored, error) -> {
+                    List<String> failedRowIds = new ArrayList<>();
+                    for (DeviceWrite deviceWrite : deviceWrites) {
+                        List<String> deviceFailedRowIds = awaitDeviceWrite(deviceWrite.fullPath, deviceWrite.future,
+                                deviceWrite.rows, filePath);
+                        if (!deviceFailedRowIds.isEmpty()) {
+                            logger.warn("{} rows failed for device: {}. File: {}", deviceFailedRowIds.size(),
+                                    deviceWrite.fullPath, filePath);
+                            failedRowIds.addAll(deviceFailedRowIds);
+                        }
+                    }
+                    logger.info("Finished writing data for all devices from file: {}", filePath);
+                    return failedRowIds;
+                });
+    }
+
+    /**
+     * Splits the rows of every device at time partition boundaries.
+     *
+     * @return The rows per device, per time partition in ascending order.
+     */
+    private Map<Long, Map<String, List<RowData>>> splitByTimePartition(Map<String, List<RowData>> deviceDataMap) {
+        Map<Long, Map<String, List<RowData>>> partitions = new TreeMap<>();
+        for (Map.Entry<String, List<RowData>> entry : deviceDataMap.entrySet()) {
+            for (RowData row : entry.getValue()) {
+                partitions.computeIfAbsent(Math.floorDiv(row.getTimestamp(), timePartitionInterval),
+                        partition -> new LinkedHashMap<>())
+                        .computeIfAbsent(entry.getKey(), fullPath -> new ArrayList<>())
+                        .add(row);
+            }
+        }
+        for (Map<String, List<RowData>> partition : partitions.values()) {
+            partitionTablets.add(partition.size());
+        }
+        return partitions;
+    }
+
+    private CompletableFuture<List<String>> submitDeviceWrite(String fullPath, List<RowData> rows,
+            long csvSettingId, String filePath) throws InterruptedException {
+        if (rowRateLimiter != null) {
+            rowRateLimiter.acquire(rows.size());
+        }
+        tabletSlots.acquire();
+        // Only devices with timeseries still being created wait for the schema worker
+        CompletableFuture<Void> schemaReady = ensureSchemaAsync(fullPath, rows, filePath);
+        CompletableFuture<List<String>> deviceWrite = lastDeviceWrites.compute(fullPath, (path, previous) -> {
+            CompletableFuture<?> predecessor = previous == null ? CompletableFuture.completedFuture(null) : previous;
+            return CompletableFuture.allOf(predecessor.handle((result, error) -> null),
+                    schemaReady.handle((result, error) -> null))
+                    .thenComposeAsync(ignored -> processBatchForDevice(fullPath, rows, csvSettingId, filePath),
+                            ioExecutor);
+        });
+        deviceWrite.whenComplete((result, error) -> {
+            tabletSlots.release();
+            lastDeviceWrites.remove(fullPath, deviceWrite);
+        });
+        return deviceWrite;
+    }
+
+    /**
+     * Requests the timeseries of a device that are not known yet from the schema
+     * worker. A failed request is not fatal here: the device write validates its
+     * schema again and fails its rows with the actual error.
+     */
+    private CompletableFuture<Void> ensureSchemaAsync(String fullPath, List<RowData> rows, String filePath) {
+        IoTDBDevice ioTDBSettings = tabletBuilder.findDevice(fullPath);
+        if (ioTDBSettings == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        try {
+            return schemaValidator.ensureSchemaAsync(fullPath, ioTDBSettings,
+                    tabletBuilder.resolveMeasurements(ioTDBSettings, rows));
+        } catch (IllegalStateException e) {
+            logger.debug("Cannot resolve the schema of device: {} ahead of the write. File: {}. Error: {}",
+                    fullPath, filePath, e.getMessage());
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+
+    /**
+     * Gets the number of device tablets currently being written.
+     *
+     * @return The number of in-flight tablets.
+     */
+    public int getInFlightTablets() {
+        return tabletSlots.getInFlight();
+    }
+
+    public int getMaxInFlightTablets() {
+        return tabletSlots.getMaxLimit();
+    }
+
+    /**
+     * Gets the p90 tracker of acknowledged tablet write latencies.
+     *
+     * @return The write latency tracker.
+     */
+    @Override
+    public LatencyTracker getWriteLatencies() {
+        return writeLatencies;
+    }
+
+    /**
+     * Logs tablets in flight, schema cache and worker, node, retry queue,
+     * hedging, outbox and fake server statistics.
+     */
+    @Override
+    public void logStats() {
+        logger.info("Writer stats - in-flight tablets: {}/{}, write RPCs: {}/{} (max {}), {} waiting",
+                tabletSlots.getInFlight(), tabletSlots.getMaxLimit(), concurrencyLimiter.getInFlight(),
+                concurrencyLimiter.getLimit(), concurrencyLimiter.getMaxLimit(), concurrencyLimiter.getWaiting());
+        SchemaCache schemaCache = getSchemaCache();
+        logger.info("Schema cache stats - {} of {} entries, {} hits, {} misses, hit ratio {}",
+                schemaCache.size(), schemaCache.getMaxEntries(), schemaCache.getHits(), schemaCache.getMisses(),
+                String.format("%.3f", schemaCache.getHitRatio()));
+        SchemaCreationWorker schemaWorker = getSchemaWorker();
+        logger.info("Schema worker stats - {} timeseries queued, {} processed in {} batches",
+                schemaWorker.getQueuedSeries(), schemaWorker.getProcessedSeries(), schemaWorker.getBatches());
+        for (IoTDBNode node : clientManager.getNodes()) {
+            logger.info("IoTDB node {} - {}, in flight {}, latency {} ms, {} requests, {} failures",
+                    node.getAddress(), node.getState(), node.getInFlight(),
+                    String.format("%.1f", node.getLatencyEwmaMillis()), node.getRequests(), node.getFailures());
+        }
+        logger.info("Retry queue - {} tablets waiting, oldest for {} ms, {} retries so far",
+                retryScheduler.getQueueDepth(), retryScheduler.getOldestAgeMillis(),
+                retryScheduler.getScheduledRetries());
+        if (timePartitionInterval > 0) {
+            logger.info("Time partitions - device rows split into {} tablets at partition boundaries of {}",
+                    partitionTablets.sum(), timePartitionInterval);
+        }
+        logger.info("Time order - {} of {} device tablets sorted before writing", tabletBuilder.getSortedTablets(),
+                tabletBuilder.getTablets());
+        if (clientManager.getHedgedRequests() > 0) {
+            logger.info("Hedged writes - {} hedged, {} won by the hedge", clientManager.getHedgedRequests(),
+                    clientManager.getHedgeWins());
+        }
+        if (outbox != null) {
+            outbox.logStats();
+        }
+        if (clientManager.getFakeServer() != null) {
+            clientManager.getFakeServer().logStats();
+        }
+    }
+
+    /**
+     * Gets the limiter bounding the write RPCs in flight, hedges included, for
+     * its current limit.
+     *
+     * @return The concurrency limiter.
+     */
+    public ConcurrencyLimiter getConcurrencyLimiter() {
+        return concurrencyLimiter;
+    }
+
+    /**
+     * Gets the schema cache consulted before each tablet write.
+     *
+     * @return The schema cache.
+     */
+    public SchemaCache getSchemaCache() {
+        return schemaValidator.getSchemaCache();
+    }
+
+    /**
+     * Gets the client manager routing the writes, for its node and hedging
+     * statistics.
+     *
+     * @return The client manager.
+     */
+    public IoTDBClientManager getClientManager() {
+        return clientManager;
+    }
+
+    /**
+     * Gets the background worker creating the schema of new devices.
+     *
+     * @return The schema worker.
+     */
+    public SchemaCreationWorker getSchemaWorker() {
+        return schemaValidator.getSchemaWorker();
+    }
+
+    private List<String> awaitDeviceWrite(String fullPath, CompletableFuture<List<String>> deviceWrite,
+            List<RowData> rows, String filePath) {
+        try {
+            return deviceWrite.join();
+        } catch (CompletionException | CancellationException e) {
+            logger.error("Unexpected error writing device: {}. File: {}. Error: {}", fullPath, filePath,
+                    e.getMessage(), e);
+            return TabletBuilder.rowIdsOf(rows);
+        }
+    }
+
+    /**
+     * Gets the scheduler holding tablets waiting for a retry, for its queue depth
+     * and age.
+     *
+     * @return The retry scheduler.
+     */
+    public RetryScheduler getRetryScheduler() {
+        return retryScheduler;
+    }
+
+    /**
+     * Stops the I/O executor after pending device writes have finished.
+     */
+    @Override
+    public void close() {
+        retryScheduler.close();
+        ioExecutor.shutdown();
+        try {
+            if (!ioExecutor.awaitTermination(60, TimeUnit.SECONDS)) {
+                logger.warn("IoTDB I/O executor did not terminate in time");
+            }
+        } catch (InterruptedException e) {
+            ioExecutor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
     }
 
     private String getFilePathForCsvSettingId(long csvSettingId) throws IOException {
@@ -83,32 +419,43 @@ public class IoTDBWriter {
         }
     }
 
-    private void processBatchForDevice(String fullPath, List<RowData> rows, long csvSettingId, String filePath,
-            List<String> failedRowIds) {
+    /**
+     * Writes the rows of a single device.
+     *
+     * @return A future completing with the IDs of the rows that could not be
+     *         written.
+     */
+    private CompletableFuture<List<String>> processBatchForDevice(String fullPath, List<RowData> rows, long csvSettingId,
+            String filePath) {
         logger.debug("Processing batch for device: {}. Batch size: {}. File: {}", fullPath, rows.size(), filePath);
-        IoTDBDevice ioTDBSettings = findMatchingDevice(fullPath);
+        IoTDBDevice ioTDBSettings = tabletBuilder.findDevice(fullPath);
         if (ioTDBSettings == null) {
             logger.warn("No matching IoTDBDevice found for path: {}. File: {}", fullPath, filePath);
-            return;
+            return CompletableFuture.completedFuture(new ArrayList<>());
         }
 
         try {
-            validateSchema(fullPath, ioTDBSettings, filePath);
-            List<String> rowIds = rows.stream().map(RowData::getRowId).collect(Collectors.toList());
-            Tablet tablet = createTablet(fullPath, rows, ioTDBSettings, filePath);
-            writeTablet(tablet, rows, ioTDBSettings.getIsAlignedTimeseries(), csvSettingId, filePath);
-
-            logger.info("Successfully wrote batch for path: {}. File: {}", fullPath, filePath);
+            List<IoTDBMeasurement> measurements = tabletBuilder.resolveMeasurements(ioTDBSettings, rows);
+            validateSchema(fullPath, ioTDBSettings, measurements, filePath);
+            List<RowData> sortedRows = tabletBuilder.sortByTime(rows);
+            Tablet tablet = tabletBuilder.createTablet(fullPath, sortedRows, measurements, filePath);
+            return writeTablet(tablet, sortedRows, measurements, ioTDBSettings.getIsAlignedTimeseries(), csvSettingId,
+                    filePath)
+                    .thenApply(failedRowIds -> {
+                        if (failedRowIds.isEmpty()) {
+                            logger.info("Successfully wrote batch for path: {}. File: {}", fullPath, filePath);
+                        }
+                        return failedRowIds;
+                    });
         } catch (Exception e) {
             logger.error("Failed to process batch for path: {}. File: {}. Error: {}", fullPath, filePath,
                     e.getMessage(), e);
-            failedRowIds.addAll(rows.stream().map(RowData::getRowId).collect(Collectors.toList()));
+            List<String> failedRowIds = TabletBuilder.rowIdsOf(rows);
             try (Connection conn = dbManager.getConnection()) {
                 conn.setAutoCommit(false);
                 try {
                     for (RowData row : rows) {
-                        rowProcessingDAO.updateRowStatus(csvSettingId, row.getRowId(), row.getRowNumber(),
-                                RowProcessingStatus.FAILED, e.getMessage(), conn);
+                        updateRowStatus(csvSettingId, row, RowProcessingStatus.FAILED, e.getMessage(), conn);
                     }
                     conn.commit();
                 } catch (SQLException sqlEx) {
@@ -119,12 +466,20 @@ public class IoTDBWriter {
             } catch (SQLException connEx) {
                 logger.error("Database connection error while updating row statuses", connEx);
             }
+            return CompletableFuture.completedFuture(failedRowIds);
         }
     }
 
-    private void validateSchema(String fullPath, IoTDBDevice ioTDBSettings, String filePath) throws Exception {
+    private void validateSchema(String fullPath, IoTDBDevice ioTDBSettings, List<IoTDBMeasurement> measurements,
+            String filePath) throws Exception {
         logger.debug("Validating schema for device: {}. File: {}", fullPath, filePath);
-        for (IoTDBMeasurement measurement : ioTDBSettings.getMeasurements()) {
+        if (Boolean.TRUE.equals(ioTDBSettings.getIsPivotMode())
+                && Boolean.TRUE.equals(ioTDBSettings.getIsAlignedTimeseries())) {
+            schemaValidator.ensureAlignedTimeseries(fullPath, measurements);
+            logger.debug("Schema validation successful for pivoted device: {}. File: {}", fullPath, filePath);
+            return;
+        }
+        for (IoTDBMeasurement measurement : measurements) {
             try {
                 schemaValidator.ensureTimeseries(fullPath, measurement.getName(), measurement.getDataType(),
                         measurement.getEncoding(), measurement.getCompression());
@@ -137,126 +492,257 @@ public class IoTDBWriter {
         logger.debug("Schema validation successful for device: {}. File: {}", fullPath, filePath);
     }
 
-    private IoTDBDevice findMatchingDevice(String fullPath) {
-        return iotdbSettingsList.stream()
-                .filter(device -> fullPath.startsWith(device.getDeviceId()))
-                .findFirst()
-                .orElse(null);
-    }
-
-    private Tablet createTablet(String fullPath, List<RowData> rows, IoTDBDevice ioTDBSettings, String filePath) {
-        List<IoTDBMeasurement> measurements = ioTDBSettings.getMeasurements();
-        List<MeasurementSchema> schemas = measurements.stream()
-                .map(measurement -> new MeasurementSchema(measurement.getName(), measurement.getDataType(),
-                        measurement.getEncoding(), measurement.getCompression()))
-                .collect(Collectors.toList());
-
-        logger.debug("Creating tablet for path: {}. Rows: {}, Measurements: {}. File: {}",
-                fullPath, rows.size(), measurements.size(), filePath);
-
-        Tablet tablet = new Tablet(fullPath, schemas, rows.size());
-
-        for (int i = 0; i < rows.size(); i++) {
-            RowData row = rows.get(i);
-            tablet.addTimestamp(i, row.getTimestamp());
-            for (IoTDBMeasurement measurement : measurements) {
-                Object value = row.getMeasurements().get(measurement.getName());
-                if (value != null) {
-                    try {
-                        tablet.addValue(measurement.getName(), i, value);
-                    } catch (ClassCastException e) {
-                        logger.error(
-                                "Type mismatch for measurement: {} in row {} for device: {}. File: {}. Expected: {}, Got: {}. Error: {}",
-                                measurement.getName(), i, fullPath, filePath, measurement.getDataType(),
-                                value.getClass().getSimpleName(),
-                                e.getMessage());
-                        // Handle the error (e.g., skip this value or use a default)
-                    }
-                } else {
-                    logger.warn("Missing value for measurement: {} in row {} for device: {}. File: {}",
-                            measurement.getName(), i, fullPath, filePath);
+    /**
+     * Writes a tablet, retrying failed attempts with backoff. Retries wait in the
+     * retry scheduler, so no thread is held during the backoff. A tablet rejected
+     * because of its data is split to isolate the offending rows.
+     *
+     * @return A future completing with the IDs of the rows that could not be
+     *         written.
+     */
+    private CompletableFuture<List<String>> writeTablet(Tablet tablet, List<RowData> rowDataList,
+            List<IoTDBMeasurement> measurements, Boolean isAligned, long csvSettingId, String filePath) {
+        logger.info("Attempting to write tablet for device: {}. Rows: {}, Aligned: {}. File: {}",
+                tablet.deviceId, tablet.rowSize, isAligned, filePath);
+        return attemptWrite(tablet, rowDataList, measurements, isAligned, csvSettingId, filePath, 0,
+                System.currentTimeMillis(), null);
+    }
+
+    /**
+     * Runs one attempt of a tablet write once the concurrency limiter grants a
+     * permit for its RPC.
+     *
+     * @param rejected Receives the rejection if IoTDB rejects the tablet because
+     *                 of its data, leaving its rows to the caller. If null, the
+     *                 rejected rows are isolated right away.
+     */
+    private CompletableFuture<List<String>> attemptWrite(Tablet tablet, List<RowData> rowDataList,
+            List<IoTDBMeasurement> measurements, Boolean isAligned, long csvSettingId, String filePath, int attempt,
+            long startTime, AtomicReference<StatementExecutionException> rejected) {
+        return concurrencyLimiter.acquireAsync().thenComposeAsync(ignored -> {
+            AtomicBoolean permitHeld = new AtomicBoolean(true);
+            try {
+                return runAttempt(tablet, rowDataList, measurements, isAligned, csvSettingId, filePath, attempt,
+                        startTime, permitHeld, rejected);
+            } finally {
+                // Released here if the attempt ended before its RPC was sent
+                if (permitHeld.compareAndSet(true, false)) {
+                    concurrencyLimiter.release();
                 }
             }
-        }
-
-        tablet.rowSize = rows.size();
-        logger.debug("Tablet created with {} rows for device: {}. File: {}", tablet.rowSize, fullPath, filePath);
-        return tablet;
+        }, ioExecutor);
     }
 
-    private void writeTablet(Tablet tablet, List<RowData> rowDataList, Boolean isAligned, long csvSettingId,
-            String filePath) {
-        int attempt = 0;
-        long startTime = System.currentTimeMillis();
-
-        logger.info("Attempting to write tablet for device: {}. Rows: {}, Aligned: {}. File: {}",
-                tablet.deviceId, tablet.rowSize, isAligned, filePath);
-        while (attempt <= this.maxRetries) {
-            try (Connection conn = dbManager.getConnection()) {
-                conn.setAutoCommit(false);
-                try {
-                    SessionPool sessionPool = clientManager.acquireSession();
+    private CompletableFuture<List<String>> runAttempt(Tablet tablet, List<RowData> rowDataList,
+            List<IoTDBMeasurement> measurements, Boolean isAligned, long csvSettingId, String filePath, int attempt,
+            long startTime, AtomicBoolean permitHeld, AtomicReference<StatementExecutionException> rejected) {
+        String errorType;
+        StatementExecutionException rejection = null;
+        try (Connection conn = dbManager.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                // Re-inserting the same timestamps is idempotent, so tablet writes may be hedged. Rows
+                // were sorted by time when the tablet was built, so neither session nor server sorts it.
+                long rpcStart = System.nanoTime();
+                // The permit covers the RPC only, not the state update or a backoff. It is handed to the
+                // client manager, which releases it once the RPC ends, even if a hedge answered first.
+                permitHeld.set(false);
+                clientManager.executeHedged(session -> {
                     logger.debug("Session acquired. Inserting tablet for device: {}. File: {}", tablet.deviceId,
                             filePath);
                     if (Boolean.TRUE.equals(isAligned)) {
-                        sessionPool.insertAlignedTablet(tablet);
+                        session.insertAlignedTablet(tablet, true);
                     } else {
-                        sessionPool.insertTablet(tablet);
+                        session.insertTablet(tablet, true);
                     }
+                    return null;
+                }, concurrencyLimiter);
+                long rpcLatency = System.nanoTime() - rpcStart;
+                concurrencyLimiter.onSuccess(rpcLatency);
+                writeLatencies.record(rpcLatency);
 
-                    // Update row statuses to COMPLETED
-                    for (RowData rowData : rowDataList) {
-                        rowProcessingDAO.updateRowStatus(csvSettingId, rowData.getRowId(), rowData.getRowNumber(),
-                                RowProcessingStatus.COMPLETED, null, conn);
-                        logger.debug("Row {} (number {}) successfully written", rowData.getRowId(),
-                                rowData.getRowNumber());
-                    }
+                // Update row statuses to COMPLETED
+                for (RowData rowData : rowDataList) {
+                    updateRowStatus(csvSettingId, rowData, RowProcessingStatus.COMPLETED, null, conn);
+                    logger.debug("Row {} (number {}) successfully written", rowData.getRowId(),
+                            rowData.getRowNumber());
+                }
 
-                    conn.commit();
-                    long duration = System.currentTimeMillis() - startTime;
-                    logger.info("Successfully inserted tablet for device: {} after {} attempts in {} ms. File: {}",
-                            tablet.deviceId, (attempt + 1), duration, filePath);
-                    return; // Success
-                } catch (IoTDBConnectionException | StatementExecutionException e) {
-                    conn.rollback();
-                    logger.error("Error writing tablet for device: {} on attempt {}. File: {}. Error: {}",
-                            tablet.deviceId, (attempt + 1), filePath, e.getMessage(), e);
-                    // Update row statuses to RETRY or FAILED
-                    for (RowData rowData : rowDataList) {
-                        RowProcessingStatus status = attempt < this.maxRetries ? RowProcessingStatus.RETRY
-                                : RowProcessingStatus.FAILED;
-                        rowProcessingDAO.updateRowStatus(csvSettingId, rowData.getRowId(), rowData.getRowNumber(),
-                                status,
-                                e.getMessage(), conn);
-                        logger.error("Failed to write row {} (number {}), status set to {}", rowData.getRowId(),
-                                rowData.getRowNumber(), status);
-                    }
-                    handleRetry(attempt, e.getClass().getSimpleName(), filePath);
-                } catch (SQLException e) {
-                    conn.rollback();
-                    logger.error("Database error while updating row statuses. File: {}. Error: {}", filePath,
-                            e.getMessage(), e);
-                    throw e; // Optional: decide whether to retry or fail
+                conn.commit();
+                long duration = System.currentTimeMillis() - startTime;
+                logger.info("Successfully inserted tablet for device: {} after {} attempts in {} ms. File: {}",
+                        tablet.deviceId, (attempt + 1), duration, filePath);
+                return CompletableFuture.completedFuture(new ArrayList<>()); // Success
+            } catch (StatementExecutionException e) {
+                conn.rollback();
+                if (!isTransientRejection(e)) {
+                    // The data itself was rejected, retrying the same tablet cannot succeed
+                    rejection = e;
+                } else {
+                    concurrencyLimiter.onDrop();
+                    markRowsForRetry(tablet, rowDataList, csvSettingId, filePath, attempt, e, conn);
                 }
+                errorType = e.getClass().getSimpleName();
+            } catch (IoTDBConnectionException e) {
+                conn.rollback();
+                concurrencyLimiter.onDrop();
+                markRowsForRetry(tablet, rowDataList, csvSettingId, filePath, attempt, e, conn);
+                errorType = e.getClass().getSimpleName();
             } catch (SQLException e) {
-                logger.error("Database connection error while writing tablet. File: {}. Error: {}", filePath,
+                conn.rollback();
+                logger.error("Database error while updating row statuses. File: {}. Error: {}", filePath,
                         e.getMessage(), e);
-                handleRetry(attempt, "DatabaseConnection", filePath);
+                throw e; // Optional: decide whether to retry or fail
+            }
+        } catch (SQLException e) {
+            logger.error("Database connection error while writing tablet. File: {}. Error: {}", filePath,
+                    e.getMessage(), e);
+            errorType = "DatabaseConnection";
+        }
+
+        if (rejection != null) {
+            if (rejected != null) {
+                rejected.set(rejection);
+                return CompletableFuture.completedFuture(new ArrayList<>());
             }
-            attempt++;
+            return isolateRejectedRows(tablet, rowDataList, measurements, isAligned, csvSettingId, filePath,
+                    rejection, 0);
+        }
+        if (attempt < this.maxRetries) {
+            long backoffTime = calculateBackoffTime(attempt);
+            logger.info("Retrying after {} ms due to {}. File: {}", backoffTime, errorType, filePath);
+            // The tablet keeps its slot during the backoff: later tablets of the device hold slots while they
+            // wait for it, so a released slot could be taken by them and never come back. Its RPC permit was
+            // already returned, so other devices keep writing.
+            return retryScheduler.schedule(() -> attemptWrite(tablet, rowDataList, measurements, isAligned,
+                    csvSettingId, filePath, attempt + 1, startTime, rejected), backoffTime);
+        }
+        logger.warn("Max retries reached for {}. Giving up. File: {}", errorType, filePath);
+
+        // Keep the converted tablet instead of failing its rows, so they need not be read again
+        if (outbox != null && outbox.spill(tablet, Boolean.TRUE.equals(isAligned), csvSettingId,
+                TabletBuilder.rowIdsOf(rowDataList))) {
+            return CompletableFuture.completedFuture(new ArrayList<>());
         }
 
         logger.error("Failed to insert tablet for device: {} after {} attempts. File: {}",
                 tablet.deviceId, (maxRetries + 1), filePath);
+        markRowsFailed(rowDataList, csvSettingId, "Max retries reached", filePath);
+        return CompletableFuture.completedFuture(TabletBuilder.rowIdsOf(rowDataList));
+    }
+
+    /**
+     * Isolates the rows that made IoTDB reject a tablet by splitting it in halves
+     * and writing each half on its own, recursively. Rows are in time order, so
+     * every half covers a contiguous time range. The halves are written one
+     * after the other under the slot of the tablet, and only a rejected half is
+     * split again. Splitting stops when both halves are rejected with the same
+     * status and message, as the whole slice is then rejected for one reason
+     * such as a type mismatch, and after
+     * {@value #MAX_ISOLATION_DEPTH} splits; the rows of such a slice, or of a
+     * single rejected row, are marked as failed. All other rows are written in
+     * this run.
+     *
+     * @param depth The number of splits that led to this slice.
+     * @return A future completing with the IDs of the rejected rows.
+     */
+    private CompletableFuture<List<String>> isolateRejectedRows(Tablet tablet, List<RowData> rowDataList,
+            List<IoTDBMeasurement> measurements, Boolean isAligned, long csvSettingId, String filePath,
+            StatementExecutionException rejection, int depth) {
+        if (rowDataList.size() == 1 || depth >= MAX_ISOLATION_DEPTH) {
+            return failRejectedRows(tablet, rowDataList, csvSettingId, filePath, rejection);
+        }
+
+        logger.warn("Tablet for device: {} with {} rows rejected, splitting it to isolate the rejected rows. "
+                + "File: {}. Error: {}", tablet.deviceId, rowDataList.size(), filePath, rejection.getMessage());
+        int middle = rowDataList.size() / 2;
+        List<RowData> firstHalf = rowDataList.subList(0, middle);
+        List<RowData> secondHalf = rowDataList.subList(middle, rowDataList.size());
+        Tablet firstTablet = tabletBuilder.createTablet(tablet.deviceId, firstHalf, measurements, filePath);
+        Tablet secondTablet = tabletBuilder.createTablet(tablet.deviceId, secondHalf, measurements, filePath);
+        AtomicReference<StatementExecutionException> firstRejection = new AtomicReference<>();
+        AtomicReference<StatementExecutionException> secondRejection = new AtomicReference<>();
+        return attemptWrite(firstTablet, firstHalf, measurements, isAligned, csvSettingId, filePath, 0,
+                System.currentTimeMillis(), firstRejection)
+                .thenCompose(firstFailed -> attemptWrite(secondTablet, secondHalf, measurements, isAligned,
+                        csvSettingId, filePath, 0, System.currentTimeMillis(), secondRejection)
+                        .thenCompose(secondFailed -> {
+                            StatementExecutionException first = firstRejection.get();
+                            StatementExecutionException second = secondRejection.get();
+                            if (first != null && second != null && isSameRejection(first, second)) {
+                                return failRejectedRows(tablet, rowDataList, csvSettingId, filePath, second);
+                            }
+                            CompletableFuture<List<String>> firstResult = first == null
+                                    ? CompletableFuture.completedFuture(firstFailed)
+                                    : isolateRejectedRows(firstTablet, firstHalf, measurements, isAligned,
+                                            csvSettingId, filePath, first, depth + 1);
+                            return firstResult.thenCompose(firstIds -> {
+                                CompletableFuture<List<String>> secondResult = second == null
+                                        ? CompletableFuture.completedFuture(secondFailed)
+                                        : isolateRejectedRows(secondTablet, secondHalf, measurements, isAligned,
+                                                csvSettingId, filePath, second, depth + 1);
+                                return secondResult.thenApply(secondIds -> {
+                                    List<String> failedRowIds = new ArrayList<>(firstIds);
+                                    failedRowIds.addAll(secondIds);
+                                    return failedRowIds;
+                                });
+                            });
+                        }));
+    }
+
+    private static boolean isSameRejection(StatementExecutionException first,
+            StatementExecutionException second) {
+        // Errors of single rows name the offending value or time, so their messages differ
+        return first.getStatusCode() == second.getStatusCode()
+                && Objects.equals(first.getMessage(), second.getMessage());
+    }
+
+    private CompletableFuture<List<String>> failRejectedRows(Tablet tablet, List<RowData> rowDataList,
+            long csvSettingId, String filePath, StatementExecutionException rejection) {
+        logger.error("{} rows from {} (number {}) rejected by IoTDB for device: {}. File: {}. Error: {}",
+                rowDataList.size(), rowDataList.get(0).getRowId(), rowDataList.get(0).getRowNumber(),
+                tablet.deviceId, filePath, rejection.getMessage());
+        markRowsFailed(rowDataList, csvSettingId, rejection.getMessage(), filePath);
+        return CompletableFuture.completedFuture(TabletBuilder.rowIdsOf(rowDataList));
+    }
+
+    /**
+     * Checks whether IoTDB rejected a request because it is temporarily
+     * overloaded or unavailable, rather than because of the data. Only such
+     * rejections are worth retrying with the same tablet.
+     *
+     * @param e The rejection.
+     * @return True if the status code of the rejection is transient.
+     */
+    public static boolean isTransientRejection(StatementExecutionException e) {
+        return TRANSIENT_STATUS_CODES.contains(e.getStatusCode());
+    }
+
+    private void markRowsForRetry(Tablet tablet, List<RowData> rowDataList, long csvSettingId, String filePath,
+            int attempt, Exception e, Connection conn) throws SQLException {
+        logger.error("Error writing tablet for device: {} on attempt {}. File: {}. Error: {}",
+                tablet.deviceId, (attempt + 1), filePath, e.getMessage(), e);
+        // Update row statuses to RETRY or FAILED
+        for (RowData rowData : rowDataList) {
+            RowProcessingStatus status = attempt < this.maxRetries ? RowProcessingStatus.RETRY
+                    : RowProcessingStatus.FAILED;
+            updateRowStatus(csvSettingId, rowData, status, e.getMessage(), conn);
+            logger.error("Failed to write row {} (number {}), status set to {}", rowData.getRowId(),
+                    rowData.getRowNumber(), status);
+        }
+        conn.commit();
+    }
+
+    private void markRowsFailed(List<RowData> rowDataList, long csvSettingId, String errorMessage,
+            String filePath) {
         // Update row statuses to FAILED
         try (Connection conn = dbManager.getConnection()) {
             conn.setAutoCommit(false);
             try {
                 for (RowData rowData : rowDataList) {
-                    rowProcessingDAO.updateRowStatus(csvSettingId, rowData.getRowId(), rowData.getRowNumber(),
-                            RowProcessingStatus.FAILED, "Max retries reached", conn);
-                    logger.error("Row {} (number {}) failed after max retries", rowData.getRowId(),
-                            rowData.getRowNumber());
+                    updateRowStatus(csvSettingId, rowData, RowProcessingStatus.FAILED, errorMessage, conn);
+                    logger.error("Row {} (number {}) failed: {}", rowData.getRowId(), rowData.getRowNumber(),
+                            errorMessage);
                 }
                 conn.commit();
             } catch (SQLException e) {
@@ -269,20 +755,16 @@ public class IoTDBWriter {
         }
     }
 
-    private void handleRetry(int attempt, String errorType, String filePath) {
-        if (attempt >= this.maxRetries) {
-            logger.warn("Max retries reached for {}. Giving up. File: {}", errorType, filePath);
-            return;
-        }
-
-        long backoffTime = calculateBackoffTime(attempt);
-        logger.info("Retrying after {} ms due to {}. File: {}", backoffTime, errorType, filePath);
-
-        try {
-            Thread.sleep(backoffTime);
-        } catch (InterruptedException ie) {
-            Thread.currentThread().interrupt();
-            logger.warn("Thread interrupted during backoff. File: {}", filePath);
+    /**
+     * Updates the status of every source row a converted row was built from.
+     */
+    private void updateRowStatus(long csvSettingId, RowData rowData, RowProcessingStatus status,
+            String errorMessage, Connection conn) throws SQLException {
+        List<String> rowIds = rowData.getRowIds();
+        List<Integer> rowNumbers = rowData.getRowNumbers();
+        for (int i = 0; i < rowIds.size(); i++) {
+            rowProcessingDAO.updateRowStatus(csvSettingId, rowIds.get(i), rowNumbers.get(i), status, errorMessage,
+                    conn);
         }
     }
 
@@ -1,15 +1,31 @@
 package org.kreps.csvtoiotdb;
 
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.List;
 
+import org.apache.iotdb.rpc.IoTDBConnectionException;
+import org.apache.iotdb.rpc.StatementExecutionException;
 import org.kreps.csvtoiotdb.configs.MigrationConfig;
-import org.kreps.csvtoiotdb.configs.csv.CsvSettings;
+import org.kreps.csvtoiotdb.configs.ResumeStrategy;
+import org.kreps.csvtoiotdb.configs.iotdb.IoTDBDevice;
+import org.kreps.csvtoiotdb.configs.iotdb.IoTDBSettings;
+import org.kreps.csvtoiotdb.configs.iotdb.SinkType;
+import org.kreps.csvtoiotdb.downsample.Downsampler;
+import org.kreps.csvtoiotdb.outbox.Outbox;
+import org.kreps.csvtoiotdb.pipeline.MigrationPipeline;
+import org.kreps.csvtoiotdb.resume.WatermarkIndex;
+import org.kreps.csvtoiotdb.scheduler.FileScheduler;
+import org.kreps.csvtoiotdb.sink.NullSink;
+import org.kreps.csvtoiotdb.sink.Sink;
+import org.kreps.csvtoiotdb.sink.TabletFileSink;
+import org.kreps.csvtoiotdb.tsfile.TsFileSink;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class Main {
     private static final Logger logger = LoggerFactory.getLogger(Main.class);
+    private static final long DEFAULT_TIME_PARTITION_INTERVAL = 604_800_000L;
 
     public static void main(String[] args) throws Exception {
         try {
@@ -29,40 +45,79 @@ public class Main {
 
             // Initialize other components
             IoTDBClientManager clientManager = new IoTDBClientManager(config.getIotdbSettings());
-            IoTDBSchemaValidator schemaValidator = new IoTDBSchemaValidator(clientManager);
-            schemaValidator.validateAndCreateTimeseriesForDevices(config.getIotdbSettings().getDevices());
-            logger.info("Schema validation completed.");
+            IoTDBSchemaValidator schemaValidator = new IoTDBSchemaValidator(clientManager,
+                    config.getIotdbSettings().getSchemaCacheSize(), config.getIotdbSettings().getSchemaBatchSize());
+            SinkType sinkType = config.getIotdbSettings().getSinkType() != null
+                    ? config.getIotdbSettings().getSinkType()
+                    : SinkType.IOTDB;
+            // Downsampled measurements are written as one timeseries per aggregation function
+            List<IoTDBDevice> outputDevices = Downsampler.outputDevices(config.getIotdbSettings().getDevices());
+            if (sinkType == SinkType.IOTDB || (sinkType == SinkType.TSFILE
+                    && Boolean.TRUE.equals(config.getIotdbSettings().getIsTsFileAutoLoad()))) {
+                schemaValidator.validateAndCreateTimeseriesForDevices(outputDevices,
+                        config.getIotdbSettings().getConnectionPoolSize()
+                                * config.getIotdbSettings().getConnections().size());
+                logger.info("Schema validation completed.");
+            } else {
+                logger.info("Writing to the {} sink, skipping schema validation.", sinkType);
+            }
 
             ThreadManager threadManager = new ThreadManager(config.getMigrationSettings().getThreadsNumber());
 
             Converter converter = new Converter(config.getIotdbSettings(), config.getCsvSettings(),
                     H2DatabaseManager.getInstance());
 
-            IoTDBWriter writer = new IoTDBWriter(
-                    clientManager,
-                    schemaValidator,
-                    config.getIotdbSettings().getDevices(),
-                    config.getIotdbSettings().getMaxRetries(),
-                    config.getIotdbSettings().getRetryInterval(),
-                    config.getIotdbSettings().getMaxBackoffTime(),
-                    H2DatabaseManager.getInstance());
-            logger.info("IoTDBWriter initialized.");
+            IoTDBSettings iotdbSettings = config.getIotdbSettings();
+            Outbox outbox = null;
+            if (sinkType == SinkType.IOTDB && iotdbSettings.getOutboxDirectory() != null
+                    && !iotdbSettings.getOutboxDirectory().isEmpty()) {
+                outbox = new Outbox(iotdbSettings.getOutboxDirectory(), iotdbSettings.getOutboxMaxBytes(),
+                        iotdbSettings.getOutboxReplayIntervalMillis(), clientManager, H2DatabaseManager.getInstance());
+            }
 
-            BlockingQueue<CsvSettings> csvSettingsQueue = new LinkedBlockingQueue<>(config.getCsvSettings());
+            Sink sink = createSink(sinkType, iotdbSettings, outputDevices, clientManager, schemaValidator, outbox);
+            logger.info("{} sink initialized.", sinkType);
+
+            Downsampler downsampler = null;
+            if (Downsampler.isConfigured(iotdbSettings.getDevices())) {
+                downsampler = new Downsampler(iotdbSettings.getDevices(), iotdbSettings.getDownsamplingOpenBuckets());
+            }
+            MigrationPipeline pipeline = new MigrationPipeline(converter, downsampler, sink,
+                    config.getMigrationSettings(), H2DatabaseManager.getInstance());
+
+            ResumeStrategy resumeStrategy = config.getMigrationSettings().getResumeStrategy();
+            WatermarkIndex watermarks = null;
+            if (resumeStrategy == ResumeStrategy.WATERMARK || resumeStrategy == ResumeStrategy.WATERMARK_PER_FILE) {
+                watermarks = new WatermarkIndex(clientManager, iotdbSettings.getDevices(),
+                        resumeStrategy == ResumeStrategy.WATERMARK_PER_FILE);
+            }
+
+            FileScheduler scheduler = new FileScheduler(config.getCsvSettings(),
+                    config.getMigrationSettings().getThreadsNumber());
 
             // Submit migration tasks
             for (int i = 0; i < config.getMigrationSettings().getThreadsNumber(); i++) {
                 threadManager.submitTask(
-                        new MigrateTask(csvSettingsQueue, converter, writer,
-                                config.getMigrationSettings().getBatchSize(),
-                                H2DatabaseManager.getInstance()));
+                        new MigrateTask(scheduler, i, pipeline, H2DatabaseManager.getInstance(), watermarks));
                 logger.info("Submitted migration task {}", i + 1);
             }
 
-            // Shutdown the ThreadManager after all tasks are completed
+            // Wait until every file has been read, then shutdown the ThreadManager
+            scheduler.awaitCompletion();
             threadManager.shutdown();
             logger.info("ThreadManager shutdown initiated.");
 
+            // Drain the convert and write stages
+            pipeline.close();
+            if (watermarks != null) {
+                watermarks.logStats();
+            }
+            sink.close();
+            if (outbox != null) {
+                outbox.close();
+            }
+            schemaValidator.close();
+
             // Close the IoTDBClientManager
             clientManager.close();
             logger.info("IoTDBClientManager closed.");
@@ -76,4 +131,71 @@ public class Main {
             H2DatabaseManager.getInstance().shutdown();
         }
     }
+
+    private static Sink createSink(SinkType sinkType, IoTDBSettings iotdbSettings, List<IoTDBDevice> devices,
+            IoTDBClientManager clientManager, IoTDBSchemaValidator schemaValidator, Outbox outbox)
+            throws IOException, SQLException {
+        switch (sinkType) {
+            case TSFILE:
+                return new TsFileSink(devices, iotdbSettings.getTsFileDirectory(),
+                        iotdbSettings.getTsFileMaxRows(),
+                        Boolean.TRUE.equals(iotdbSettings.getIsTsFileAutoLoad()) ? clientManager : null,
+                        H2DatabaseManager.getInstance());
+            case TABLET_FILE:
+                return new TabletFileSink(devices, iotdbSettings.getTabletFilePath(),
+                        H2DatabaseManager.getInstance());
+            case NULL:
+                return new NullSink(H2DatabaseManager.getInstance());
+            case IOTDB:
+            default:
+                return new IoTDBWriter(
+                        clientManager,
+                        schemaValidator,
+                        devices,
+                        iotdbSettings.getMaxRetries(),
+                        iotdbSettings.getRetryInterval(),
+                        iotdbSettings.getMaxBackoffTime(),
+                        iotdbSettings.getConnectionPoolSize() * iotdbSettings.getConnections().size(),
+                        maxInFlightTablets(iotdbSettings),
+                        Boolean.TRUE.equals(iotdbSettings.getIsAdaptiveConcurrency()),
+                        iotdbSettings.getMaxRowsPerSecond(),
+                        timePartitionInterval(iotdbSettings, clientManager),
+                        outbox,
+                        H2DatabaseManager.getInstance());
+        }
+    }
+
+    /**
+     * Resolves the time partition interval tablets are split at: the configured
+     * interval, otherwise the one the cluster reports, otherwise the IoTDB
+     * default of 7 days.
+     *
+     * @return The interval, or 0 if tablets are not split.
+     */
+    private static long timePartitionInterval(IoTDBSettings iotdbSettings, IoTDBClientManager clientManager) {
+        if (!Boolean.TRUE.equals(iotdbSettings.getIsTimePartitionAware())) {
+            return 0;
+        }
+        if (iotdbSettings.getTimePartitionInterval() > 0) {
+            return iotdbSettings.getTimePartitionInterval();
+        }
+        try {
+            long interval = clientManager.queryTimePartitionInterval();
+            if (interval > 0) {
+                logger.info("Using the time partition interval of the cluster: {}", interval);
+                return interval;
+            }
+        } catch (IoTDBConnectionException | StatementExecutionException e) {
+            logger.warn("Cannot query the time partition interval of the cluster: {}", e.getMessage());
+        }
+        logger.warn("Using the default time partition interval: {}", DEFAULT_TIME_PARTITION_INTERVAL);
+        return DEFAULT_TIME_PARTITION_INTERVAL;
+    }
+
+    private static int maxInFlightTablets(IoTDBSettings iotdbSettings) {
+        int perConnection = iotdbSettings.getMaxInFlightTabletsPerConnection() > 0
+                ? iotdbSettings.getMaxInFlightTabletsPerConnection()
+                : iotdbSettings.getConnectionPoolSize();
+        return perConnection * iotdbSettings.getConnections().size();
+    }
 }
\ No newline at end of file
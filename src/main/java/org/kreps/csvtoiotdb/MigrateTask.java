@@ -4,12 +4,9 @@ import java.io.IOException;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.concurrent.BlockingQueue;
-import java.util.stream.Collectors;
 
 import org.kreps.csvtoiotdb.DAO.CsvSettingsDAO;
 import org.kreps.csvtoiotdb.DAO.CsvStatus;
@@ -17,188 +14,245 @@ import org.kreps.csvtoiotdb.DAO.JobStatus;
 import org.kreps.csvtoiotdb.DAO.JobsDAO;
 import org.kreps.csvtoiotdb.DAO.LogLevel;
 import org.kreps.csvtoiotdb.DAO.MigrationLogsDAO;
-import org.kreps.csvtoiotdb.DAO.RowProcessingDAO;
-import org.kreps.csvtoiotdb.DAO.RowProcessingStatus;
 import org.kreps.csvtoiotdb.configs.csv.CsvSettings;
-import org.kreps.csvtoiotdb.converter.RowData;
+import org.kreps.csvtoiotdb.merge.TimeMerger;
+import org.kreps.csvtoiotdb.pipeline.BatchSizeController;
+import org.kreps.csvtoiotdb.pipeline.FileContext;
+import org.kreps.csvtoiotdb.pipeline.MigrationPipeline;
+import org.kreps.csvtoiotdb.resume.WatermarkIndex;
+import org.kreps.csvtoiotdb.scheduler.FileScheduler;
+import org.kreps.csvtoiotdb.scheduler.FileWork;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Represents a migration task that processes CSV files and writes data to
- * IoTDB.
+ * Represents the parse stage of a migration. It pulls files from the
+ * {@link FileScheduler}, reads them in batches and hands the batches to the
+ * {@link MigrationPipeline}, which converts them and writes the data to IoTDB.
+ * The files of a merge group are read together and handed over in timestamp
+ * order.
  */
 public class MigrateTask implements Runnable {
     private static final Logger logger = LoggerFactory.getLogger(MigrateTask.class);
 
-    private final BlockingQueue<CsvSettings> csvSettingsQueue;
-    private final Converter converter;
-    private final IoTDBWriter writer;
-    private final int batchSize;
+    private final FileScheduler scheduler;
+    private final int workerIndex;
+    private final MigrationPipeline pipeline;
     private final CsvSettingsDAO csvSettingsDAO;
-    private final RowProcessingDAO rowProcessingDAO;
     private final MigrationLogsDAO logsDAO;
     private final JobsDAO jobsDAO;
     private final H2DatabaseManager dbManager;
+    private final WatermarkIndex watermarks;
 
-    public MigrateTask(BlockingQueue<CsvSettings> csvSettingsQueue,
-            Converter converter, IoTDBWriter writer, int batchSize, H2DatabaseManager dbManager) throws SQLException {
-        this.csvSettingsQueue = csvSettingsQueue;
-        this.converter = converter;
-        this.writer = writer;
-        this.batchSize = batchSize;
+    public MigrateTask(FileScheduler scheduler, int workerIndex, MigrationPipeline pipeline,
+            H2DatabaseManager dbManager, WatermarkIndex watermarks) throws SQLException {
+        this.scheduler = scheduler;
+        this.workerIndex = workerIndex;
+        this.pipeline = pipeline;
         this.dbManager = dbManager;
+        this.watermarks = watermarks;
         this.csvSettingsDAO = new CsvSettingsDAO();
-        this.rowProcessingDAO = new RowProcessingDAO();
         this.logsDAO = new MigrationLogsDAO();
         this.jobsDAO = new JobsDAO();
     }
 
     @Override
     public void run() {
-        while (true) {
-            CsvSettings csvSettings = csvSettingsQueue.poll();
-            if (csvSettings == null) {
-                logger.info("No more CSV settings to process. Thread exiting.");
-                break;
+        FileWork file;
+        while (!Thread.currentThread().isInterrupted() && (file = scheduler.next(workerIndex)) != null) {
+            try {
+                if (file.isMergeGroup()) {
+                    migrateMergeGroup(file.getCsvSettings(), file.getFilePaths());
+                } else {
+                    migrateFile(file.getCsvSettings(), file.getFilePath());
+                }
+            } finally {
+                scheduler.markDone(file);
+            }
+        }
+        logger.info("No more CSV files to process. Thread exiting.");
+    }
+
+    private void migrateFile(CsvSettings csvSettings, String filePath) {
+        FileContext fileContext = startFile(filePath);
+        if (fileContext == null) {
+            return;
+        }
+        BatchSizeController batchSizeController = pipeline.getBatchSizeController();
+        try (CSVReader csvReader = new CSVReader(csvSettings, filePath, batchSizeController.getBatchSize(),
+                dbManager, watermarks)) {
+            List<Map<String, Object>> batch;
+            while ((batch = readBatch(csvReader, batchSizeController)) != null) {
+                // Blocks while the convert stage is saturated
+                pipeline.submit(fileContext, batch);
             }
+        } catch (IOException e) {
+            pipeline.handleFileFailure(fileContext,
+                    "Error opening or reading CSV file: " + e.getMessage());
+        } catch (SQLException e) {
+            pipeline.handleFileFailure(fileContext,
+                    "Database error while reading CSV file: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            pipeline.handleFileFailure(fileContext, "Migration interrupted while reading CSV file");
+        } finally {
+            pipeline.completeReading(fileContext);
+        }
+    }
 
-            for (String filePath : csvSettings.getFilePaths()) {
-                Connection conn = null;
+    /**
+     * Reads the files of a merge group together and submits their rows in
+     * timestamp order. Every round of up to one batch of rows is submitted as
+     * one batch per file, so row state and commits stay per file while IoTDB
+     * receives the files' overlapping time ranges in almost increasing order.
+     */
+    private void migrateMergeGroup(CsvSettings csvSettings, List<String> filePaths) {
+        BatchSizeController batchSizeController = pipeline.getBatchSizeController();
+        // Every file holds one chunk, so the group buffers about one batch of rows, or a minimum chunk per file
+        TimeMerger merger = new TimeMerger(
+                Math.max(TimeMerger.MIN_CHUNK_ROWS, batchSizeController.getBatchSize() / filePaths.size()));
+        List<FileContext> openFiles = new ArrayList<>();
+        List<CSVReader> readers = new ArrayList<>();
+        try {
+            for (String filePath : filePaths) {
+                FileContext fileContext = startFile(filePath);
+                if (fileContext == null) {
+                    continue;
+                }
+                CSVReader csvReader;
                 try {
-                    conn = dbManager.getConnection();
-                    conn.setAutoCommit(false);
-
-                    Optional<Long> optionalId = csvSettingsDAO.getCsvSettingId(filePath);
-                    if (!optionalId.isPresent()) {
-                        logger.error("CSV setting not found in database for file: {}", filePath);
-                        continue;
-                    }
-                    long csvSettingId = optionalId.get();
-
-                    // Update status to IN_PROGRESS
-                    csvSettingsDAO.updateStatus(csvSettingId, CsvStatus.IN_PROGRESS, conn);
-                    logsDAO.insertLog(csvSettingId, LogLevel.INFO, "Migration started for file: " + filePath, conn);
-
-                    // Check if a job already exists, if not, create a new one
-                    Optional<Long> existingJobId = jobsDAO.getLatestJobIdByCsvSettingId(csvSettingId, conn);
-                    long jobId;
-                    if (existingJobId.isPresent()) {
-                        jobId = existingJobId.get();
-                        jobsDAO.updateJobStatus(jobId, JobStatus.IN_PROGRESS, null, conn);
-                        logger.info("Updated existing job {} for file: {}", jobId, filePath);
-                    } else {
-                        jobId = jobsDAO.createJob(csvSettingId, conn);
-                        logger.info("Created new job {} for file: {}", jobId, filePath);
-                    }
-
-                    conn.commit();
-
-                    try (CSVReader csvReader = new CSVReader(csvSettings, this.batchSize, dbManager)) {
-                        List<Map<String, Object>> batch;
-                        while ((batch = csvReader.readBatch()) != null) {
-                            processBatch(batch, csvSettingId, conn);
-                            conn.commit(); // Commit after each batch
-                        }
-                        conn.commit(); // Commit after all batches (this will include the total rows update)
-
-                        // Update status to COMPLETED
-                        csvSettingsDAO.updateStatus(csvSettingId, CsvStatus.COMPLETED, conn);
-                        logsDAO.insertLog(csvSettingId, LogLevel.INFO, "Migration completed for file: " + filePath,
-                                conn);
-                        jobsDAO.updateJobStatus(jobId, JobStatus.COMPLETED, null, conn);
-                        logger.info("Migration completed for file: {}", filePath);
-                        conn.commit();
-                    } catch (IOException e) {
-                        conn.rollback();
-                        String errorMessage = "Error opening or reading CSV file: " + e.getMessage();
-                        handleMigrationFailure(csvSettingId, filePath, errorMessage, conn);
-                    }
-                } catch (SQLException e) {
-                    logger.error("Database error during migration task: {}", e.getMessage(), e);
-                    if (conn != null) {
-                        try {
-                            conn.rollback();
-                        } catch (SQLException rollbackEx) {
-                            logger.error("Error rolling back transaction", rollbackEx);
-                        }
-                    }
+                    csvReader = new CSVReader(csvSettings, filePath, batchSizeController.getBatchSize(), dbManager,
+                            watermarks);
+                } catch (IOException | SQLException e) {
+                    pipeline.handleFileFailure(fileContext, "Error opening CSV file: " + e.getMessage());
+                    pipeline.completeReading(fileContext);
+                    continue;
+                }
+                openFiles.add(fileContext);
+                readers.add(csvReader);
+                merger.addSource(fileContext, csvReader);
+            }
+            logger.info("Merging {} files in timestamp order: {}", openFiles.size(), filePaths);
+            finishSources(merger, openFiles);
+
+            while (!merger.isDone()) {
+                Map<FileContext, List<Map<String, Object>>> round;
+                pipeline.parseStarted();
+                try {
+                    round = merger.nextRound(batchSizeController.getBatchSize());
                 } finally {
-                    if (conn != null) {
-                        try {
-                            conn.setAutoCommit(true);
-                            conn.close();
-                        } catch (SQLException e) {
-                            logger.error("Error closing database connection", e);
-                        }
-                    }
+                    pipeline.parseFinished();
+                }
+                for (Map.Entry<FileContext, List<Map<String, Object>>> entry : round.entrySet()) {
+                    // Blocks while the convert stage is saturated
+                    pipeline.submit(entry.getKey(), entry.getValue());
                 }
+                finishSources(merger, openFiles);
+            }
+            merger.logStats();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            for (FileContext fileContext : openFiles) {
+                pipeline.handleFileFailure(fileContext, "Migration interrupted while reading CSV file");
+            }
+        } finally {
+            for (CSVReader csvReader : readers) {
+                try {
+                    csvReader.close();
+                } catch (IOException e) {
+                    logger.error("Error closing CSV reader", e);
+                }
+            }
+            for (FileContext fileContext : openFiles) {
+                pipeline.completeReading(fileContext);
             }
         }
     }
 
-    private void processBatch(List<Map<String, Object>> batch, long csvSettingId, Connection conn)
-            throws SQLException, IOException {
-        Map<String, List<RowData>> deviceDataMap = new HashMap<>();
-        List<String> failedRowIds = new ArrayList<>();
-
-        try {
-            deviceDataMap = converter.convert(batch, csvSettingId);
-        } catch (SQLException e) {
-            logger.error("Error during batch conversion for csvSettingId: {}. Error: {}", csvSettingId, e.getMessage(),
-                    e);
-            // Mark all rows as failed if conversion fails
-            failedRowIds = batch.stream()
-                    .map(row -> (String) row.get("row_id"))
-                    .collect(Collectors.toList());
+    /**
+     * Completes reading the files the merge is done with, after all their rows
+     * have been submitted.
+     */
+    private void finishSources(TimeMerger merger, List<FileContext> openFiles) {
+        for (TimeMerger.MergeSource source : merger.takeFinished()) {
+            if (source.getError() != null) {
+                pipeline.handleFileFailure(source.getFile(),
+                        "Error opening or reading CSV file: " + source.getError().getMessage());
+            }
+            openFiles.remove(source.getFile());
+            pipeline.completeReading(source.getFile());
         }
+    }
 
-        if (!deviceDataMap.isEmpty()) {
-            List<String> writeFailedRowIds = writer.writeData(deviceDataMap, csvSettingId);
-            failedRowIds.addAll(writeFailedRowIds);
-        }
+    /**
+     * Marks a file as in progress and creates or resumes its job.
+     *
+     * @param filePath The path of the file.
+     * @return The pipeline context of the file, or null if the file cannot be
+     *         started.
+     */
+    private FileContext startFile(String filePath) {
+        Connection conn = null;
+        try {
+            conn = dbManager.getConnection();
+            conn.setAutoCommit(false);
 
-        int successfulRows = batch.size() - failedRowIds.size();
-        int failedRows = failedRowIds.size();
+            Optional<Long> optionalId = csvSettingsDAO.getCsvSettingId(filePath);
+            if (!optionalId.isPresent()) {
+                logger.error("CSV setting not found in database for file: {}", filePath);
+                return null;
+            }
+            long csvSettingId = optionalId.get();
 
-        // Get the latest job ID for this CSV setting
-        Optional<Long> latestJobId = jobsDAO.getLatestJobIdByCsvSettingId(csvSettingId, conn);
-        if (latestJobId.isPresent()) {
-            long jobId = latestJobId.get();
-            jobsDAO.updateJobProgress(jobId, successfulRows, failedRows, conn);
-        }
+            // Update status to IN_PROGRESS
+            csvSettingsDAO.updateStatus(csvSettingId, CsvStatus.IN_PROGRESS, conn);
+            logsDAO.insertLog(csvSettingId, LogLevel.INFO, "Migration started for file: " + filePath, conn);
 
-        csvSettingsDAO.incrementProcessedRows(csvSettingId, successfulRows, conn);
+            // Check if a job already exists, if not, create a new one
+            Optional<Long> existingJobId = jobsDAO.getLatestJobIdByCsvSettingId(csvSettingId, conn);
+            long jobId;
+            if (existingJobId.isPresent()) {
+                jobId = existingJobId.get();
+                jobsDAO.updateJobStatus(jobId, JobStatus.IN_PROGRESS, null, conn);
+                logger.info("Updated existing job {} for file: {}", jobId, filePath);
+            } else {
+                jobId = jobsDAO.createJob(csvSettingId, conn);
+                logger.info("Created new job {} for file: {}", jobId, filePath);
+            }
 
-        if (!failedRowIds.isEmpty()) {
-            updateRowStatuses(csvSettingId, failedRowIds, RowProcessingStatus.FAILED,
-                    "Failed to process or write row", conn);
+            conn.commit();
+            return new FileContext(csvSettingId, filePath, jobId);
+        } catch (SQLException e) {
+            logger.error("Database error during migration task: {}", e.getMessage(), e);
+            if (conn != null) {
+                try {
+                    conn.rollback();
+                } catch (SQLException rollbackEx) {
+                    logger.error("Error rolling back transaction", rollbackEx);
+                }
+            }
+            return null;
+        } finally {
+            if (conn != null) {
+                try {
+                    conn.setAutoCommit(true);
+                    conn.close();
+                } catch (SQLException e) {
+                    logger.error("Error closing database connection", e);
+                }
+            }
         }
-
-        String logMessage = String.format("Processed batch: %d successful, %d failed", successfulRows, failedRows);
-        logsDAO.insertLog(csvSettingId, failedRows > 0 ? LogLevel.WARNING : LogLevel.INFO, logMessage, conn);
-    }
-
-    private void updateRowStatuses(long csvSettingId, List<String> rowIds, RowProcessingStatus status,
-            String errorMessage, Connection conn) throws SQLException {
-        rowProcessingDAO.updateRowStatuses(csvSettingId, rowIds, status, errorMessage, conn);
     }
 
-    private void handleMigrationFailure(long csvSettingId, String filePath, String errorMessage, Connection conn)
-            throws SQLException {
-        csvSettingsDAO.updateStatus(csvSettingId, CsvStatus.FAILED, conn);
-        csvSettingsDAO.updateErrorMessage(csvSettingId, errorMessage, conn);
-        logsDAO.insertLog(csvSettingId, LogLevel.ERROR,
-                "Migration failed for file: " + filePath + " - " + errorMessage, conn);
-
-        // Get the latest job ID for this CSV setting
-        Optional<Long> latestJobId = jobsDAO.getLatestJobIdByCsvSettingId(csvSettingId, conn);
-        if (latestJobId.isPresent()) {
-            long jobId = latestJobId.get();
-            jobsDAO.updateJobStatus(jobId, JobStatus.FAILED, errorMessage, conn);
+    private List<Map<String, Object>> readBatch(CSVReader csvReader, BatchSizeController batchSizeController)
+            throws IOException, SQLException {
+        // Picks up batch size changes made while the previous batches were written
+        csvReader.setBatchSize(batchSizeController.getBatchSize());
+        pipeline.parseStarted();
+        try {
+            return csvReader.readBatch();
+        } finally {
+            pipeline.parseFinished();
         }
-
-        logger.error("Migration failed for file: {} - {}", filePath, errorMessage);
-        conn.commit();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,109 @@
+package org.kreps.csvtoiotdb;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Delays retries without holding a worker thread. A retry waits in a delayed
+ * queue serviced by a single scheduler thread and, once due, runs on the given
+ * executor. Callers get a future completing with the result of the retry, so
+ * the work depending on it can be chained instead of waiting.
+ */
+public class RetryScheduler {
+    private static final Logger logger = LoggerFactory.getLogger(RetryScheduler.class);
+
+    private final ScheduledExecutorService scheduler;
+    private final Executor executor;
+    private final ConcurrentHashMap<Long, Long> queuedSince;
+    private final AtomicLong retryIds;
+
+    /**
+     * Constructs a RetryScheduler instance.
+     *
+     * @param executor The executor running the retries once they are due.
+     */
+    public RetryScheduler(Executor executor) {
+        this.executor = executor;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "retry-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.queuedSince = new ConcurrentHashMap<>();
+        this.retryIds = new AtomicLong();
+    }
+
+    /**
+     * Schedules a retry.
+     *
+     * @param retry       The retry, returning a future of its own result.
+     * @param delayMillis The backoff before the retry runs.
+     * @param <T>         The type of the retry result.
+     * @return A future completing with the result of the retry.
+     */
+    public <T> CompletableFuture<T> schedule(Supplier<CompletableFuture<T>> retry, long delayMillis) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        long retryId = retryIds.incrementAndGet();
+        queuedSince.put(retryId, System.currentTimeMillis());
+        scheduler.schedule(() -> {
+            queuedSince.remove(retryId);
+            CompletableFuture.supplyAsync(retry, executor)
+                    .thenCompose(future -> future)
+                    .whenComplete((value, error) -> {
+                        if (error != null) {
+                            result.completeExceptionally(error);
+                        } else {
+                            result.complete(value);
+                        }
+                    });
+        }, delayMillis, TimeUnit.MILLISECONDS);
+        return result;
+    }
+
+    /**
+     * Gets the number of retries waiting for their backoff to elapse.
+     *
+     * @return The retry queue depth.
+     */
+    public int getQueueDepth() {
+        return queuedSince.size();
+    }
+
+    /**
+     * Gets how long the oldest queued retry has been waiting.
+     *
+     * @return The age in milliseconds, or 0 if no retry is queued.
+     */
+    public long getOldestAgeMillis() {
+        long now = System.currentTimeMillis();
+        return queuedSince.values().stream().mapToLong(since -> now - since).max().orElse(0);
+    }
+
+    /**
+     * Gets the number of retries scheduled so far.
+     *
+     * @return The total number of retries.
+     */
+    public long getScheduledRetries() {
+        return retryIds.get();
+    }
+
+    /**
+     * Stops the scheduler. Retries still queued are dropped.
+     */
+    public void close() {
+        if (!queuedSince.isEmpty()) {
+            logger.warn("Retry scheduler stopped with {} queued retries", queuedSince.size());
+        }
+        scheduler.shutdownNow();
+    }
+}
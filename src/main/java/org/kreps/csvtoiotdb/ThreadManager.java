@@ -4,10 +4,15 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 /**
  * Manages a pool of threads for concurrent task execution.
  */
 public class ThreadManager {
+    private static final Logger logger = LoggerFactory.getLogger(ThreadManager.class);
+
     private final ExecutorService executorService;
 
     /**
@@ -30,12 +35,14 @@ public class ThreadManager {
 
     /**
      * Shuts down the thread pool gracefully, waiting for ongoing tasks to complete.
+     * Long-running tasks are never cut off; only an interrupt of the waiting
+     * thread cancels them.
      */
     public void shutdown() {
         executorService.shutdown();
         try {
-            if (!executorService.awaitTermination(60, TimeUnit.SECONDS)) {
-                executorService.shutdownNow();
+            while (!executorService.awaitTermination(60, TimeUnit.SECONDS)) {
+                logger.info("Waiting for running tasks to complete...");
             }
         } catch (InterruptedException e) {
             executorService.shutdownNow();
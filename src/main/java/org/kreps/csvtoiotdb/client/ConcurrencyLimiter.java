@@ -0,0 +1,257 @@
+package org.kreps.csvtoiotdb.client;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits the number of concurrent IoTDB writes. In adaptive mode the limit
+ * follows an AIMD policy: it grows by one per window of successful writes
+ * while their latency stays close to the lowest latency observed, and shrinks
+ * multiplicatively when IoTDB rejects writes or latency climbs, which signals
+ * that the server queues requests. Without adaptive mode the limit is fixed at
+ * the maximum.
+ * <p>
+ * Permits can also be acquired asynchronously, which lets work that is already
+ * under way, e.g. a retry after its backoff, wait for a permit without holding
+ * a thread. Asynchronous waiters are served before blocked callers.
+ */
+public class ConcurrencyLimiter {
+    private static final double LATENCY_TOLERANCE = 2.0;
+    private static final double BACKOFF_RATIO = 0.75;
+    private static final long DECREASE_COOLDOWN_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final int BASELINE_RESET_SAMPLES = 1000;
+
+    private final boolean adaptive;
+    private final int minLimit;
+    private final int maxLimit;
+    private final ReentrantLock lock;
+    private final Condition permitAvailable;
+    private final Queue<CompletableFuture<Void>> waiters;
+    private double limit;
+    private int inFlight;
+    private long minLatencyNanos;
+    private long lastDecreaseNanos;
+    private int samplesSinceBaselineReset;
+    private long drops;
+
+    /**
+     * Constructs a ConcurrencyLimiter instance.
+     *
+     * @param maxLimit The maximum number of concurrent writes.
+     * @param adaptive Whether the limit adapts to latency and rejections.
+     */
+    public ConcurrencyLimiter(int maxLimit, boolean adaptive) {
+        this.adaptive = adaptive;
+        this.maxLimit = Math.max(1, maxLimit);
+        this.minLimit = 1;
+        this.lock = new ReentrantLock();
+        this.permitAvailable = lock.newCondition();
+        this.waiters = new ArrayDeque<>();
+        // Adaptive mode starts low and probes upwards instead of overloading the server on startup
+        this.limit = adaptive ? Math.max(minLimit, this.maxLimit / 4.0) : this.maxLimit;
+        this.lastDecreaseNanos = System.nanoTime() - DECREASE_COOLDOWN_NANOS;
+    }
+
+    /**
+     * Waits until a write may start.
+     *
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public void acquire() throws InterruptedException {
+        lock.lock();
+        try {
+            while (inFlight >= (int) limit || !waiters.isEmpty()) {
+                permitAvailable.await();
+            }
+            inFlight++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes a permit if one is free right away.
+     *
+     * @return True if a permit was taken.
+     */
+    public boolean tryAcquire() {
+        lock.lock();
+        try {
+            if (inFlight < (int) limit && waiters.isEmpty()) {
+                inFlight++;
+                return true;
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Requests a permit without blocking.
+     *
+     * @return A future completing once the permit has been granted.
+     */
+    public CompletableFuture<Void> acquireAsync() {
+        lock.lock();
+        try {
+            if (inFlight < (int) limit && waiters.isEmpty()) {
+                inFlight++;
+                return CompletableFuture.completedFuture(null);
+            }
+            CompletableFuture<Void> waiter = new CompletableFuture<>();
+            waiters.add(waiter);
+            return waiter;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Marks the end of a write started with {@link #acquire()},
+     * {@link #tryAcquire()} or {@link #acquireAsync()}.
+     */
+    public void release() {
+        List<CompletableFuture<Void>> granted;
+        lock.lock();
+        try {
+            inFlight--;
+            granted = grantWaiters();
+        } finally {
+            lock.unlock();
+        }
+        granted.forEach(waiter -> waiter.complete(null));
+    }
+
+    /**
+     * Hands free permits to asynchronous waiters first and wakes blocked callers
+     * if permits are left. Must be called holding the lock; the returned waiters
+     * are completed after releasing it.
+     */
+    private List<CompletableFuture<Void>> grantWaiters() {
+        List<CompletableFuture<Void>> granted = new ArrayList<>();
+        while (inFlight < (int) limit && !waiters.isEmpty()) {
+            inFlight++;
+            granted.add(waiters.poll());
+        }
+        if (inFlight < (int) limit) {
+            permitAvailable.signalAll();
+        }
+        return granted;
+    }
+
+    /**
+     * Records a write acknowledged by IoTDB.
+     *
+     * @param latencyNanos The latency of the write RPC.
+     */
+    public void onSuccess(long latencyNanos) {
+        if (!adaptive) {
+            return;
+        }
+        List<CompletableFuture<Void>> granted = List.of();
+        lock.lock();
+        try {
+            // Forget the baseline now and then so it can follow a server that got slower for good
+            if (++samplesSinceBaselineReset >= BASELINE_RESET_SAMPLES) {
+                samplesSinceBaselineReset = 0;
+                minLatencyNanos = latencyNanos;
+            }
+            if (minLatencyNanos == 0 || latencyNanos < minLatencyNanos) {
+                minLatencyNanos = latencyNanos;
+            }
+            if (latencyNanos > minLatencyNanos * LATENCY_TOLERANCE) {
+                decrease();
+            } else if (limit < maxLimit) {
+                int before = (int) limit;
+                limit = Math.min(maxLimit, limit + 1.0 / limit);
+                if ((int) limit > before) {
+                    granted = grantWaiters();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        granted.forEach(waiter -> waiter.complete(null));
+    }
+
+    /**
+     * Records a write that IoTDB rejected as overloaded or did not answer.
+     */
+    public void onDrop() {
+        if (!adaptive) {
+            return;
+        }
+        lock.lock();
+        try {
+            drops++;
+            decrease();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void decrease() {
+        long now = System.nanoTime();
+        // One decrease per cooldown, the writes in flight all saw the same overload
+        if (now - lastDecreaseNanos >= DECREASE_COOLDOWN_NANOS) {
+            limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+            lastDecreaseNanos = now;
+        }
+    }
+
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of asynchronous requests waiting for a permit.
+     *
+     * @return The number of waiters.
+     */
+    public int getWaiting() {
+        lock.lock();
+        try {
+            return waiters.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getDrops() {
+        lock.lock();
+        try {
+            return drops;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+}
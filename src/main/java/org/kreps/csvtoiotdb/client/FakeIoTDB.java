@@ -0,0 +1,521 @@
+package org.kreps.csvtoiotdb.client;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.iotdb.rpc.IoTDBConnectionException;
+import org.apache.iotdb.rpc.RpcUtils;
+import org.apache.iotdb.rpc.StatementExecutionException;
+import org.apache.iotdb.rpc.TSStatusCode;
+import org.apache.iotdb.tsfile.file.metadata.enums.CompressionType;
+import org.apache.iotdb.tsfile.file.metadata.enums.TSDataType;
+import org.apache.iotdb.tsfile.file.metadata.enums.TSEncoding;
+import org.apache.iotdb.tsfile.write.record.Tablet;
+import org.apache.iotdb.tsfile.write.schema.MeasurementSchema;
+import org.kreps.csvtoiotdb.configs.iotdb.FakeIoTDBSettings;
+import org.kreps.csvtoiotdb.configs.iotdb.LatencyDistribution;
+import org.kreps.csvtoiotdb.schema.TimeseriesSchema;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An in-process stand-in for an IoTDB cluster, so that migrations, retries,
+ * hedging and backpressure can be exercised without a network. It keeps the
+ * schema (timeseries, schema templates and where they are mounted and
+ * activated) and the time of the latest point of every timeseries, but
+ * discards the written values and only counts them.
+ * <p>
+ * Every request waits for a latency drawn from the configured distribution,
+ * writes additionally per row. Writes can fail with injected connection drops,
+ * transient rejections and, once the configured number of concurrent writes is
+ * exceeded, overload rejections. Injected data errors reject a tablet if it
+ * holds a row whose device and timestamp hash below the data rejection rate,
+ * so the same rows are rejected again when a tablet is split or retried.
+ */
+public class FakeIoTDB {
+    private static final Logger logger = LoggerFactory.getLogger(FakeIoTDB.class);
+    private static final String VERSION = "1.3.2-fake";
+    private static final long TIME_PARTITION_INTERVAL = 604_800_000L;
+    private static final double DEFAULT_LATENCY_SIGMA = 0.5;
+
+    private final LatencyDistribution latencyDistribution;
+    private final double meanLatencyNanos;
+    private final double latencySigma;
+    private final double perRowLatencyNanos;
+    private final double connectionDropRate;
+    private final double rejectionRate;
+    private final double dataRejectionRate;
+    private final int maxConcurrentWrites;
+    private final Semaphore writePermits;
+    private final long seed;
+    private final Random random;
+
+    private final Map<String, TimeseriesSchema> timeseries;
+    private final Map<String, Template> templates;
+    private final Map<String, String> mountedTemplates;
+    private final Set<String> activatedDevices;
+    private final Map<String, Long> lastTimes;
+
+    private final long startNanos;
+    private final LongAdder writeRequests;
+    private final LongAdder tablets;
+    private final LongAdder rows;
+    private final LongAdder points;
+    private final LongAdder connectionDrops;
+    private final LongAdder overloadRejections;
+    private final LongAdder dataRejections;
+    private final LongAdder loadedFiles;
+    private final LongAdder unsortedTablets;
+
+    private static class Template {
+        private final boolean aligned;
+        private final List<MeasurementSchema> measurements;
+
+        private Template(boolean aligned, List<MeasurementSchema> measurements) {
+            this.aligned = aligned;
+            this.measurements = measurements;
+        }
+    }
+
+    /**
+     * Constructs a FakeIoTDB instance.
+     *
+     * @param settings The latency and error injection settings.
+     */
+    public FakeIoTDB(FakeIoTDBSettings settings) {
+        this.latencyDistribution = settings.getLatencyDistribution() != null ? settings.getLatencyDistribution()
+                : LatencyDistribution.FIXED;
+        this.meanLatencyNanos = settings.getMeanLatencyMillis() * 1e6;
+        this.latencySigma = settings.getLatencySigma() > 0 ? settings.getLatencySigma() : DEFAULT_LATENCY_SIGMA;
+        this.perRowLatencyNanos = settings.getPerRowLatencyMicros() * 1e3;
+        this.connectionDropRate = settings.getConnectionDropRate();
+        this.rejectionRate = settings.getRejectionRate();
+        this.dataRejectionRate = settings.getDataRejectionRate();
+        this.maxConcurrentWrites = settings.getMaxConcurrentWrites();
+        this.writePermits = maxConcurrentWrites > 0 ? new Semaphore(maxConcurrentWrites) : null;
+        this.seed = settings.getSeed() != 0 ? settings.getSeed() : System.nanoTime();
+        this.random = new Random(seed);
+
+        this.timeseries = new ConcurrentHashMap<>();
+        this.templates = new HashMap<>();
+        this.mountedTemplates = new HashMap<>();
+        this.activatedDevices = new HashSet<>();
+        this.lastTimes = new ConcurrentHashMap<>();
+
+        this.startNanos = System.nanoTime();
+        this.writeRequests = new LongAdder();
+        this.tablets = new LongAdder();
+        this.rows = new LongAdder();
+        this.points = new LongAdder();
+        this.connectionDrops = new LongAdder();
+        this.overloadRejections = new LongAdder();
+        this.dataRejections = new LongAdder();
+        this.loadedFiles = new LongAdder();
+        this.unsortedTablets = new LongAdder();
+
+        logger.warn("Using the in-process fake IoTDB, no data is written. Latency: {} with mean {} ms "
+                + "plus {} us per row, drop rate: {}, rejection rate: {}, data rejection rate: {}, "
+                + "max concurrent writes: {}, seed: {}", latencyDistribution, settings.getMeanLatencyMillis(),
+                settings.getPerRowLatencyMicros(), connectionDropRate, rejectionRate, dataRejectionRate,
+                maxConcurrentWrites > 0 ? maxConcurrentWrites : "unlimited", seed);
+    }
+
+    /**
+     * Creates a session to one node of the fake cluster. All nodes share the
+     * schema and the statistics.
+     *
+     * @param address       The address the node is known by.
+     * @param latencyFactor The factor applied to every latency of the node, to
+     *                      simulate a slow node.
+     * @return The session.
+     */
+    public IoTDBSession openSession(String address, double latencyFactor) {
+        return new FakeIoTDBSession(this, address, latencyFactor);
+    }
+
+    void insertTablet(Tablet tablet, boolean aligned, boolean sorted, double latencyFactor)
+            throws IoTDBConnectionException, StatementExecutionException {
+        writeRequests.increment();
+        if (writePermits != null && !writePermits.tryAcquire()) {
+            overloadRejections.increment();
+            throw rejection(TSStatusCode.WRITE_PROCESS_REJECT,
+                    "Too many concurrent writes, request rejected (capacity " + maxConcurrentWrites + ")");
+        }
+        try {
+            simulateLatency(latencyFactor, tablet.rowSize);
+            if (connectionDropRate > 0 && random.nextDouble() < connectionDropRate) {
+                connectionDrops.increment();
+                throw new IoTDBConnectionException("Connection reset by the fake IoTDB");
+            }
+            if (rejectionRate > 0 && random.nextDouble() < rejectionRate) {
+                overloadRejections.increment();
+                throw rejection(TSStatusCode.WRITE_PROCESS_REJECT, "Too many requests, write rejected by the fake IoTDB");
+            }
+            checkTablet(tablet, sorted);
+            applyTablet(tablet, aligned);
+        } finally {
+            if (writePermits != null) {
+                writePermits.release();
+            }
+        }
+    }
+
+    private void checkTablet(Tablet tablet, boolean sorted) throws StatementExecutionException {
+        for (int row = 1; row < tablet.rowSize; row++) {
+            if (tablet.timestamps[row] < tablet.timestamps[row - 1]) {
+                // A real server trusts the flag and would write the points out of order
+                if (sorted) {
+                    dataRejections.increment();
+                    throw rejection(TSStatusCode.ILLEGAL_PARAMETER, String.format(
+                            "Tablet of device %s flagged as sorted is out of time order at row %d",
+                            tablet.deviceId, row));
+                }
+                unsortedTablets.increment();
+                break;
+            }
+        }
+        List<MeasurementSchema> schemas = tablet.getSchemas();
+        for (MeasurementSchema schema : schemas) {
+            TimeseriesSchema existing = timeseries.get(tablet.deviceId + "." + schema.getMeasurementId());
+            if (existing != null && existing.getDataType() != schema.getType()) {
+                dataRejections.increment();
+                throw rejection(TSStatusCode.METADATA_ERROR, String.format(
+                        "Data type mismatch for timeseries %s.%s: expected %s, got %s", tablet.deviceId,
+                        schema.getMeasurementId(), existing.getDataType(), schema.getType()));
+            }
+        }
+        if (dataRejectionRate <= 0) {
+            return;
+        }
+        for (int row = 0; row < tablet.rowSize; row++) {
+            if (rejectsRow(tablet.deviceId, tablet.timestamps[row])) {
+                dataRejections.increment();
+                throw rejection(TSStatusCode.ILLEGAL_PARAMETER, String.format(
+                        "Invalid value at timestamp %d of device %s (injected data error)",
+                        tablet.timestamps[row], tablet.deviceId));
+            }
+        }
+    }
+
+    private static StatementExecutionException rejection(TSStatusCode code, String message) {
+        return new StatementExecutionException(RpcUtils.getStatus(code, message));
+    }
+
+    private void applyTablet(Tablet tablet, boolean aligned) {
+        List<MeasurementSchema> schemas = tablet.getSchemas();
+        long written = 0;
+        for (int column = 0; column < schemas.size(); column++) {
+            MeasurementSchema schema = schemas.get(column);
+            String path = tablet.deviceId + "." + schema.getMeasurementId();
+            // Unknown timeseries are created on the fly, like IoTDB does with automatic schema creation
+            timeseries.putIfAbsent(path,
+                    new TimeseriesSchema(schema.getType(), schema.getEncodingType(), schema.getCompressor()));
+            long lastTime = Long.MIN_VALUE;
+            for (int row = 0; row < tablet.rowSize; row++) {
+                if (tablet.bitMaps == null || tablet.bitMaps[column] == null
+                        || !tablet.bitMaps[column].isMarked(row)) {
+                    written++;
+                    lastTime = Math.max(lastTime, tablet.timestamps[row]);
+                }
+            }
+            if (lastTime != Long.MIN_VALUE) {
+                lastTimes.merge(path, lastTime, Math::max);
+            }
+        }
+        tablets.increment();
+        rows.add(tablet.rowSize);
+        points.add(written);
+    }
+
+    void createTimeseries(List<String> paths, List<TSDataType> dataTypes, List<TSEncoding> encodings,
+            List<CompressionType> compressionTypes, double latencyFactor)
+            throws IoTDBConnectionException, StatementExecutionException {
+        simulateLatency(latencyFactor, 0);
+        synchronized (this) {
+            for (String path : paths) {
+                if (timeseries.containsKey(path)) {
+                    throw new StatementExecutionException("Timeseries [" + path + "] already exist");
+                }
+            }
+            for (int i = 0; i < paths.size(); i++) {
+                timeseries.put(paths.get(i),
+                        new TimeseriesSchema(dataTypes.get(i), encodings.get(i), compressionTypes.get(i)));
+            }
+        }
+    }
+
+    void createSchemaTemplate(String templateName, boolean aligned, List<MeasurementSchema> measurements,
+            double latencyFactor) throws IoTDBConnectionException, StatementExecutionException {
+        simulateLatency(latencyFactor, 0);
+        synchronized (this) {
+            if (templates.containsKey(templateName)) {
+                throw new StatementExecutionException("Duplicated template name: " + templateName);
+            }
+            templates.put(templateName, new Template(aligned, new ArrayList<>(measurements)));
+        }
+    }
+
+    void setSchemaTemplate(String templateName, String prefixPath, double latencyFactor)
+            throws IoTDBConnectionException, StatementExecutionException {
+        simulateLatency(latencyFactor, 0);
+        synchronized (this) {
+            if (!templates.containsKey(templateName)) {
+                throw new StatementExecutionException("Template [" + templateName + "] does not exist");
+            }
+            if (mountedTemplates.containsKey(prefixPath)) {
+                throw new StatementExecutionException("Template already exists on " + prefixPath);
+            }
+            mountedTemplates.put(prefixPath, templateName);
+        }
+    }
+
+    void activateSchemaTemplate(List<String> devicePaths, double latencyFactor)
+            throws IoTDBConnectionException, StatementExecutionException {
+        simulateLatency(latencyFactor, 0);
+        synchronized (this) {
+            List<Template> resolved = new ArrayList<>(devicePaths.size());
+            for (String devicePath : devicePaths) {
+                if (activatedDevices.contains(devicePath)) {
+                    throw new StatementExecutionException("Template is already activated on " + devicePath);
+                }
+                Template template = mountedTemplate(devicePath);
+                if (template == null) {
+                    throw new StatementExecutionException("No template set on " + devicePath);
+                }
+                resolved.add(template);
+            }
+            for (int i = 0; i < devicePaths.size(); i++) {
+                String devicePath = devicePaths.get(i);
+                activatedDevices.add(devicePath);
+                for (MeasurementSchema measurement : resolved.get(i).measurements) {
+                    timeseries.put(devicePath + "." + measurement.getMeasurementId(), new TimeseriesSchema(
+                            measurement.getType(), measurement.getEncodingType(), measurement.getCompressor()));
+                }
+            }
+        }
+    }
+
+    private Template mountedTemplate(String devicePath) {
+        for (Map.Entry<String, String> mount : mountedTemplates.entrySet()) {
+            String prefix = mount.getKey();
+            if (devicePath.equals(prefix) || devicePath.startsWith(prefix + ".")) {
+                return templates.get(mount.getValue());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Answers the queries the migration issues: {@code SHOW VERSION},
+     * {@code SHOW TIMESERIES} for a path or a {@code .**} pattern,
+     * {@code SHOW SCHEMA TEMPLATES} and {@code SHOW PATHS SET SCHEMA TEMPLATE}.
+     */
+    List<List<String>> executeQuery(String sql, double latencyFactor)
+            throws IoTDBConnectionException, StatementExecutionException {
+        simulateLatency(latencyFactor, 0);
+        String statement = sql.trim();
+        String upper = statement.toUpperCase();
+        List<List<String>> result = new ArrayList<>();
+        if (upper.equals("SHOW VERSION")) {
+            result.add(List.of(VERSION, "fake"));
+        } else if (upper.startsWith("SHOW TIMESERIES ")) {
+            String pattern = statement.substring("SHOW TIMESERIES ".length()).trim();
+            String prefix = pattern.endsWith(".**") ? pattern.substring(0, pattern.length() - 2) : null;
+            for (Map.Entry<String, TimeseriesSchema> entry : timeseries.entrySet()) {
+                String path = entry.getKey();
+                if (prefix != null ? path.startsWith(prefix) : path.equals(pattern)) {
+                    result.add(timeseriesRow(path, entry.getValue()));
+                }
+            }
+        } else if (upper.equals("SHOW VARIABLES")) {
+            result.add(List.of("TimePartitionInterval", String.valueOf(TIME_PARTITION_INTERVAL)));
+        } else if (upper.equals("SHOW SCHEMA TEMPLATES")) {
+            synchronized (this) {
+                templates.keySet().forEach(name -> result.add(List.of(name)));
+            }
+        } else if (upper.startsWith("SHOW PATHS SET SCHEMA TEMPLATE ")) {
+            String templateName = statement.substring("SHOW PATHS SET SCHEMA TEMPLATE ".length()).trim();
+            synchronized (this) {
+                mountedTemplates.forEach((prefix, name) -> {
+                    if (name.equals(templateName)) {
+                        result.add(List.of(prefix));
+                    }
+                });
+            }
+        } else {
+            throw new StatementExecutionException("Statement not supported by the fake IoTDB: " + sql);
+        }
+        return result;
+    }
+
+    /**
+     * Answers {@code SELECT LAST} for a device or a {@code .**} pattern with
+     * the time of the latest point of every matching timeseries.
+     */
+    Map<String, Long> queryLastTimes(String pathPattern, double latencyFactor)
+            throws IoTDBConnectionException, StatementExecutionException {
+        simulateLatency(latencyFactor, 0);
+        String prefix = pathPattern.endsWith(".**") ? pathPattern.substring(0, pathPattern.length() - 2) : null;
+        Map<String, Long> result = new HashMap<>();
+        lastTimes.forEach((path, lastTime) -> {
+            int lastDot = path.lastIndexOf('.');
+            boolean matches = prefix != null ? path.startsWith(prefix)
+                    : lastDot > 0 && path.substring(0, lastDot).equals(pathPattern);
+            if (matches) {
+                result.put(path, lastTime);
+            }
+        });
+        return result;
+    }
+
+    private static List<String> timeseriesRow(String path, TimeseriesSchema schema) {
+        String[] nodes = path.split("\\.");
+        String database = nodes.length > 1 ? nodes[0] + "." + nodes[1] : path;
+        List<String> row = new ArrayList<>(10);
+        row.add(path);
+        row.add(null);
+        row.add(database);
+        row.add(schema.getDataType().name());
+        row.add(schema.getEncoding().name());
+        row.add(schema.getCompression().name());
+        row.add(null);
+        row.add(null);
+        row.add(null);
+        row.add(null);
+        return row;
+    }
+
+    /**
+     * Executes the statements the migration issues without a result, which is
+     * {@code LOAD} of generated TsFiles. The files are only counted.
+     */
+    void executeNonQuery(String sql, double latencyFactor)
+            throws IoTDBConnectionException, StatementExecutionException {
+        simulateLatency(latencyFactor, 0);
+        if (!sql.trim().toUpperCase().startsWith("LOAD ")) {
+            throw new StatementExecutionException("Statement not supported by the fake IoTDB: " + sql);
+        }
+        loadedFiles.increment();
+    }
+
+    private void simulateLatency(double latencyFactor, int rowCount) throws IoTDBConnectionException {
+        long nanos = (long) ((sampleLatencyNanos() + perRowLatencyNanos * rowCount) * latencyFactor);
+        if (nanos <= 0) {
+            return;
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IoTDBConnectionException("Interrupted while waiting for the fake IoTDB");
+        }
+    }
+
+    private double sampleLatencyNanos() {
+        if (meanLatencyNanos <= 0) {
+            return 0;
+        }
+        switch (latencyDistribution) {
+            case UNIFORM:
+                return 2 * meanLatencyNanos * random.nextDouble();
+            case EXPONENTIAL:
+                return -meanLatencyNanos * Math.log(1 - random.nextDouble());
+            case LOG_NORMAL:
+                // Chosen so that the mean of the distribution is the configured mean
+                double mu = Math.log(meanLatencyNanos) - latencySigma * latencySigma / 2;
+                return Math.exp(mu + latencySigma * random.nextGaussian());
+            case FIXED:
+            default:
+                return meanLatencyNanos;
+        }
+    }
+
+    /**
+     * Checks whether an injected data error rejects the row of a device at a
+     * timestamp, e.g. to tell which rows of a migration are expected to fail.
+     *
+     * @param deviceId  The device of the row.
+     * @param timestamp The timestamp of the row.
+     * @return True if every tablet holding the row is rejected.
+     */
+    public boolean rejectsRow(String deviceId, long timestamp) {
+        return dataRejectionRate > 0 && unitHash(deviceId, timestamp) < dataRejectionRate;
+    }
+
+    /**
+     * Maps a device and a timestamp to a value in [0, 1) that only depends on
+     * them and the seed.
+     */
+    private double unitHash(String deviceId, long timestamp) {
+        long hash = seed ^ (deviceId.hashCode() * 0x9E3779B97F4A7C15L) ^ timestamp;
+        hash = (hash ^ (hash >>> 33)) * 0xFF51AFD7ED558CCDL;
+        hash = (hash ^ (hash >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        hash ^= hash >>> 33;
+        return (hash >>> 11) * 0x1.0p-53;
+    }
+
+    /**
+     * Logs the accepted and rejected writes and the write throughput since the
+     * fake was started.
+     */
+    public void logStats() {
+        double seconds = Math.max(1e-9, (System.nanoTime() - startNanos) / 1e9);
+        logger.info("Fake IoTDB - Write requests: {}, tablets: {}, rows: {} ({} rows/s), points: {} ({} points/s), "
+                + "timeseries: {}, connection drops: {}, overload rejections: {}, data rejections: {}, "
+                + "loaded files: {}, unsorted tablets: {}", writeRequests.sum(), tablets.sum(), rows.sum(),
+                String.format("%.0f", rows.sum() / seconds), points.sum(),
+                String.format("%.0f", points.sum() / seconds), timeseries.size(), connectionDrops.sum(),
+                overloadRejections.sum(), dataRejections.sum(), loadedFiles.sum(),
+                unsortedTablets.sum());
+    }
+
+    public long getWriteRequests() {
+        return writeRequests.sum();
+    }
+
+    public long getTablets() {
+        return tablets.sum();
+    }
+
+    public long getRows() {
+        return rows.sum();
+    }
+
+    public long getPoints() {
+        return points.sum();
+    }
+
+    public long getConnectionDrops() {
+        return connectionDrops.sum();
+    }
+
+    public long getOverloadRejections() {
+        return overloadRejections.sum();
+    }
+
+    public long getDataRejections() {
+        return dataRejections.sum();
+    }
+
+    /**
+     * Gets the number of accepted tablets the server had to sort.
+     *
+     * @return The number of unsorted tablets.
+     */
+    public long getUnsortedTablets() {
+        return unsortedTablets.sum();
+    }
+
+    public int getTimeseriesCount() {
+        return timeseries.size();
+    }
+}
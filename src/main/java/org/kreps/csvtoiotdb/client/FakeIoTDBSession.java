@@ -0,0 +1,121 @@
+package org.kreps.csvtoiotdb.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.iotdb.rpc.IoTDBConnectionException;
+import org.apache.iotdb.rpc.StatementExecutionException;
+import org.apache.iotdb.tsfile.file.metadata.enums.CompressionType;
+import org.apache.iotdb.tsfile.file.metadata.enums.TSDataType;
+import org.apache.iotdb.tsfile.file.metadata.enums.TSEncoding;
+import org.apache.iotdb.tsfile.write.record.Tablet;
+import org.apache.iotdb.tsfile.write.schema.MeasurementSchema;
+
+/**
+ * An {@link IoTDBSession} to one node of a {@link FakeIoTDB}.
+ */
+public class FakeIoTDBSession implements IoTDBSession {
+    private final FakeIoTDB server;
+    private final String address;
+    private final double latencyFactor;
+    private volatile boolean closed;
+
+    FakeIoTDBSession(FakeIoTDB server, String address, double latencyFactor) {
+        this.server = server;
+        this.address = address;
+        this.latencyFactor = latencyFactor;
+    }
+
+    @Override
+    public void insertTablet(Tablet tablet, boolean sorted)
+            throws IoTDBConnectionException, StatementExecutionException {
+        ensureOpen();
+        server.insertTablet(tablet, false, sorted, latencyFactor);
+    }
+
+    @Override
+    public void insertAlignedTablet(Tablet tablet, boolean sorted)
+            throws IoTDBConnectionException, StatementExecutionException {
+        ensureOpen();
+        server.insertTablet(tablet, true, sorted, latencyFactor);
+    }
+
+    @Override
+    public void createTimeseries(String path, TSDataType dataType, TSEncoding encoding, CompressionType compression)
+            throws IoTDBConnectionException, StatementExecutionException {
+        ensureOpen();
+        server.createTimeseries(List.of(path), List.of(dataType), List.of(encoding), List.of(compression),
+                latencyFactor);
+    }
+
+    @Override
+    public void createMultiTimeseries(List<String> paths, List<TSDataType> dataTypes, List<TSEncoding> encodings,
+            List<CompressionType> compressionTypes) throws IoTDBConnectionException, StatementExecutionException {
+        ensureOpen();
+        server.createTimeseries(paths, dataTypes, encodings, compressionTypes, latencyFactor);
+    }
+
+    @Override
+    public void createAlignedTimeseries(String deviceId, List<String> measurements, List<TSDataType> dataTypes,
+            List<TSEncoding> encodings, List<CompressionType> compressionTypes)
+            throws IoTDBConnectionException, StatementExecutionException {
+        ensureOpen();
+        List<String> paths = new ArrayList<>(measurements.size());
+        for (String measurement : measurements) {
+            paths.add(deviceId + "." + measurement);
+        }
+        server.createTimeseries(paths, dataTypes, encodings, compressionTypes, latencyFactor);
+    }
+
+    @Override
+    public void createSchemaTemplate(String templateName, boolean aligned, List<MeasurementSchema> measurements)
+            throws IoTDBConnectionException, StatementExecutionException {
+        ensureOpen();
+        server.createSchemaTemplate(templateName, aligned, measurements, latencyFactor);
+    }
+
+    @Override
+    public void setSchemaTemplate(String templateName, String prefixPath)
+            throws IoTDBConnectionException, StatementExecutionException {
+        ensureOpen();
+        server.setSchemaTemplate(templateName, prefixPath, latencyFactor);
+    }
+
+    @Override
+    public void createTimeseriesUsingSchemaTemplate(List<String> devicePaths)
+            throws IoTDBConnectionException, StatementExecutionException {
+        ensureOpen();
+        server.activateSchemaTemplate(devicePaths, latencyFactor);
+    }
+
+    @Override
+    public List<List<String>> executeQuery(String sql) throws IoTDBConnectionException, StatementExecutionException {
+        ensureOpen();
+        return server.executeQuery(sql, latencyFactor);
+    }
+
+    @Override
+    public Map<String, Long> queryLastTimes(String pathPattern)
+            throws IoTDBConnectionException, StatementExecutionException {
+        ensureOpen();
+        return server.queryLastTimes(pathPattern, latencyFactor);
+    }
+
+    @Override
+    public void executeNonQueryStatement(String sql) throws IoTDBConnectionException, StatementExecutionException {
+        ensureOpen();
+        server.executeNonQuery(sql, latencyFactor);
+    }
+
+    private void ensureOpen() throws IoTDBConnectionException {
+        if (closed) {
+            throw new IoTDBConnectionException("Session to fake IoTDB node " + address + " is closed");
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+}
@@ -0,0 +1,164 @@
+package org.kreps.csvtoiotdb.client;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A single IoTDB node together with its load and health. Tracks the requests in
+ * flight, an exponentially weighted moving average of the request latency and
+ * a circuit breaker that opens after consecutive connection failures. All
+ * state is updated lock-free so that routing never blocks.
+ */
+public class IoTDBNode {
+    private static final double LATENCY_SMOOTHING = 0.2;
+
+    /**
+     * The state of the circuit breaker of a node.
+     */
+    public enum State {
+        /** The node receives traffic. */
+        CLOSED,
+        /** The node failed repeatedly and receives no traffic until a probe succeeds. */
+        OPEN
+    }
+
+    private final String address;
+    private final IoTDBSession session;
+    private final int failureThreshold;
+    private final AtomicInteger inFlight;
+    private final AtomicLong latencyEwmaBits;
+    private final AtomicInteger consecutiveFailures;
+    private final AtomicReference<State> state;
+    private final AtomicLong openedAt;
+    private final AtomicLong requests;
+    private final AtomicLong failures;
+
+    /**
+     * Constructs an IoTDBNode instance.
+     *
+     * @param address          The host and port of the node.
+     * @param session          The session connected to the node.
+     * @param failureThreshold The number of consecutive connection failures that
+     *                         opens the circuit breaker.
+     */
+    public IoTDBNode(String address, IoTDBSession session, int failureThreshold) {
+        this.address = address;
+        this.session = session;
+        this.failureThreshold = failureThreshold;
+        this.inFlight = new AtomicInteger();
+        this.latencyEwmaBits = new AtomicLong(Double.doubleToLongBits(0));
+        this.consecutiveFailures = new AtomicInteger();
+        this.state = new AtomicReference<>(State.CLOSED);
+        this.openedAt = new AtomicLong();
+        this.requests = new AtomicLong();
+        this.failures = new AtomicLong();
+    }
+
+    /**
+     * Marks the start of a request on this node.
+     */
+    public void begin() {
+        inFlight.incrementAndGet();
+        requests.incrementAndGet();
+    }
+
+    /**
+     * Marks a completed request and updates the latency average. A request the
+     * node answered, even with a statement error, counts as a sign of health.
+     *
+     * @param latencyNanos The request latency in nanoseconds.
+     */
+    public void recordSuccess(long latencyNanos) {
+        inFlight.decrementAndGet();
+        consecutiveFailures.set(0);
+        double latencyMillis = latencyNanos / 1_000_000.0;
+        long current;
+        long updated;
+        do {
+            current = latencyEwmaBits.get();
+            double ewma = Double.longBitsToDouble(current);
+            double next = ewma == 0 ? latencyMillis : ewma + LATENCY_SMOOTHING * (latencyMillis - ewma);
+            updated = Double.doubleToLongBits(next);
+        } while (!latencyEwmaBits.compareAndSet(current, updated));
+    }
+
+    /**
+     * Marks a request that failed with a connection error.
+     *
+     * @return True if this failure opened the circuit breaker.
+     */
+    public boolean recordFailure() {
+        inFlight.decrementAndGet();
+        failures.incrementAndGet();
+        if (consecutiveFailures.incrementAndGet() >= failureThreshold
+                && state.compareAndSet(State.CLOSED, State.OPEN)) {
+            openedAt.set(System.currentTimeMillis());
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Closes the circuit breaker after a successful health probe.
+     *
+     * @return True if the breaker was open.
+     */
+    public boolean close() {
+        consecutiveFailures.set(0);
+        return state.compareAndSet(State.OPEN, State.CLOSED);
+    }
+
+    /**
+     * Restarts the open period after a failed health probe.
+     */
+    public void reopen() {
+        openedAt.set(System.currentTimeMillis());
+    }
+
+    /**
+     * Gets the routing cost of this node: the expected latency of a new request
+     * given the requests already in flight.
+     *
+     * @return The routing cost, lower is better.
+     */
+    public double routingCost() {
+        return (inFlight.get() + 1) * Math.max(1.0, getLatencyEwmaMillis());
+    }
+
+    public boolean isAvailable() {
+        return state.get() == State.CLOSED;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    public IoTDBSession getSession() {
+        return session;
+    }
+
+    public State getState() {
+        return state.get();
+    }
+
+    public long getOpenedAt() {
+        return openedAt.get();
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public double getLatencyEwmaMillis() {
+        return Double.longBitsToDouble(latencyEwmaBits.get());
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+}
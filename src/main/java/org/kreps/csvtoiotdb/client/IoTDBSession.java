@@ -0,0 +1,88 @@
+package org.kreps.csvtoiotdb.client;
+
+import java.util.List;
+import java.util.Map;
+
+import org.apache.iotdb.rpc.IoTDBConnectionException;
+import org.apache.iotdb.rpc.StatementExecutionException;
+import org.apache.iotdb.tsfile.file.metadata.enums.CompressionType;
+import org.apache.iotdb.tsfile.file.metadata.enums.TSDataType;
+import org.apache.iotdb.tsfile.file.metadata.enums.TSEncoding;
+import org.apache.iotdb.tsfile.write.record.Tablet;
+import org.apache.iotdb.tsfile.write.schema.MeasurementSchema;
+
+/**
+ * The subset of the IoTDB session API the migration uses. Each node is reached
+ * through one session, either a {@link SessionPoolSession} connected to a real
+ * IoTDB node or a {@link FakeIoTDBSession} served in process.
+ */
+public interface IoTDBSession {
+
+    void insertTablet(Tablet tablet, boolean sorted) throws IoTDBConnectionException, StatementExecutionException;
+
+    void insertAlignedTablet(Tablet tablet, boolean sorted)
+            throws IoTDBConnectionException, StatementExecutionException;
+
+    default void insertTablet(Tablet tablet) throws IoTDBConnectionException, StatementExecutionException {
+        insertTablet(tablet, false);
+    }
+
+    default void insertAlignedTablet(Tablet tablet) throws IoTDBConnectionException, StatementExecutionException {
+        insertAlignedTablet(tablet, false);
+    }
+
+    void createTimeseries(String path, TSDataType dataType, TSEncoding encoding, CompressionType compression)
+            throws IoTDBConnectionException, StatementExecutionException;
+
+    void createMultiTimeseries(List<String> paths, List<TSDataType> dataTypes, List<TSEncoding> encodings,
+            List<CompressionType> compressionTypes) throws IoTDBConnectionException, StatementExecutionException;
+
+    void createAlignedTimeseries(String deviceId, List<String> measurements, List<TSDataType> dataTypes,
+            List<TSEncoding> encodings, List<CompressionType> compressionTypes)
+            throws IoTDBConnectionException, StatementExecutionException;
+
+    /**
+     * Creates a schema template.
+     *
+     * @param templateName The name of the template.
+     * @param aligned      Whether devices using the template are aligned.
+     * @param measurements The measurements of the template.
+     * @throws IoTDBConnectionException    If the node could not be reached.
+     * @throws StatementExecutionException If IoTDB rejected the template.
+     */
+    void createSchemaTemplate(String templateName, boolean aligned, List<MeasurementSchema> measurements)
+            throws IoTDBConnectionException, StatementExecutionException;
+
+    void setSchemaTemplate(String templateName, String prefixPath)
+            throws IoTDBConnectionException, StatementExecutionException;
+
+    void createTimeseriesUsingSchemaTemplate(List<String> devicePaths)
+            throws IoTDBConnectionException, StatementExecutionException;
+
+    /**
+     * Runs a query and reads its whole result.
+     *
+     * @param sql The query.
+     * @return The result rows, each with the string values of its columns. Null
+     *         values are returned as null.
+     * @throws IoTDBConnectionException    If the node could not be reached.
+     * @throws StatementExecutionException If IoTDB rejected the query.
+     */
+    List<List<String>> executeQuery(String sql) throws IoTDBConnectionException, StatementExecutionException;
+
+    /**
+     * Runs {@code SELECT LAST} for a path pattern.
+     *
+     * @param pathPattern The device path, whose own timeseries are queried, or
+     *                    a pattern ending in {@code .**}.
+     * @return The time of the latest point per timeseries path. Timeseries
+     *         without data are left out.
+     * @throws IoTDBConnectionException    If the node could not be reached.
+     * @throws StatementExecutionException If IoTDB rejected the query.
+     */
+    Map<String, Long> queryLastTimes(String pathPattern) throws IoTDBConnectionException, StatementExecutionException;
+
+    void executeNonQueryStatement(String sql) throws IoTDBConnectionException, StatementExecutionException;
+
+    void close();
+}
@@ -0,0 +1,66 @@
+package org.kreps.csvtoiotdb.client;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Keeps the most recent request latencies in a fixed-size ring and derives a
+ * latency percentile from them. The percentile is recomputed every few samples
+ * rather than on every lookup, so reading it stays cheap on the write path.
+ */
+public class LatencyTracker {
+    private static final int CAPACITY = 1024;
+    private static final int MIN_SAMPLES = 100;
+    private static final int REFRESH_INTERVAL = 64;
+
+    private final double percentile;
+    private final AtomicLongArray samples;
+    private final AtomicLong recorded;
+    private volatile long percentileNanos;
+
+    /**
+     * Constructs a LatencyTracker instance.
+     *
+     * @param percentile The percentile to track, between 0 and 100.
+     */
+    public LatencyTracker(double percentile) {
+        this.percentile = percentile;
+        this.samples = new AtomicLongArray(CAPACITY);
+        this.recorded = new AtomicLong();
+        this.percentileNanos = -1;
+    }
+
+    /**
+     * Records the latency of a completed request.
+     *
+     * @param latencyNanos The latency in nanoseconds.
+     */
+    public void record(long latencyNanos) {
+        long index = recorded.getAndIncrement();
+        samples.set((int) (index % CAPACITY), latencyNanos);
+        if (index + 1 >= MIN_SAMPLES && (index + 1) % REFRESH_INTERVAL == 0) {
+            refresh(Math.min(index + 1, CAPACITY));
+        }
+    }
+
+    private void refresh(long count) {
+        long[] sorted = new long[(int) count];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = samples.get(i);
+        }
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        percentileNanos = sorted[Math.max(0, Math.min(rank, sorted.length - 1))];
+    }
+
+    /**
+     * Gets the tracked latency percentile.
+     *
+     * @return The percentile in nanoseconds, or -1 while there are too few
+     *         samples.
+     */
+    public long getPercentileNanos() {
+        return percentileNanos;
+    }
+}
@@ -0,0 +1,49 @@
+package org.kreps.csvtoiotdb.client;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caps the number of rows written per second with a token bucket holding up to
+ * one second of rows. A request larger than the available tokens goes into
+ * debt, and later requests wait until the debt is paid off, so the long-run
+ * rate never exceeds the cap.
+ */
+public class RowRateLimiter {
+    private final double rowsPerNano;
+    private final double capacity;
+    private double tokens;
+    private long lastRefillNanos;
+
+    /**
+     * Constructs a RowRateLimiter instance.
+     *
+     * @param rowsPerSecond The maximum number of rows per second.
+     */
+    public RowRateLimiter(long rowsPerSecond) {
+        this.rowsPerNano = rowsPerSecond / (double) TimeUnit.SECONDS.toNanos(1);
+        this.capacity = rowsPerSecond;
+        this.tokens = rowsPerSecond;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * Takes the given number of rows from the bucket, waiting as long as the cap
+     * requires.
+     *
+     * @param rows The number of rows about to be written.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public void acquire(int rows) throws InterruptedException {
+        long waitNanos;
+        synchronized (this) {
+            long now = System.nanoTime();
+            tokens = Math.min(capacity, tokens + (now - lastRefillNanos) * rowsPerNano);
+            lastRefillNanos = now;
+            tokens -= rows;
+            waitNanos = tokens >= 0 ? 0 : (long) (-tokens / rowsPerNano);
+        }
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package org.kreps.csvtoiotdb.client;
+
+import org.apache.iotdb.rpc.IoTDBConnectionException;
+import org.apache.iotdb.rpc.StatementExecutionException;
+
+/**
+ * A request executed against the session of a single IoTDB node.
+ *
+ * @param <T> The type of the request result.
+ */
+@FunctionalInterface
+public interface SessionCall<T> {
+    T call(IoTDBSession session) throws IoTDBConnectionException, StatementExecutionException;
+}
@@ -0,0 +1,136 @@
+package org.kreps.csvtoiotdb.client;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.iotdb.isession.pool.SessionDataSetWrapper;
+import org.apache.iotdb.isession.template.Template;
+import org.apache.iotdb.rpc.IoTDBConnectionException;
+import org.apache.iotdb.rpc.StatementExecutionException;
+import org.apache.iotdb.session.pool.SessionPool;
+import org.apache.iotdb.session.template.MeasurementNode;
+import org.apache.iotdb.tsfile.file.metadata.enums.CompressionType;
+import org.apache.iotdb.tsfile.file.metadata.enums.TSDataType;
+import org.apache.iotdb.tsfile.file.metadata.enums.TSEncoding;
+import org.apache.iotdb.tsfile.read.common.Field;
+import org.apache.iotdb.tsfile.read.common.RowRecord;
+import org.apache.iotdb.tsfile.write.record.Tablet;
+import org.apache.iotdb.tsfile.write.schema.MeasurementSchema;
+
+/**
+ * An {@link IoTDBSession} backed by the native session pool of a real IoTDB
+ * node.
+ */
+public class SessionPoolSession implements IoTDBSession {
+    private final SessionPool sessionPool;
+
+    /**
+     * Constructs a SessionPoolSession instance.
+     *
+     * @param sessionPool The session pool connected to the node.
+     */
+    public SessionPoolSession(SessionPool sessionPool) {
+        this.sessionPool = sessionPool;
+    }
+
+    @Override
+    public void insertTablet(Tablet tablet, boolean sorted)
+            throws IoTDBConnectionException, StatementExecutionException {
+        sessionPool.insertTablet(tablet, sorted);
+    }
+
+    @Override
+    public void insertAlignedTablet(Tablet tablet, boolean sorted)
+            throws IoTDBConnectionException, StatementExecutionException {
+        sessionPool.insertAlignedTablet(tablet, sorted);
+    }
+
+    @Override
+    public void createTimeseries(String path, TSDataType dataType, TSEncoding encoding, CompressionType compression)
+            throws IoTDBConnectionException, StatementExecutionException {
+        sessionPool.createTimeseries(path, dataType, encoding, compression);
+    }
+
+    @Override
+    public void createMultiTimeseries(List<String> paths, List<TSDataType> dataTypes, List<TSEncoding> encodings,
+            List<CompressionType> compressionTypes) throws IoTDBConnectionException, StatementExecutionException {
+        sessionPool.createMultiTimeseries(paths, dataTypes, encodings, compressionTypes, null, null, null, null);
+    }
+
+    @Override
+    public void createAlignedTimeseries(String deviceId, List<String> measurements, List<TSDataType> dataTypes,
+            List<TSEncoding> encodings, List<CompressionType> compressionTypes)
+            throws IoTDBConnectionException, StatementExecutionException {
+        sessionPool.createAlignedTimeseries(deviceId, measurements, dataTypes, encodings, compressionTypes, null);
+    }
+
+    @Override
+    public void createSchemaTemplate(String templateName, boolean aligned, List<MeasurementSchema> measurements)
+            throws IoTDBConnectionException, StatementExecutionException {
+        try {
+            Template template = new Template(templateName, aligned);
+            for (MeasurementSchema measurement : measurements) {
+                template.addToTemplate(new MeasurementNode(measurement.getMeasurementId(), measurement.getType(),
+                        measurement.getEncodingType(), measurement.getCompressor()));
+            }
+            sessionPool.createSchemaTemplate(template);
+        } catch (IOException e) {
+            throw new StatementExecutionException("Error serializing schema template: " + templateName);
+        }
+    }
+
+    @Override
+    public void setSchemaTemplate(String templateName, String prefixPath)
+            throws IoTDBConnectionException, StatementExecutionException {
+        sessionPool.setSchemaTemplate(templateName, prefixPath);
+    }
+
+    @Override
+    public void createTimeseriesUsingSchemaTemplate(List<String> devicePaths)
+            throws IoTDBConnectionException, StatementExecutionException {
+        sessionPool.createTimeseriesUsingSchemaTemplate(devicePaths);
+    }
+
+    @Override
+    public List<List<String>> executeQuery(String sql) throws IoTDBConnectionException, StatementExecutionException {
+        List<List<String>> rows = new ArrayList<>();
+        try (SessionDataSetWrapper dataSet = sessionPool.executeQueryStatement(sql)) {
+            while (dataSet.hasNext()) {
+                List<Field> fields = dataSet.next().getFields();
+                List<String> row = new ArrayList<>(fields.size());
+                for (Field field : fields) {
+                    row.add(field == null ? null : field.getStringValue());
+                }
+                rows.add(row);
+            }
+        }
+        return rows;
+    }
+
+    @Override
+    public Map<String, Long> queryLastTimes(String pathPattern)
+            throws IoTDBConnectionException, StatementExecutionException {
+        Map<String, Long> lastTimes = new HashMap<>();
+        // Every row holds the time of the last point and the timeseries, value and data type
+        try (SessionDataSetWrapper dataSet = sessionPool.executeQueryStatement("SELECT LAST * FROM " + pathPattern)) {
+            while (dataSet.hasNext()) {
+                RowRecord record = dataSet.next();
+                lastTimes.put(record.getFields().get(0).getStringValue(), record.getTimestamp());
+            }
+        }
+        return lastTimes;
+    }
+
+    @Override
+    public void executeNonQueryStatement(String sql) throws IoTDBConnectionException, StatementExecutionException {
+        sessionPool.executeNonQueryStatement(sql);
+    }
+
+    @Override
+    public void close() {
+        sessionPool.close();
+    }
+}
@@ -3,6 +3,15 @@ package org.kreps.csvtoiotdb.configs;
 public class MigrationSettings {
     private int threadsNumber;
     private int batchSize;
+    private int convertThreads;
+    private int writeThreads;
+    private int queueCapacity;
+    private int statsIntervalSeconds = 30;
+    private Boolean isAdaptiveBatchSize;
+    private int minBatchSize;
+    private int maxBatchSize;
+    private long targetWriteLatencyMillis;
+    private ResumeStrategy resumeStrategy;
 
     public MigrationSettings() {
     }
@@ -27,4 +36,76 @@ public class MigrationSettings {
     public void setBatchSize(int batchSize) {
         this.batchSize = batchSize;
     }
+
+    public int getConvertThreads() {
+        return convertThreads;
+    }
+
+    public void setConvertThreads(int convertThreads) {
+        this.convertThreads = convertThreads;
+    }
+
+    public int getWriteThreads() {
+        return writeThreads;
+    }
+
+    public void setWriteThreads(int writeThreads) {
+        this.writeThreads = writeThreads;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    public int getStatsIntervalSeconds() {
+        return statsIntervalSeconds;
+    }
+
+    public void setStatsIntervalSeconds(int statsIntervalSeconds) {
+        this.statsIntervalSeconds = statsIntervalSeconds;
+    }
+
+    public Boolean getIsAdaptiveBatchSize() {
+        return isAdaptiveBatchSize;
+    }
+
+    public void setIsAdaptiveBatchSize(Boolean isAdaptiveBatchSize) {
+        this.isAdaptiveBatchSize = isAdaptiveBatchSize;
+    }
+
+    public int getMinBatchSize() {
+        return minBatchSize;
+    }
+
+    public void setMinBatchSize(int minBatchSize) {
+        this.minBatchSize = minBatchSize;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    public void setMaxBatchSize(int maxBatchSize) {
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    public long getTargetWriteLatencyMillis() {
+        return targetWriteLatencyMillis;
+    }
+
+    public void setTargetWriteLatencyMillis(long targetWriteLatencyMillis) {
+        this.targetWriteLatencyMillis = targetWriteLatencyMillis;
+    }
+
+    public ResumeStrategy getResumeStrategy() {
+        return resumeStrategy;
+    }
+
+    public void setResumeStrategy(ResumeStrategy resumeStrategy) {
+        this.resumeStrategy = resumeStrategy;
+    }
 }
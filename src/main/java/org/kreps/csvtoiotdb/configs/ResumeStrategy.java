@@ -0,0 +1,5 @@
+package org.kreps.csvtoiotdb.configs;
+
+public enum ResumeStrategy {
+    ROW_STATE, WATERMARK, WATERMARK_PER_FILE
+}
@@ -11,6 +11,7 @@ public class CsvSettings {
     private List<CsvColumn> columns;
     private String delimiter;
     private String escapeCharacter;
+    private Boolean isTimeMerge;
 
     public CsvSettings() {
     }
@@ -70,4 +71,12 @@ public class CsvSettings {
     public void setTimestampColumn(CsvColumn timestampColumn) {
         this.timestampColumn = timestampColumn;
     }
+
+    public Boolean getIsTimeMerge() {
+        return isTimeMerge;
+    }
+
+    public void setIsTimeMerge(Boolean isTimeMerge) {
+        this.isTimeMerge = isTimeMerge;
+    }
 }
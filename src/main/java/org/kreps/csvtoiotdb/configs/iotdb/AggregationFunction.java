@@ -0,0 +1,5 @@
+package org.kreps.csvtoiotdb.configs.iotdb;
+
+public enum AggregationFunction {
+    AVG, MIN, MAX, LAST, COUNT
+}
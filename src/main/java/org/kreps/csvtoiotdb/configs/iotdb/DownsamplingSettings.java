@@ -0,0 +1,27 @@
+package org.kreps.csvtoiotdb.configs.iotdb;
+
+import java.util.List;
+
+public class DownsamplingSettings {
+    private long bucketSize;
+    private List<AggregationFunction> functions;
+
+    public DownsamplingSettings() {
+    }
+
+    public long getBucketSize() {
+        return bucketSize;
+    }
+
+    public void setBucketSize(long bucketSize) {
+        this.bucketSize = bucketSize;
+    }
+
+    public List<AggregationFunction> getFunctions() {
+        return functions;
+    }
+
+    public void setFunctions(List<AggregationFunction> functions) {
+        this.functions = functions;
+    }
+}
@@ -0,0 +1,5 @@
+package org.kreps.csvtoiotdb.configs.iotdb;
+
+public enum DuplicatePolicy {
+    KEEP_ALL, LAST_WINS, FIRST_WINS, AGGREGATE
+}
@@ -0,0 +1,99 @@
+package org.kreps.csvtoiotdb.configs.iotdb;
+
+import java.util.List;
+
+public class FakeIoTDBSettings {
+    private LatencyDistribution latencyDistribution;
+    private double meanLatencyMillis;
+    private double latencySigma;
+    private double perRowLatencyMicros;
+    private List<Double> nodeLatencyFactors;
+    private double connectionDropRate;
+    private double rejectionRate;
+    private double dataRejectionRate;
+    private int maxConcurrentWrites;
+    private long seed;
+
+    public FakeIoTDBSettings() {
+    }
+
+    public LatencyDistribution getLatencyDistribution() {
+        return latencyDistribution;
+    }
+
+    public void setLatencyDistribution(LatencyDistribution latencyDistribution) {
+        this.latencyDistribution = latencyDistribution;
+    }
+
+    public double getMeanLatencyMillis() {
+        return meanLatencyMillis;
+    }
+
+    public void setMeanLatencyMillis(double meanLatencyMillis) {
+        this.meanLatencyMillis = meanLatencyMillis;
+    }
+
+    public double getLatencySigma() {
+        return latencySigma;
+    }
+
+    public void setLatencySigma(double latencySigma) {
+        this.latencySigma = latencySigma;
+    }
+
+    public double getPerRowLatencyMicros() {
+        return perRowLatencyMicros;
+    }
+
+    public void setPerRowLatencyMicros(double perRowLatencyMicros) {
+        this.perRowLatencyMicros = perRowLatencyMicros;
+    }
+
+    public List<Double> getNodeLatencyFactors() {
+        return nodeLatencyFactors;
+    }
+
+    public void setNodeLatencyFactors(List<Double> nodeLatencyFactors) {
+        this.nodeLatencyFactors = nodeLatencyFactors;
+    }
+
+    public double getConnectionDropRate() {
+        return connectionDropRate;
+    }
+
+    public void setConnectionDropRate(double connectionDropRate) {
+        this.connectionDropRate = connectionDropRate;
+    }
+
+    public double getRejectionRate() {
+        return rejectionRate;
+    }
+
+    public void setRejectionRate(double rejectionRate) {
+        this.rejectionRate = rejectionRate;
+    }
+
+    public double getDataRejectionRate() {
+        return dataRejectionRate;
+    }
+
+    public void setDataRejectionRate(double dataRejectionRate) {
+        this.dataRejectionRate = dataRejectionRate;
+    }
+
+    public int getMaxConcurrentWrites() {
+        return maxConcurrentWrites;
+    }
+
+    public void setMaxConcurrentWrites(int maxConcurrentWrites) {
+        this.maxConcurrentWrites = maxConcurrentWrites;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+}
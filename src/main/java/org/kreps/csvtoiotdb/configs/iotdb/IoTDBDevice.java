@@ -7,6 +7,8 @@ public class IoTDBDevice {
     private List<IoTDBMeasurement> measurements;
     private String pathColumn;
     private Boolean isAlignedTimeseries;
+    private Boolean isPivotMode;
+    private Boolean isSchemaTemplate;
 
     public IoTDBDevice() {
     }
@@ -50,4 +52,68 @@ public class IoTDBDevice {
     public void setIsAlignedTimeseries(Boolean isAlignedTimeseries) {
         this.isAlignedTimeseries = isAlignedTimeseries;
     }
+
+    public Boolean getIsPivotMode() {
+        return isPivotMode;
+    }
+
+    public void setIsPivotMode(Boolean isPivotMode) {
+        this.isPivotMode = isPivotMode;
+    }
+
+    public Boolean getIsSchemaTemplate() {
+        return isSchemaTemplate;
+    }
+
+    public void setIsSchemaTemplate(Boolean isSchemaTemplate) {
+        this.isSchemaTemplate = isSchemaTemplate;
+    }
+
+    /**
+     * Builds the name of the schema template mounted at this device prefix.
+     *
+     * @return The template name, derived from the device ID.
+     */
+    public String schemaTemplateName() {
+        return "tpl_" + deviceId.replaceAll("[^A-Za-z0-9_]", "_");
+    }
+
+    /**
+     * Builds the measurement name used in pivot mode, where the path column value
+     * selects a measurement of this device instead of a child device.
+     *
+     * @param pathValue   The value of the path column (e.g. the tag).
+     * @param measurement The configured measurement the value belongs to.
+     * @return The tag itself for single-measurement devices, otherwise
+     *         {@code <tag>_<measurement>}.
+     */
+    public String pivotMeasurementName(String pathValue, IoTDBMeasurement measurement) {
+        if (measurements.size() == 1) {
+            return pathValue;
+        }
+        return pathValue + "_" + measurement.getName();
+    }
+
+    /**
+     * Resolves the configured measurement a pivoted measurement name was derived
+     * from and returns a copy of it carrying the pivoted name.
+     *
+     * @param measurementName The pivoted measurement name.
+     * @return The resolved measurement, or null if it does not belong to this
+     *         device.
+     */
+    public IoTDBMeasurement resolvePivotMeasurement(String measurementName) {
+        if (measurements.size() == 1) {
+            return measurements.get(0).withName(measurementName);
+        }
+        IoTDBMeasurement match = null;
+        for (IoTDBMeasurement measurement : measurements) {
+            String suffix = "_" + measurement.getName();
+            if (measurementName.endsWith(suffix)
+                    && (match == null || measurement.getName().length() > match.getName().length())) {
+                match = measurement;
+            }
+        }
+        return match == null ? null : match.withName(measurementName);
+    }
 }
@@ -16,6 +16,7 @@ public class IoTDBMeasurement {
     private String joinKey;
     private TSEncoding encoding;
     private CompressionType compression;
+    private DownsamplingSettings downsampling;
 
     public IoTDBMeasurement() {
     }
@@ -58,6 +59,23 @@ public class IoTDBMeasurement {
         }
     }
 
+    /**
+     * Creates a copy of this measurement under a different name, keeping its data
+     * type, join key, encoding and compression.
+     *
+     * @param newName The name of the copy.
+     * @return The renamed copy.
+     */
+    public IoTDBMeasurement withName(String newName) {
+        IoTDBMeasurement copy = new IoTDBMeasurement();
+        copy.setName(newName);
+        copy.setDataType(dataType);
+        copy.setJoinKey(joinKey);
+        copy.setEncoding(encoding);
+        copy.setCompression(compression);
+        return copy;
+    }
+
     private <T extends Enum<T>> String getEnumValues(Class<T> enumClass) {
         return String.join(", ", EnumSet.allOf(enumClass).stream().map(Enum::name).toArray(String[]::new));
     }
@@ -102,4 +120,12 @@ public class IoTDBMeasurement {
         this.compression = compression;
     }
 
+    public DownsamplingSettings getDownsampling() {
+        return downsampling;
+    }
+
+    public void setDownsampling(DownsamplingSettings downsampling) {
+        this.downsampling = downsampling;
+    }
+
 }
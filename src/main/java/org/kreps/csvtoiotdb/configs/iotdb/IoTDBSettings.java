@@ -9,6 +9,28 @@ public class IoTDBSettings {
     private List<IoTDBConnection> connections;
     private List<IoTDBDevice> devices;
     private long maxBackoffTime;
+    private int maxInFlightTabletsPerConnection;
+    private int schemaCacheSize;
+    private int schemaBatchSize;
+    private int circuitBreakerFailureThreshold;
+    private long circuitBreakerOpenMillis;
+    private long healthCheckIntervalMillis;
+    private double hedgePercentile;
+    private Boolean isAdaptiveConcurrency;
+    private long maxRowsPerSecond;
+    private String tsFileDirectory;
+    private int tsFileMaxRows;
+    private Boolean isTsFileAutoLoad;
+    private SinkType sinkType;
+    private String tabletFilePath;
+    private FakeIoTDBSettings fakeServer;
+    private String outboxDirectory;
+    private long outboxMaxBytes;
+    private long outboxReplayIntervalMillis;
+    private Boolean isTimePartitionAware;
+    private long timePartitionInterval;
+    private DuplicatePolicy duplicatePolicy;
+    private int downsamplingOpenBuckets;
 
     public IoTDBSettings() {
 
@@ -72,4 +94,179 @@ public class IoTDBSettings {
         this.maxBackoffTime = maxBackoffTime;
     }
 
+    public int getMaxInFlightTabletsPerConnection() {
+        return maxInFlightTabletsPerConnection;
+    }
+
+    public void setMaxInFlightTabletsPerConnection(int maxInFlightTabletsPerConnection) {
+        this.maxInFlightTabletsPerConnection = maxInFlightTabletsPerConnection;
+    }
+
+    public int getSchemaCacheSize() {
+        return schemaCacheSize;
+    }
+
+    public void setSchemaCacheSize(int schemaCacheSize) {
+        this.schemaCacheSize = schemaCacheSize;
+    }
+
+    public int getSchemaBatchSize() {
+        return schemaBatchSize;
+    }
+
+    public void setSchemaBatchSize(int schemaBatchSize) {
+        this.schemaBatchSize = schemaBatchSize;
+    }
+
+    public int getCircuitBreakerFailureThreshold() {
+        return circuitBreakerFailureThreshold;
+    }
+
+    public void setCircuitBreakerFailureThreshold(int circuitBreakerFailureThreshold) {
+        this.circuitBreakerFailureThreshold = circuitBreakerFailureThreshold;
+    }
+
+    public long getCircuitBreakerOpenMillis() {
+        return circuitBreakerOpenMillis;
+    }
+
+    public void setCircuitBreakerOpenMillis(long circuitBreakerOpenMillis) {
+        this.circuitBreakerOpenMillis = circuitBreakerOpenMillis;
+    }
+
+    public long getHealthCheckIntervalMillis() {
+        return healthCheckIntervalMillis;
+    }
+
+    public void setHealthCheckIntervalMillis(long healthCheckIntervalMillis) {
+        this.healthCheckIntervalMillis = healthCheckIntervalMillis;
+    }
+
+    public double getHedgePercentile() {
+        return hedgePercentile;
+    }
+
+    public void setHedgePercentile(double hedgePercentile) {
+        this.hedgePercentile = hedgePercentile;
+    }
+
+    public Boolean getIsAdaptiveConcurrency() {
+        return isAdaptiveConcurrency;
+    }
+
+    public void setIsAdaptiveConcurrency(Boolean isAdaptiveConcurrency) {
+        this.isAdaptiveConcurrency = isAdaptiveConcurrency;
+    }
+
+    public long getMaxRowsPerSecond() {
+        return maxRowsPerSecond;
+    }
+
+    public void setMaxRowsPerSecond(long maxRowsPerSecond) {
+        this.maxRowsPerSecond = maxRowsPerSecond;
+    }
+
+    public String getTsFileDirectory() {
+        return tsFileDirectory;
+    }
+
+    public void setTsFileDirectory(String tsFileDirectory) {
+        this.tsFileDirectory = tsFileDirectory;
+    }
+
+    public int getTsFileMaxRows() {
+        return tsFileMaxRows;
+    }
+
+    public void setTsFileMaxRows(int tsFileMaxRows) {
+        this.tsFileMaxRows = tsFileMaxRows;
+    }
+
+    public Boolean getIsTsFileAutoLoad() {
+        return isTsFileAutoLoad;
+    }
+
+    public void setIsTsFileAutoLoad(Boolean isTsFileAutoLoad) {
+        this.isTsFileAutoLoad = isTsFileAutoLoad;
+    }
+
+    public SinkType getSinkType() {
+        return sinkType;
+    }
+
+    public void setSinkType(SinkType sinkType) {
+        this.sinkType = sinkType;
+    }
+
+    public String getTabletFilePath() {
+        return tabletFilePath;
+    }
+
+    public void setTabletFilePath(String tabletFilePath) {
+        this.tabletFilePath = tabletFilePath;
+    }
+
+    public FakeIoTDBSettings getFakeServer() {
+        return fakeServer;
+    }
+
+    public void setFakeServer(FakeIoTDBSettings fakeServer) {
+        this.fakeServer = fakeServer;
+    }
+
+    public String getOutboxDirectory() {
+        return outboxDirectory;
+    }
+
+    public void setOutboxDirectory(String outboxDirectory) {
+        this.outboxDirectory = outboxDirectory;
+    }
+
+    public long getOutboxMaxBytes() {
+        return outboxMaxBytes;
+    }
+
+    public void setOutboxMaxBytes(long outboxMaxBytes) {
+        this.outboxMaxBytes = outboxMaxBytes;
+    }
+
+    public long getOutboxReplayIntervalMillis() {
+        return outboxReplayIntervalMillis;
+    }
+
+    public void setOutboxReplayIntervalMillis(long outboxReplayIntervalMillis) {
+        this.outboxReplayIntervalMillis = outboxReplayIntervalMillis;
+    }
+
+    public Boolean getIsTimePartitionAware() {
+        return isTimePartitionAware;
+    }
+
+    public void setIsTimePartitionAware(Boolean isTimePartitionAware) {
+        this.isTimePartitionAware = isTimePartitionAware;
+    }
+
+    public long getTimePartitionInterval() {
+        return timePartitionInterval;
+    }
+
+    public void setTimePartitionInterval(long timePartitionInterval) {
+        this.timePartitionInterval = timePartitionInterval;
+    }
+
+    public DuplicatePolicy getDuplicatePolicy() {
+        return duplicatePolicy;
+    }
+
+    public void setDuplicatePolicy(DuplicatePolicy duplicatePolicy) {
+        this.duplicatePolicy = duplicatePolicy;
+    }
+
+    public int getDownsamplingOpenBuckets() {
+        return downsamplingOpenBuckets;
+    }
+
+    public void setDownsamplingOpenBuckets(int downsamplingOpenBuckets) {
+        this.downsamplingOpenBuckets = downsamplingOpenBuckets;
+    }
 }
@@ -0,0 +1,5 @@
+package org.kreps.csvtoiotdb.configs.iotdb;
+
+public enum LatencyDistribution {
+    FIXED, UNIFORM, EXPONENTIAL, LOG_NORMAL
+}
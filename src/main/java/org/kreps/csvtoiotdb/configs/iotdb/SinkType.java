@@ -0,0 +1,5 @@
+package org.kreps.csvtoiotdb.configs.iotdb;
+
+public enum SinkType {
+    IOTDB, TSFILE, TABLET_FILE, NULL
+}
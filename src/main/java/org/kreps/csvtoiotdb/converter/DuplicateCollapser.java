@@ -0,0 +1,144 @@
+package org.kreps.csvtoiotdb.converter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.kreps.csvtoiotdb.configs.iotdb.DuplicatePolicy;
+
+/**
+ * Groups the converted rows of a batch by device and collapses rows with the
+ * same device and timestamp before tablets are built. A value for a
+ * measurement the earlier row lacks is simply added; a second value for the
+ * same measurement is a duplicate point resolved by the {@link DuplicatePolicy}.
+ * The source rows of a collapsed row are kept, so their state follows it.
+ * <p>
+ * Rows of pivoted devices sharing a timestamp are always combined into one
+ * wide row; with {@link DuplicatePolicy#KEEP_ALL} their duplicate points keep
+ * the last value, and rows of other devices are not collapsed.
+ */
+public class DuplicateCollapser {
+    private final DuplicatePolicy policy;
+    private final int expectedRows;
+    private final Map<String, List<RowData>> deviceDataMap;
+    private final Map<String, TimestampIndex> indexes;
+    private final Map<RowData, Map<String, double[]>> sums;
+    private long collapsedRows;
+    private long duplicatePoints;
+
+    /**
+     * Constructs a DuplicateCollapser instance for one batch.
+     *
+     * @param policy       How duplicate points are resolved.
+     * @param expectedRows The number of rows of the batch.
+     */
+    public DuplicateCollapser(DuplicatePolicy policy, int expectedRows) {
+        this.policy = policy != null ? policy : DuplicatePolicy.KEEP_ALL;
+        this.expectedRows = expectedRows;
+        this.deviceDataMap = new HashMap<>();
+        this.indexes = new HashMap<>();
+        this.sums = new IdentityHashMap<>();
+    }
+
+    /**
+     * Adds a converted row of a device.
+     *
+     * @param fullPath The full path of the device.
+     * @param row      The row.
+     * @param pivot    Whether the device is pivoted.
+     */
+    public void add(String fullPath, RowData row, boolean pivot) {
+        List<RowData> rows = deviceDataMap.computeIfAbsent(fullPath, k -> new ArrayList<>());
+        if (policy == DuplicatePolicy.KEEP_ALL && !pivot) {
+            rows.add(row);
+            return;
+        }
+        TimestampIndex index = indexes.computeIfAbsent(fullPath, k -> new TimestampIndex(expectedRows));
+        int position = index.get(row.getTimestamp());
+        if (position < 0) {
+            index.put(row.getTimestamp(), rows.size());
+            rows.add(row);
+            return;
+        }
+        collapse(rows.get(position), row);
+        if (!pivot) {
+            collapsedRows++;
+        }
+    }
+
+    private void collapse(RowData existing, RowData other) {
+        Map<String, Object> measurements = existing.getMeasurements();
+        for (Map.Entry<String, Object> entry : other.getMeasurements().entrySet()) {
+            Object previous = measurements.get(entry.getKey());
+            if (previous == null) {
+                measurements.put(entry.getKey(), entry.getValue());
+                continue;
+            }
+            duplicatePoints++;
+            if (policy == DuplicatePolicy.FIRST_WINS) {
+                continue;
+            }
+            if (policy == DuplicatePolicy.AGGREGATE && previous instanceof Number
+                    && entry.getValue() instanceof Number) {
+                measurements.put(entry.getKey(), average(existing, entry.getKey(), (Number) previous,
+                        (Number) entry.getValue()));
+            } else {
+                measurements.put(entry.getKey(), entry.getValue());
+            }
+        }
+        existing.mergeRowIds(other);
+    }
+
+    /**
+     * Adds a value to the running mean of a measurement, keeping the type of the
+     * measurement.
+     */
+    private Object average(RowData row, String measurement, Number previous, Number value) {
+        double[] sum = sums.computeIfAbsent(row, k -> new HashMap<>())
+                .computeIfAbsent(measurement, k -> new double[] { previous.doubleValue(), 1 });
+        sum[0] += value.doubleValue();
+        sum[1]++;
+        double mean = sum[0] / sum[1];
+        if (previous instanceof Integer) {
+            return (int) Math.round(mean);
+        }
+        if (previous instanceof Long) {
+            return Math.round(mean);
+        }
+        if (previous instanceof Float) {
+            return (float) mean;
+        }
+        return mean;
+    }
+
+    /**
+     * Gets the rows of the batch per device, in the order they were added.
+     *
+     * @return The rows per full device path.
+     */
+    public Map<String, List<RowData>> getDeviceDataMap() {
+        return deviceDataMap;
+    }
+
+    /**
+     * Gets the number of rows merged into an earlier row of the same device and
+     * timestamp.
+     *
+     * @return The number of collapsed rows.
+     */
+    public long getCollapsedRows() {
+        return collapsedRows;
+    }
+
+    /**
+     * Gets the number of values dropped or aggregated because their measurement
+     * already had a value at the same timestamp.
+     *
+     * @return The number of duplicate points.
+     */
+    public long getDuplicatePoints() {
+        return duplicatePoints;
+    }
+}
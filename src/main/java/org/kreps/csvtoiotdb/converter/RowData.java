@@ -1,5 +1,7 @@
 package org.kreps.csvtoiotdb.converter;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -10,6 +12,8 @@ public class RowData {
     private final int rowNumber;
     private final long timestamp;
     private final Map<String, Object> measurements;
+    private final List<String> rowIds;
+    private final List<Integer> rowNumbers;
 
     /**
      * Constructs a RowData instance.
@@ -24,6 +28,49 @@ public class RowData {
         this.rowNumber = rowNumber;
         this.timestamp = timestamp;
         this.measurements = measurements;
+        this.rowIds = new ArrayList<>(1);
+        this.rowNumbers = new ArrayList<>(1);
+        this.rowIds.add(rowId);
+        this.rowNumbers.add(rowNumber);
+    }
+
+    /**
+     * Constructs a derived RowData instance that has no source rows of its own,
+     * e.g. an aggregate computed from earlier rows.
+     *
+     * @param timestamp    The timestamp for the data row.
+     * @param measurements A map of measurement names to their corresponding values.
+     */
+    public RowData(long timestamp, Map<String, Object> measurements) {
+        this.rowId = null;
+        this.rowNumber = -1;
+        this.timestamp = timestamp;
+        this.measurements = measurements;
+        this.rowIds = new ArrayList<>(0);
+        this.rowNumbers = new ArrayList<>(0);
+    }
+
+    /**
+     * Merges another row with the same timestamp into this one. The measurements of
+     * the other row are added to this row and its source row is tracked, so that
+     * its processing status follows the merged row.
+     *
+     * @param other The row to merge into this row.
+     */
+    public void merge(RowData other) {
+        measurements.putAll(other.getMeasurements());
+        mergeRowIds(other);
+    }
+
+    /**
+     * Tracks the source rows of another row whose values were merged into this
+     * one.
+     *
+     * @param other The merged row.
+     */
+    public void mergeRowIds(RowData other) {
+        rowIds.addAll(other.getRowIds());
+        rowNumbers.addAll(other.getRowNumbers());
     }
 
     /**
@@ -44,6 +91,24 @@ public class RowData {
         return rowNumber;
     }
 
+    /**
+     * Gets the identifiers of all source rows this row was built from.
+     *
+     * @return The row IDs, starting with {@link #getRowId()}.
+     */
+    public List<String> getRowIds() {
+        return rowIds;
+    }
+
+    /**
+     * Gets the row numbers of all source rows this row was built from.
+     *
+     * @return The row numbers, in the same order as {@link #getRowIds()}.
+     */
+    public List<Integer> getRowNumbers() {
+        return rowNumbers;
+    }
+
     /**
      * Gets the timestamp of the data row.
      *
@@ -0,0 +1,91 @@
+package org.kreps.csvtoiotdb.converter;
+
+import java.util.Arrays;
+
+/**
+ * Maps timestamps to row positions with open addressing over primitive arrays,
+ * so looking up the timestamps of a batch neither boxes them nor allocates
+ * map entries.
+ */
+public class TimestampIndex {
+    private static final int MISSING = -1;
+
+    private long[] keys;
+    private int[] values;
+    private int size;
+    private int mask;
+
+    /**
+     * Constructs a TimestampIndex instance.
+     *
+     * @param expectedSize The expected number of timestamps.
+     */
+    public TimestampIndex(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2) - 1) << 1;
+        allocate(capacity);
+    }
+
+    /**
+     * Gets the position of a timestamp.
+     *
+     * @param timestamp The timestamp.
+     * @return The position, or -1 if the timestamp is not indexed.
+     */
+    public int get(long timestamp) {
+        int slot = slot(timestamp);
+        while (values[slot] != MISSING) {
+            if (keys[slot] == timestamp) {
+                return values[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return MISSING;
+    }
+
+    /**
+     * Indexes a timestamp that is not indexed yet.
+     *
+     * @param timestamp The timestamp.
+     * @param position  The position of its row.
+     */
+    public void put(long timestamp, int position) {
+        if ((size + 1) * 2 > keys.length) {
+            grow();
+        }
+        int slot = slot(timestamp);
+        while (values[slot] != MISSING) {
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = timestamp;
+        values[slot] = position;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private int slot(long timestamp) {
+        long hash = timestamp * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new int[capacity];
+        Arrays.fill(values, MISSING);
+        mask = capacity - 1;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(keys.length * 2);
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != MISSING) {
+                put(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,468 @@
+package org.kreps.csvtoiotdb.downsample;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.iotdb.tsfile.file.metadata.enums.TSDataType;
+import org.apache.iotdb.tsfile.file.metadata.enums.TSEncoding;
+import org.kreps.csvtoiotdb.configs.iotdb.AggregationFunction;
+import org.kreps.csvtoiotdb.configs.iotdb.IoTDBDevice;
+import org.kreps.csvtoiotdb.configs.iotdb.IoTDBMeasurement;
+import org.kreps.csvtoiotdb.converter.RowData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Downsamples the converted rows of measurements configured with
+ * {@code downsampling} into fixed time buckets before they are written. Every
+ * timeseries keeps only its few most recent buckets open; when a value opens a
+ * bucket beyond them, the oldest bucket is closed and its aggregates are
+ * emitted as rows of the measurements {@code <measurement>_<function>}. Open
+ * buckets survive batch and file boundaries and are emitted by
+ * {@link #flush()} at the end of the run.
+ * <p>
+ * Every bucket remembers the source rows of its values. An emitted aggregate
+ * gets a row ID of its own, and once its write is known to have succeeded or
+ * failed, {@link #settle(Collection, Set)} tells which source rows are done.
+ * Until then {@link #hasUnsettledRows(long)} holds back the completion of the
+ * file they were read from. Values of a bucket that has already been emitted arrive too late; they are
+ * dropped and their rows fail. Values of other measurements pass through
+ * unchanged.
+ */
+public class Downsampler {
+    private static final Logger logger = LoggerFactory.getLogger(Downsampler.class);
+    private static final int DEFAULT_OPEN_BUCKETS = 2;
+    // Source row IDs are hashes, so aggregate IDs cannot collide with them
+    private static final String AGGREGATE_ID_PREFIX = "downsampled:";
+
+    private final List<IoTDBDevice> devices;
+    private final Map<String, Map<String, IoTDBMeasurement>> downsampledMeasurements;
+    private final int openBuckets;
+    private final Map<String, DeviceState> states;
+    private final Map<String, List<SourceRow>> pendingAggregates;
+    private final Map<Long, AtomicInteger> unsettledRows;
+    private final AtomicLong nextAggregateId;
+    private final LongAdder inputPoints;
+    private final LongAdder emittedBuckets;
+    private final LongAdder latePoints;
+
+    /**
+     * The open buckets of the downsampled timeseries of a device.
+     */
+    private static class DeviceState {
+        private final Map<String, SeriesState> series = new HashMap<>();
+        private long csvSettingId;
+    }
+
+    /**
+     * A converted row whose values went into buckets. It is done once every
+     * bucket holding one of its values has been written. Its status is left to
+     * its own write if it also has values that are not downsampled. A deferred
+     * row is consumed and was not failed by its batch, so it is counted only
+     * once it is settled.
+     */
+    private static class SourceRow {
+        private final long csvSettingId;
+        private final List<String> rowIds;
+        private boolean consumed;
+        private boolean deferred;
+        private int openBuckets;
+        private boolean failed;
+
+        private SourceRow(long csvSettingId, List<String> rowIds) {
+            this.csvSettingId = csvSettingId;
+            this.rowIds = rowIds;
+        }
+    }
+
+    private static class SeriesState {
+        private final IoTDBMeasurement measurement;
+        private final TreeMap<Long, Bucket> buckets = new TreeMap<>();
+        private long lastEmitted = Long.MIN_VALUE;
+
+        private SeriesState(IoTDBMeasurement measurement) {
+            this.measurement = measurement;
+        }
+    }
+
+    private static class Bucket {
+        private long count;
+        private double sum;
+        private Object min;
+        private Object max;
+        private Object last;
+        private long lastTimestamp = Long.MIN_VALUE;
+        private final List<SourceRow> sources = new ArrayList<>();
+
+        private void add(long timestamp, Object value) {
+            count++;
+            if (value instanceof Number) {
+                double number = ((Number) value).doubleValue();
+                sum += number;
+                if (min == null || number < ((Number) min).doubleValue()) {
+                    min = value;
+                }
+                if (max == null || number > ((Number) max).doubleValue()) {
+                    max = value;
+                }
+            }
+            if (timestamp >= lastTimestamp) {
+                last = value;
+                lastTimestamp = timestamp;
+            }
+        }
+
+        private Object result(AggregationFunction function) {
+            switch (function) {
+                case AVG:
+                    return count > 0 && min != null ? sum / count : null;
+                case MIN:
+                    return min;
+                case MAX:
+                    return max;
+                case LAST:
+                    return last;
+                case COUNT:
+                    return count;
+                default:
+                    throw new IllegalArgumentException("Unsupported aggregation function: " + function);
+            }
+        }
+    }
+
+    /**
+     * Constructs a Downsampler instance.
+     *
+     * @param devices     The configured devices.
+     * @param openBuckets The number of buckets kept open per timeseries, 0 for
+     *                    the default.
+     */
+    public Downsampler(List<IoTDBDevice> devices, int openBuckets) {
+        this.devices = devices;
+        this.downsampledMeasurements = new HashMap<>();
+        for (IoTDBDevice device : devices) {
+            for (IoTDBMeasurement measurement : device.getMeasurements()) {
+                if (measurement.getDownsampling() != null) {
+                    downsampledMeasurements.computeIfAbsent(device.getDeviceId(), k -> new HashMap<>())
+                            .put(measurement.getName(), measurement);
+                }
+            }
+        }
+        this.openBuckets = openBuckets > 0 ? openBuckets : DEFAULT_OPEN_BUCKETS;
+        this.states = new ConcurrentHashMap<>();
+        this.pendingAggregates = new ConcurrentHashMap<>();
+        this.unsettledRows = new ConcurrentHashMap<>();
+        this.nextAggregateId = new AtomicLong();
+        this.inputPoints = new LongAdder();
+        this.emittedBuckets = new LongAdder();
+        this.latePoints = new LongAdder();
+    }
+
+    /**
+     * Checks whether any measurement is configured to be downsampled.
+     *
+     * @param devices The configured devices.
+     * @return True if at least one measurement has downsampling settings.
+     */
+    public static boolean isConfigured(List<IoTDBDevice> devices) {
+        return devices.stream().flatMap(device -> device.getMeasurements().stream())
+                .anyMatch(measurement -> measurement.getDownsampling() != null);
+    }
+
+    /**
+     * Derives the devices as they are written: every downsampled measurement is
+     * replaced by one measurement per aggregation function. AVG is written as
+     * DOUBLE and COUNT as INT64, the other functions keep the data type and
+     * encoding of the measurement.
+     *
+     * @param devices The configured devices.
+     * @return The devices written to the sink.
+     */
+    public static List<IoTDBDevice> outputDevices(List<IoTDBDevice> devices) {
+        List<IoTDBDevice> outputDevices = new ArrayList<>(devices.size());
+        for (IoTDBDevice device : devices) {
+            if (device.getMeasurements().stream().noneMatch(measurement -> measurement.getDownsampling() != null)) {
+                outputDevices.add(device);
+                continue;
+            }
+            List<IoTDBMeasurement> measurements = new ArrayList<>();
+            for (IoTDBMeasurement measurement : device.getMeasurements()) {
+                if (measurement.getDownsampling() == null) {
+                    measurements.add(measurement);
+                    continue;
+                }
+                for (AggregationFunction function : measurement.getDownsampling().getFunctions()) {
+                    measurements.add(outputMeasurement(measurement, function));
+                }
+            }
+            IoTDBDevice outputDevice = new IoTDBDevice(device.getDeviceId(), measurements, device.getPathColumn(),
+                    device.getIsAlignedTimeseries());
+            outputDevice.setIsPivotMode(device.getIsPivotMode());
+            outputDevice.setIsSchemaTemplate(device.getIsSchemaTemplate());
+            outputDevices.add(outputDevice);
+        }
+        return outputDevices;
+    }
+
+    private static IoTDBMeasurement outputMeasurement(IoTDBMeasurement measurement, AggregationFunction function) {
+        IoTDBMeasurement output = measurement.withName(outputName(measurement, function));
+        if (function == AggregationFunction.AVG && measurement.getDataType() != TSDataType.DOUBLE) {
+            output.setDataType(TSDataType.DOUBLE);
+            output.setEncoding(TSEncoding.GORILLA);
+        } else if (function == AggregationFunction.COUNT && measurement.getDataType() != TSDataType.INT64) {
+            output.setDataType(TSDataType.INT64);
+            output.setEncoding(TSEncoding.TS_2DIFF);
+        }
+        return output;
+    }
+
+    private static String outputName(IoTDBMeasurement measurement, AggregationFunction function) {
+        return measurement.getName() + "_" + function.name().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Adds the converted rows of a batch to the open buckets. Rows left without
+     * values once their downsampled values are taken out are consumed: no write
+     * of the batch covers them, they are settled with the aggregates of their
+     * buckets.
+     *
+     * @param deviceDataMap  The rows of the batch per full device path.
+     * @param csvSettingId   The CSV setting the batch was read from.
+     * @param aggregateIds   Receives the IDs of the aggregates emitted by the
+     *                       batch, to settle once the batch is written.
+     * @param lateRowIds     Receives the IDs of the rows with a value that
+     *                       arrived after its bucket was emitted.
+     * @param deferredRowIds Receives the IDs of the consumed rows, whose outcome
+     *                       is only known once they are settled.
+     * @return The rows to write per full device path: the rows with values
+     *         that are not downsampled, followed by the aggregates of the
+     *         buckets closed by the batch.
+     */
+    public Map<String, List<RowData>> apply(Map<String, List<RowData>> deviceDataMap, long csvSettingId,
+            List<String> aggregateIds, List<String> lateRowIds, List<String> deferredRowIds) {
+        Map<String, List<RowData>> result = new LinkedHashMap<>();
+        for (Map.Entry<String, List<RowData>> entry : deviceDataMap.entrySet()) {
+            IoTDBDevice device = findDevice(entry.getKey());
+            Map<String, IoTDBMeasurement> downsampled = device == null ? null
+                    : downsampledMeasurements.get(device.getDeviceId());
+            if (downsampled == null) {
+                result.put(entry.getKey(), entry.getValue());
+                continue;
+            }
+            List<RowData> rows = new ArrayList<>(entry.getValue().size());
+            TreeMap<Long, RowData> emitted = new TreeMap<>();
+            DeviceState state = states.computeIfAbsent(entry.getKey(), k -> new DeviceState());
+            // Batches of different files may reach the same device from different convert lanes
+            synchronized (state) {
+                state.csvSettingId = csvSettingId;
+                for (RowData row : entry.getValue()) {
+                    SourceRow source = null;
+                    for (Map.Entry<String, Object> value : row.getMeasurements().entrySet()) {
+                        IoTDBMeasurement measurement = downsampled.get(value.getKey());
+                        if (measurement != null && value.getValue() != null) {
+                            SeriesState series = state.series.computeIfAbsent(value.getKey(),
+                                    k -> new SeriesState(measurement));
+                            if (source == null) {
+                                source = new SourceRow(csvSettingId, new ArrayList<>(row.getRowIds()));
+                            }
+                            add(series, row.getTimestamp(), value.getValue(), source, emitted, aggregateIds);
+                        }
+                    }
+                    row.getMeasurements().keySet().removeIf(downsampled::containsKey);
+                    boolean consumed = row.getMeasurements().isEmpty();
+                    if (source != null) {
+                        synchronized (source) {
+                            source.consumed = consumed;
+                            if (source.failed) {
+                                lateRowIds.addAll(source.rowIds);
+                            } else if (consumed) {
+                                source.deferred = true;
+                                deferredRowIds.addAll(source.rowIds);
+                            }
+                        }
+                    }
+                    if (!consumed) {
+                        rows.add(row);
+                    }
+                }
+            }
+            addAggregates(rows, emitted);
+            if (!rows.isEmpty()) {
+                result.put(entry.getKey(), rows);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Adds the aggregates of closed buckets to the rows of a device. Aggregates
+     * at the timestamp of a row go into that row, so the tablet holds every
+     * timestamp once; the row then carries the ID of the aggregate as well.
+     */
+    private static void addAggregates(List<RowData> rows, TreeMap<Long, RowData> emitted) {
+        if (emitted.isEmpty()) {
+            return;
+        }
+        Map<Long, RowData> rowsByTime = new HashMap<>();
+        for (RowData row : rows) {
+            rowsByTime.putIfAbsent(row.getTimestamp(), row);
+        }
+        emitted.forEach((timestamp, aggregate) -> {
+            RowData row = rowsByTime.get(timestamp);
+            if (row != null) {
+                row.merge(aggregate);
+            } else {
+                rows.add(aggregate);
+            }
+        });
+    }
+
+    private void add(SeriesState series, long timestamp, Object value, SourceRow source,
+            TreeMap<Long, RowData> emitted, List<String> aggregateIds) {
+        long bucketSize = series.measurement.getDownsampling().getBucketSize();
+        long bucketStart = Math.floorDiv(timestamp, bucketSize) * bucketSize;
+        if (bucketStart <= series.lastEmitted) {
+            latePoints.increment();
+            synchronized (source) {
+                source.failed = true;
+            }
+            return;
+        }
+        inputPoints.increment();
+        Bucket bucket = series.buckets.computeIfAbsent(bucketStart, k -> new Bucket());
+        bucket.add(timestamp, value);
+        bucket.sources.add(source);
+        synchronized (source) {
+            if (source.openBuckets++ == 0) {
+                unsettledRows.computeIfAbsent(source.csvSettingId, k -> new AtomicInteger()).incrementAndGet();
+            }
+        }
+        while (series.buckets.size() > openBuckets) {
+            emit(series, series.buckets.pollFirstEntry(), emitted, aggregateIds);
+        }
+    }
+
+    private void emit(SeriesState series, Map.Entry<Long, Bucket> bucket, TreeMap<Long, RowData> emitted,
+            List<String> aggregateIds) {
+        series.lastEmitted = bucket.getKey();
+        RowData aggregate = emitted.computeIfAbsent(bucket.getKey(), timestamp -> {
+            String aggregateId = AGGREGATE_ID_PREFIX + nextAggregateId.incrementAndGet();
+            pendingAggregates.put(aggregateId, new ArrayList<>());
+            aggregateIds.add(aggregateId);
+            return new RowData(aggregateId, -1, timestamp, new HashMap<>());
+        });
+        for (AggregationFunction function : series.measurement.getDownsampling().getFunctions()) {
+            Object result = bucket.getValue().result(function);
+            if (result != null) {
+                aggregate.getMeasurements().put(outputName(series.measurement, function), result);
+            }
+        }
+        pendingAggregates.get(aggregate.getRowId()).addAll(bucket.getValue().sources);
+        emittedBuckets.increment();
+    }
+
+    /**
+     * Settles the source rows of written aggregates. A source row is done once
+     * every bucket holding one of its values has been written: consumed rows
+     * are then completed. A row fails if the write of one of its buckets failed
+     * or one of its values arrived late.
+     *
+     * @param aggregateIds The IDs of the aggregates whose write has ended.
+     * @param failedRowIds The IDs of the rows the sink could not write.
+     * @return The source rows whose outcome is now known.
+     */
+    public SettledRows settle(Collection<String> aggregateIds, Set<String> failedRowIds) {
+        SettledRows settled = new SettledRows();
+        for (String aggregateId : aggregateIds) {
+            List<SourceRow> sources = pendingAggregates.remove(aggregateId);
+            if (sources == null) {
+                continue;
+            }
+            boolean written = !failedRowIds.contains(aggregateId);
+            for (SourceRow source : sources) {
+                synchronized (source) {
+                    source.failed |= !written;
+                    if (--source.openBuckets > 0) {
+                        continue;
+                    }
+                    unsettledRows.get(source.csvSettingId).decrementAndGet();
+                    if (source.failed) {
+                        settled.addFailed(source.csvSettingId, source.rowIds, source.deferred);
+                    } else if (source.consumed) {
+                        settled.addCompleted(source.csvSettingId, source.rowIds);
+                    }
+                }
+            }
+        }
+        return settled;
+    }
+
+    /**
+     * Checks whether rows of a CSV setting still have values in buckets that
+     * have not been written, so the file cannot be completed yet.
+     *
+     * @param csvSettingId The CSV setting of the file.
+     * @return True if some of its rows are not settled.
+     */
+    public boolean hasUnsettledRows(long csvSettingId) {
+        AtomicInteger rows = unsettledRows.get(csvSettingId);
+        return rows != null && rows.get() > 0;
+    }
+
+    /**
+     * Closes all open buckets. The aggregates carry their IDs as row IDs, to be
+     * settled once they are written.
+     *
+     * @return The aggregates of the closed buckets per CSV setting that last
+     *         wrote to the device, and per full device path.
+     */
+    public Map<Long, Map<String, List<RowData>>> flush() {
+        Map<Long, Map<String, List<RowData>>> flushed = new HashMap<>();
+        states.forEach((fullPath, state) -> {
+            TreeMap<Long, RowData> emitted = new TreeMap<>();
+            long csvSettingId;
+            synchronized (state) {
+                for (SeriesState series : state.series.values()) {
+                    while (!series.buckets.isEmpty()) {
+                        emit(series, series.buckets.pollFirstEntry(), emitted, new ArrayList<>());
+                    }
+                }
+                csvSettingId = state.csvSettingId;
+            }
+            if (!emitted.isEmpty()) {
+                List<RowData> rows = new ArrayList<>(emitted.values());
+                flushed.computeIfAbsent(csvSettingId, k -> new HashMap<>()).put(fullPath, rows);
+            }
+        });
+        return flushed;
+    }
+
+    private IoTDBDevice findDevice(String fullPath) {
+        return devices.stream()
+                .filter(device -> fullPath.startsWith(device.getDeviceId()))
+                .findFirst()
+                .orElse(null);
+    }
+
+    /**
+     * Logs the number of aggregated values, emitted buckets, values dropped for
+     * arriving after their bucket was emitted and aggregates not yet settled.
+     */
+    public void logStats() {
+        logger.info("Downsampling - {} values aggregated into {} buckets, {} late values dropped, "
+                + "{} timeseries, {} aggregates not settled", inputPoints.sum(), emittedBuckets.sum(),
+                latePoints.sum(), states.values().stream().mapToInt(state -> state.series.size()).sum(),
+                pendingAggregates.size());
+    }
+}
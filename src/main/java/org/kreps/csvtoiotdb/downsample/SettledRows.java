@@ -0,0 +1,63 @@
+package org.kreps.csvtoiotdb.downsample;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The source rows of downsampled aggregates whose outcome is known, per CSV
+ * setting: rows whose aggregates were all written are completed, rows with a
+ * value that could not be written are failed.
+ */
+public class SettledRows {
+    private final Map<Long, List<String>> completedRowIds;
+    private final Map<Long, List<String>> failedRowIds;
+    private final Map<Long, Integer> deferredFailedRows;
+
+    public SettledRows() {
+        this.completedRowIds = new HashMap<>();
+        this.failedRowIds = new HashMap<>();
+        this.deferredFailedRows = new HashMap<>();
+    }
+
+    void addCompleted(long csvSettingId, List<String> rowIds) {
+        completedRowIds.computeIfAbsent(csvSettingId, k -> new ArrayList<>()).addAll(rowIds);
+    }
+
+    void addFailed(long csvSettingId, List<String> rowIds, boolean deferred) {
+        failedRowIds.computeIfAbsent(csvSettingId, k -> new ArrayList<>()).addAll(rowIds);
+        if (deferred) {
+            deferredFailedRows.merge(csvSettingId, rowIds.size(), Integer::sum);
+        }
+    }
+
+    /**
+     * Gets the rows to mark as completed.
+     *
+     * @return The row IDs per CSV setting.
+     */
+    public Map<Long, List<String>> getCompletedRowIds() {
+        return completedRowIds;
+    }
+
+    /**
+     * Gets the rows to mark as failed.
+     *
+     * @return The row IDs per CSV setting.
+     */
+    public Map<Long, List<String>> getFailedRowIds() {
+        return failedRowIds;
+    }
+
+    /**
+     * Gets the number of failed rows that were not counted with their batch,
+     * because they were consumed by their buckets. The completed rows are all
+     * such rows.
+     *
+     * @return The number of rows per CSV setting.
+     */
+    public Map<Long, Integer> getDeferredFailedRows() {
+        return deferredFailedRows;
+    }
+}
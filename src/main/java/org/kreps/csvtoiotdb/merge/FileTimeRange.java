@@ -0,0 +1,170 @@
+package org.kreps.csvtoiotdb.merge;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import org.kreps.csvtoiotdb.configs.csv.CsvColumn;
+import org.kreps.csvtoiotdb.configs.csv.CsvSettings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.univocity.parsers.csv.CsvParser;
+import com.univocity.parsers.csv.CsvParserSettings;
+
+/**
+ * The time range of a CSV file, taken from its first and its last row. Only
+ * the head and the tail of the file are read, so the range is exact for files
+ * in time order.
+ */
+public class FileTimeRange {
+    private static final Logger logger = LoggerFactory.getLogger(FileTimeRange.class);
+    private static final int TAIL_BYTES = 64 * 1024;
+
+    private final String filePath;
+    private final long start;
+    private final long end;
+
+    /**
+     * Constructs a FileTimeRange instance.
+     *
+     * @param filePath The path of the file.
+     * @param start    The timestamp of the first row.
+     * @param end      The timestamp of the last row.
+     */
+    public FileTimeRange(String filePath, long start, long end) {
+        this.filePath = filePath;
+        this.start = Math.min(start, end);
+        this.end = Math.max(start, end);
+    }
+
+    /**
+     * Reads the time range of a file.
+     *
+     * @param csvSettings The CSV settings of the file.
+     * @param filePath    The path of the file.
+     * @return The time range, or null if the file has no rows or its first or
+     *         last row cannot be parsed.
+     */
+    public static FileTimeRange probe(CsvSettings csvSettings, String filePath) {
+        CsvColumn timestampColumn = csvSettings.getTimestampColumn();
+        try {
+            String[] headers;
+            String[] firstRow;
+            CsvParser headParser = new CsvParser(createParserSettings(csvSettings, true));
+            try (Reader reader = new FileReader(filePath)) {
+                headParser.beginParsing(reader);
+                headers = headParser.getContext().headers();
+                firstRow = headParser.parseNext();
+                headParser.stopParsing();
+            }
+            int column = indexOf(headers, timestampColumn.getName());
+            if (firstRow == null || column < 0) {
+                return null;
+            }
+            CsvParser tailParser = new CsvParser(createParserSettings(csvSettings, false));
+            String[] lastRow = tailParser.parseLine(readLastLine(filePath));
+            if (lastRow == null || column >= lastRow.length) {
+                return null;
+            }
+            long start = toTimestamp(timestampColumn.parseValue(firstRow[column]));
+            long end = toTimestamp(timestampColumn.parseValue(lastRow[column]));
+            return new FileTimeRange(filePath, start, end);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Cannot determine the time range of file: {}. Error: {}", filePath, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Groups time ranges that overlap, directly or through other ranges.
+     *
+     * @param ranges The time ranges.
+     * @return The groups, each with the file paths ordered by start time.
+     */
+    public static List<List<String>> groupOverlapping(List<FileTimeRange> ranges) {
+        List<FileTimeRange> sorted = new ArrayList<>(ranges);
+        sorted.sort(Comparator.comparingLong(FileTimeRange::getStart));
+        List<List<String>> groups = new ArrayList<>();
+        List<String> group = null;
+        long groupEnd = Long.MIN_VALUE;
+        for (FileTimeRange range : sorted) {
+            if (group == null || range.getStart() > groupEnd) {
+                group = new ArrayList<>();
+                groups.add(group);
+                groupEnd = range.getEnd();
+            } else {
+                groupEnd = Math.max(groupEnd, range.getEnd());
+            }
+            group.add(range.getFilePath());
+        }
+        return groups;
+    }
+
+    private static String readLastLine(String filePath) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(filePath, "r")) {
+            int length = (int) Math.min(TAIL_BYTES, file.length());
+            byte[] tail = new byte[length];
+            file.seek(file.length() - length);
+            file.readFully(tail);
+            String text = new String(tail, StandardCharsets.UTF_8);
+            int end = text.length();
+            while (end > 0 && (text.charAt(end - 1) == '\n' || text.charAt(end - 1) == '\r')) {
+                end--;
+            }
+            int start = text.lastIndexOf('\n', end - 1) + 1;
+            if (start == 0 && length < file.length()) {
+                throw new IOException("Last row is longer than " + TAIL_BYTES + " bytes");
+            }
+            return text.substring(start, end);
+        }
+    }
+
+    private static CsvParserSettings createParserSettings(CsvSettings csvSettings, boolean extractHeaders) {
+        CsvParserSettings settings = new CsvParserSettings();
+        settings.getFormat().setDelimiter(csvSettings.getDelimiter().charAt(0));
+        settings.getFormat().setQuote(csvSettings.getEscapeCharacter().charAt(0));
+        settings.setHeaderExtractionEnabled(extractHeaders);
+        return settings;
+    }
+
+    private static int indexOf(String[] headers, String name) {
+        for (int i = 0; headers != null && i < headers.length; i++) {
+            if (name.equals(headers[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Gets the timestamp of a parsed row as a number.
+     *
+     * @param timestamp The parsed timestamp value.
+     * @return The timestamp.
+     * @throws IllegalArgumentException If the value is not numeric.
+     */
+    static long toTimestamp(Object timestamp) {
+        if (!(timestamp instanceof Number)) {
+            throw new IllegalArgumentException("Timestamp is not numeric: " + timestamp);
+        }
+        return ((Number) timestamp).longValue();
+    }
+
+    public String getFilePath() {
+        return filePath;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public long getEnd() {
+        return end;
+    }
+}
@@ -0,0 +1,211 @@
+package org.kreps.csvtoiotdb.merge;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import org.kreps.csvtoiotdb.CSVReader;
+import org.kreps.csvtoiotdb.pipeline.FileContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Merges the rows of several CSV files with overlapping time ranges in
+ * timestamp order. Every file is read in chunks by its own {@link CSVReader},
+ * so memory is bounded by one chunk per file, and the file with the oldest
+ * next row is picked from a heap. Rows keep their file, so row state, commits
+ * and finalization stay per file.
+ */
+public class TimeMerger {
+    private static final Logger logger = LoggerFactory.getLogger(TimeMerger.class);
+
+    /**
+     * The smallest number of rows read from a file at a time, so that groups of
+     * more files than a batch holds rows are not read row by row.
+     */
+    public static final int MIN_CHUNK_ROWS = 100;
+
+    private final int chunkRows;
+    private final PriorityQueue<MergeSource> heads;
+    private final List<MergeSource> finished;
+    private int sources;
+    private long mergedRows;
+    private long switches;
+
+    /**
+     * A file taking part in the merge.
+     */
+    public static class MergeSource {
+        private final FileContext file;
+        private final CSVReader reader;
+        private final int order;
+        private List<Map<String, Object>> chunk;
+        private int position;
+        private long head;
+        private Exception error;
+
+        private MergeSource(FileContext file, CSVReader reader, int order) {
+            this.file = file;
+            this.reader = reader;
+            this.order = order;
+        }
+
+        public FileContext getFile() {
+            return file;
+        }
+
+        public CSVReader getReader() {
+            return reader;
+        }
+
+        /**
+         * Gets the error that ended reading the file.
+         *
+         * @return The error, or null if the file was read completely.
+         */
+        public Exception getError() {
+            return error;
+        }
+    }
+
+    /**
+     * Constructs a TimeMerger instance.
+     *
+     * @param chunkRows The number of rows read from a file at a time.
+     */
+    public TimeMerger(int chunkRows) {
+        this.chunkRows = Math.max(1, chunkRows);
+        this.heads = new PriorityQueue<>(Comparator.<MergeSource>comparingLong(source -> source.head)
+                .thenComparingInt(source -> source.order));
+        this.finished = new ArrayList<>();
+    }
+
+    /**
+     * Adds a file to the merge and reads its first chunk.
+     *
+     * @param file   The pipeline context of the file.
+     * @param reader The reader of the file.
+     */
+    public void addSource(FileContext file, CSVReader reader) {
+        MergeSource source = new MergeSource(file, reader, sources++);
+        if (refill(source)) {
+            heads.add(source);
+        }
+    }
+
+    /**
+     * Takes the next rows in timestamp order. Files that were read completely or
+     * failed during the round are handed out by {@link #takeFinished()}.
+     *
+     * @param maxRows The maximum number of rows.
+     * @return The rows per file, each list in file order.
+     */
+    public Map<FileContext, List<Map<String, Object>>> nextRound(int maxRows) {
+        Map<FileContext, List<Map<String, Object>>> round = new LinkedHashMap<>();
+        int rows = 0;
+        while (rows < maxRows && !heads.isEmpty()) {
+            MergeSource source = heads.poll();
+            List<Map<String, Object>> fileRows = round.computeIfAbsent(source.file, file -> new ArrayList<>());
+            // Stay on the file as long as it holds the oldest row, without touching the heap
+            boolean hasRows = true;
+            while (rows < maxRows && hasRows && (heads.isEmpty() || precedes(source, heads.peek()))) {
+                fileRows.add(source.chunk.get(source.position++));
+                rows++;
+                hasRows = source.position < source.chunk.size() ? updateHead(source) : refill(source);
+            }
+            if (hasRows) {
+                heads.add(source);
+            }
+            switches++;
+        }
+        mergedRows += rows;
+        return round;
+    }
+
+    /**
+     * Hands out the files that have been read completely or failed since the
+     * last call. Their rows have all been returned by {@link #nextRound(int)}.
+     *
+     * @return The finished files.
+     */
+    public List<MergeSource> takeFinished() {
+        List<MergeSource> taken = new ArrayList<>(finished);
+        finished.clear();
+        return taken;
+    }
+
+    /**
+     * Checks whether rows are left to merge.
+     *
+     * @return True if every file has been read completely.
+     */
+    public boolean isDone() {
+        return heads.isEmpty();
+    }
+
+    private static boolean precedes(MergeSource source, MergeSource other) {
+        return source.head < other.head || (source.head == other.head && source.order < other.order);
+    }
+
+    /**
+     * Reads the timestamp of the next row of a file. A file with a timestamp that
+     * is not numeric fails, the other files go on merging.
+     *
+     * @return True if the file has rows left.
+     */
+    private boolean updateHead(MergeSource source) {
+        try {
+            source.head = FileTimeRange.toTimestamp(source.chunk.get(source.position).get("timestamp"));
+            return true;
+        } catch (IllegalArgumentException e) {
+            finish(source, e);
+            return false;
+        }
+    }
+
+    /**
+     * Reads the next chunk of a file.
+     *
+     * @return True if the file has rows left.
+     */
+    private boolean refill(MergeSource source) {
+        List<Map<String, Object>> chunk;
+        try {
+            source.reader.setBatchSize(chunkRows);
+            chunk = source.reader.readBatch();
+        } catch (IOException | SQLException | RuntimeException e) {
+            finish(source, e);
+            return false;
+        }
+        if (chunk == null || chunk.isEmpty()) {
+            finish(source, null);
+            return false;
+        }
+        source.chunk = chunk;
+        source.position = 0;
+        return updateHead(source);
+    }
+
+    private void finish(MergeSource source, Exception error) {
+        if (error != null) {
+            logger.error("Failed to read file: {} during the time merge. Error: {}", source.file.getFilePath(),
+                    error.getMessage(), error);
+            source.error = error;
+        }
+        source.chunk = null;
+        finished.add(source);
+    }
+
+    /**
+     * Logs the number of merged rows and how often the merge moved on to another
+     * file.
+     */
+    public void logStats() {
+        logger.info("Time merge of {} files - {} rows merged, {} file switches", sources, mergedRows, switches);
+    }
+}
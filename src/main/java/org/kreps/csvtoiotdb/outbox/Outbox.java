@@ -0,0 +1,431 @@
+package org.kreps.csvtoiotdb.outbox;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import org.apache.iotdb.rpc.IoTDBConnectionException;
+import org.apache.iotdb.rpc.StatementExecutionException;
+import org.apache.iotdb.tsfile.write.record.Tablet;
+import org.kreps.csvtoiotdb.H2DatabaseManager;
+import org.kreps.csvtoiotdb.IoTDBClientManager;
+import org.kreps.csvtoiotdb.IoTDBWriter;
+import org.kreps.csvtoiotdb.DAO.OutboxDAO;
+import org.kreps.csvtoiotdb.DAO.OutboxDAO.OutboxEntry;
+import org.kreps.csvtoiotdb.DAO.OutboxStatus;
+import org.kreps.csvtoiotdb.DAO.RowProcessingDAO;
+import org.kreps.csvtoiotdb.DAO.RowProcessingStatus;
+import org.kreps.csvtoiotdb.client.IoTDBNode;
+import org.kreps.csvtoiotdb.sink.TabletCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps converted tablets that could not be delivered within the retry budget,
+ * so that an outage of IoTDB does not force a later run to read and convert
+ * the source rows again. Spilled tablets are appended to segment files in the
+ * outbox directory and recorded in the {@code outbox} table; their rows are
+ * marked {@code SPILLED}. A background replayer writes pending tablets to
+ * IoTDB once a node is available again, marks their rows {@code COMPLETED}
+ * and deletes segments without pending tablets. Pending tablets survive a
+ * restart and are replayed by the next run.
+ * <p>
+ * Every record is the payload length, a CRC32 of the payload and the payload:
+ * the aligned flag, the CSV setting, the row IDs and the tablet encoded with
+ * {@link TabletCodec}.
+ */
+public class Outbox {
+    private static final Logger logger = LoggerFactory.getLogger(Outbox.class);
+
+    private static final long DEFAULT_MAX_BYTES = 1L << 30;
+    private static final long DEFAULT_REPLAY_INTERVAL_MILLIS = 10_000;
+    private static final long SEGMENT_BYTES = 64L << 20;
+    private static final int RECORD_HEADER_BYTES = 12;
+    private static final int REPLAY_BATCH = 100;
+    private static final String SEGMENT_PREFIX = "outbox-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private final File directory;
+    private final long maxBytes;
+    private final IoTDBClientManager clientManager;
+    private final H2DatabaseManager dbManager;
+    private final OutboxDAO outboxDAO;
+    private final RowProcessingDAO rowProcessingDAO;
+    private final ScheduledExecutorService replayer;
+    private final AtomicLong pendingBytes;
+    private final AtomicLong spilledTablets;
+    private final AtomicLong spilledRows;
+    private final AtomicLong refusedTablets;
+    private final AtomicLong replayedTablets;
+    private final AtomicLong replayedRows;
+    private final AtomicLong failedTablets;
+    private File segment;
+    private FileOutputStream segmentOut;
+    private long segmentSize;
+    private int segmentIndex;
+
+    /**
+     * Constructs an Outbox instance and starts replaying the tablets left
+     * pending by previous runs.
+     *
+     * @param directory            The directory of the segment files.
+     * @param maxBytes             The largest size of the pending tablets.
+     *                             Uses 1 GiB if not positive.
+     * @param replayIntervalMillis The delay between replay attempts. Uses 10
+     *                             seconds if not positive.
+     * @param clientManager        The client manager to replay through.
+     * @param dbManager            The database manager for the outbox and row
+     *                             states.
+     * @throws IOException  If the directory cannot be created.
+     * @throws SQLException If the pending tablets cannot be read.
+     */
+    public Outbox(String directory, long maxBytes, long replayIntervalMillis, IoTDBClientManager clientManager,
+            H2DatabaseManager dbManager) throws IOException, SQLException {
+        this.directory = new File(directory);
+        Files.createDirectories(this.directory.toPath());
+        this.maxBytes = maxBytes > 0 ? maxBytes : DEFAULT_MAX_BYTES;
+        this.clientManager = clientManager;
+        this.dbManager = dbManager;
+        this.outboxDAO = new OutboxDAO();
+        this.rowProcessingDAO = new RowProcessingDAO();
+        this.pendingBytes = new AtomicLong(outboxDAO.getPendingBytes());
+        this.spilledTablets = new AtomicLong();
+        this.spilledRows = new AtomicLong();
+        this.refusedTablets = new AtomicLong();
+        this.replayedTablets = new AtomicLong();
+        this.replayedRows = new AtomicLong();
+        this.failedTablets = new AtomicLong();
+
+        long interval = replayIntervalMillis > 0 ? replayIntervalMillis : DEFAULT_REPLAY_INTERVAL_MILLIS;
+        this.replayer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "outbox-replayer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        replayer.scheduleWithFixedDelay(this::replayPending, interval, interval, TimeUnit.MILLISECONDS);
+        logger.info("Outbox in {} with {} bytes pending from previous runs, capacity {} bytes, replay every {} ms",
+                this.directory.getAbsolutePath(), pendingBytes.get(), this.maxBytes, interval);
+    }
+
+    /**
+     * Spills a tablet that could not be delivered and marks its rows
+     * {@code SPILLED}. The record is synced to disk before the rows change
+     * state.
+     *
+     * @param tablet       The tablet.
+     * @param aligned      Whether the device is aligned.
+     * @param csvSettingId The CSV setting the rows were read from.
+     * @param rowIds       The IDs of the source rows of the tablet.
+     * @return True if the tablet was spilled, false if the outbox is full or
+     *         cannot be written and the rows must be failed instead.
+     */
+    public synchronized boolean spill(Tablet tablet, boolean aligned, long csvSettingId, List<String> rowIds) {
+        byte[] payload;
+        try {
+            payload = encode(tablet, aligned, csvSettingId, rowIds);
+        } catch (IOException e) {
+            logger.error("Failed to encode tablet of device: {} for the outbox: {}", tablet.deviceId,
+                    e.getMessage(), e);
+            return false;
+        }
+        if (pendingBytes.get() + payload.length > maxBytes) {
+            refusedTablets.incrementAndGet();
+            logger.warn("Outbox is full ({} of {} bytes), cannot spill tablet of device: {}", pendingBytes.get(),
+                    maxBytes, tablet.deviceId);
+            return false;
+        }
+
+        try {
+            long offset = append(payload);
+            try (Connection conn = dbManager.getConnection()) {
+                conn.setAutoCommit(false);
+                try {
+                    outboxDAO.insertEntry(segment.getAbsolutePath(), offset, payload.length, tablet.deviceId,
+                            csvSettingId, tablet.rowSize, conn);
+                    rowProcessingDAO.updateRowStatuses(csvSettingId, rowIds, RowProcessingStatus.SPILLED,
+                            "Spilled to the outbox after max retries", conn);
+                    conn.commit();
+                } catch (SQLException e) {
+                    conn.rollback();
+                    throw e;
+                }
+            }
+        } catch (IOException | SQLException e) {
+            logger.error("Failed to spill tablet of device: {} to the outbox: {}", tablet.deviceId, e.getMessage(),
+                    e);
+            return false;
+        }
+        pendingBytes.addAndGet(payload.length);
+        spilledTablets.incrementAndGet();
+        spilledRows.addAndGet(rowIds.size());
+        logger.warn("Spilled tablet of device: {} with {} rows to the outbox", tablet.deviceId, tablet.rowSize);
+        return true;
+    }
+
+    private static byte[] encode(Tablet tablet, boolean aligned, long csvSettingId, List<String> rowIds)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeBoolean(aligned);
+            out.writeLong(csvSettingId);
+            out.writeInt(rowIds.size());
+            for (String rowId : rowIds) {
+                out.writeUTF(rowId);
+            }
+            TabletCodec.encode(tablet, out);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Appends a record to the current segment, rolling over to a new segment
+     * once it is full.
+     *
+     * @return The offset of the payload in the segment.
+     */
+    private long append(byte[] payload) throws IOException {
+        if (segmentOut == null || segmentSize >= SEGMENT_BYTES) {
+            openSegment();
+        }
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteArrayOutputStream record = new ByteArrayOutputStream(payload.length + RECORD_HEADER_BYTES);
+        try (DataOutputStream out = new DataOutputStream(record)) {
+            out.writeInt(payload.length);
+            out.writeLong(crc.getValue());
+            out.write(payload);
+        }
+        segmentOut.write(record.toByteArray());
+        segmentOut.getChannel().force(false);
+        long offset = segmentSize + RECORD_HEADER_BYTES;
+        segmentSize += record.size();
+        return offset;
+    }
+
+    private void openSegment() throws IOException {
+        if (segmentOut != null) {
+            segmentOut.close();
+        }
+        segment = new File(directory,
+                SEGMENT_PREFIX + System.currentTimeMillis() + "-" + segmentIndex++ + SEGMENT_SUFFIX);
+        segmentOut = new FileOutputStream(segment);
+        segmentSize = 0;
+    }
+
+    /**
+     * Replays pending tablets in spill order until none is left or IoTDB still
+     * cannot take them. Tablets IoTDB rejects for their data are failed, so
+     * their rows are re-read by the next run.
+     */
+    private void replayPending() {
+        if (pendingBytes.get() <= 0 || clientManager.getNodes().stream().noneMatch(IoTDBNode::isAvailable)) {
+            return;
+        }
+        try {
+            List<OutboxEntry> entries;
+            while (!(entries = outboxDAO.getPendingEntries(REPLAY_BATCH)).isEmpty()) {
+                for (OutboxEntry entry : entries) {
+                    if (!replay(entry)) {
+                        return;
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            logger.error("Failed to read the pending outbox entries: {}", e.getMessage(), e);
+        } finally {
+            deleteDrainedSegments();
+        }
+    }
+
+    /**
+     * Replays one pending tablet.
+     *
+     * @return False if IoTDB is still unavailable and replaying should stop.
+     */
+    private boolean replay(OutboxEntry entry) throws SQLException {
+        boolean aligned;
+        long csvSettingId;
+        List<String> rowIds;
+        Tablet tablet;
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(read(entry)))) {
+            aligned = in.readBoolean();
+            csvSettingId = in.readLong();
+            int rowCount = in.readInt();
+            rowIds = new ArrayList<>(rowCount);
+            for (int i = 0; i < rowCount; i++) {
+                rowIds.add(in.readUTF());
+            }
+            tablet = TabletCodec.decode(in);
+        } catch (IOException e) {
+            logger.error("Outbox entry {} of device: {} is unreadable, dropping it: {}", entry.getId(),
+                    entry.getDeviceId(), e.getMessage());
+            complete(entry, OutboxStatus.FAILED, "Unreadable outbox record: " + e.getMessage(), null, List.of(),
+                    entry.getCsvSettingId());
+            return true;
+        }
+
+        try {
+            clientManager.execute(session -> {
+                // Spilled tablets were built from rows sorted by time
+                if (aligned) {
+                    session.insertAlignedTablet(tablet, true);
+                } else {
+                    session.insertTablet(tablet, true);
+                }
+                return null;
+            });
+        } catch (StatementExecutionException e) {
+            if (IoTDBWriter.isTransientRejection(e)) {
+                recordAttempt(entry, e);
+                return false;
+            }
+            logger.error("Outbox tablet of device: {} rejected by IoTDB: {}", entry.getDeviceId(), e.getMessage());
+            complete(entry, OutboxStatus.FAILED, e.getMessage(), RowProcessingStatus.FAILED, rowIds, csvSettingId);
+            return true;
+        } catch (IoTDBConnectionException | RuntimeException e) {
+            recordAttempt(entry, e);
+            return false;
+        }
+        complete(entry, OutboxStatus.DELIVERED, null, RowProcessingStatus.COMPLETED, rowIds, csvSettingId);
+        replayedTablets.incrementAndGet();
+        replayedRows.addAndGet(rowIds.size());
+        logger.info("Replayed outbox tablet of device: {} with {} rows", entry.getDeviceId(), tablet.rowSize);
+        return true;
+    }
+
+    private byte[] read(OutboxEntry entry) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(entry.getSegmentPath(), "r")) {
+            file.seek(entry.getRecordOffset() - RECORD_HEADER_BYTES);
+            int length = file.readInt();
+            long checksum = file.readLong();
+            if (length != entry.getRecordLength()) {
+                throw new IOException("Record length " + length + " does not match " + entry.getRecordLength());
+            }
+            byte[] payload = new byte[length];
+            file.readFully(payload);
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            if (crc.getValue() != checksum) {
+                throw new IOException("Checksum mismatch");
+            }
+            return payload;
+        }
+    }
+
+    private void complete(OutboxEntry entry, OutboxStatus status, String errorMessage, RowProcessingStatus rowStatus,
+            List<String> rowIds, long csvSettingId) throws SQLException {
+        try (Connection conn = dbManager.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                outboxDAO.updateStatus(entry.getId(), status, errorMessage, conn);
+                if (rowStatus != null) {
+                    rowProcessingDAO.updateRowStatuses(csvSettingId, rowIds, rowStatus, errorMessage, conn);
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        }
+        pendingBytes.addAndGet(-entry.getRecordLength());
+        if (status == OutboxStatus.FAILED) {
+            failedTablets.incrementAndGet();
+        }
+    }
+
+    private void recordAttempt(OutboxEntry entry, Exception e) throws SQLException {
+        logger.info("IoTDB still unavailable, outbox replay paused with {} bytes pending: {}", pendingBytes.get(),
+                e.getMessage());
+        try (Connection conn = dbManager.getConnection()) {
+            outboxDAO.updateStatus(entry.getId(), OutboxStatus.PENDING, e.getMessage(), conn);
+        }
+    }
+
+    /**
+     * Deletes the segments other than the one being appended to that hold no
+     * pending tablets any more.
+     */
+    private void deleteDrainedSegments() {
+        File[] segments = directory.listFiles(
+                (dir, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+        if (segments == null) {
+            return;
+        }
+        File active;
+        synchronized (this) {
+            active = segment;
+        }
+        for (File file : segments) {
+            if (file.equals(active)) {
+                continue;
+            }
+            try {
+                if (!outboxDAO.hasPendingEntries(file.getAbsolutePath())) {
+                    Files.deleteIfExists(file.toPath());
+                    logger.info("Deleted drained outbox segment: {}", file.getName());
+                }
+            } catch (IOException | SQLException e) {
+                logger.warn("Failed to delete outbox segment: {}. Error: {}", file.getName(), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Logs spilled, replayed and pending tablets.
+     */
+    public void logStats() {
+        logger.info("Outbox - {} tablets ({} rows) spilled, {} refused as full, {} tablets ({} rows) replayed, "
+                + "{} failed, {} of {} bytes pending", spilledTablets.get(), spilledRows.get(), refusedTablets.get(),
+                replayedTablets.get(), replayedRows.get(), failedTablets.get(), pendingBytes.get(), maxBytes);
+    }
+
+    public long getPendingBytes() {
+        return pendingBytes.get();
+    }
+
+    /**
+     * Stops the replayer, makes a last attempt to deliver the pending tablets
+     * and closes the current segment. Tablets still pending are replayed by the
+     * next run.
+     */
+    public void close() {
+        replayer.shutdown();
+        try {
+            if (!replayer.awaitTermination(60, TimeUnit.SECONDS)) {
+                logger.warn("Outbox replayer did not terminate in time");
+            }
+        } catch (InterruptedException e) {
+            replayer.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        replayPending();
+        synchronized (this) {
+            if (segmentOut != null) {
+                try {
+                    segmentOut.close();
+                } catch (IOException e) {
+                    logger.warn("Failed to close outbox segment: {}", e.getMessage());
+                }
+                segment = null;
+                segmentOut = null;
+            }
+        }
+        deleteDrainedSegments();
+        logStats();
+    }
+}
@@ -0,0 +1,176 @@
+package org.kreps.csvtoiotdb.pipeline;
+
+import java.util.concurrent.TimeUnit;
+
+import org.kreps.csvtoiotdb.client.LatencyTracker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Chooses the number of rows read per batch. The batch size bounds the CSV
+ * read, the state transaction and the tablets built from a batch, so in
+ * adaptive mode it is tuned at runtime from what the writes report: it shrinks
+ * while the write latency is above the target or the heap runs short, and
+ * otherwise climbs in the direction that raised the committed rows per second
+ * in the previous window. Without adaptive mode the configured size is used
+ * unchanged.
+ */
+public class BatchSizeController {
+    private static final Logger logger = LoggerFactory.getLogger(BatchSizeController.class);
+
+    private static final long DEFAULT_TARGET_LATENCY_MILLIS = 1000;
+    private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(5);
+    private static final double STEP_RATIO = 1.25;
+    private static final double HEAP_HIGH_WATERMARK = 0.85;
+    private static final double THROUGHPUT_TOLERANCE = 0.95;
+
+    private final boolean adaptive;
+    private final int minBatchSize;
+    private final int maxBatchSize;
+    private final long targetLatencyNanos;
+    private final LatencyTracker writeLatencies;
+    private volatile int batchSize;
+    private long windowStartNanos;
+    private long windowRows;
+    private double lastThroughput;
+    private boolean growing;
+    private int bestBatchSize;
+    private double bestThroughput;
+    private int adjustments;
+
+    /**
+     * Constructs a BatchSizeController instance.
+     *
+     * @param batchSize            The configured batch size, used as the
+     *                             starting point in adaptive mode.
+     * @param adaptive             Whether the batch size adapts at runtime.
+     * @param minBatchSize         The smallest batch size. Uses a tenth of the
+     *                             configured size if not positive.
+     * @param maxBatchSize         The largest batch size. Uses ten times the
+     *                             configured size if not positive.
+     * @param targetLatencyMillis  The write latency to stay under. Uses one
+     *                             second if not positive.
+     * @param writeLatencies       The latencies of completed writes, or null if
+     *                             the sink has none.
+     */
+    public BatchSizeController(int batchSize, boolean adaptive, int minBatchSize, int maxBatchSize,
+            long targetLatencyMillis, LatencyTracker writeLatencies) {
+        int configured = Math.max(1, batchSize);
+        this.adaptive = adaptive;
+        this.minBatchSize = minBatchSize > 0 ? minBatchSize : Math.max(1, configured / 10);
+        this.maxBatchSize = Math.max(this.minBatchSize, maxBatchSize > 0 ? maxBatchSize : configured * 10);
+        this.targetLatencyNanos = TimeUnit.MILLISECONDS.toNanos(
+                targetLatencyMillis > 0 ? targetLatencyMillis : DEFAULT_TARGET_LATENCY_MILLIS);
+        this.writeLatencies = writeLatencies;
+        this.batchSize = adaptive ? clamp(configured) : configured;
+        this.windowStartNanos = System.nanoTime();
+        this.growing = true;
+        this.bestBatchSize = this.batchSize;
+    }
+
+    /**
+     * Gets the number of rows the next batch should hold.
+     *
+     * @return The batch size.
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Records a batch whose rows have been written and committed, and adjusts
+     * the batch size at the end of each observation window.
+     *
+     * @param rows The number of rows in the batch.
+     */
+    public synchronized void onBatchCommitted(int rows) {
+        if (!adaptive) {
+            return;
+        }
+        windowRows += rows;
+        long now = System.nanoTime();
+        long elapsed = now - windowStartNanos;
+        if (elapsed < WINDOW_NANOS) {
+            return;
+        }
+        double throughput = windowRows * 1e9 / elapsed;
+        windowRows = 0;
+        windowStartNanos = now;
+        if (throughput > bestThroughput) {
+            bestThroughput = throughput;
+            bestBatchSize = batchSize;
+        }
+
+        long latency = writeLatencies == null ? -1 : writeLatencies.getPercentileNanos();
+        int previous = batchSize;
+        String reason;
+        if (heapUsage() > HEAP_HIGH_WATERMARK) {
+            // Several batches per lane are held in the queues, large ones can exhaust the heap
+            growing = false;
+            reason = "heap usage above " + (int) (HEAP_HIGH_WATERMARK * 100) + "%";
+            batchSize = clamp(batchSize / 2);
+        } else if (latency > targetLatencyNanos) {
+            growing = false;
+            reason = "write latency above target";
+            batchSize = clamp((int) (batchSize / STEP_RATIO));
+        } else {
+            // Keep the direction while it pays off, turn around once throughput drops
+            if (lastThroughput > 0 && throughput < lastThroughput * THROUGHPUT_TOLERANCE) {
+                growing = !growing;
+            }
+            reason = growing ? "probing larger batches" : "probing smaller batches";
+            batchSize = clamp(growing ? (int) Math.ceil(batchSize * STEP_RATIO) : (int) (batchSize / STEP_RATIO));
+        }
+        lastThroughput = throughput;
+
+        if (batchSize != previous) {
+            adjustments++;
+            logger.info("Batch size changed from {} to {} rows ({}). Throughput: {} rows/s, write latency p90: {} ms",
+                    previous, batchSize, reason, String.format("%.0f", throughput),
+                    latency < 0 ? "n/a" : String.format("%.1f", latency / 1e6));
+        }
+    }
+
+    private int clamp(int size) {
+        return Math.max(minBatchSize, Math.min(maxBatchSize, size));
+    }
+
+    private static double heapUsage() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = runtime.totalMemory() - runtime.freeMemory();
+        return (double) used / runtime.maxMemory();
+    }
+
+    /**
+     * Logs the chosen batch sizes, so they can be reused as the static
+     * {@code batchSize} of later runs.
+     */
+    public synchronized void logSummary() {
+        if (!adaptive) {
+            return;
+        }
+        logger.info("Adaptive batch size - current {} rows, best {} rows at {} rows/s, {} adjustments within [{}, {}]",
+                batchSize, bestBatchSize, String.format("%.0f", bestThroughput), adjustments, minBatchSize,
+                maxBatchSize);
+    }
+
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+
+    public int getMinBatchSize() {
+        return minBatchSize;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    public synchronized int getBestBatchSize() {
+        return bestBatchSize;
+    }
+
+    public synchronized double getBestThroughput() {
+        return bestThroughput;
+    }
+}
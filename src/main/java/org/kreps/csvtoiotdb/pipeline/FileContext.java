@@ -0,0 +1,195 @@
+package org.kreps.csvtoiotdb.pipeline;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.kreps.csvtoiotdb.converter.RowData;
+
+/**
+ * Tracks the batches of a single CSV file while they travel through the
+ * pipeline, so that the file is finalized exactly once after its last batch has
+ * been committed.
+ */
+public class FileContext {
+    private final long csvSettingId;
+    private final String filePath;
+    private final long jobId;
+    private long submittedBatches;
+    private long committedBatches;
+    private boolean readComplete;
+    private boolean failed;
+    private boolean finished;
+    private CompletableFuture<Void> lastCommit;
+    private final CompletableFuture<Void> completion;
+    private final Map<String, Long> lastTimestamps;
+    private long orderedRows;
+    private long outOfOrderRows;
+    private long collapsedRows;
+    private long duplicatePoints;
+
+    /**
+     * Constructs a FileContext instance.
+     *
+     * @param csvSettingId The ID of the CSV setting of the file.
+     * @param filePath     The path of the file.
+     * @param jobId        The ID of the job migrating the file.
+     */
+    public FileContext(long csvSettingId, String filePath, long jobId) {
+        this.csvSettingId = csvSettingId;
+        this.filePath = filePath;
+        this.jobId = jobId;
+        this.lastCommit = CompletableFuture.completedFuture(null);
+        this.completion = new CompletableFuture<>();
+        this.lastTimestamps = new HashMap<>();
+    }
+
+    /**
+     * Counts the rows of a converted batch that are older than the row before
+     * them of the same device, including the last row of the previous batch.
+     *
+     * @param deviceDataMap The converted rows per device path, in file order.
+     */
+    synchronized void recordTimeOrder(Map<String, List<RowData>> deviceDataMap) {
+        for (Map.Entry<String, List<RowData>> entry : deviceDataMap.entrySet()) {
+            Long previous = lastTimestamps.get(entry.getKey());
+            long last = previous != null ? previous : Long.MIN_VALUE;
+            for (RowData row : entry.getValue()) {
+                if (row.getTimestamp() < last) {
+                    outOfOrderRows++;
+                } else {
+                    orderedRows++;
+                }
+                last = row.getTimestamp();
+            }
+            lastTimestamps.put(entry.getKey(), last);
+        }
+    }
+
+    /**
+     * Gets the share of converted rows that were out of time order within their
+     * device.
+     *
+     * @return The out-of-order ratio, 0 if no rows were converted.
+     */
+    public synchronized double getOutOfOrderRatio() {
+        long total = orderedRows + outOfOrderRows;
+        return total == 0 ? 0 : (double) outOfOrderRows / total;
+    }
+
+    public synchronized long getOutOfOrderRows() {
+        return outOfOrderRows;
+    }
+
+    /**
+     * Adds the duplicates collapsed in a converted batch.
+     *
+     * @param rows   The rows merged into an earlier row of the same timestamp.
+     * @param points The values dropped or aggregated as duplicate points.
+     */
+    synchronized void recordDuplicates(long rows, long points) {
+        collapsedRows += rows;
+        duplicatePoints += points;
+    }
+
+    public synchronized long getCollapsedRows() {
+        return collapsedRows;
+    }
+
+    public synchronized long getDuplicatePoints() {
+        return duplicatePoints;
+    }
+
+    /**
+     * Schedules the state commit of a batch. The commit runs once the batch write
+     * has completed and the commit of the previous batch of the file has run, so
+     * commits keep the file order even when writes complete out of order.
+     *
+     * @param write  The pending write of the batch.
+     * @param commit The commit to run after the write.
+     */
+    synchronized void chainCommit(CompletableFuture<?> write, Runnable commit) {
+        lastCommit = CompletableFuture.allOf(lastCommit, write).handle((ignored, error) -> {
+            commit.run();
+            return null;
+        });
+    }
+
+    /**
+     * Marks the file as finalized.
+     */
+    synchronized void markFinalized() {
+        lastTimestamps.clear();
+        completion.complete(null);
+    }
+
+    /**
+     * Gets a future that completes once the file has been finalized.
+     *
+     * @return The completion future.
+     */
+    public CompletableFuture<Void> getCompletion() {
+        return completion;
+    }
+
+    /**
+     * Registers a new batch of the file.
+     *
+     * @return The sequence number of the batch within the file.
+     */
+    synchronized long nextSequence() {
+        return submittedBatches++;
+    }
+
+    /**
+     * Marks that no more batches will be read from the file.
+     *
+     * @return True if the file is finished and must be finalized by the caller.
+     */
+    synchronized boolean markReadComplete() {
+        readComplete = true;
+        return checkFinished();
+    }
+
+    /**
+     * Marks a batch of the file as committed.
+     *
+     * @return True if the file is finished and must be finalized by the caller.
+     */
+    synchronized boolean markBatchCommitted() {
+        committedBatches++;
+        return checkFinished();
+    }
+
+    private boolean checkFinished() {
+        if (!finished && readComplete && committedBatches == submittedBatches) {
+            finished = true;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Marks the file as failed, so it is not reported as completed.
+     */
+    public synchronized void markFailed() {
+        failed = true;
+    }
+
+    public synchronized boolean isFailed() {
+        return failed;
+    }
+
+    public long getCsvSettingId() {
+        return csvSettingId;
+    }
+
+    public String getFilePath() {
+        return filePath;
+    }
+
+    public long getJobId() {
+        return jobId;
+    }
+}
@@ -0,0 +1,553 @@
+package org.kreps.csvtoiotdb.pipeline;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import org.kreps.csvtoiotdb.Converter;
+import org.kreps.csvtoiotdb.H2DatabaseManager;
+import org.kreps.csvtoiotdb.DAO.CsvSettingsDAO;
+import org.kreps.csvtoiotdb.DAO.CsvStatus;
+import org.kreps.csvtoiotdb.DAO.JobStatus;
+import org.kreps.csvtoiotdb.DAO.JobsDAO;
+import org.kreps.csvtoiotdb.DAO.LogLevel;
+import org.kreps.csvtoiotdb.DAO.MigrationLogsDAO;
+import org.kreps.csvtoiotdb.DAO.RowProcessingDAO;
+import org.kreps.csvtoiotdb.DAO.RowProcessingStatus;
+import org.kreps.csvtoiotdb.configs.MigrationSettings;
+import org.kreps.csvtoiotdb.converter.DuplicateCollapser;
+import org.kreps.csvtoiotdb.converter.RowData;
+import org.kreps.csvtoiotdb.downsample.Downsampler;
+import org.kreps.csvtoiotdb.downsample.SettledRows;
+import org.kreps.csvtoiotdb.sink.Sink;
+import org.kreps.csvtoiotdb.sink.TabletBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Connects the parse, convert and write stages of a migration. Parsed batches
+ * are handed to the convert stage, converted batches to the write stage, and
+ * the write stage commits the batch state. Batches of a file always use the
+ * same lane of each stage, so rows and state commits keep their file order.
+ */
+public class MigrationPipeline implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(MigrationPipeline.class);
+
+    private final Converter converter;
+    private final Downsampler downsampler;
+    private final Sink sink;
+    private final H2DatabaseManager dbManager;
+    private final CsvSettingsDAO csvSettingsDAO;
+    private final RowProcessingDAO rowProcessingDAO;
+    private final MigrationLogsDAO logsDAO;
+    private final JobsDAO jobsDAO;
+    private final PipelineStage<PipelineBatch> convertStage;
+    private final PipelineStage<PipelineBatch> writeStage;
+    private final int parseWorkers;
+    private final AtomicInteger busyParsers;
+    private final Set<FileContext> activeFiles;
+    private final Set<FileContext> filesAwaitingBuckets;
+    private final ScheduledExecutorService statsReporter;
+    private final BatchSizeController batchSizeController;
+
+    /**
+     * Constructs a MigrationPipeline instance and starts the convert and write
+     * stages.
+     *
+     * @param converter         The converter used by the convert stage.
+     * @param downsampler       The downsampler applied after conversion, or null
+     *                          if no measurement is downsampled.
+     * @param sink              The sink the write stage writes to.
+     * @param migrationSettings The settings defining stage sizes.
+     * @param dbManager         The database manager for state commits.
+     * @throws SQLException If the DAOs cannot be created.
+     */
+    public MigrationPipeline(Converter converter, Downsampler downsampler, Sink sink,
+            MigrationSettings migrationSettings, H2DatabaseManager dbManager) throws SQLException {
+        this.converter = converter;
+        this.downsampler = downsampler;
+        this.sink = sink;
+        this.dbManager = dbManager;
+        this.csvSettingsDAO = new CsvSettingsDAO();
+        this.rowProcessingDAO = new RowProcessingDAO();
+        this.logsDAO = new MigrationLogsDAO();
+        this.jobsDAO = new JobsDAO();
+
+        int threads = Math.max(1, migrationSettings.getThreadsNumber());
+        int convertThreads = migrationSettings.getConvertThreads() > 0 ? migrationSettings.getConvertThreads()
+                : threads;
+        int writeThreads = migrationSettings.getWriteThreads() > 0 ? migrationSettings.getWriteThreads() : threads;
+        int queueCapacity = migrationSettings.getQueueCapacity() > 0 ? migrationSettings.getQueueCapacity() : 2;
+
+        this.parseWorkers = threads;
+        this.batchSizeController = new BatchSizeController(migrationSettings.getBatchSize(),
+                Boolean.TRUE.equals(migrationSettings.getIsAdaptiveBatchSize()), migrationSettings.getMinBatchSize(),
+                migrationSettings.getMaxBatchSize(), migrationSettings.getTargetWriteLatencyMillis(),
+                sink.getWriteLatencies());
+        this.busyParsers = new AtomicInteger();
+        this.activeFiles = ConcurrentHashMap.newKeySet();
+        this.filesAwaitingBuckets = ConcurrentHashMap.newKeySet();
+        this.writeStage = new PipelineStage<>("write", writeThreads, queueCapacity, this::writeBatch);
+        this.convertStage = new PipelineStage<>("convert", convertThreads, queueCapacity, this::convertBatch);
+
+        this.statsReporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "pipeline-stats");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (migrationSettings.getStatsIntervalSeconds() > 0) {
+            statsReporter.scheduleAtFixedRate(this::logStats, migrationSettings.getStatsIntervalSeconds(),
+                    migrationSettings.getStatsIntervalSeconds(), TimeUnit.SECONDS);
+        }
+
+        logger.info("MigrationPipeline started with {} parse, {} convert and {} write workers, lane queue capacity {}",
+                threads, convertThreads, writeThreads, queueCapacity);
+    }
+
+    /**
+     * Hands a parsed batch to the convert stage, blocking while the stage is
+     * saturated.
+     *
+     * @param file The file the batch was read from.
+     * @param rows The parsed rows.
+     * @throws InterruptedException If interrupted while waiting for queue space.
+     */
+    public void submit(FileContext file, List<Map<String, Object>> rows) throws InterruptedException {
+        activeFiles.add(file);
+        PipelineBatch batch = new PipelineBatch(file, file.nextSequence(), rows);
+        convertStage.submit(file.getCsvSettingId(), batch);
+    }
+
+    /**
+     * Signals that all batches of a file have been submitted. The file is
+     * finalized once its last batch is committed.
+     *
+     * @param file The file that has been read completely.
+     */
+    public void completeReading(FileContext file) {
+        activeFiles.add(file);
+        if (file.markReadComplete()) {
+            finalizeFile(file);
+        }
+    }
+
+    /**
+     * Marks the start of a parse step, for stage occupancy statistics.
+     */
+    public void parseStarted() {
+        busyParsers.incrementAndGet();
+    }
+
+    /**
+     * Marks the end of a parse step, for stage occupancy statistics.
+     */
+    public void parseFinished() {
+        busyParsers.decrementAndGet();
+    }
+
+    private void convertBatch(PipelineBatch batch) throws InterruptedException {
+        long csvSettingId = batch.getFile().getCsvSettingId();
+        try {
+            DuplicateCollapser collapser = converter.createCollapser(batch.getRows().size());
+            batch.setDeviceDataMap(converter.convert(batch.getRows(), csvSettingId, collapser));
+            batch.getFile().recordDuplicates(collapser.getCollapsedRows(), collapser.getDuplicatePoints());
+            batch.getFile().recordTimeOrder(batch.getDeviceDataMap());
+            if (downsampler != null) {
+                // Rows with values that arrived after their bucket was written fail
+                batch.setDeviceDataMap(downsampler.apply(batch.getDeviceDataMap(), csvSettingId,
+                        batch.getAggregateIds(), batch.getFailedRowIds(), batch.getDeferredRowIds()));
+            }
+        } catch (Exception e) {
+            logger.error("Error during batch conversion for csvSettingId: {}. Error: {}", csvSettingId, e.getMessage(),
+                    e);
+            // Mark all rows as failed if conversion fails; the batch still has to be committed
+            failAllRows(batch);
+        }
+        writeStage.submit(csvSettingId, batch);
+    }
+
+    /**
+     * Marks every row of a batch as failed and drops its converted data, so
+     * that nothing of the batch is written. Aggregates emitted into the batch
+     * are dropped as well, so their source rows fail too.
+     */
+    private static void failAllRows(PipelineBatch batch) {
+        batch.setDeviceDataMap(new HashMap<>());
+        batch.getFailedRowIds().clear();
+        batch.getFailedRowIds().addAll(batch.getRows().stream()
+                .map(row -> (String) row.get("row_id"))
+                .collect(Collectors.toList()));
+        batch.getFailedRowIds().addAll(batch.getAggregateIds());
+        batch.getDeferredRowIds().clear();
+    }
+
+    private void writeBatch(PipelineBatch batch) throws InterruptedException {
+        FileContext file = batch.getFile();
+        Map<String, List<RowData>> deviceDataMap = batch.getDeviceDataMap();
+        CompletableFuture<List<String>> write;
+        boolean interrupted = false;
+        try {
+            write = deviceDataMap.isEmpty() ? CompletableFuture.completedFuture(new ArrayList<>())
+                    : sink.writeDataAsync(deviceDataMap, file.getCsvSettingId());
+        } catch (InterruptedException e) {
+            // The batch was not handed to the sink completely, so it cannot be committed
+            write = CompletableFuture.failedFuture(e);
+            interrupted = true;
+        } catch (RuntimeException e) {
+            logger.error("Error handing batch {} of file: {} to the sink. Error: {}", batch.getSequence(),
+                    file.getFilePath(), e.getMessage(), e);
+            failAllRows(batch);
+            write = CompletableFuture.completedFuture(new ArrayList<>());
+        }
+        // The lane moves on to the next batch while this one is on the wire
+        CompletableFuture<List<String>> pendingWrite = write;
+        file.chainCommit(pendingWrite, () -> completeBatch(batch, pendingWrite));
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void completeBatch(PipelineBatch batch, CompletableFuture<List<String>> write) {
+        FileContext file = batch.getFile();
+        try {
+            batch.getFailedRowIds().addAll(write.join());
+            commitBatch(batch);
+            batchSizeController.onBatchCommitted(batch.getRows().size());
+        } catch (Exception e) {
+            logger.error("Failed to write batch {} of file: {}. Error: {}", batch.getSequence(), file.getFilePath(),
+                    e.getMessage(), e);
+            handleFileFailure(file, "Error writing batch: " + e.getMessage());
+        } finally {
+            if (file.markBatchCommitted()) {
+                finalizeFile(file);
+            }
+        }
+    }
+
+    private void commitBatch(PipelineBatch batch) throws SQLException {
+        long csvSettingId = batch.getFile().getCsvSettingId();
+        // Aggregate IDs are not rows of the file, they settle the source rows of the aggregates
+        Set<String> aggregateIds = new HashSet<>(batch.getAggregateIds());
+        List<String> failedRowIds = batch.getFailedRowIds().stream()
+                .filter(rowId -> !aggregateIds.contains(rowId))
+                .distinct()
+                .collect(Collectors.toList());
+        // Rows consumed by downsampling buckets are counted once their aggregates are settled
+        int successfulRows = batch.getRows().size() - failedRowIds.size() - batch.getDeferredRowIds().size();
+        int failedRows = failedRowIds.size();
+
+        try (Connection conn = dbManager.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                jobsDAO.updateJobProgress(batch.getFile().getJobId(), successfulRows, failedRows, conn);
+                csvSettingsDAO.incrementProcessedRows(csvSettingId, successfulRows, conn);
+
+                if (!aggregateIds.isEmpty()) {
+                    recordSettledRows(downsampler.settle(aggregateIds, new HashSet<>(batch.getFailedRowIds())),
+                            conn);
+                }
+
+                if (!failedRowIds.isEmpty()) {
+                    rowProcessingDAO.updateRowStatuses(csvSettingId, failedRowIds, RowProcessingStatus.FAILED,
+                            "Failed to process or write row", conn);
+                }
+
+                String logMessage = String.format("Processed batch: %d successful, %d failed", successfulRows,
+                        failedRows);
+                logsDAO.insertLog(csvSettingId, failedRows > 0 ? LogLevel.WARNING : LogLevel.INFO, logMessage, conn);
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        }
+        if (!aggregateIds.isEmpty()) {
+            completeSettledFiles();
+        }
+    }
+
+    private void finalizeFile(FileContext file) {
+        if (file.getOutOfOrderRows() > 0) {
+            logger.info("File: {} had {} rows out of time order within their device ({}%), sorted before writing",
+                    file.getFilePath(), file.getOutOfOrderRows(),
+                    String.format("%.2f", file.getOutOfOrderRatio() * 100));
+        }
+        if (file.getDuplicatePoints() > 0) {
+            logger.info("File: {} had {} duplicate points at the same device and timestamp, {} rows collapsed",
+                    file.getFilePath(), file.getDuplicatePoints(), file.getCollapsedRows());
+        }
+        try {
+            if (file.isFailed()) {
+                logger.warn("Migration finished with failures for file: {}", file.getFilePath());
+                return;
+            }
+            if (downsampler != null && downsampler.hasUnsettledRows(file.getCsvSettingId())) {
+                // Values of the file still wait in open buckets, the file stays in progress until they are written
+                logger.info("File: {} read and written, completed once its downsampling buckets are written",
+                        file.getFilePath());
+                filesAwaitingBuckets.add(file);
+                completeSettledFiles();
+                return;
+            }
+            markFileCompleted(file);
+        } finally {
+            file.markFinalized();
+            activeFiles.remove(file);
+        }
+    }
+
+    private void markFileCompleted(FileContext file) {
+        try (Connection conn = dbManager.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                csvSettingsDAO.updateStatus(file.getCsvSettingId(), CsvStatus.COMPLETED, conn);
+                logsDAO.insertLog(file.getCsvSettingId(), LogLevel.INFO,
+                        "Migration completed for file: " + file.getFilePath(), conn);
+                jobsDAO.updateJobStatus(file.getJobId(), JobStatus.COMPLETED, null, conn);
+                conn.commit();
+                logger.info("Migration completed for file: {}", file.getFilePath());
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            logger.error("Failed to finalize migration for file: {}. Error: {}", file.getFilePath(), e.getMessage(),
+                    e);
+        }
+    }
+
+    /**
+     * Completes the files waiting for downsampling buckets whose rows have all
+     * been settled.
+     */
+    private void completeSettledFiles() {
+        for (FileContext file : filesAwaitingBuckets) {
+            if (!downsampler.hasUnsettledRows(file.getCsvSettingId()) && filesAwaitingBuckets.remove(file)) {
+                markFileCompleted(file);
+            }
+        }
+    }
+
+    /**
+     * Records a migration failure for a file.
+     *
+     * @param file         The failed file.
+     * @param errorMessage The error description.
+     */
+    public void handleFileFailure(FileContext file, String errorMessage) {
+        file.markFailed();
+        try (Connection conn = dbManager.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                csvSettingsDAO.updateStatus(file.getCsvSettingId(), CsvStatus.FAILED, conn);
+                csvSettingsDAO.updateErrorMessage(file.getCsvSettingId(), errorMessage, conn);
+                logsDAO.insertLog(file.getCsvSettingId(), LogLevel.ERROR,
+                        "Migration failed for file: " + file.getFilePath() + " - " + errorMessage, conn);
+
+                Optional<Long> latestJobId = jobsDAO.getLatestJobIdByCsvSettingId(file.getCsvSettingId(), conn);
+                if (latestJobId.isPresent()) {
+                    jobsDAO.updateJobStatus(latestJobId.get(), JobStatus.FAILED, errorMessage, conn);
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            logger.error("Failed to record migration failure for file: {}. Error: {}", file.getFilePath(),
+                    e.getMessage(), e);
+        }
+        logger.error("Migration failed for file: {} - {}", file.getFilePath(), errorMessage);
+    }
+
+    /**
+     * Logs the occupancy and queue depth of every stage, then the statistics of
+     * the sink.
+     */
+    public void logStats() {
+        logger.info("Pipeline stats - parse: {}/{} busy | convert: {}/{} busy, queue {}/{}, done {} | "
+                + "write: {}/{} busy, queue {}/{}, done {} | files in progress: {}",
+                busyParsers.get(), parseWorkers,
+                convertStage.getBusyWorkers(), convertStage.getWorkers(), convertStage.getQueueDepth(),
+                convertStage.getQueueCapacity(), convertStage.getProcessedItems(),
+                writeStage.getBusyWorkers(), writeStage.getWorkers(), writeStage.getQueueDepth(),
+                writeStage.getQueueCapacity(), writeStage.getProcessedItems(), activeFiles.size());
+        if (batchSizeController.isAdaptive()) {
+            logger.info("Batch size - {} rows within [{}, {}], best so far {} rows at {} rows/s",
+                    batchSizeController.getBatchSize(), batchSizeController.getMinBatchSize(),
+                    batchSizeController.getMaxBatchSize(), batchSizeController.getBestBatchSize(),
+                    String.format("%.0f", batchSizeController.getBestThroughput()));
+        }
+        sink.logStats();
+    }
+
+    private void awaitActiveFiles() {
+        while (!activeFiles.isEmpty()) {
+            CompletableFuture<?>[] completions = activeFiles.stream()
+                    .map(FileContext::getCompletion)
+                    .toArray(CompletableFuture<?>[]::new);
+            try {
+                CompletableFuture.allOf(completions).get(30, TimeUnit.SECONDS);
+            } catch (TimeoutException e) {
+                logger.info("Waiting for in-flight writes of {} files to complete", activeFiles.size());
+            } catch (ExecutionException e) {
+                logger.error("Error while waiting for files to complete: {}", e.getMessage(), e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                logger.warn("Interrupted while waiting for {} files to complete", activeFiles.size());
+                return;
+            }
+        }
+    }
+
+    public int getBusyParsers() {
+        return busyParsers.get();
+    }
+
+    /**
+     * Gets the controller choosing the number of rows per parsed batch.
+     *
+     * @return The batch size controller.
+     */
+    public BatchSizeController getBatchSizeController() {
+        return batchSizeController;
+    }
+
+    public PipelineStage<PipelineBatch> getConvertStage() {
+        return convertStage;
+    }
+
+    public PipelineStage<PipelineBatch> getWriteStage() {
+        return writeStage;
+    }
+
+    /**
+     * Records the outcome of the source rows of written aggregates, and counts
+     * the rows that were left out of the counts of their batches.
+     */
+    private void recordSettledRows(SettledRows settled, Connection conn) throws SQLException {
+        for (Map.Entry<Long, List<String>> entry : settled.getCompletedRowIds().entrySet()) {
+            rowProcessingDAO.updateRowStatuses(entry.getKey(), entry.getValue(), RowProcessingStatus.COMPLETED,
+                    null, conn);
+        }
+        for (Map.Entry<Long, List<String>> entry : settled.getFailedRowIds().entrySet()) {
+            rowProcessingDAO.updateRowStatuses(entry.getKey(), entry.getValue(), RowProcessingStatus.FAILED,
+                    "Failed to write downsampled values", conn);
+        }
+        Set<Long> csvSettingIds = new HashSet<>(settled.getCompletedRowIds().keySet());
+        csvSettingIds.addAll(settled.getDeferredFailedRows().keySet());
+        for (long csvSettingId : csvSettingIds) {
+            int successfulRows = settled.getCompletedRowIds().getOrDefault(csvSettingId, List.of()).size();
+            int failedRows = settled.getDeferredFailedRows().getOrDefault(csvSettingId, 0);
+            Optional<Long> jobId = jobsDAO.getLatestJobIdByCsvSettingId(csvSettingId, conn);
+            if (jobId.isPresent()) {
+                jobsDAO.updateJobProgress(jobId.get(), successfulRows, failedRows, conn);
+            }
+            csvSettingsDAO.incrementProcessedRows(csvSettingId, successfulRows, conn);
+        }
+    }
+
+    /**
+     * Writes the aggregates of the buckets still open once all files have been
+     * written, to the CSV setting that last wrote to each device, and settles
+     * their source rows. The source rows of aggregates that could not be
+     * written are marked as failed.
+     */
+    private void flushDownsampler() {
+        Map<Long, Map<String, List<RowData>>> flushed = downsampler.flush();
+        List<List<String>> aggregateIds = new ArrayList<>();
+        List<CompletableFuture<List<String>>> writes = new ArrayList<>();
+        boolean interrupted = false;
+        for (Map.Entry<Long, Map<String, List<RowData>>> entry : flushed.entrySet()) {
+            List<String> ids = entry.getValue().values().stream()
+                    .flatMap(rows -> TabletBuilder.rowIdsOf(rows).stream())
+                    .collect(Collectors.toList());
+            aggregateIds.add(ids);
+            CompletableFuture<List<String>> write = CompletableFuture.completedFuture(ids);
+            if (!interrupted) {
+                try {
+                    write = sink.writeDataAsync(entry.getValue(), entry.getKey());
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                    logger.warn("Interrupted while writing the open downsampling buckets");
+                } catch (RuntimeException e) {
+                    logger.error("Failed to hand the open downsampling buckets to the sink. Error: {}",
+                            e.getMessage(), e);
+                }
+            }
+            writes.add(write);
+        }
+        sink.flush();
+        for (int i = 0; i < writes.size(); i++) {
+            List<String> failedIds;
+            try {
+                failedIds = writes.get(i).join();
+            } catch (RuntimeException e) {
+                logger.error("Failed to write the open downsampling buckets. Error: {}", e.getMessage(), e);
+                failedIds = aggregateIds.get(i);
+            }
+            if (!failedIds.isEmpty()) {
+                logger.error("{} aggregates of the open downsampling buckets could not be written, "
+                        + "their source rows are marked as failed", failedIds.size());
+            }
+            SettledRows settled = downsampler.settle(aggregateIds.get(i), new HashSet<>(failedIds));
+            try (Connection conn = dbManager.getConnection()) {
+                conn.setAutoCommit(false);
+                try {
+                    recordSettledRows(settled, conn);
+                    conn.commit();
+                } catch (SQLException e) {
+                    conn.rollback();
+                    throw e;
+                }
+            } catch (SQLException e) {
+                logger.error("Failed to record the source rows of the open downsampling buckets. Error: {}",
+                        e.getMessage(), e);
+            }
+        }
+        completeSettledFiles();
+        for (FileContext file : filesAwaitingBuckets) {
+            logger.warn("File: {} left in progress, its downsampling buckets were not all written",
+                    file.getFilePath());
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        downsampler.logStats();
+    }
+
+    /**
+     * Drains the convert stage, then the write stage, waits for outstanding writes
+     * and commits, writes the open downsampling buckets and stops the statistics
+     * reporter.
+     */
+    @Override
+    public void close() {
+        convertStage.close();
+        writeStage.close();
+        sink.flush();
+        awaitActiveFiles();
+        if (downsampler != null) {
+            flushDownsampler();
+        }
+        statsReporter.shutdownNow();
+        logStats();
+        batchSizeController.logSummary();
+        logger.info("MigrationPipeline closed.");
+    }
+}
@@ -0,0 +1,83 @@
+package org.kreps.csvtoiotdb.pipeline;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.kreps.csvtoiotdb.converter.RowData;
+
+/**
+ * A batch of CSV rows travelling through the pipeline stages together with the
+ * results of each stage.
+ */
+public class PipelineBatch {
+    private final FileContext file;
+    private final long sequence;
+    private final List<Map<String, Object>> rows;
+    private Map<String, List<RowData>> deviceDataMap;
+    private final List<String> failedRowIds;
+    private final List<String> aggregateIds;
+    private final List<String> deferredRowIds;
+
+    /**
+     * Constructs a PipelineBatch instance.
+     *
+     * @param file     The file the rows were read from.
+     * @param sequence The sequence number of the batch within the file.
+     * @param rows     The parsed CSV rows.
+     */
+    public PipelineBatch(FileContext file, long sequence, List<Map<String, Object>> rows) {
+        this.file = file;
+        this.sequence = sequence;
+        this.rows = rows;
+        this.deviceDataMap = new HashMap<>();
+        this.failedRowIds = new ArrayList<>();
+        this.aggregateIds = new ArrayList<>();
+        this.deferredRowIds = new ArrayList<>();
+    }
+
+    public FileContext getFile() {
+        return file;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public List<Map<String, Object>> getRows() {
+        return rows;
+    }
+
+    public Map<String, List<RowData>> getDeviceDataMap() {
+        return deviceDataMap;
+    }
+
+    public void setDeviceDataMap(Map<String, List<RowData>> deviceDataMap) {
+        this.deviceDataMap = deviceDataMap;
+    }
+
+    public List<String> getFailedRowIds() {
+        return failedRowIds;
+    }
+
+    /**
+     * Gets the IDs of the downsampled aggregates written with the batch, whose
+     * source rows are settled once the batch is written.
+     *
+     * @return The aggregate IDs.
+     */
+    public List<String> getAggregateIds() {
+        return aggregateIds;
+    }
+
+    /**
+     * Gets the IDs of the rows consumed by downsampling buckets, which are
+     * counted once their aggregates are settled rather than with the batch.
+     *
+     * @return The deferred row IDs.
+     */
+    public List<String> getDeferredRowIds() {
+        return deferredRowIds;
+    }
+}
@@ -0,0 +1,172 @@
+package org.kreps.csvtoiotdb.pipeline;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A pipeline stage consisting of a fixed number of lanes. Each lane is a single
+ * worker thread fed by its own bounded queue, so items submitted with the same
+ * key are handled one after another in submission order while different keys
+ * are processed in parallel. A full lane queue blocks the submitter, which
+ * provides backpressure to the previous stage.
+ *
+ * @param <T> The type of items handled by the stage.
+ */
+public class PipelineStage<T> implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(PipelineStage.class);
+
+    private final String name;
+    private final int queueCapacity;
+    private final List<BlockingQueue<Envelope<T>>> queues;
+    private final ExecutorService executor;
+    private final StageHandler<T> handler;
+    private final AtomicInteger busyWorkers;
+    private final AtomicLong processedItems;
+    private volatile boolean closed;
+
+    /**
+     * Handles a single item of a stage.
+     *
+     * @param <T> The type of items handled by the stage.
+     */
+    @FunctionalInterface
+    public interface StageHandler<T> {
+        void handle(T item) throws Exception;
+    }
+
+    /**
+     * Wraps queued items so that an empty envelope can signal the end of a lane.
+     */
+    private static final class Envelope<T> {
+        private final T item;
+
+        private Envelope(T item) {
+            this.item = item;
+        }
+    }
+
+    /**
+     * Constructs a PipelineStage instance and starts its workers.
+     *
+     * @param name          The stage name used for thread names and statistics.
+     * @param workers       The number of lanes (worker threads).
+     * @param queueCapacity The capacity of each lane queue.
+     * @param handler       The handler invoked for every item.
+     */
+    public PipelineStage(String name, int workers, int queueCapacity, StageHandler<T> handler) {
+        this.name = name;
+        this.queueCapacity = queueCapacity;
+        this.handler = handler;
+        this.busyWorkers = new AtomicInteger();
+        this.processedItems = new AtomicLong();
+        this.queues = new ArrayList<>(workers);
+
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(workers,
+                runnable -> new Thread(runnable, name + "-" + threadIndex.getAndIncrement()));
+        for (int i = 0; i < workers; i++) {
+            BlockingQueue<Envelope<T>> queue = new ArrayBlockingQueue<>(queueCapacity);
+            queues.add(queue);
+            executor.submit(() -> runLane(queue));
+        }
+    }
+
+    /**
+     * Submits an item to the lane selected by the given key, blocking while the
+     * lane queue is full.
+     *
+     * @param key  The ordering key (items with equal keys keep their order).
+     * @param item The item to handle.
+     * @throws InterruptedException If interrupted while waiting for queue space.
+     */
+    public void submit(long key, T item) throws InterruptedException {
+        if (closed) {
+            throw new IllegalStateException("Pipeline stage " + name + " is closed");
+        }
+        queues.get((int) Math.floorMod(key, (long) queues.size())).put(new Envelope<>(item));
+    }
+
+    private void runLane(BlockingQueue<Envelope<T>> queue) {
+        while (true) {
+            Envelope<T> envelope;
+            try {
+                envelope = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                logger.warn("Pipeline stage {} worker interrupted", name);
+                return;
+            }
+            if (envelope.item == null) {
+                return;
+            }
+
+            busyWorkers.incrementAndGet();
+            try {
+                handler.handle(envelope.item);
+            } catch (Exception e) {
+                logger.error("Unhandled error in pipeline stage {}: {}", name, e.getMessage(), e);
+            } finally {
+                busyWorkers.decrementAndGet();
+                processedItems.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Stops accepting new items and waits until all queued items are handled.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            for (BlockingQueue<Envelope<T>> queue : queues) {
+                queue.put(new Envelope<>(null));
+            }
+            executor.shutdown();
+            while (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                logger.info("Waiting for pipeline stage {} to drain. Queued items: {}", name, getQueueDepth());
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getWorkers() {
+        return queues.size();
+    }
+
+    public int getBusyWorkers() {
+        return busyWorkers.get();
+    }
+
+    public long getProcessedItems() {
+        return processedItems.get();
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity * queues.size();
+    }
+
+    public int getQueueDepth() {
+        int depth = 0;
+        for (BlockingQueue<Envelope<T>> queue : queues) {
+            depth += queue.size();
+        }
+        return depth;
+    }
+}
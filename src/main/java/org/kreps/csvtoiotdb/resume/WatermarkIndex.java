@@ -0,0 +1,195 @@
+package org.kreps.csvtoiotdb.resume;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.iotdb.rpc.IoTDBConnectionException;
+import org.apache.iotdb.rpc.StatementExecutionException;
+import org.kreps.csvtoiotdb.IoTDBClientManager;
+import org.kreps.csvtoiotdb.configs.iotdb.IoTDBDevice;
+import org.kreps.csvtoiotdb.configs.iotdb.IoTDBMeasurement;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Holds the watermark of every target device, the time of the latest point it
+ * holds in IoTDB, so that rows already migrated can be dropped as soon as they
+ * are parsed. The watermarks are queried with {@code SELECT LAST} once at
+ * start or again whenever a file is opened.
+ * <p>
+ * A row is dropped only if every device it has values for already holds data
+ * up to its timestamp. This is exact as long as the rows of every device are
+ * written in time order, e.g. time-ordered files of a device migrated one
+ * after another; rows of a device older than data written by a later file
+ * would be dropped as well.
+ * <p>
+ * Pivoted devices hold one timeseries per tag that is written independently
+ * of the others, so they are given a watermark per timeseries and a row is
+ * checked against the timeseries its tag selects.
+ */
+public class WatermarkIndex {
+    private static final Logger logger = LoggerFactory.getLogger(WatermarkIndex.class);
+
+    private final IoTDBClientManager clientManager;
+    private final List<IoTDBDevice> devices;
+    private final boolean refreshPerFile;
+    private final LongAdder skippedRows;
+    private volatile Map<String, Long> watermarks;
+
+    /**
+     * Constructs a WatermarkIndex instance and loads the watermarks.
+     *
+     * @param clientManager  The client manager to query IoTDB through.
+     * @param devices        The configured devices.
+     * @param refreshPerFile Whether the watermarks are queried again for every
+     *                       opened file.
+     * @throws IoTDBConnectionException If the watermarks cannot be queried.
+     */
+    public WatermarkIndex(IoTDBClientManager clientManager, List<IoTDBDevice> devices, boolean refreshPerFile)
+            throws IoTDBConnectionException {
+        this.clientManager = clientManager;
+        this.devices = devices;
+        this.refreshPerFile = refreshPerFile;
+        this.skippedRows = new LongAdder();
+        this.watermarks = Map.of();
+        load();
+    }
+
+    /**
+     * Queries the watermark of every device. Devices with a path column are
+     * queried with a single pattern covering all their child devices, pivoted
+     * devices keep the watermark of every timeseries.
+     *
+     * @throws IoTDBConnectionException If the watermarks cannot be queried.
+     */
+    private synchronized void load() throws IoTDBConnectionException {
+        Map<String, Long> loaded = new HashMap<>();
+        for (IoTDBDevice device : devices) {
+            String pattern = hasChildDevices(device) ? device.getDeviceId() + ".**" : device.getDeviceId();
+            Map<String, Long> lastTimes;
+            try {
+                lastTimes = clientManager.execute(session -> session.queryLastTimes(pattern));
+            } catch (StatementExecutionException e) {
+                throw new IoTDBConnectionException("Error querying watermarks: " + pattern, e);
+            }
+            if (isPivot(device)) {
+                loaded.putAll(lastTimes);
+                continue;
+            }
+            // The watermark of a device is the latest point of any of its timeseries
+            lastTimes.forEach((timeseriesPath, lastTime) -> loaded.merge(
+                    timeseriesPath.substring(0, timeseriesPath.lastIndexOf('.')), lastTime, Math::max));
+        }
+        this.watermarks = loaded;
+        logger.info("Loaded {} watermarks", loaded.size());
+    }
+
+    /**
+     * Refreshes the watermarks before a file is read, if configured to.
+     *
+     * @param filePath The file being opened, for logging.
+     * @throws IoTDBConnectionException If the watermarks cannot be queried.
+     */
+    public void onFileOpened(String filePath) throws IoTDBConnectionException {
+        if (refreshPerFile) {
+            logger.debug("Refreshing watermarks for file: {}", filePath);
+            load();
+        }
+    }
+
+    /**
+     * Checks whether the data of a parsed row is already present in IoTDB.
+     *
+     * @param row The parsed row, with its timestamp and its values by join key.
+     * @return True if every device the row has values for holds data at or
+     *         after the row timestamp, for pivoted devices every timeseries the
+     *         row has a value for.
+     */
+    public boolean isCovered(Map<String, Object> row) {
+        Object timestamp = row.get("timestamp");
+        if (!(timestamp instanceof Long)) {
+            return false;
+        }
+        Map<String, Long> current = watermarks;
+        boolean anyDevice = false;
+        for (IoTDBDevice device : devices) {
+            if (!hasValues(device, row)) {
+                continue;
+            }
+            if (isPivot(device)) {
+                if (!isPivotCovered(device, row, (Long) timestamp, current)) {
+                    return false;
+                }
+                anyDevice = true;
+                continue;
+            }
+            String devicePath = device.getDeviceId();
+            if (hasChildDevices(device)) {
+                Object pathValue = row.get(device.getPathColumn());
+                if (pathValue == null) {
+                    return false;
+                }
+                devicePath = devicePath + "." + pathValue;
+            }
+            Long watermark = current.get(devicePath);
+            if (watermark == null || (Long) timestamp > watermark) {
+                return false;
+            }
+            anyDevice = true;
+        }
+        if (anyDevice) {
+            skippedRows.increment();
+        }
+        return anyDevice;
+    }
+
+    private static boolean isPivotCovered(IoTDBDevice device, Map<String, Object> row, long timestamp,
+            Map<String, Long> current) {
+        Object pathValue = row.get(device.getPathColumn());
+        if (pathValue == null) {
+            return false;
+        }
+        for (IoTDBMeasurement measurement : device.getMeasurements()) {
+            if (measurement.getJoinKey().equals(device.getPathColumn()) || row.get(measurement.getJoinKey()) == null) {
+                continue;
+            }
+            Long watermark = current.get(
+                    device.getDeviceId() + "." + device.pivotMeasurementName(pathValue.toString(), measurement));
+            if (watermark == null || timestamp > watermark) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean hasChildDevices(IoTDBDevice device) {
+        return device.getPathColumn() != null && !device.getPathColumn().isEmpty() && !isPivot(device);
+    }
+
+    private static boolean isPivot(IoTDBDevice device) {
+        return Boolean.TRUE.equals(device.getIsPivotMode());
+    }
+
+    private static boolean hasValues(IoTDBDevice device, Map<String, Object> row) {
+        for (IoTDBMeasurement measurement : device.getMeasurements()) {
+            if (!measurement.getJoinKey().equals(device.getPathColumn()) && row.get(measurement.getJoinKey()) != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public long getSkippedRows() {
+        return skippedRows.sum();
+    }
+
+    /**
+     * Logs the number of rows dropped below the watermarks.
+     */
+    public void logStats() {
+        logger.info("Watermark resume - {} rows already present in IoTDB skipped, {} watermarks",
+                skippedRows.sum(), watermarks.size());
+    }
+}
@@ -0,0 +1,209 @@
+package org.kreps.csvtoiotdb.scheduler;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.kreps.csvtoiotdb.configs.csv.CsvSettings;
+import org.kreps.csvtoiotdb.merge.FileTimeRange;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hands out CSV files to migration workers. Files are ordered largest-first by
+ * their on-disk size and spread over per-worker deques so that every worker
+ * starts with a similar amount of bytes. A worker whose deque runs empty steals
+ * the largest pending file of the most loaded worker, so no worker idles while
+ * files are left. Files of CSV settings with {@code isTimeMerge} whose time
+ * ranges overlap are handed out together as one merge group.
+ */
+public class FileScheduler {
+    private static final Logger logger = LoggerFactory.getLogger(FileScheduler.class);
+
+    private final List<LinkedBlockingDeque<FileWork>> deques;
+    private final List<AtomicLong> pendingBytes;
+    private final CountDownLatch remainingFiles;
+    private final AtomicInteger stolenFiles;
+    private final int totalFiles;
+
+    /**
+     * Constructs a FileScheduler instance.
+     *
+     * @param csvSettingsList The CSV settings whose files should be migrated.
+     * @param workers         The number of workers pulling files.
+     */
+    public FileScheduler(List<CsvSettings> csvSettingsList, int workers) {
+        List<FileWork> files = new ArrayList<>();
+        for (CsvSettings csvSettings : csvSettingsList) {
+            if (Boolean.TRUE.equals(csvSettings.getIsTimeMerge())) {
+                files.addAll(groupByTimeRange(csvSettings));
+                continue;
+            }
+            for (String filePath : csvSettings.getFilePaths()) {
+                files.add(new FileWork(csvSettings, filePath, sizeOf(filePath)));
+            }
+        }
+        files.sort(Comparator.comparingLong(FileWork::getSizeBytes).reversed());
+
+        int workerCount = Math.max(1, workers);
+        this.deques = new ArrayList<>(workerCount);
+        this.pendingBytes = new ArrayList<>(workerCount);
+        for (int i = 0; i < workerCount; i++) {
+            deques.add(new LinkedBlockingDeque<>());
+            pendingBytes.add(new AtomicLong());
+        }
+
+        // Largest file first to the least loaded worker
+        for (FileWork file : files) {
+            int target = leastLoadedWorker();
+            deques.get(target).addLast(file);
+            pendingBytes.get(target).addAndGet(file.getSizeBytes());
+        }
+
+        this.totalFiles = files.size();
+        this.remainingFiles = new CountDownLatch(totalFiles);
+        this.stolenFiles = new AtomicInteger();
+        logger.info("FileScheduler initialized with {} files for {} workers", totalFiles, workerCount);
+    }
+
+    /**
+     * Returns the next file for a worker, stealing from other workers when its
+     * own deque is empty.
+     *
+     * @param worker The index of the requesting worker.
+     * @return The next file, or null if no files are left.
+     */
+    public FileWork next(int worker) {
+        FileWork file = take(worker);
+        if (file != null) {
+            return file;
+        }
+        while (true) {
+            int victim = mostLoadedWorker();
+            if (victim < 0) {
+                return null;
+            }
+            file = take(victim);
+            if (file != null) {
+                stolenFiles.incrementAndGet();
+                logger.debug("Worker {} stole file {} ({} bytes) from worker {}", worker, file.getFilePath(),
+                        file.getSizeBytes(), victim);
+                return file;
+            }
+        }
+    }
+
+    /**
+     * Marks a file handed out by {@link #next(int)} as done.
+     *
+     * @param file The finished file.
+     */
+    public void markDone(FileWork file) {
+        remainingFiles.countDown();
+        logger.debug("File {} done. Remaining files: {}", file.getFilePath(), remainingFiles.getCount());
+    }
+
+    /**
+     * Blocks until every file has been marked done, logging progress while
+     * waiting.
+     *
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public void awaitCompletion() throws InterruptedException {
+        while (!remainingFiles.await(30, TimeUnit.SECONDS)) {
+            logger.info("Waiting for files to be read: {} of {} remaining, {} stolen", remainingFiles.getCount(),
+                    totalFiles, stolenFiles.get());
+        }
+        logger.info("All {} files have been read. Files stolen between workers: {}", totalFiles, stolenFiles.get());
+    }
+
+    public int getTotalFiles() {
+        return totalFiles;
+    }
+
+    public long getRemainingFiles() {
+        return remainingFiles.getCount();
+    }
+
+    public int getStolenFiles() {
+        return stolenFiles.get();
+    }
+
+    /**
+     * Groups the files of CSV settings by overlapping time range. Files whose
+     * time range cannot be read are migrated on their own.
+     */
+    private static List<FileWork> groupByTimeRange(CsvSettings csvSettings) {
+        List<FileWork> works = new ArrayList<>();
+        List<FileTimeRange> ranges = new ArrayList<>();
+        for (String filePath : csvSettings.getFilePaths()) {
+            FileTimeRange range = FileTimeRange.probe(csvSettings, filePath);
+            if (range != null) {
+                ranges.add(range);
+            } else {
+                works.add(new FileWork(csvSettings, filePath, sizeOf(filePath)));
+            }
+        }
+        int merged = 0;
+        for (List<String> group : FileTimeRange.groupOverlapping(ranges)) {
+            long sizeBytes = 0;
+            for (String filePath : group) {
+                sizeBytes += sizeOf(filePath);
+            }
+            works.add(new FileWork(csvSettings, group, sizeBytes));
+            if (group.size() > 1) {
+                merged += group.size();
+            }
+        }
+        logger.info("Time merge: {} of {} files have overlapping time ranges and are merged, {} work units",
+                merged, csvSettings.getFilePaths().size(), works.size());
+        return works;
+    }
+
+    private FileWork take(int worker) {
+        FileWork file = deques.get(worker).pollFirst();
+        if (file != null) {
+            pendingBytes.get(worker).addAndGet(-file.getSizeBytes());
+        }
+        return file;
+    }
+
+    private int leastLoadedWorker() {
+        int target = 0;
+        for (int i = 1; i < pendingBytes.size(); i++) {
+            if (pendingBytes.get(i).get() < pendingBytes.get(target).get()) {
+                target = i;
+            }
+        }
+        return target;
+    }
+
+    private int mostLoadedWorker() {
+        int victim = -1;
+        long maxBytes = -1;
+        for (int i = 0; i < deques.size(); i++) {
+            if (!deques.get(i).isEmpty() && pendingBytes.get(i).get() > maxBytes) {
+                maxBytes = pendingBytes.get(i).get();
+                victim = i;
+            }
+        }
+        return victim;
+    }
+
+    private static long sizeOf(String filePath) {
+        try {
+            return Files.size(Paths.get(filePath));
+        } catch (IOException e) {
+            logger.warn("Cannot determine size of file: {}. Scheduling it last. Error: {}", filePath, e.getMessage());
+            return 0L;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package org.kreps.csvtoiotdb.scheduler;
+
+import java.util.List;
+
+import org.kreps.csvtoiotdb.configs.csv.CsvSettings;
+
+/**
+ * A single CSV file to migrate, or a group of files with overlapping time
+ * ranges that are merged in timestamp order; the unit of work handed out by
+ * the {@link FileScheduler}.
+ */
+public class FileWork {
+    private final CsvSettings csvSettings;
+    private final List<String> filePaths;
+    private final long sizeBytes;
+
+    /**
+     * Constructs a FileWork instance.
+     *
+     * @param csvSettings The CSV settings the file belongs to.
+     * @param filePath    The path of the file.
+     * @param sizeBytes   The on-disk size of the file.
+     */
+    public FileWork(CsvSettings csvSettings, String filePath, long sizeBytes) {
+        this(csvSettings, List.of(filePath), sizeBytes);
+    }
+
+    /**
+     * Constructs a FileWork instance for files merged in timestamp order.
+     *
+     * @param csvSettings The CSV settings the files belong to.
+     * @param filePaths   The paths of the files.
+     * @param sizeBytes   The total on-disk size of the files.
+     */
+    public FileWork(CsvSettings csvSettings, List<String> filePaths, long sizeBytes) {
+        this.csvSettings = csvSettings;
+        this.filePaths = List.copyOf(filePaths);
+        this.sizeBytes = sizeBytes;
+    }
+
+    public CsvSettings getCsvSettings() {
+        return csvSettings;
+    }
+
+    /**
+     * Gets the path of the file, or of the first file of a merge group.
+     *
+     * @return The file path.
+     */
+    public String getFilePath() {
+        return filePaths.get(0);
+    }
+
+    public List<String> getFilePaths() {
+        return filePaths;
+    }
+
+    public boolean isMergeGroup() {
+        return filePaths.size() > 1;
+    }
+
+    public long getSizeBytes() {
+        return sizeBytes;
+    }
+}
@@ -0,0 +1,51 @@
+package org.kreps.csvtoiotdb.schema;
+
+import java.util.concurrent.CompletableFuture;
+
+import org.kreps.csvtoiotdb.configs.iotdb.IoTDBDevice;
+import org.kreps.csvtoiotdb.configs.iotdb.IoTDBMeasurement;
+
+/**
+ * A timeseries waiting to be created by the {@link SchemaCreationWorker}. The
+ * future completes once the timeseries is confirmed to exist.
+ */
+public class PendingSeries {
+    private final String devicePath;
+    private final IoTDBDevice device;
+    private final IoTDBMeasurement measurement;
+    private final CompletableFuture<Void> created;
+
+    /**
+     * Constructs a PendingSeries instance.
+     *
+     * @param devicePath  The full path of the device the timeseries belongs to.
+     * @param device      The configured device the path was resolved from.
+     * @param measurement The measurement of the timeseries.
+     */
+    public PendingSeries(String devicePath, IoTDBDevice device, IoTDBMeasurement measurement) {
+        this.devicePath = devicePath;
+        this.device = device;
+        this.measurement = measurement;
+        this.created = new CompletableFuture<>();
+    }
+
+    public String getDevicePath() {
+        return devicePath;
+    }
+
+    public IoTDBDevice getDevice() {
+        return device;
+    }
+
+    public IoTDBMeasurement getMeasurement() {
+        return measurement;
+    }
+
+    public String getTimeseriesPath() {
+        return devicePath + "." + measurement.getName();
+    }
+
+    public CompletableFuture<Void> getCreated() {
+        return created;
+    }
+}
@@ -0,0 +1,173 @@
+package org.kreps.csvtoiotdb.schema;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded cache of timeseries schemas known to IoTDB, keyed by the full
+ * timeseries path. The cache is split into stripes by path hash, each an LRU
+ * map with its own lock, so concurrent write lanes rarely contend; least
+ * recently used entries of a stripe are evicted once it is full. Timeseries
+ * found missing are cached as absent until they are created, so repeated
+ * lookups of a missing timeseries do not query IoTDB again. Lookups are
+ * counted so the cache efficiency can be reported.
+ */
+public class SchemaCache {
+    private static final int DEFAULT_MAX_ENTRIES = 100_000;
+    private static final int STRIPES = 16;
+    private static final TimeseriesSchema ABSENT = new TimeseriesSchema(null, null, null);
+
+    private final int maxEntries;
+    private final Stripe[] stripes;
+    private final LongAdder hits;
+    private final LongAdder misses;
+
+    /**
+     * An LRU map holding the entries of one hash stripe.
+     */
+    private static class Stripe extends LinkedHashMap<String, TimeseriesSchema> {
+        private static final long serialVersionUID = 1L;
+
+        private final int maxEntries;
+
+        private Stripe(int maxEntries) {
+            super(16, 0.75f, true);
+            this.maxEntries = maxEntries;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, TimeseriesSchema> eldest) {
+            return size() > maxEntries;
+        }
+    }
+
+    /**
+     * Constructs a SchemaCache instance.
+     *
+     * @param maxEntries The maximum number of cached timeseries. Uses the default
+     *                   if not positive.
+     */
+    public SchemaCache(int maxEntries) {
+        this.maxEntries = maxEntries > 0 ? maxEntries : DEFAULT_MAX_ENTRIES;
+        int stripeCount = Math.min(STRIPES, this.maxEntries);
+        this.stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            // Spread the capacity so the stripes together hold at most maxEntries
+            stripes[i] = new Stripe(this.maxEntries / stripeCount + (i < this.maxEntries % stripeCount ? 1 : 0));
+        }
+        this.hits = new LongAdder();
+        this.misses = new LongAdder();
+    }
+
+    private Stripe stripeOf(String timeseriesPath) {
+        int hash = timeseriesPath.hashCode();
+        return stripes[Math.floorMod(hash ^ (hash >>> 16), stripes.length)];
+    }
+
+    /**
+     * Looks up the schema of a timeseries and records a hit or a miss.
+     *
+     * @param timeseriesPath The full path of the timeseries.
+     * @return The cached schema, or null if the timeseries is not cached or is
+     *         cached as absent.
+     */
+    public TimeseriesSchema get(String timeseriesPath) {
+        Stripe stripe = stripeOf(timeseriesPath);
+        TimeseriesSchema schema;
+        synchronized (stripe) {
+            schema = stripe.get(timeseriesPath);
+        }
+        if (schema == null) {
+            misses.increment();
+            return null;
+        }
+        // A timeseries known to be absent is answered from the cache as well
+        hits.increment();
+        return schema == ABSENT ? null : schema;
+    }
+
+    /**
+     * Checks whether a timeseries is cached as absent from IoTDB.
+     *
+     * @param timeseriesPath The full path of the timeseries.
+     * @return True if the timeseries was found missing and has not been created
+     *         since.
+     */
+    public boolean isAbsent(String timeseriesPath) {
+        Stripe stripe = stripeOf(timeseriesPath);
+        synchronized (stripe) {
+            return stripe.get(timeseriesPath) == ABSENT;
+        }
+    }
+
+    /**
+     * Adds or replaces the schema of a timeseries.
+     *
+     * @param timeseriesPath The full path of the timeseries.
+     * @param schema         The schema of the timeseries.
+     */
+    public void put(String timeseriesPath, TimeseriesSchema schema) {
+        Stripe stripe = stripeOf(timeseriesPath);
+        synchronized (stripe) {
+            stripe.put(timeseriesPath, schema);
+        }
+    }
+
+    /**
+     * Caches a timeseries as absent from IoTDB, unless its schema is known.
+     *
+     * @param timeseriesPath The full path of the timeseries.
+     */
+    public void putAbsent(String timeseriesPath) {
+        Stripe stripe = stripeOf(timeseriesPath);
+        synchronized (stripe) {
+            stripe.putIfAbsent(timeseriesPath, ABSENT);
+        }
+    }
+
+    /**
+     * Removes a timeseries from the cache, so its next lookup queries IoTDB.
+     *
+     * @param timeseriesPath The full path of the timeseries.
+     */
+    public void invalidate(String timeseriesPath) {
+        Stripe stripe = stripeOf(timeseriesPath);
+        synchronized (stripe) {
+            stripe.remove(timeseriesPath);
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Gets the share of lookups answered from the cache.
+     *
+     * @return The hit ratio between 0 and 1, or 0 if there were no lookups.
+     */
+    public double getHitRatio() {
+        long hitCount = getHits();
+        long total = hitCount + getMisses();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+}
@@ -0,0 +1,168 @@
+package org.kreps.csvtoiotdb.schema;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.kreps.csvtoiotdb.configs.iotdb.IoTDBDevice;
+import org.kreps.csvtoiotdb.configs.iotdb.IoTDBMeasurement;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates the timeseries of newly discovered devices on a background thread.
+ * Requests queued while a batch is being created are collected into the next
+ * batch, so that many new devices are created with a few requests instead of
+ * one request per timeseries. Requests for a timeseries that is already
+ * pending share the same future.
+ */
+public class SchemaCreationWorker implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(SchemaCreationWorker.class);
+    private static final int DEFAULT_MAX_BATCH_SIZE = 1000;
+
+    private final int maxBatchSize;
+    private final BatchHandler handler;
+    private final BlockingQueue<PendingSeries> queue;
+    private final ConcurrentHashMap<String, PendingSeries> pending;
+    private final AtomicLong processedSeries;
+    private final AtomicLong batches;
+    private final Thread thread;
+    private volatile boolean closed;
+
+    /**
+     * Creates the timeseries of a batch. Implementations must complete the
+     * future of every pending series, normally or exceptionally.
+     */
+    @FunctionalInterface
+    public interface BatchHandler {
+        void createBatch(List<PendingSeries> batch);
+    }
+
+    /**
+     * Constructs a SchemaCreationWorker instance and starts its thread.
+     *
+     * @param maxBatchSize The maximum number of timeseries per batch. Uses the
+     *                     default if not positive.
+     * @param handler      The handler creating a batch of timeseries.
+     */
+    public SchemaCreationWorker(int maxBatchSize, BatchHandler handler) {
+        this.maxBatchSize = maxBatchSize > 0 ? maxBatchSize : DEFAULT_MAX_BATCH_SIZE;
+        this.handler = handler;
+        this.queue = new LinkedBlockingQueue<>();
+        this.pending = new ConcurrentHashMap<>();
+        this.processedSeries = new AtomicLong();
+        this.batches = new AtomicLong();
+        this.thread = new Thread(this::run, "schema-worker");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Requests the creation of the given timeseries of a device.
+     *
+     * @param devicePath   The full path of the device.
+     * @param device       The configured device the path was resolved from.
+     * @param measurements The measurements missing from the device.
+     * @return A future completing once all timeseries exist, or exceptionally if
+     *         one of them could not be created.
+     */
+    public CompletableFuture<Void> request(String devicePath, IoTDBDevice device,
+            List<IoTDBMeasurement> measurements) {
+        if (closed) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Schema worker is closed"));
+        }
+        List<CompletableFuture<Void>> futures = new ArrayList<>(measurements.size());
+        for (IoTDBMeasurement measurement : measurements) {
+            PendingSeries series = new PendingSeries(devicePath, device, measurement);
+            PendingSeries existing = pending.putIfAbsent(series.getTimeseriesPath(), series);
+            if (existing != null) {
+                futures.add(existing.getCreated());
+            } else {
+                series.getCreated().whenComplete((result, error) -> pending.remove(series.getTimeseriesPath()));
+                queue.add(series);
+                futures.add(series.getCreated());
+            }
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]));
+    }
+
+    private void run() {
+        while (!closed || !queue.isEmpty()) {
+            try {
+                PendingSeries first = queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                List<PendingSeries> batch = new ArrayList<>();
+                batch.add(first);
+                queue.drainTo(batch, maxBatchSize - 1);
+                createBatch(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        failRemaining();
+    }
+
+    private void createBatch(List<PendingSeries> batch) {
+        try {
+            handler.createBatch(batch);
+        } catch (RuntimeException e) {
+            logger.error("Unexpected error creating a schema batch of {} timeseries: {}", batch.size(),
+                    e.getMessage(), e);
+            for (PendingSeries series : batch) {
+                series.getCreated().completeExceptionally(e);
+            }
+        }
+        batches.incrementAndGet();
+        processedSeries.addAndGet(batch.size());
+        logger.debug("Processed schema batch of {} timeseries", batch.size());
+    }
+
+    private void failRemaining() {
+        PendingSeries series;
+        while ((series = queue.poll()) != null) {
+            series.getCreated().completeExceptionally(new IllegalStateException("Schema worker stopped"));
+        }
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    public int getQueuedSeries() {
+        return queue.size();
+    }
+
+    public long getProcessedSeries() {
+        return processedSeries.get();
+    }
+
+    public long getBatches() {
+        return batches.get();
+    }
+
+    /**
+     * Stops accepting requests, creates the queued timeseries and stops the
+     * worker thread.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(60));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (thread.isAlive()) {
+            logger.warn("Schema worker did not terminate in time");
+            thread.interrupt();
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package org.kreps.csvtoiotdb.schema;
+
+import org.apache.iotdb.tsfile.file.metadata.enums.CompressionType;
+import org.apache.iotdb.tsfile.file.metadata.enums.TSDataType;
+import org.apache.iotdb.tsfile.file.metadata.enums.TSEncoding;
+
+/**
+ * The data type, encoding and compression of a timeseries as known to IoTDB.
+ */
+public class TimeseriesSchema {
+    private final TSDataType dataType;
+    private final TSEncoding encoding;
+    private final CompressionType compression;
+
+    /**
+     * Constructs a TimeseriesSchema instance.
+     *
+     * @param dataType    The data type of the timeseries.
+     * @param encoding    The encoding of the timeseries.
+     * @param compression The compression of the timeseries.
+     */
+    public TimeseriesSchema(TSDataType dataType, TSEncoding encoding, CompressionType compression) {
+        this.dataType = dataType;
+        this.encoding = encoding;
+        this.compression = compression;
+    }
+
+    /**
+     * Checks whether this schema has the given data type, encoding and compression.
+     *
+     * @param expectedDataType    The expected data type.
+     * @param expectedEncoding    The expected encoding.
+     * @param expectedCompression The expected compression.
+     * @return True if all three match, false otherwise.
+     */
+    public boolean matches(TSDataType expectedDataType, TSEncoding expectedEncoding,
+            CompressionType expectedCompression) {
+        return dataType == expectedDataType && encoding == expectedEncoding && compression == expectedCompression;
+    }
+
+    public TSDataType getDataType() {
+        return dataType;
+    }
+
+    public TSEncoding getEncoding() {
+        return encoding;
+    }
+
+    public CompressionType getCompression() {
+        return compression;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("[dataType=%s, encoding=%s, compression=%s]", dataType, encoding, compression);
+    }
+}
@@ -0,0 +1,123 @@
+package org.kreps.csvtoiotdb.sink;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.kreps.csvtoiotdb.H2DatabaseManager;
+import org.kreps.csvtoiotdb.DAO.RowProcessingDAO;
+import org.kreps.csvtoiotdb.DAO.RowProcessingStatus;
+import org.kreps.csvtoiotdb.client.LatencyTracker;
+import org.kreps.csvtoiotdb.converter.RowData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Discards every batch and only counts it. Running a migration against this
+ * sink measures the throughput of the parse, convert and state stages alone.
+ * The rows of a batch are marked as completed in one transaction, as if they
+ * had been written.
+ */
+public class NullSink implements Sink {
+    private static final Logger logger = LoggerFactory.getLogger(NullSink.class);
+
+    private final H2DatabaseManager dbManager;
+    private final RowProcessingDAO rowProcessingDAO;
+    private final AtomicLong batches;
+    private final AtomicLong tablets;
+    private final AtomicLong rows;
+    private final long startNanos;
+
+    /**
+     * Constructs a NullSink instance.
+     *
+     * @param dbManager The database manager for the row states.
+     */
+    public NullSink(H2DatabaseManager dbManager) {
+        this.dbManager = dbManager;
+        this.rowProcessingDAO = new RowProcessingDAO();
+        this.batches = new AtomicLong();
+        this.tablets = new AtomicLong();
+        this.rows = new AtomicLong();
+        this.startNanos = System.nanoTime();
+        logger.info("NullSink initialized, converted rows are discarded");
+    }
+
+    @Override
+    public CompletableFuture<List<String>> writeDataAsync(Map<String, List<RowData>> deviceDataMap,
+            long csvSettingId) {
+        batches.incrementAndGet();
+        tablets.addAndGet(deviceDataMap.size());
+        List<String> rowIds = new ArrayList<>();
+        for (List<RowData> deviceRows : deviceDataMap.values()) {
+            rows.addAndGet(deviceRows.size());
+            rowIds.addAll(TabletBuilder.rowIdsOf(deviceRows));
+        }
+        return CompletableFuture.completedFuture(markCompleted(rowIds, csvSettingId));
+    }
+
+    /**
+     * Marks the rows of a batch as completed in one transaction.
+     *
+     * @return The IDs of the rows that could not be marked, all of them if the
+     *         update failed.
+     */
+    private List<String> markCompleted(List<String> rowIds, long csvSettingId) {
+        if (rowIds.isEmpty()) {
+            return new ArrayList<>();
+        }
+        try (Connection conn = dbManager.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                rowProcessingDAO.updateRowStatuses(csvSettingId, rowIds, RowProcessingStatus.COMPLETED, null, conn);
+                conn.commit();
+                return new ArrayList<>();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            logger.error("Failed to mark {} discarded rows as completed. Error: {}", rowIds.size(), e.getMessage(),
+                    e);
+            return rowIds;
+        }
+    }
+
+    /**
+     * Has no write latency, batches are discarded right away.
+     *
+     * @return null.
+     */
+    @Override
+    public LatencyTracker getWriteLatencies() {
+        return null;
+    }
+
+    @Override
+    public void logStats() {
+        double seconds = Math.max(1e-9, (System.nanoTime() - startNanos) / 1e9);
+        logger.info("Null sink - {} batches, {} tablets, {} rows discarded, {} rows/s", batches.get(),
+                tablets.get(), rows.get(), String.format("%.0f", rows.get() / seconds));
+    }
+
+    public long getBatches() {
+        return batches.get();
+    }
+
+    public long getTablets() {
+        return tablets.get();
+    }
+
+    public long getRows() {
+        return rows.get();
+    }
+
+    @Override
+    public void close() {
+        logStats();
+    }
+}
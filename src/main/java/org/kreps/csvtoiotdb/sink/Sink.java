@@ -0,0 +1,54 @@
+package org.kreps.csvtoiotdb.sink;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.kreps.csvtoiotdb.client.LatencyTracker;
+import org.kreps.csvtoiotdb.converter.RowData;
+
+/**
+ * The destination of the write stage. {@link org.kreps.csvtoiotdb.IoTDBWriter}
+ * writes to IoTDB; the other sinks write TsFiles, record tablets to a local
+ * file or discard them, which allows running the migration without IoTDB.
+ */
+public interface Sink extends AutoCloseable {
+
+    /**
+     * Starts writing the converted data of a batch.
+     *
+     * @param deviceDataMap The rows of the batch per full device path.
+     * @param csvSettingId  The CSV setting the batch was read from.
+     * @return A future completing with the IDs of the rows that could not be
+     *         written, once the sink is done with the batch.
+     * @throws InterruptedException If interrupted while waiting for capacity.
+     */
+    CompletableFuture<List<String>> writeDataAsync(Map<String, List<RowData>> deviceDataMap, long csvSettingId)
+            throws InterruptedException;
+
+    /**
+     * Hands buffered rows on, so that the writes waiting for them can complete.
+     */
+    default void flush() {
+    }
+
+    /**
+     * Gets the latencies of completed writes, which drive the adaptive batch
+     * size.
+     *
+     * @return The latency tracker, or null if the sink has no meaningful write
+     *         latency.
+     */
+    LatencyTracker getWriteLatencies();
+
+    /**
+     * Logs the statistics of the sink, together with the pipeline statistics.
+     */
+    void logStats();
+
+    /**
+     * Waits for outstanding writes and releases the resources of the sink.
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,248 @@
+package org.kreps.csvtoiotdb.sink;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+import org.apache.iotdb.tsfile.write.record.Tablet;
+import org.apache.iotdb.tsfile.write.schema.MeasurementSchema;
+import org.kreps.csvtoiotdb.configs.iotdb.IoTDBDevice;
+import org.kreps.csvtoiotdb.configs.iotdb.IoTDBMeasurement;
+import org.kreps.csvtoiotdb.converter.RowData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Maps converted rows to the configured devices and builds the tablets the
+ * sinks write.
+ */
+public class TabletBuilder {
+    private static final Logger logger = LoggerFactory.getLogger(TabletBuilder.class);
+
+    private final List<IoTDBDevice> devices;
+    private final LongAdder tablets;
+    private final LongAdder sortedTablets;
+
+    /**
+     * Constructs a TabletBuilder instance.
+     *
+     * @param devices The configured devices.
+     */
+    public TabletBuilder(List<IoTDBDevice> devices) {
+        this.devices = devices;
+        this.tablets = new LongAdder();
+        this.sortedTablets = new LongAdder();
+    }
+
+    /**
+     * Finds the configured device a full device path belongs to.
+     *
+     * @param fullPath The full path of the device.
+     * @return The device, or null if no device matches.
+     */
+    public IoTDBDevice findDevice(String fullPath) {
+        return devices.stream()
+                .filter(device -> fullPath.startsWith(device.getDeviceId()))
+                .findFirst()
+                .orElse(null);
+    }
+
+    /**
+     * Resolves the measurements a tablet for the given rows consists of. Pivoted
+     * devices derive their measurements from the rows, all other devices use the
+     * configured measurement list.
+     *
+     * @param device The device of the rows.
+     * @param rows   The rows.
+     * @return The measurements.
+     * @throws IllegalStateException If a pivoted measurement cannot be resolved.
+     */
+    public List<IoTDBMeasurement> resolveMeasurements(IoTDBDevice device, List<RowData> rows) {
+        if (!Boolean.TRUE.equals(device.getIsPivotMode())) {
+            return device.getMeasurements();
+        }
+        Set<String> measurementNames = new LinkedHashSet<>();
+        for (RowData row : rows) {
+            measurementNames.addAll(row.getMeasurements().keySet());
+        }
+        List<IoTDBMeasurement> measurements = new ArrayList<>(measurementNames.size());
+        for (String measurementName : measurementNames) {
+            IoTDBMeasurement measurement = device.resolvePivotMeasurement(measurementName);
+            if (measurement == null) {
+                throw new IllegalStateException("Cannot resolve pivoted measurement: " + measurementName
+                        + " for device: " + device.getDeviceId());
+            }
+            measurements.add(measurement);
+        }
+        return measurements;
+    }
+
+    /**
+     * Brings the rows of a device tablet into time order, so the tablet can be
+     * written with the sorted flag and the server skips its own sort. Rows with
+     * equal timestamps keep their file order.
+     *
+     * @param rows The rows of one device.
+     * @return The rows themselves if they are already in time order, otherwise a
+     *         sorted copy.
+     */
+    public List<RowData> sortByTime(List<RowData> rows) {
+        tablets.increment();
+        long[] timestamps = new long[rows.size()];
+        for (int i = 0; i < timestamps.length; i++) {
+            timestamps[i] = rows.get(i).getTimestamp();
+        }
+        int[] order = timeOrder(timestamps);
+        if (order == null) {
+            return rows;
+        }
+        sortedTablets.increment();
+        List<RowData> sorted = new ArrayList<>(order.length);
+        for (int index : order) {
+            sorted.add(rows.get(index));
+        }
+        return sorted;
+    }
+
+    /**
+     * Computes the stable time order of a column of timestamps with a merge sort
+     * over row indexes, which avoids boxing the timestamps.
+     *
+     * @param timestamps The timestamps.
+     * @return The row indexes in time order, or null if the timestamps are
+     *         already in time order.
+     */
+    static int[] timeOrder(long[] timestamps) {
+        int outOfOrder = countOutOfOrder(timestamps);
+        if (outOfOrder == 0) {
+            return null;
+        }
+        int[] order = new int[timestamps.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        int[] buffer = new int[order.length];
+        for (int width = 1; width < order.length; width *= 2) {
+            for (int from = 0; from < order.length - width; from += 2 * width) {
+                int middle = from + width;
+                int to = Math.min(from + 2 * width, order.length);
+                // Runs that are already in order need no merge
+                if (timestamps[order[middle - 1]] <= timestamps[order[middle]]) {
+                    continue;
+                }
+                int left = from;
+                int right = middle;
+                int out = from;
+                while (left < middle && right < to) {
+                    buffer[out++] = timestamps[order[right]] < timestamps[order[left]] ? order[right++]
+                            : order[left++];
+                }
+                while (left < middle) {
+                    buffer[out++] = order[left++];
+                }
+                while (right < to) {
+                    buffer[out++] = order[right++];
+                }
+                System.arraycopy(buffer, from, order, from, to - from);
+            }
+        }
+        return order;
+    }
+
+    /**
+     * Counts the timestamps that are smaller than the one before them.
+     *
+     * @param timestamps The timestamps.
+     * @return The number of out-of-order timestamps.
+     */
+    private static int countOutOfOrder(long[] timestamps) {
+        int outOfOrder = 0;
+        for (int i = 1; i < timestamps.length; i++) {
+            if (timestamps[i] < timestamps[i - 1]) {
+                outOfOrder++;
+            }
+        }
+        return outOfOrder;
+    }
+
+    /**
+     * Builds the tablet of a device. Missing values and values of the wrong type
+     * are marked as null. The tablet keeps the order of the rows, so rows
+     * passed through {@link #sortByTime(List)} give a sorted tablet.
+     *
+     * @param fullPath     The full path of the device.
+     * @param rows         The rows of the tablet.
+     * @param measurements The measurements of the tablet.
+     * @param filePath     The CSV file the rows were read from, for logging.
+     * @return The tablet.
+     */
+    public Tablet createTablet(String fullPath, List<RowData> rows, List<IoTDBMeasurement> measurements,
+            String filePath) {
+        List<MeasurementSchema> schemas = measurements.stream()
+                .map(measurement -> new MeasurementSchema(measurement.getName(), measurement.getDataType(),
+                        measurement.getEncoding(), measurement.getCompression()))
+                .collect(Collectors.toList());
+
+        logger.debug("Creating tablet for path: {}. Rows: {}, Measurements: {}. File: {}",
+                fullPath, rows.size(), measurements.size(), filePath);
+
+        Tablet tablet = new Tablet(fullPath, schemas, rows.size());
+        tablet.initBitMaps();
+
+        for (int i = 0; i < rows.size(); i++) {
+            RowData row = rows.get(i);
+            tablet.addTimestamp(i, row.getTimestamp());
+            for (int column = 0; column < measurements.size(); column++) {
+                IoTDBMeasurement measurement = measurements.get(column);
+                Object value = row.getMeasurements().get(measurement.getName());
+                if (value != null) {
+                    try {
+                        tablet.addValue(measurement.getName(), i, value);
+                    } catch (ClassCastException e) {
+                        logger.error(
+                                "Type mismatch for measurement: {} in row {} for device: {}. File: {}. Expected: {}, Got: {}. Error: {}",
+                                measurement.getName(), i, fullPath, filePath, measurement.getDataType(),
+                                value.getClass().getSimpleName(),
+                                e.getMessage());
+                        tablet.bitMaps[column].mark(i);
+                    }
+                } else {
+                    // Mark the cell as null so IoTDB does not store the default value
+                    tablet.bitMaps[column].mark(i);
+                    logger.debug("Missing value for measurement: {} in row {} for device: {}. File: {}",
+                            measurement.getName(), i, fullPath, filePath);
+                }
+            }
+        }
+
+        tablet.rowSize = rows.size();
+        logger.debug("Tablet created with {} rows for device: {}. File: {}", tablet.rowSize, fullPath, filePath);
+        return tablet;
+    }
+
+    public long getTablets() {
+        return tablets.sum();
+    }
+
+    /**
+     * Gets the number of tablets whose rows had to be sorted.
+     *
+     * @return The number of sorted tablets.
+     */
+    public long getSortedTablets() {
+        return sortedTablets.sum();
+    }
+
+    /**
+     * Gets the IDs of all source rows of the given rows.
+     *
+     * @param rows The rows.
+     * @return The row IDs.
+     */
+    public static List<String> rowIdsOf(List<RowData> rows) {
+        return rows.stream().flatMap(row -> row.getRowIds().stream()).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,148 @@
+package org.kreps.csvtoiotdb.sink;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.iotdb.tsfile.file.metadata.enums.CompressionType;
+import org.apache.iotdb.tsfile.file.metadata.enums.TSDataType;
+import org.apache.iotdb.tsfile.file.metadata.enums.TSEncoding;
+import org.apache.iotdb.tsfile.utils.Binary;
+import org.apache.iotdb.tsfile.write.record.Tablet;
+import org.apache.iotdb.tsfile.write.schema.MeasurementSchema;
+
+/**
+ * Encodes tablets in a compact binary form and decodes them again. A tablet is
+ * written as its device, its measurement schemas, its timestamps and then the
+ * values column by column, each value preceded by a null flag.
+ */
+public final class TabletCodec {
+
+    private TabletCodec() {
+    }
+
+    /**
+     * Encodes a tablet.
+     *
+     * @param tablet The tablet to encode.
+     * @param out    The output to write to.
+     * @throws IOException If the output cannot be written.
+     */
+    public static void encode(Tablet tablet, DataOutput out) throws IOException {
+        List<MeasurementSchema> schemas = tablet.getSchemas();
+        out.writeUTF(tablet.deviceId);
+        out.writeInt(schemas.size());
+        for (MeasurementSchema schema : schemas) {
+            out.writeUTF(schema.getMeasurementId());
+            out.writeUTF(schema.getType().name());
+            out.writeUTF(schema.getEncodingType().name());
+            out.writeUTF(schema.getCompressor().name());
+        }
+        out.writeInt(tablet.rowSize);
+        for (int row = 0; row < tablet.rowSize; row++) {
+            out.writeLong(tablet.timestamps[row]);
+        }
+        for (int column = 0; column < schemas.size(); column++) {
+            TSDataType type = schemas.get(column).getType();
+            for (int row = 0; row < tablet.rowSize; row++) {
+                boolean isNull = tablet.bitMaps != null && tablet.bitMaps[column] != null
+                        && tablet.bitMaps[column].isMarked(row);
+                out.writeBoolean(isNull);
+                if (!isNull) {
+                    writeValue(type, tablet.values[column], row, out);
+                }
+            }
+        }
+    }
+
+    /**
+     * Decodes a tablet written by {@link #encode(Tablet, DataOutput)}.
+     *
+     * @param in The input to read from.
+     * @return The tablet.
+     * @throws IOException If the input cannot be read or is malformed.
+     */
+    public static Tablet decode(DataInput in) throws IOException {
+        String deviceId = in.readUTF();
+        int columns = in.readInt();
+        List<MeasurementSchema> schemas = new ArrayList<>(columns);
+        for (int column = 0; column < columns; column++) {
+            String measurementId = in.readUTF();
+            try {
+                schemas.add(new MeasurementSchema(measurementId, TSDataType.valueOf(in.readUTF()),
+                        TSEncoding.valueOf(in.readUTF()), CompressionType.valueOf(in.readUTF())));
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Unknown schema of measurement: " + measurementId, e);
+            }
+        }
+        int rows = in.readInt();
+        Tablet tablet = new Tablet(deviceId, schemas, Math.max(1, rows));
+        tablet.initBitMaps();
+        for (int row = 0; row < rows; row++) {
+            tablet.addTimestamp(row, in.readLong());
+        }
+        for (int column = 0; column < columns; column++) {
+            MeasurementSchema schema = schemas.get(column);
+            for (int row = 0; row < rows; row++) {
+                if (in.readBoolean()) {
+                    tablet.bitMaps[column].mark(row);
+                } else {
+                    tablet.addValue(schema.getMeasurementId(), row, readValue(schema.getType(), in));
+                }
+            }
+        }
+        tablet.rowSize = rows;
+        return tablet;
+    }
+
+    private static void writeValue(TSDataType type, Object values, int row, DataOutput out) throws IOException {
+        switch (type) {
+            case BOOLEAN:
+                out.writeBoolean(((boolean[]) values)[row]);
+                break;
+            case INT32:
+                out.writeInt(((int[]) values)[row]);
+                break;
+            case INT64:
+                out.writeLong(((long[]) values)[row]);
+                break;
+            case FLOAT:
+                out.writeFloat(((float[]) values)[row]);
+                break;
+            case DOUBLE:
+                out.writeDouble(((double[]) values)[row]);
+                break;
+            case TEXT:
+                byte[] bytes = ((Binary[]) values)[row].getValues();
+                out.writeInt(bytes.length);
+                out.write(bytes);
+                break;
+            default:
+                throw new IOException("Unsupported data type: " + type);
+        }
+    }
+
+    private static Object readValue(TSDataType type, DataInput in) throws IOException {
+        switch (type) {
+            case BOOLEAN:
+                return in.readBoolean();
+            case INT32:
+                return in.readInt();
+            case INT64:
+                return in.readLong();
+            case FLOAT:
+                return in.readFloat();
+            case DOUBLE:
+                return in.readDouble();
+            case TEXT:
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                return new String(bytes, StandardCharsets.UTF_8);
+            default:
+                throw new IOException("Unsupported data type: " + type);
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package org.kreps.csvtoiotdb.sink;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.iotdb.tsfile.write.record.Tablet;
+import org.kreps.csvtoiotdb.H2DatabaseManager;
+import org.kreps.csvtoiotdb.DAO.RowProcessingDAO;
+import org.kreps.csvtoiotdb.DAO.RowProcessingStatus;
+import org.kreps.csvtoiotdb.client.LatencyTracker;
+import org.kreps.csvtoiotdb.configs.iotdb.IoTDBDevice;
+import org.kreps.csvtoiotdb.configs.iotdb.IoTDBMeasurement;
+import org.kreps.csvtoiotdb.converter.RowData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Records the tablets the IoTDB writer would send to a local binary file, in
+ * the format of {@link TabletCodec}. This measures the client side including
+ * tablet construction without IoTDB, and the recording can be inspected or
+ * replayed later. Once the tablets of a batch are flushed to the file, its
+ * rows are marked as completed in one transaction.
+ * <p>
+ * The file starts with {@link #MAGIC} and {@link #VERSION}; every record is an
+ * aligned flag followed by an encoded tablet.
+ */
+public class TabletFileSink implements Sink {
+    private static final Logger logger = LoggerFactory.getLogger(TabletFileSink.class);
+
+    public static final int MAGIC = 0x43544142;
+    public static final int VERSION = 1;
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final String filePath;
+    private final TabletBuilder tabletBuilder;
+    private final DataOutputStream out;
+    private final H2DatabaseManager dbManager;
+    private final RowProcessingDAO rowProcessingDAO;
+    private final LatencyTracker writeLatencies;
+    private long tablets;
+    private long rows;
+
+    /**
+     * Constructs a TabletFileSink instance and creates the recording file.
+     *
+     * @param devices  The configured devices.
+     * @param filePath  The file to record the tablets to. An existing file is
+     *                  overwritten.
+     * @param dbManager The database manager for the row states.
+     * @throws IOException If the file cannot be created.
+     */
+    public TabletFileSink(List<IoTDBDevice> devices, String filePath, H2DatabaseManager dbManager)
+            throws IOException {
+        this.filePath = filePath;
+        this.dbManager = dbManager;
+        this.rowProcessingDAO = new RowProcessingDAO();
+        this.tabletBuilder = new TabletBuilder(devices);
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filePath), BUFFER_SIZE));
+        this.writeLatencies = new LatencyTracker(90);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        logger.info("TabletFileSink recording tablets to {}", filePath);
+    }
+
+    @Override
+    public CompletableFuture<List<String>> writeDataAsync(Map<String, List<RowData>> deviceDataMap,
+            long csvSettingId) {
+        List<String> failedRowIds = new ArrayList<>();
+        List<String> recordedRowIds = new ArrayList<>();
+        for (Map.Entry<String, List<RowData>> entry : deviceDataMap.entrySet()) {
+            String devicePath = entry.getKey();
+            List<RowData> deviceRows = tabletBuilder.sortByTime(entry.getValue());
+            IoTDBDevice device = tabletBuilder.findDevice(devicePath);
+            if (device == null) {
+                logger.warn("No matching IoTDBDevice found for path: {}", devicePath);
+                continue;
+            }
+            try {
+                List<IoTDBMeasurement> measurements = tabletBuilder.resolveMeasurements(device, deviceRows);
+                Tablet tablet = tabletBuilder.createTablet(devicePath, deviceRows, measurements, filePath);
+                record(tablet, Boolean.TRUE.equals(device.getIsAlignedTimeseries()));
+                recordedRowIds.addAll(TabletBuilder.rowIdsOf(deviceRows));
+            } catch (IllegalStateException | IOException e) {
+                logger.error("Failed to record tablet for path: {}. Error: {}", devicePath, e.getMessage(), e);
+                failedRowIds.addAll(TabletBuilder.rowIdsOf(deviceRows));
+            }
+        }
+        if (!recordedRowIds.isEmpty()) {
+            failedRowIds.addAll(markRecorded(recordedRowIds, csvSettingId));
+        }
+        return CompletableFuture.completedFuture(failedRowIds);
+    }
+
+    /**
+     * Flushes the recorded tablets to the file and marks their rows as completed
+     * in one transaction.
+     *
+     * @return The IDs of the rows that could not be marked, all of them if the
+     *         flush or the update failed.
+     */
+    private List<String> markRecorded(List<String> rowIds, long csvSettingId) {
+        try {
+            synchronized (this) {
+                out.flush();
+            }
+        } catch (IOException e) {
+            logger.error("Failed to flush tablet recording: {}. Error: {}", filePath, e.getMessage(), e);
+            return rowIds;
+        }
+        try (Connection conn = dbManager.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                rowProcessingDAO.updateRowStatuses(csvSettingId, rowIds, RowProcessingStatus.COMPLETED, null, conn);
+                conn.commit();
+                return new ArrayList<>();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            logger.error("Failed to mark {} recorded rows as completed. Error: {}", rowIds.size(), e.getMessage(),
+                    e);
+            return rowIds;
+        }
+    }
+
+    private synchronized void record(Tablet tablet, boolean aligned) throws IOException {
+        long start = System.nanoTime();
+        out.writeBoolean(aligned);
+        TabletCodec.encode(tablet, out);
+        writeLatencies.record(System.nanoTime() - start);
+        tablets++;
+        rows += tablet.rowSize;
+    }
+
+    /**
+     * Gets the time it takes to encode and buffer a tablet.
+     *
+     * @return The write latency tracker.
+     */
+    @Override
+    public LatencyTracker getWriteLatencies() {
+        return writeLatencies;
+    }
+
+    @Override
+    public synchronized void flush() {
+        try {
+            out.flush();
+        } catch (IOException e) {
+            logger.error("Failed to flush tablet recording: {}. Error: {}", filePath, e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public synchronized void logStats() {
+        logger.info("Tablet file sink - {} tablets with {} rows recorded to {}", tablets, rows, filePath);
+    }
+
+    public synchronized long getTablets() {
+        return tablets;
+    }
+
+    public synchronized long getRows() {
+        return rows;
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            out.close();
+        } catch (IOException e) {
+            logger.error("Failed to close tablet recording: {}. Error: {}", filePath, e.getMessage(), e);
+        }
+        logStats();
+    }
+}
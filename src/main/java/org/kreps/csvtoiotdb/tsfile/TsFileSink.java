@@ -0,0 +1,451 @@
+package org.kreps.csvtoiotdb.tsfile;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import org.apache.iotdb.rpc.IoTDBConnectionException;
+import org.apache.iotdb.rpc.StatementExecutionException;
+import org.apache.iotdb.tsfile.exception.write.WriteProcessException;
+import org.apache.iotdb.tsfile.read.common.Path;
+import org.apache.iotdb.tsfile.write.TsFileWriter;
+import org.apache.iotdb.tsfile.write.record.Tablet;
+import org.apache.iotdb.tsfile.write.schema.MeasurementSchema;
+import org.kreps.csvtoiotdb.H2DatabaseManager;
+import org.kreps.csvtoiotdb.IoTDBClientManager;
+import org.kreps.csvtoiotdb.DAO.RowProcessingDAO;
+import org.kreps.csvtoiotdb.DAO.RowProcessingStatus;
+import org.kreps.csvtoiotdb.DAO.TsFileStatus;
+import org.kreps.csvtoiotdb.DAO.TsFilesDAO;
+import org.kreps.csvtoiotdb.client.LatencyTracker;
+import org.kreps.csvtoiotdb.configs.iotdb.IoTDBDevice;
+import org.kreps.csvtoiotdb.configs.iotdb.IoTDBMeasurement;
+import org.kreps.csvtoiotdb.converter.RowData;
+import org.kreps.csvtoiotdb.sink.Sink;
+import org.kreps.csvtoiotdb.sink.TabletBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes converted rows to local TsFiles instead of sending them to IoTDB.
+ * Rows are buffered per device; once the buffer holds the configured number of
+ * rows it is sealed into a TsFile, with the rows of every device sorted by
+ * time, as the TsFile format requires. Sealed files are recorded in the
+ * {@code tsfiles} table and, with auto-load, handed to IoTDB with a
+ * {@code LOAD} statement. Otherwise they are left in the output directory for
+ * operators to load.
+ */
+public class TsFileSink implements Sink {
+    private static final Logger logger = LoggerFactory.getLogger(TsFileSink.class);
+
+    private static final int DEFAULT_MAX_ROWS = 1_000_000;
+    private static final int TABLET_ROWS = 10_000;
+    private static final String TSFILE_SUFFIX = ".tsfile";
+    private static final String TEMP_SUFFIX = ".writing";
+
+    private final TabletBuilder tabletBuilder;
+    private final File directory;
+    private final int maxRows;
+    private final IoTDBClientManager clientManager;
+    private final H2DatabaseManager dbManager;
+    private final RowProcessingDAO rowProcessingDAO;
+    private final TsFilesDAO tsFilesDAO;
+    private final ExecutorService sealExecutor;
+    private final Object flushLock;
+    private final AtomicLong fileVersion;
+    private final AtomicLong filesWritten;
+    private final AtomicLong rowsWritten;
+    private final AtomicLong filesLoaded;
+    private Map<String, DeviceBuffer> buffers;
+    private List<PendingWrite> pendingWrites;
+    private int bufferedRows;
+    private CompletableFuture<Void> lastSeal;
+
+    /**
+     * Constructs a TsFileSink instance.
+     *
+     * @param devices       The configured devices.
+     * @param directory     The directory the TsFiles are written to.
+     * @param maxRows       The number of rows per TsFile. Uses the default of
+     *                      1000000 if not positive.
+     * @param clientManager The client manager used to load sealed files, or
+     *                      null to leave them in the directory.
+     * @param dbManager     The database manager for the file and row states.
+     * @throws IOException If the directory cannot be created.
+     */
+    public TsFileSink(List<IoTDBDevice> devices, String directory, int maxRows, IoTDBClientManager clientManager,
+            H2DatabaseManager dbManager) throws IOException {
+        this.tabletBuilder = new TabletBuilder(devices);
+        this.directory = new File(directory);
+        Files.createDirectories(this.directory.toPath());
+        this.maxRows = maxRows > 0 ? maxRows : DEFAULT_MAX_ROWS;
+        this.clientManager = clientManager;
+        this.dbManager = dbManager;
+        this.rowProcessingDAO = new RowProcessingDAO();
+        this.tsFilesDAO = new TsFilesDAO();
+        this.flushLock = new Object();
+        this.sealExecutor = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "tsfile-writer"));
+        this.fileVersion = new AtomicLong();
+        this.filesWritten = new AtomicLong();
+        this.rowsWritten = new AtomicLong();
+        this.filesLoaded = new AtomicLong();
+        this.buffers = new HashMap<>();
+        this.pendingWrites = new ArrayList<>();
+        this.lastSeal = CompletableFuture.completedFuture(null);
+        logger.info("TsFileSink writing to {} with {} rows per file, auto-load: {}", this.directory.getAbsolutePath(),
+                this.maxRows, clientManager != null);
+    }
+
+    /**
+     * Buffers the rows of a batch. Once the buffer is full it is sealed into a
+     * TsFile in the background; the call only waits if the previous file is
+     * still being written. No schema is validated, every TsFile carries the
+     * schema of its devices.
+     *
+     * @return A future completing with the IDs of the rows that could not be
+     *         written, once the files holding the rows are sealed.
+     */
+    @Override
+    public CompletableFuture<List<String>> writeDataAsync(Map<String, List<RowData>> deviceDataMap,
+            long csvSettingId) {
+        List<CompletableFuture<List<String>>> deviceWrites = new ArrayList<>(deviceDataMap.size());
+        for (Map.Entry<String, List<RowData>> entry : deviceDataMap.entrySet()) {
+            String devicePath = entry.getKey();
+            List<RowData> rows = entry.getValue();
+            IoTDBDevice device = tabletBuilder.findDevice(devicePath);
+            if (device == null) {
+                logger.warn("No matching IoTDBDevice found for path: {}", devicePath);
+                continue;
+            }
+            try {
+                deviceWrites.add(write(devicePath, Boolean.TRUE.equals(device.getIsAlignedTimeseries()),
+                        tabletBuilder.resolveMeasurements(device, rows), rows, csvSettingId));
+            } catch (IllegalStateException e) {
+                logger.error("Failed to buffer rows for path: {}. Error: {}", devicePath, e.getMessage());
+                deviceWrites.add(CompletableFuture.completedFuture(TabletBuilder.rowIdsOf(rows)));
+            }
+        }
+        return CompletableFuture.allOf(deviceWrites.toArray(new CompletableFuture<?>[0]))
+                .thenApply(ignored -> deviceWrites.stream()
+                        .flatMap(deviceWrite -> deviceWrite.join().stream())
+                        .collect(Collectors.toList()));
+    }
+
+    private CompletableFuture<List<String>> write(String devicePath, boolean aligned,
+            List<IoTDBMeasurement> measurements, List<RowData> rows, long csvSettingId) {
+        CompletableFuture<List<String>> written = new CompletableFuture<>();
+        boolean full;
+        synchronized (this) {
+            DeviceBuffer buffer = buffers.computeIfAbsent(devicePath, path -> new DeviceBuffer(aligned));
+            for (IoTDBMeasurement measurement : measurements) {
+                buffer.schemas.putIfAbsent(measurement.getName(), new MeasurementSchema(measurement.getName(),
+                        measurement.getDataType(), measurement.getEncoding(), measurement.getCompression()));
+            }
+            buffer.rows.addAll(rows);
+            pendingWrites.add(new PendingWrite(csvSettingId, TabletBuilder.rowIdsOf(rows), written));
+            bufferedRows += rows.size();
+            full = bufferedRows >= maxRows;
+        }
+        if (full) {
+            seal();
+        }
+        return written;
+    }
+
+    /**
+     * Seals the buffered rows into a TsFile, waiting for the previous file to be
+     * sealed first so that at most one buffer is held besides the one filling up.
+     *
+     * @return A future completing once the file is sealed and recorded.
+     */
+    public CompletableFuture<Void> seal() {
+        // Writers keep filling the next buffer while a flush waits for the previous seal
+        synchronized (flushLock) {
+            Map<String, DeviceBuffer> sealedBuffers;
+            List<PendingWrite> sealedWrites;
+            synchronized (this) {
+                if (pendingWrites.isEmpty()) {
+                    return lastSeal;
+                }
+                sealedBuffers = buffers;
+                sealedWrites = pendingWrites;
+                buffers = new HashMap<>();
+                pendingWrites = new ArrayList<>();
+                bufferedRows = 0;
+            }
+            lastSeal.join();
+            lastSeal = CompletableFuture.runAsync(() -> sealFile(sealedBuffers, sealedWrites), sealExecutor);
+            return lastSeal;
+        }
+    }
+
+    private void sealFile(Map<String, DeviceBuffer> sealedBuffers, List<PendingWrite> sealedWrites) {
+        File file = new File(directory,
+                System.currentTimeMillis() + "-" + fileVersion.incrementAndGet() + "-0-0" + TSFILE_SUFFIX);
+        long rows;
+        try {
+            rows = writeTsFile(file, sealedBuffers);
+        } catch (IOException | WriteProcessException | RuntimeException e) {
+            logger.error("Failed to write TsFile: {}. Error: {}", file.getAbsolutePath(), e.getMessage(), e);
+            for (PendingWrite pendingWrite : sealedWrites) {
+                pendingWrite.written.complete(pendingWrite.rowIds);
+            }
+            return;
+        }
+
+        long tsFileId;
+        try {
+            tsFileId = recordTsFile(file, sealedBuffers.size(), rows, sealedWrites);
+        } catch (SQLException e) {
+            // The file is complete, but its rows were not marked, so they are written again on the next run
+            logger.error("Failed to record TsFile: {}. Error: {}", file.getAbsolutePath(), e.getMessage(), e);
+            for (PendingWrite pendingWrite : sealedWrites) {
+                pendingWrite.written.complete(pendingWrite.rowIds);
+            }
+            return;
+        }
+        filesWritten.incrementAndGet();
+        rowsWritten.addAndGet(rows);
+        logger.info("Sealed TsFile: {} with {} rows of {} devices", file.getAbsolutePath(), rows,
+                sealedBuffers.size());
+        for (PendingWrite pendingWrite : sealedWrites) {
+            pendingWrite.written.complete(new ArrayList<>());
+        }
+
+        if (clientManager != null) {
+            load(tsFileId, file);
+        }
+    }
+
+    /**
+     * Writes the buffered devices to a TsFile, in device order and with the rows
+     * of every device sorted by time. Rows sharing a timestamp are merged, the
+     * later value of a measurement wins.
+     *
+     * @return The number of rows written.
+     */
+    private long writeTsFile(File file, Map<String, DeviceBuffer> sealedBuffers)
+            throws IOException, WriteProcessException {
+        File tempFile = new File(file.getPath() + TEMP_SUFFIX);
+        long rows = 0;
+        try (TsFileWriter tsFileWriter = new TsFileWriter(tempFile)) {
+            for (Map.Entry<String, DeviceBuffer> entry : new TreeMap<>(sealedBuffers).entrySet()) {
+                String devicePath = entry.getKey();
+                DeviceBuffer buffer = entry.getValue();
+                List<MeasurementSchema> schemas = new ArrayList<>(buffer.schemas.values());
+                if (buffer.aligned) {
+                    tsFileWriter.registerAlignedTimeseries(new Path(devicePath), schemas);
+                } else {
+                    for (MeasurementSchema schema : schemas) {
+                        tsFileWriter.registerTimeseries(new Path(devicePath), schema);
+                    }
+                }
+
+                List<RowData> sorted = sortAndMerge(buffer.rows);
+                for (int from = 0; from < sorted.size(); from += TABLET_ROWS) {
+                    Tablet tablet = createTablet(devicePath, schemas,
+                            sorted.subList(from, Math.min(from + TABLET_ROWS, sorted.size())));
+                    if (buffer.aligned) {
+                        tsFileWriter.writeAligned(tablet);
+                    } else {
+                        tsFileWriter.write(tablet);
+                    }
+                }
+                rows += sorted.size();
+            }
+        } catch (IOException | WriteProcessException | RuntimeException e) {
+            Files.deleteIfExists(tempFile.toPath());
+            throw e;
+        }
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        return rows;
+    }
+
+    private static List<RowData> sortAndMerge(List<RowData> rows) {
+        List<RowData> sorted = new ArrayList<>(rows);
+        sorted.sort(Comparator.comparingLong(RowData::getTimestamp));
+        List<RowData> merged = new ArrayList<>(sorted.size());
+        for (RowData row : sorted) {
+            RowData last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+            if (last != null && last.getTimestamp() == row.getTimestamp()) {
+                last.merge(row);
+            } else {
+                merged.add(row);
+            }
+        }
+        return merged;
+    }
+
+    private static Tablet createTablet(String devicePath, List<MeasurementSchema> schemas, List<RowData> rows) {
+        Tablet tablet = new Tablet(devicePath, schemas, rows.size());
+        tablet.initBitMaps();
+        for (int i = 0; i < rows.size(); i++) {
+            RowData row = rows.get(i);
+            tablet.addTimestamp(i, row.getTimestamp());
+            for (int column = 0; column < schemas.size(); column++) {
+                String measurement = schemas.get(column).getMeasurementId();
+                Object value = row.getMeasurements().get(measurement);
+                if (value == null) {
+                    tablet.bitMaps[column].mark(i);
+                    continue;
+                }
+                try {
+                    tablet.addValue(measurement, i, value);
+                } catch (ClassCastException e) {
+                    logger.warn("Type mismatch for measurement: {} of device: {} at {}. Got: {}", measurement,
+                            devicePath, row.getTimestamp(), value.getClass().getSimpleName());
+                    tablet.bitMaps[column].mark(i);
+                }
+            }
+        }
+        tablet.rowSize = rows.size();
+        return tablet;
+    }
+
+    private long recordTsFile(File file, int devices, long rows, List<PendingWrite> sealedWrites)
+            throws SQLException {
+        Map<Long, List<String>> rowIdsByCsvSetting = new LinkedHashMap<>();
+        for (PendingWrite pendingWrite : sealedWrites) {
+            rowIdsByCsvSetting.computeIfAbsent(pendingWrite.csvSettingId, id -> new ArrayList<>())
+                    .addAll(pendingWrite.rowIds);
+        }
+        try (Connection conn = dbManager.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                long tsFileId = tsFilesDAO.insertTsFile(file.getAbsolutePath(), devices, rows, conn);
+                for (Map.Entry<Long, List<String>> entry : rowIdsByCsvSetting.entrySet()) {
+                    rowProcessingDAO.updateRowStatuses(entry.getKey(), entry.getValue(),
+                            RowProcessingStatus.COMPLETED, null, conn);
+                }
+                conn.commit();
+                return tsFileId;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        }
+    }
+
+    private void load(long tsFileId, File file) {
+        // The path is resolved by the DataNode, so the directory must be reachable from the server
+        String sql = "LOAD '" + file.getAbsolutePath().replace("'", "\\'") + "'";
+        TsFileStatus status;
+        String errorMessage = null;
+        try {
+            clientManager.execute(session -> {
+                session.executeNonQueryStatement(sql);
+                return null;
+            });
+            status = TsFileStatus.LOADED;
+            filesLoaded.incrementAndGet();
+            logger.info("Loaded TsFile: {}", file.getAbsolutePath());
+        } catch (IoTDBConnectionException | StatementExecutionException e) {
+            status = TsFileStatus.LOAD_FAILED;
+            errorMessage = e.getMessage();
+            logger.error("Failed to load TsFile: {}. It is left in place for a manual load. Error: {}",
+                    file.getAbsolutePath(), e.getMessage(), e);
+        }
+        try (Connection conn = dbManager.getConnection()) {
+            tsFilesDAO.updateStatus(tsFileId, status, errorMessage, conn);
+        } catch (SQLException e) {
+            logger.error("Failed to update status of TsFile: {}. Error: {}", file.getAbsolutePath(), e.getMessage(),
+                    e);
+        }
+    }
+
+    @Override
+    public void flush() {
+        seal();
+    }
+
+    /**
+     * Has no write latency, rows are only buffered.
+     *
+     * @return null.
+     */
+    @Override
+    public LatencyTracker getWriteLatencies() {
+        return null;
+    }
+
+    @Override
+    public void logStats() {
+        logger.info("TsFiles - {} rows buffered, {} files with {} rows sealed, {} loaded", getBufferedRows(),
+                filesWritten.get(), rowsWritten.get(), filesLoaded.get());
+    }
+
+    public long getFilesWritten() {
+        return filesWritten.get();
+    }
+
+    public long getRowsWritten() {
+        return rowsWritten.get();
+    }
+
+    public long getFilesLoaded() {
+        return filesLoaded.get();
+    }
+
+    public synchronized int getBufferedRows() {
+        return bufferedRows;
+    }
+
+    /**
+     * Seals the remaining rows and stops the writer thread.
+     */
+    @Override
+    public void close() {
+        seal().join();
+        sealExecutor.shutdown();
+        try {
+            if (!sealExecutor.awaitTermination(60, TimeUnit.SECONDS)) {
+                logger.warn("TsFile writer did not terminate in time");
+            }
+        } catch (InterruptedException e) {
+            sealExecutor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        logger.info("TsFileSink closed. {} files with {} rows written, {} loaded", filesWritten.get(),
+                rowsWritten.get(), filesLoaded.get());
+    }
+
+    private static class DeviceBuffer {
+        private final boolean aligned;
+        private final Map<String, MeasurementSchema> schemas;
+        private final List<RowData> rows;
+
+        private DeviceBuffer(boolean aligned) {
+            this.aligned = aligned;
+            this.schemas = new LinkedHashMap<>();
+            this.rows = new ArrayList<>();
+        }
+    }
+
+    private static class PendingWrite {
+        private final long csvSettingId;
+        private final List<String> rowIds;
+        private final CompletableFuture<List<String>> written;
+
+        private PendingWrite(long csvSettingId, List<String> rowIds, CompletableFuture<List<String>> written) {
+            this.csvSettingId = csvSettingId;
+            this.rowIds = rowIds;
+            this.written = written;
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package org.kreps.csvtoiotdb;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.Connection;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.kreps.csvtoiotdb.DAO.CsvSettingsDAO;
+import org.kreps.csvtoiotdb.DAO.RowProcessingDAO;
+import org.kreps.csvtoiotdb.DAO.RowProcessingStatus;
+import org.kreps.csvtoiotdb.client.FakeIoTDB;
+import org.kreps.csvtoiotdb.configs.iotdb.IoTDBSettings;
+import org.kreps.csvtoiotdb.converter.RowData;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Writes batches end to end through the IoTDB writer to the in-process fake
+ * IoTDB, with injected errors, and checks the row states left in H2.
+ */
+class IoTDBWriterTest {
+    private static final String DEVICE = "root.test.d1";
+    private static final int ROWS = 400;
+    private static final AtomicInteger files = new AtomicInteger();
+
+    @BeforeAll
+    static void initializeDatabase() {
+        TestDatabase.initialize();
+    }
+
+    @Test
+    void retriesDropsAndRejectionsUntilEveryRowIsWritten() throws Exception {
+        IoTDBSettings settings = settings("\"connectionDropRate\": 0.2, \"rejectionRate\": 0.2, \"seed\": 11");
+        long csvSettingId = insertPendingRows();
+
+        IoTDBClientManager clientManager = new IoTDBClientManager(settings);
+        List<String> failedRowIds = write(clientManager, settings, csvSettingId);
+        FakeIoTDB fakeServer = clientManager.getFakeServer();
+        clientManager.close();
+
+        assertTrue(failedRowIds.isEmpty(), "Failed rows: " + failedRowIds);
+        assertTrue(fakeServer.getConnectionDrops() + fakeServer.getOverloadRejections() > 0);
+        assertEquals(ROWS, fakeServer.getRows());
+        RowProcessingDAO rowProcessingDAO = new RowProcessingDAO();
+        for (int row = 0; row < ROWS; row++) {
+            assertEquals(RowProcessingStatus.COMPLETED, rowProcessingDAO.getRowStatus(csvSettingId, rowId(row)));
+        }
+    }
+
+    @Test
+    void failsOnlyTheRowsRejectedForTheirData() throws Exception {
+        IoTDBSettings settings = settings("\"dataRejectionRate\": 0.02, \"seed\": 42");
+        long csvSettingId = insertPendingRows();
+
+        IoTDBClientManager clientManager = new IoTDBClientManager(settings);
+        List<String> failedRowIds = write(clientManager, settings, csvSettingId);
+        FakeIoTDB fakeServer = clientManager.getFakeServer();
+        clientManager.close();
+
+        Set<String> expectedFailed = new HashSet<>();
+        for (int row = 0; row < ROWS; row++) {
+            if (fakeServer.rejectsRow(DEVICE, timestamp(row))) {
+                expectedFailed.add(rowId(row));
+            }
+        }
+        assertFalse(expectedFailed.isEmpty());
+        assertEquals(expectedFailed, new HashSet<>(failedRowIds));
+        assertEquals(ROWS - expectedFailed.size(), fakeServer.getRows());
+        RowProcessingDAO rowProcessingDAO = new RowProcessingDAO();
+        for (int row = 0; row < ROWS; row++) {
+            RowProcessingStatus expected = expectedFailed.contains(rowId(row)) ? RowProcessingStatus.FAILED
+                    : RowProcessingStatus.COMPLETED;
+            assertEquals(expected, rowProcessingDAO.getRowStatus(csvSettingId, rowId(row)), rowId(row));
+        }
+    }
+
+    @Test
+    void writesUnjoinedBatchesOfOneDeviceWhileTabletsWaitForRetries() throws Exception {
+        IoTDBSettings settings = settings("\"rejectionRate\": 0.5, \"seed\": 7");
+        long csvSettingId = insertPendingRows();
+
+        IoTDBClientManager clientManager = new IoTDBClientManager(settings);
+        IoTDBSchemaValidator schemaValidator = new IoTDBSchemaValidator(clientManager);
+        schemaValidator.validateAndCreateTimeseriesForDevices(settings.getDevices());
+        // Two slots, so tablets queued behind a retrying tablet of the same device hold every slot
+        IoTDBWriter writer = newWriter(clientManager, schemaValidator, settings, 2);
+        try {
+            // Submitting blocks while all slots are taken, so a deadlock hangs the submission as well
+            assertTimeoutPreemptively(Duration.ofSeconds(60), () -> {
+                List<CompletableFuture<List<String>>> writes = new ArrayList<>();
+                for (int start = 0; start < ROWS; start += 20) {
+                    writes.add(writer.writeDataAsync(deviceData(start, start + 20), csvSettingId));
+                }
+                for (CompletableFuture<List<String>> write : writes) {
+                    assertTrue(write.join().isEmpty());
+                }
+            });
+        } finally {
+            writer.close();
+            schemaValidator.close();
+            clientManager.close();
+        }
+        RowProcessingDAO rowProcessingDAO = new RowProcessingDAO();
+        for (int row = 0; row < ROWS; row++) {
+            assertEquals(RowProcessingStatus.COMPLETED, rowProcessingDAO.getRowStatus(csvSettingId, rowId(row)));
+        }
+    }
+
+    /**
+     * Builds settings for two fake nodes without hedging, as a hedged duplicate
+     * that also succeeds would count its rows twice in the fake's statistics.
+     */
+    private static IoTDBSettings settings(String fakeServer) throws Exception {
+        String json = "{"
+                + "\"connectionPoolSize\": 2, \"maxRetries\": 30, \"retryInterval\": 1, \"maxBackoffTime\": 5,"
+                + "\"circuitBreakerFailureThreshold\": 100000,"
+                + "\"connections\": ["
+                + "{\"host\": \"node1\", \"port\": 6667, \"username\": \"root\", \"password\": \"root\"},"
+                + "{\"host\": \"node2\", \"port\": 6667, \"username\": \"root\", \"password\": \"root\"}],"
+                + "\"devices\": [{\"deviceId\": \"" + DEVICE + "\", \"isAlignedTimeseries\": true,"
+                + "\"measurements\": [{\"name\": \"value\", \"dataType\": \"DOUBLE\", \"joinKey\": \"value\","
+                + "\"encoding\": \"GORILLA\", \"compression\": \"SNAPPY\"}]}],"
+                + "\"fakeServer\": {\"meanLatencyMillis\": 1, " + fakeServer + "}}";
+        return new ObjectMapper().readValue(json, IoTDBSettings.class);
+    }
+
+    private static List<String> write(IoTDBClientManager clientManager, IoTDBSettings settings, long csvSettingId)
+            throws Exception {
+        IoTDBSchemaValidator schemaValidator = new IoTDBSchemaValidator(clientManager);
+        schemaValidator.validateAndCreateTimeseriesForDevices(settings.getDevices());
+        IoTDBWriter writer = newWriter(clientManager, schemaValidator, settings, 8);
+        try {
+            // Several batches of the same device, so tablets of one device are written in order
+            List<String> failedRowIds = new ArrayList<>();
+            for (int start = 0; start < ROWS; start += 100) {
+                failedRowIds.addAll(writer.writeDataAsync(deviceData(start, start + 100), csvSettingId).join());
+            }
+            return failedRowIds;
+        } finally {
+            writer.close();
+            schemaValidator.close();
+        }
+    }
+
+    private static IoTDBWriter newWriter(IoTDBClientManager clientManager, IoTDBSchemaValidator schemaValidator,
+            IoTDBSettings settings, int maxInFlightTablets) throws Exception {
+        return new IoTDBWriter(clientManager, schemaValidator, settings.getDevices(), settings.getMaxRetries(),
+                settings.getRetryInterval(), settings.getMaxBackoffTime(), 4, maxInFlightTablets, false, 0, 0, null,
+                H2DatabaseManager.getInstance());
+    }
+
+    private static Map<String, List<RowData>> deviceData(int start, int end) {
+        List<RowData> rows = new ArrayList<>();
+        for (int row = start; row < end; row++) {
+            Map<String, Object> measurements = new HashMap<>();
+            measurements.put("value", row * 0.5);
+            rows.add(new RowData(rowId(row), row, timestamp(row), measurements));
+        }
+        Map<String, List<RowData>> deviceDataMap = new HashMap<>();
+        deviceDataMap.put(DEVICE, rows);
+        return deviceDataMap;
+    }
+
+    private static long insertPendingRows() throws Exception {
+        RowProcessingDAO rowProcessingDAO = new RowProcessingDAO();
+        try (Connection conn = H2DatabaseManager.getInstance().getConnection()) {
+            long csvSettingId = new CsvSettingsDAO().insertCsvSetting("test-" + files.incrementAndGet() + ".csv",
+                    conn);
+            for (int row = 0; row < ROWS; row++) {
+                rowProcessingDAO.insertRowProcessing(csvSettingId, rowId(row), row, RowProcessingStatus.PENDING,
+                        conn);
+            }
+            return csvSettingId;
+        }
+    }
+
+    private static String rowId(int row) {
+        return "row-" + row;
+    }
+
+    private static long timestamp(int row) {
+        return 1_700_000_000_000L + row * 1000L;
+    }
+}
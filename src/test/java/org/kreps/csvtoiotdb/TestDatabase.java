@@ -0,0 +1,21 @@
+package org.kreps.csvtoiotdb;
+
+import org.kreps.csvtoiotdb.configs.H2Config;
+
+/**
+ * Initializes the in-memory H2 database shared by the tests of one run, since
+ * the database manager can be initialized only once per JVM.
+ */
+public final class TestDatabase {
+    private static boolean initialized;
+
+    private TestDatabase() {
+    }
+
+    public static synchronized void initialize() {
+        if (!initialized) {
+            H2DatabaseManager.initialize(new H2Config("jdbc:h2:mem:test;DB_CLOSE_DELAY=-1", "sa", "", false, 0));
+            initialized = true;
+        }
+    }
+}
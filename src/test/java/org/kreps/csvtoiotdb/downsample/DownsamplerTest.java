@@ -0,0 +1,91 @@
+package org.kreps.csvtoiotdb.downsample;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.kreps.csvtoiotdb.configs.iotdb.IoTDBDevice;
+import org.kreps.csvtoiotdb.converter.RowData;
+import org.kreps.csvtoiotdb.sink.TabletBuilder;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Checks that the source rows of downsampled buckets are settled by the
+ * outcome of the aggregate writes, and that late rows fail.
+ */
+class DownsamplerTest {
+    private static final String DEVICE = "root.test.d1";
+
+    @Test
+    void completesConsumedRowsOnlyOnceTheirAggregateIsWritten() throws Exception {
+        Downsampler downsampler = new Downsampler(devices(), 1);
+        List<String> aggregateIds = new ArrayList<>();
+        List<String> lateRowIds = new ArrayList<>();
+
+        // Rows a and b share a bucket, row c opens the next one and closes the first
+        Map<String, List<RowData>> written = downsampler.apply(batch(row("a", 0), row("b", 500), row("c", 1000)),
+                1, aggregateIds, lateRowIds, new ArrayList<>());
+
+        assertEquals(1, aggregateIds.size());
+        assertTrue(lateRowIds.isEmpty());
+        assertEquals(aggregateIds, TabletBuilder.rowIdsOf(written.get(DEVICE)));
+        SettledRows settled = downsampler.settle(aggregateIds, Set.of());
+        assertEquals(Map.of(1L, List.of("a", "b")), settled.getCompletedRowIds());
+        assertTrue(settled.getFailedRowIds().isEmpty());
+    }
+
+    @Test
+    void failsSourceRowsOfAggregatesThatCouldNotBeWritten() throws Exception {
+        Downsampler downsampler = new Downsampler(devices(), 1);
+        List<String> aggregateIds = new ArrayList<>();
+        downsampler.apply(batch(row("a", 0), row("c", 1000)), 1, aggregateIds, new ArrayList<>(), new ArrayList<>());
+
+        SettledRows settled = downsampler.settle(aggregateIds, Set.copyOf(aggregateIds));
+        assertTrue(settled.getCompletedRowIds().isEmpty());
+        assertEquals(Map.of(1L, List.of("a")), settled.getFailedRowIds());
+    }
+
+    @Test
+    void failsLateRowsAndSettlesTheOpenBucketsOnFlush() throws Exception {
+        Downsampler downsampler = new Downsampler(devices(), 1);
+        List<String> aggregateIds = new ArrayList<>();
+        downsampler.apply(batch(row("a", 0), row("c", 1000)), 1, aggregateIds, new ArrayList<>(), new ArrayList<>());
+
+        // Row b of another file arrives after the bucket of row a was emitted
+        List<String> lateRowIds = new ArrayList<>();
+        downsampler.apply(batch(row("b", 500)), 2, aggregateIds, lateRowIds, new ArrayList<>());
+        assertEquals(List.of("b"), lateRowIds);
+
+        List<String> flushedIds = TabletBuilder.rowIdsOf(downsampler.flush().get(2L).get(DEVICE));
+        assertEquals(1, flushedIds.size());
+        assertEquals(Map.of(1L, List.of("c")), downsampler.settle(flushedIds, Set.of()).getCompletedRowIds());
+    }
+
+    private static List<IoTDBDevice> devices() throws Exception {
+        String json = "[{\"deviceId\": \"" + DEVICE + "\", \"isAlignedTimeseries\": true,"
+                + "\"measurements\": [{\"name\": \"value\", \"dataType\": \"DOUBLE\", \"joinKey\": \"value\","
+                + "\"downsampling\": {\"bucketSize\": 1000, \"functions\": [\"AVG\", \"COUNT\"]}}]}]";
+        return new ObjectMapper().readValue(json, new TypeReference<List<IoTDBDevice>>() {
+        });
+    }
+
+    private static Map<String, List<RowData>> batch(RowData... rows) {
+        Map<String, List<RowData>> deviceDataMap = new HashMap<>();
+        deviceDataMap.put(DEVICE, new ArrayList<>(List.of(rows)));
+        return deviceDataMap;
+    }
+
+    private static RowData row(String rowId, long timestamp) {
+        Map<String, Object> measurements = new HashMap<>();
+        measurements.put("value", 1.0);
+        return new RowData(rowId, 0, timestamp, measurements);
+    }
+}
@@ -0,0 +1,128 @@
+package org.kreps.csvtoiotdb.merge;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.kreps.csvtoiotdb.CSVReader;
+import org.kreps.csvtoiotdb.H2DatabaseManager;
+import org.kreps.csvtoiotdb.TestDatabase;
+import org.kreps.csvtoiotdb.DAO.CsvSettingsDAO;
+import org.kreps.csvtoiotdb.configs.csv.CsvSettings;
+import org.kreps.csvtoiotdb.pipeline.FileContext;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Merges CSV files read from a temporary directory and checks the order of the
+ * merged rows and the files handed out as finished.
+ */
+class TimeMergerTest {
+    private static final int FILES = 5;
+    private static final int ROWS_PER_FILE = 3;
+
+    @TempDir
+    Path directory;
+
+    @BeforeAll
+    static void initializeDatabase() {
+        TestDatabase.initialize();
+    }
+
+    @Test
+    void mergesGroupsOfMoreFilesThanARoundHoldsRows() throws Exception {
+        // Rounds hold fewer rows than the group has files, the chunks are kept at the minimum size
+        int roundRows = 2;
+        TimeMerger merger = new TimeMerger(Math.max(TimeMerger.MIN_CHUNK_ROWS, roundRows / FILES));
+        List<CSVReader> readers = new ArrayList<>();
+        for (int file = 0; file < FILES; file++) {
+            StringBuilder csv = new StringBuilder("Timestamp,Value\n");
+            for (int row = 0; row < ROWS_PER_FILE; row++) {
+                csv.append(row * FILES + file).append(",1.0\n");
+            }
+            readers.add(addSource(merger, "file-" + file + ".csv", csv.toString(), "TIME"));
+        }
+
+        List<Long> timestamps = new ArrayList<>();
+        List<TimeMerger.MergeSource> finished = new ArrayList<>();
+        while (!merger.isDone()) {
+            Map<FileContext, List<Map<String, Object>>> round = merger.nextRound(roundRows);
+            assertTrue(round.values().stream().mapToInt(List::size).sum() <= roundRows);
+            round.values().forEach(rows -> rows.forEach(row -> timestamps.add((Long) row.get("timestamp"))));
+            finished.addAll(merger.takeFinished());
+        }
+        closeAll(readers);
+
+        assertEquals(FILES * ROWS_PER_FILE, timestamps.size());
+        for (int i = 0; i < timestamps.size(); i++) {
+            assertEquals(i * 1000L, timestamps.get(i));
+        }
+        assertEquals(FILES, finished.size());
+        finished.forEach(source -> assertNull(source.getError()));
+    }
+
+    @Test
+    void failsOnlyTheFileWithANonNumericTimestamp() throws Exception {
+        TimeMerger merger = new TimeMerger(TimeMerger.MIN_CHUNK_ROWS);
+        List<CSVReader> readers = new ArrayList<>();
+        readers.add(addSource(merger, "numeric.csv", "Timestamp,Value\n1,1.0\n2,1.0\n", "TIME"));
+        readers.add(addSource(merger, "text.csv", "Timestamp,Value\nnoon,1.0\n", "STRING"));
+
+        List<TimeMerger.MergeSource> finished = new ArrayList<>(merger.takeFinished());
+        int rows = 0;
+        while (!merger.isDone()) {
+            rows += merger.nextRound(10).values().stream().mapToInt(List::size).sum();
+            finished.addAll(merger.takeFinished());
+        }
+        closeAll(readers);
+
+        assertEquals(2, rows);
+        Map<String, Exception> errors = new HashMap<>();
+        finished.forEach(source -> errors.put(Path.of(source.getFile().getFilePath()).getFileName().toString(),
+                source.getError()));
+        assertEquals(2, errors.size());
+        assertNull(errors.get("numeric.csv"));
+        assertNotNull(errors.get("text.csv"));
+    }
+
+    private CSVReader addSource(TimeMerger merger, String fileName, String content, String timestampType)
+            throws Exception {
+        Path file = directory.resolve(fileName);
+        Files.writeString(file, content);
+        String filePath = file.toString();
+        long csvSettingId;
+        try (Connection conn = H2DatabaseManager.getInstance().getConnection()) {
+            csvSettingId = new CsvSettingsDAO().insertCsvSetting(filePath, conn);
+        }
+        CSVReader reader = new CSVReader(csvSettings(filePath, timestampType), filePath, 1,
+                H2DatabaseManager.getInstance());
+        merger.addSource(new FileContext(csvSettingId, filePath, 0), reader);
+        return reader;
+    }
+
+    private static CsvSettings csvSettings(String filePath, String timestampType) throws Exception {
+        String json = "{\"filePaths\": [\"" + filePath.replace("\\", "\\\\") + "\"],"
+                + "\"timestampColumn\": {\"name\": \"Timestamp\", \"type\": \"" + timestampType + "\","
+                + "\"timeFormatType\": \"UNIX\"},"
+                + "\"columns\": [{\"name\": \"Value\", \"type\": \"DOUBLE\", \"joinKey\": \"value\"}]}";
+        return new ObjectMapper().readValue(json, CsvSettings.class);
+    }
+
+    private static void closeAll(List<CSVReader> readers) throws Exception {
+        for (CSVReader reader : readers) {
+            reader.close();
+        }
+    }
+}
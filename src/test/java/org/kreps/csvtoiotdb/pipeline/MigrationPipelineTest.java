@@ -0,0 +1,107 @@
+package org.kreps.csvtoiotdb.pipeline;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.kreps.csvtoiotdb.Converter;
+import org.kreps.csvtoiotdb.H2DatabaseManager;
+import org.kreps.csvtoiotdb.TestDatabase;
+import org.kreps.csvtoiotdb.DAO.CsvSettingsDAO;
+import org.kreps.csvtoiotdb.DAO.CsvStatus;
+import org.kreps.csvtoiotdb.DAO.JobsDAO;
+import org.kreps.csvtoiotdb.DAO.RowProcessingDAO;
+import org.kreps.csvtoiotdb.DAO.RowProcessingStatus;
+import org.kreps.csvtoiotdb.configs.MigrationSettings;
+import org.kreps.csvtoiotdb.configs.csv.CsvSettings;
+import org.kreps.csvtoiotdb.configs.iotdb.IoTDBSettings;
+import org.kreps.csvtoiotdb.downsample.Downsampler;
+import org.kreps.csvtoiotdb.sink.NullSink;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Runs batches through the pipeline into the null sink and checks the file and
+ * row states left in H2.
+ */
+class MigrationPipelineTest {
+    private static final String FILE = "downsampled.csv";
+
+    @BeforeAll
+    static void initializeDatabase() {
+        TestDatabase.initialize();
+    }
+
+    @Test
+    void completesAFileOnlyOnceItsOpenBucketsAreWritten() throws Exception {
+        H2DatabaseManager dbManager = H2DatabaseManager.getInstance();
+        IoTDBSettings settings = new ObjectMapper().readValue("{\"devices\": [{\"deviceId\": \"root.test.d1\","
+                + "\"isAlignedTimeseries\": true, \"measurements\": [{\"name\": \"value\", \"dataType\": \"DOUBLE\","
+                + "\"joinKey\": \"value\", \"downsampling\": {\"bucketSize\": 1000, \"functions\": [\"AVG\"]}}]}]}",
+                IoTDBSettings.class);
+        CsvSettings csvSettings = new ObjectMapper().readValue("{\"filePaths\": [\"" + FILE + "\"],"
+                + "\"timestampColumn\": {\"name\": \"Timestamp\", \"type\": \"TIME\", \"timeFormatType\": \"UNIX\"},"
+                + "\"columns\": [{\"name\": \"Value\", \"type\": \"DOUBLE\", \"joinKey\": \"value\"}]}",
+                CsvSettings.class);
+        CsvSettingsDAO csvSettingsDAO = new CsvSettingsDAO();
+        RowProcessingDAO rowProcessingDAO = new RowProcessingDAO();
+        FileContext file;
+        try (Connection conn = dbManager.getConnection()) {
+            long csvSettingId = csvSettingsDAO.insertCsvSetting(FILE, conn);
+            csvSettingsDAO.updateStatus(csvSettingId, CsvStatus.IN_PROGRESS, conn);
+            file = new FileContext(csvSettingId, FILE, new JobsDAO().createJob(csvSettingId, conn));
+            for (int row = 1; row <= 2; row++) {
+                rowProcessingDAO.insertRowProcessing(csvSettingId, rowId(row), row, RowProcessingStatus.PENDING,
+                        conn);
+            }
+        }
+
+        MigrationPipeline pipeline = new MigrationPipeline(
+                new Converter(settings, List.of(csvSettings), dbManager),
+                new Downsampler(settings.getDevices(), 1), new NullSink(dbManager),
+                new MigrationSettings(1, 10, 0, 0), dbManager);
+        try {
+            // Both rows go into the same bucket, which stays open after the file has been written
+            List<Map<String, Object>> rows = new ArrayList<>();
+            rows.add(row(1, 0));
+            rows.add(row(2, 500));
+            pipeline.submit(file, rows);
+            pipeline.completeReading(file);
+            file.getCompletion().get(30, TimeUnit.SECONDS);
+
+            assertEquals(CsvStatus.IN_PROGRESS, csvSettingsDAO.getStatus(file.getCsvSettingId()));
+            assertEquals(0, csvSettingsDAO.getProcessedRows(file.getCsvSettingId()));
+            assertEquals(RowProcessingStatus.PROCESSING, rowProcessingDAO.getRowStatus(file.getCsvSettingId(),
+                    rowId(1)));
+        } finally {
+            pipeline.close();
+        }
+
+        assertEquals(CsvStatus.COMPLETED, csvSettingsDAO.getStatus(file.getCsvSettingId()));
+        assertEquals(2, csvSettingsDAO.getProcessedRows(file.getCsvSettingId()));
+        for (int row = 1; row <= 2; row++) {
+            assertEquals(RowProcessingStatus.COMPLETED, rowProcessingDAO.getRowStatus(file.getCsvSettingId(),
+                    rowId(row)));
+        }
+    }
+
+    private static Map<String, Object> row(int rowNumber, long timestamp) {
+        Map<String, Object> row = new HashMap<>();
+        row.put("row_id", rowId(rowNumber));
+        row.put("row_number", rowNumber);
+        row.put("timestamp", timestamp);
+        row.put("value", 1.0);
+        return row;
+    }
+
+    private static String rowId(int rowNumber) {
+        return "row-" + rowNumber;
+    }
+}
@@ -0,0 +1,76 @@
+package org.kreps.csvtoiotdb.resume;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.iotdb.tsfile.file.metadata.enums.TSDataType;
+import org.apache.iotdb.tsfile.write.record.Tablet;
+import org.apache.iotdb.tsfile.write.schema.MeasurementSchema;
+import org.junit.jupiter.api.Test;
+import org.kreps.csvtoiotdb.IoTDBClientManager;
+import org.kreps.csvtoiotdb.configs.iotdb.IoTDBSettings;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Checks which parsed rows the watermarks loaded from the fake IoTDB drop.
+ */
+class WatermarkIndexTest {
+    private static final String DEVICE = "root.test.plant";
+
+    @Test
+    void checksRowsOfPivotedDevicesAgainstTheWatermarkOfTheirTag() throws Exception {
+        IoTDBSettings settings = settings();
+        IoTDBClientManager clientManager = new IoTDBClientManager(settings);
+        try {
+            // Tag PT_2 lags behind tag PT_1
+            write(clientManager, "PT_1", 2000);
+            write(clientManager, "PT_2", 1000);
+            WatermarkIndex watermarks = new WatermarkIndex(clientManager, settings.getDevices(), false);
+
+            assertTrue(watermarks.isCovered(row(1500, "PT_1")));
+            assertFalse(watermarks.isCovered(row(1500, "PT_2")));
+            assertTrue(watermarks.isCovered(row(1000, "PT_2")));
+            assertFalse(watermarks.isCovered(row(1000, "PT_3")));
+            assertEquals(2, watermarks.getSkippedRows());
+        } finally {
+            clientManager.close();
+        }
+    }
+
+    private static IoTDBSettings settings() throws Exception {
+        String json = "{"
+                + "\"connections\": [{\"host\": \"node1\", \"port\": 6667, \"username\": \"root\", \"password\": \"root\"}],"
+                + "\"devices\": [{\"deviceId\": \"" + DEVICE + "\", \"isAlignedTimeseries\": true,"
+                + "\"pathColumn\": \"tag\", \"isPivotMode\": true,"
+                + "\"measurements\": [{\"name\": \"value\", \"dataType\": \"DOUBLE\", \"joinKey\": \"value\"}]}],"
+                + "\"fakeServer\": {\"meanLatencyMillis\": 0, \"seed\": 1}}";
+        return new ObjectMapper().readValue(json, IoTDBSettings.class);
+    }
+
+    private static void write(IoTDBClientManager clientManager, String tag, long lastTime) throws Exception {
+        Tablet tablet = new Tablet(DEVICE, List.of(new MeasurementSchema(tag, TSDataType.DOUBLE)), 2);
+        for (long timestamp = lastTime - 500; timestamp <= lastTime; timestamp += 500) {
+            int row = tablet.rowSize++;
+            tablet.addTimestamp(row, timestamp);
+            tablet.addValue(tag, row, 1.0);
+        }
+        clientManager.execute(session -> {
+            session.insertAlignedTablet(tablet);
+            return null;
+        });
+    }
+
+    private static Map<String, Object> row(long timestamp, String tag) {
+        Map<String, Object> row = new HashMap<>();
+        row.put("timestamp", timestamp);
+        row.put("tag", tag);
+        row.put("value", 1.0);
+        return row;
+    }
+}